@@ -1,18 +1,41 @@
 package com.github.sqrlserverjava;
 
-import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+import com.github.sqrlserverjava.persistence.SqrlCorrelatorStatusChange;
 import com.github.sqrlserverjava.util.SelfExpiringHashMap;
 
+/**
+ * Periodically checks monitored correlators for status changes and pushes them to the browser.
+ * <p>
+ * Correlators are checked directly only on the first run after they are added; after that, changes are picked up by
+ * reading the correlator status change log from the last sequence processed, so the cost of each run does not depend
+ * on how many browsers are waiting. If the persistence has no change log, such as
+ * {@link com.github.sqrlserverjava.persistence.SqrlShardedPersistence}, every monitored correlator is checked
+ * directly on each run instead
+ *
+ * @author Dave Badia
+ *
+ */
 public class AuthStateMonitor implements Runnable {
 	private static final Logger logger = LoggerFactory.getLogger(AuthStateMonitor.class);
 
+	static final int	CHANGE_LOG_BATCH_SIZE		= 1000;
+	/**
+	 * How long to wait for a missing sequence to appear in the change log. Sequences are allocated before commit, so a
+	 * gap is usually a transaction which has not committed yet; if it never appears it was rolled back
+	 */
+	static final long	CHANGE_LOG_GAP_TIMEOUT_MILLIS	= TimeUnit.SECONDS.toMillis(30);
+
 	private final SqrlClientAuthStateUpdater			clientAuthStateUpdater;
 	private final SqrlServerOperations					sqrlServerOperations;
 	/**
@@ -20,6 +43,17 @@ public class AuthStateMonitor implements Runnable {
 	 * reported by the browser. Entries in this table expire automatically
 	 */
 	private final Map<String, SqrlAuthenticationStatus>	monitorTable;
+	/**
+	 * Correlators added since the last run, these are checked directly since their changes may predate
+	 * {@link #lastSequence}
+	 */
+	private final Set<String>							newlyMonitoredSet	= ConcurrentHashMap.newKeySet();
+
+	// Only accessed from run(), which the executor never invokes concurrently
+	private boolean	sequenceInitialized	= false;
+	private long	lastSequence		= 0;
+	private long	gapFirstSeenMillis	= 0;
+	private boolean	changeLogSupported	= true;
 
 	public AuthStateMonitor(final SqrlConfig sqrlConfig, final SqrlServerOperations sqrlServerOperations,
 			final SqrlClientAuthStateUpdater clientAuthStateUpdater) {
@@ -41,6 +75,7 @@ public class AuthStateMonitor implements Runnable {
 	public void monitorCorrelatorForChange(final String correlatorString,
 			final SqrlAuthenticationStatus browserStatus) {
 		monitorTable.put(correlatorString, browserStatus);
+		newlyMonitoredSet.add(correlatorString);
 	}
 
 	public void stopMonitoringCorrelator(final String correlatorString) {
@@ -54,13 +89,39 @@ public class AuthStateMonitor implements Runnable {
 	@Override
 	public void run() {
 		try {
+			// Always read the change log, even when idle, so we never have to catch up on a backlog
+			final Map<String, SqrlAuthenticationStatus> latestChangeTable = readChangeLog();
 			if (monitorTable.isEmpty()) {
+				newlyMonitoredSet.clear();
 				return;
 			}
 
 			// Map<String=correlator,...
-			final Map<String, SqrlAuthenticationStatus> statusChangedTable = sqrlServerOperations
-					.fetchSqrlCorrelatorStatusUpdates(Collections.unmodifiableMap(monitorTable));
+			final Map<String, SqrlAuthenticationStatus> statusChangedTable = new HashMap<>();
+			final Map<String, SqrlAuthenticationStatus> newlyMonitoredTable = new HashMap<>();
+			if (changeLogSupported) {
+				for (final String correlator : newlyMonitoredSet) {
+					newlyMonitoredSet.remove(correlator);
+					final SqrlAuthenticationStatus browserStatus = monitorTable.get(correlator);
+					if (browserStatus != null) {
+						newlyMonitoredTable.put(correlator, browserStatus);
+					}
+				}
+			} else {
+				newlyMonitoredSet.clear();
+				newlyMonitoredTable.putAll(monitorTable);
+			}
+			if (!newlyMonitoredTable.isEmpty()) {
+				statusChangedTable.putAll(sqrlServerOperations.fetchSqrlCorrelatorStatusUpdates(newlyMonitoredTable));
+			}
+			for (final Map.Entry<String, SqrlAuthenticationStatus> entry : latestChangeTable.entrySet()) {
+				final SqrlAuthenticationStatus browserStatus = monitorTable.get(entry.getKey());
+				// If we are in the end state (isAuthComplete), always return the result
+				if (browserStatus != null && (entry.getValue().isAuthComplete() || browserStatus != entry.getValue())) {
+					statusChangedTable.put(entry.getKey(), entry.getValue());
+				}
+			}
+
 			logger.debug("SQRL statusChangedTable={}", statusChangedTable);
 			for (final Map.Entry<String, SqrlAuthenticationStatus> entry : statusChangedTable.entrySet()) {
 				final String correlator = entry.getKey();
@@ -70,6 +131,10 @@ public class AuthStateMonitor implements Runnable {
 					oldStatus = monitorTable.remove(correlator);
 				} else {
 					oldStatus = monitorTable.get(correlator);
+					if (!changeLogSupported && oldStatus != null) {
+						// Without a change log, the next run compares against this status so it isn't pushed twice
+						monitorTable.put(correlator, newState);
+					}
 				}
 				if (oldStatus == null) {
 					logger.error("Extracted null oldStatus from monitorTable for correlator {}", correlator);
@@ -81,4 +146,63 @@ public class AuthStateMonitor implements Runnable {
 			logger.error("Caught exception in SqrlAuthMonitor.run()", t);
 		}
 	}
+
+	/**
+	 * Reads all change log entries after {@link #lastSequence} and advances it as far as the log is known to be
+	 * complete. Entries after a gap are returned but will be read again until the gap is filled or times out
+	 *
+	 * @return the latest status of each correlator which changed
+	 */
+	private Map<String, SqrlAuthenticationStatus> readChangeLog() {
+		final Map<String, SqrlAuthenticationStatus> latestChangeTable = new HashMap<>();
+		List<SqrlCorrelatorStatusChange> changeList;
+		if (!changeLogSupported) {
+			return latestChangeTable;
+		}
+		do {
+			try {
+				changeList = sqrlServerOperations.fetchSqrlCorrelatorStatusChangesSince(lastSequence,
+						CHANGE_LOG_BATCH_SIZE);
+			} catch (final UnsupportedOperationException e) {
+				logger.info("process=authStateMonitor detail=\"Change log not supported, polling each correlator: {}\"",
+						e.getMessage());
+				changeLogSupported = false;
+				return latestChangeTable;
+			}
+			if (changeList.isEmpty()) {
+				break;
+			}
+			if (!sequenceInitialized) {
+				// Anything before the oldest entry has expired, start from there
+				lastSequence = changeList.get(0).getSequence() - 1;
+				sequenceInitialized = true;
+			}
+			long contiguousSequence = lastSequence;
+			long highestSequence = lastSequence;
+			for (final SqrlCorrelatorStatusChange change : changeList) {
+				// Ordered by sequence so the last one for a correlator wins
+				latestChangeTable.put(change.getCorrelator(), change.getAuthenticationStatus());
+				if (change.getSequence() == contiguousSequence + 1 && contiguousSequence == highestSequence) {
+					contiguousSequence = change.getSequence();
+				}
+				highestSequence = change.getSequence();
+			}
+			if (contiguousSequence == highestSequence) {
+				gapFirstSeenMillis = 0;
+				lastSequence = highestSequence;
+			} else if (gapFirstSeenMillis == 0) {
+				gapFirstSeenMillis = System.currentTimeMillis();
+				lastSequence = contiguousSequence;
+				break;
+			} else if (System.currentTimeMillis() - gapFirstSeenMillis > CHANGE_LOG_GAP_TIMEOUT_MILLIS) {
+				logger.debug("Skipping change log gap after sequence {}", contiguousSequence);
+				gapFirstSeenMillis = 0;
+				lastSequence = highestSequence;
+			} else {
+				lastSequence = contiguousSequence;
+				break;
+			}
+		} while (changeList.size() == CHANGE_LOG_BATCH_SIZE);
+		return latestChangeTable;
+	}
 }
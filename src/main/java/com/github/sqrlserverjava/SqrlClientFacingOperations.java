@@ -41,6 +41,7 @@ import com.github.sqrlserverjava.backchannel.SqrlClientRequestProcessor;
 import com.github.sqrlserverjava.backchannel.SqrlTifFlag;
 import com.github.sqrlserverjava.backchannel.SqrlTifResponse;
 import com.github.sqrlserverjava.backchannel.SqrlTifResponse.SqrlTifResponseBuilder;
+import com.github.sqrlserverjava.backchannel.nut.SqrlNutReplayFilter;
 import com.github.sqrlserverjava.backchannel.nut.SqrlNutToken0;
 import com.github.sqrlserverjava.backchannel.nut.SqrlNutTokenFactory;
 import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
@@ -51,6 +52,7 @@ import com.github.sqrlserverjava.enums.SqrlServerSideKey;
 import com.github.sqrlserverjava.exception.SqrlClientRequestProcessingException;
 import com.github.sqrlserverjava.exception.SqrlException;
 import com.github.sqrlserverjava.exception.SqrlInvalidRequestException;
+import com.github.sqrlserverjava.exception.SqrlServerBusyException;
 import com.github.sqrlserverjava.persistence.SqrlAutoCloseablePersistence;
 import com.github.sqrlserverjava.persistence.SqrlCorrelator;
 import com.github.sqrlserverjava.util.SqrlConstants;
@@ -68,7 +70,7 @@ public class SqrlClientFacingOperations {
 	private final SqrlConfig config;
 	private final SqrlConfigOperations configOperations;
 	private final SqrlPersistenceFactory persistenceFactory;
-
+	private final SqrlNutReplayFilter nutReplayFilter;
 
 	public SqrlClientFacingOperations(final SqrlConfig config, final SqrlConfigOperations configOperations) {
 		if (config == null) {
@@ -77,6 +79,7 @@ public class SqrlClientFacingOperations {
 		this.config = config;
 		this.configOperations = configOperations;
 		this.persistenceFactory = configOperations.getSqrlPersistenceFactory();
+		this.nutReplayFilter = new SqrlNutReplayFilter(config.getNutValidityInSeconds());
 	}
 
 	private SqrlAutoCloseablePersistence createSqrlPersistence() {
@@ -108,35 +111,65 @@ public class SqrlClientFacingOperations {
 			SqrlInternalUserState sqrlInternalUserState = SqrlInternalUserState.NONE_EXIST;
 			String requestState = "invalid";
 			SqrlClientRequest sqrlClientRequest = null;
-			// Per the spec, SQRL transactions are atomic; so we create our persistence here and only commit after all
-			// processing is completed successfully
-			SqrlPersistence sqrlPersistence = createSqrlPersistence();
-			Exception exception = null;
+			String serverReplyString = ""; // for logging
+			SqrlTifResponse tif = null;
+			// Per the spec, SQRL transactions are atomic; so processing, building the reply and storing the server
+			// parrot share one unit of work which is only committed after all processing is completed successfully.
+			// It is created after the CPU bound validation so no connection is held while that runs
+			SqrlPersistence sqrlPersistence = null;
 			try {
 				// Get the correlator first. Then, if the request is invalid, we can update the auth page saying so
 				correlator = SqrlClientRequest.parseCorrelatorOnly(servletRequest);
 				setLoggingField(COR, correlator);
-				sqrlClientRequest = new SqrlClientRequest(servletRequest, sqrlPersistence, configOperations);
-				final SqrlClientRequestProcessor processor = new SqrlClientRequestProcessor(sqrlClientRequest,
-						sqrlPersistence, config);
+				// Decoding, nut decryption and signature validation, on the crypto worker pool when it is enabled
+				sqrlClientRequest = configOperations.getCryptoWorkerPool()
+						.execute(() -> new SqrlClientRequest(servletRequest, configOperations));
 
 				setLoggingField(CLIENT_COMMAND, sqrlClientRequest.getClientCommand().toString());
 				setLoggingField(PROTOCOL_VERSION, sqrlClientRequest.getNegotiatedSqrlProtocolVersion());
 
+				final Date nutExpiry = validateNutNotExpiredOrReplayed(sqrlClientRequest.getNut(), config);
+
+				sqrlPersistence = createSqrlPersistence();
+				sqrlClientRequest.validateServerParrot(sqrlPersistence);
 				validateIpsMatch(sqrlClientRequest.getNut(), servletRequest, tifBuilder, sqrlClientRequest);
-				validateNut(correlator, sqrlClientRequest.getNut(), config, sqrlPersistence);
+				// Mark the token as used since we will process this request, fails if it has been replayed
+				sqrlPersistence.markTokenAsUsed(sqrlClientRequest.getNut().asEncryptedBase64(), nutExpiry);
+				final SqrlClientRequestProcessor processor = new SqrlClientRequestProcessor(sqrlClientRequest,
+						sqrlPersistence, config);
 				sqrlInternalUserState = processor.processClientCommand();
 				if (sqrlInternalUserState == IDK_EXISTS) {
 					tifBuilder.addFlag(SqrlTifFlag.CURRENT_ID_MATCH);
 				} else if (sqrlInternalUserState == PIDK_EXISTS) {
 					tifBuilder.addFlag(SqrlTifFlag.PREVIOUS_ID_MATCH);
 				}
+				tif = tifBuilder.createTif();
+				serverReplyString = buildReplyAndUpdateCorrelator(servletRequest, sqrlClientRequest, tif, correlator,
+						sqrlInternalUserState, null, sqrlPersistence);
+				sqrlPersistence.closeCommit();
+				nutReplayFilter.add(sqrlClientRequest.getNut().asEncryptedBase64(),
+						sqrlClientRequest.getNut().computeExpiresAt(config));
 				servletResponse.setStatus(HttpServletResponse.SC_OK);
 				requestState = "OK";
-				sqrlPersistence.closeCommit();
+			} catch (final SqrlServerBusyException e) {
+				// Fail fast: the request was not processed, so there is nothing to roll back or record on the
+				// correlator, and persistence is not touched while we are overloaded
+				logger.warn(formatForLogging("Rejected SQRL request: {}"), e.getMessage());
+				requestState = "busy";
+				tifBuilder.clearAllFlags().addFlag(SqrlTifFlag.COMMAND_FAILED).addFlag(e.getTifToAdd());
+				servletResponse.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+				try {
+					tif = tifBuilder.createTif();
+					serverReplyString = buildReply(servletRequest, null, tif, null, sqrlInternalUserState, true, null);
+				} catch (final SqrlException | RuntimeException e2) {
+					logger.error(formatForLogging("Error sending SQRL reply, response not sent", "requestState",
+							requestState), e2);
+					return;
+				}
 			} catch (final SqrlException | RuntimeException e) {
-				exception = e;
-				sqrlPersistence.closeRollback();
+				if (sqrlPersistence != null && !sqrlPersistence.isClosed()) {
+					sqrlPersistence.closeRollback();
+				}
 				tifBuilder.clearAllFlags().addFlag(SqrlTifFlag.COMMAND_FAILED);
 				if (e instanceof SqrlClientRequestProcessingException) {
 					tifBuilder.addFlag(((SqrlClientRequestProcessingException) e).getTifToAdd());
@@ -148,53 +181,27 @@ public class SqrlClientFacingOperations {
 				// but 404 is for page not found. We leave the use of 404 for an actual page not found condition and use
 				// 500 here
 				servletResponse.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-			}
 
-			// We have processed the request, success or failure. Now prep and transmit the reply
-			String serverReplyString = ""; // for logging
-			sqrlPersistence = persistenceFactory.createSqrlPersistence();
-			try {
-				final SqrlTifResponse tif = tifBuilder.createTif();
-				final boolean isInErrorState = exception != null;
-				final SqrlCorrelator sqrlCorrelator = sqrlPersistence.fetchSqrlCorrelatorRequired(correlator);
-				serverReplyString = buildReply(servletRequest, sqrlClientRequest, tif, sqrlCorrelator,
-						sqrlInternalUserState, isInErrorState);
-				// Don't use AutoClosable here, we will handle it ourselves
-				if (isInErrorState || sqrlInternalUserState == DISABLED) {
-					tifBuilder.addFlag(SqrlTifFlag.COMMAND_FAILED);
-					// update the correlator with the proper error state
-					SqrlAuthenticationStatus authErrorState = SqrlAuthenticationStatus.ERROR_SQRL_INTERNAL;
-					if (exception instanceof SqrlInvalidRequestException) {
-						authErrorState = SqrlAuthenticationStatus.ERROR_BAD_REQUEST;
-					} else if (sqrlInternalUserState == DISABLED) {
-						authErrorState = SqrlAuthenticationStatus.SQRL_USER_DISABLED;
-					}
-					sqrlCorrelator.setAuthenticationStatus(authErrorState);
-					// There should be no further requests so remove the parrot value
-					if (sqrlCorrelator.getTransientAuthDataTable()
-							.remove(SqrlConstants.TRANSIENT_NAME_SERVER_PARROT) == null) {
-						logger.warn(formatForLogging(
-								"Tried to remove server parrot since we are in error state but it doesn't exist"));
-					}
-				} else {
-					// Store the serverReplyString in the server parrot value so we can validate it on the clients next
-					// request
-					sqrlCorrelator.getTransientAuthDataTable().put(SqrlConstants.TRANSIENT_NAME_SERVER_PARROT,
-							serverReplyString);
+				// Processing was rolled back, record the error state in a new unit of work
+				sqrlPersistence = createSqrlPersistence();
+				try {
+					tif = tifBuilder.createTif();
+					serverReplyString = buildReplyAndUpdateCorrelator(servletRequest, sqrlClientRequest, tif,
+							correlator, sqrlInternalUserState, e, sqrlPersistence);
+					sqrlPersistence.closeCommit();
+				} catch (final SqrlException | RuntimeException e2) {
+					sqrlPersistence.closeRollback();
+					logger.error(formatForLogging("Error sending SQRL reply, response not sent", "requestState",
+							requestState, "responseNotSent",
+							SqrlUtil.base64UrlDecodeToStringOrErrorMessage(serverReplyString)), e2);
+					return;
 				}
-				sqrlPersistence.closeCommit();
-				transmitReplyToSqrlClient(servletResponse, serverReplyString);
-				logger.info(formatForLogging("SQRL client request processing complete"), "requestState", requestState,
-						"tif",
-						tif.toHexStringWith0x(), "serverReplyString",
-						SqrlUtil.base64UrlDecodeToStringOrErrorMessage(serverReplyString), paramsForLogging);
-			} catch (final SqrlException | RuntimeException e) {
-				sqrlPersistence.closeRollback();
-				logger.error(
-						formatForLogging("Error sending SQRL reply, response not sent", "requestState", requestState,
-								"responseNotSent", SqrlUtil.base64UrlDecodeToStringOrErrorMessage(serverReplyString)),
-						e);
 			}
+			// The unit of work is closed, now transmit the reply
+			transmitReplyToSqrlClient(servletResponse, serverReplyString);
+			logger.info(formatForLogging("SQRL client request processing complete"), "requestState", requestState,
+					"tif", tif.toHexStringWith0x(), "serverReplyString",
+					SqrlUtil.base64UrlDecodeToStringOrErrorMessage(serverReplyString), paramsForLogging);
 		} finally {
 			LoggingUtil.cleanup();
 		}
@@ -203,12 +210,15 @@ public class SqrlClientFacingOperations {
 	/**
 	 * Validates the {@link SqrlNutToken0} from the {@link SqrlClientRequest} by:<br/>
 	 * <li>1. check the timestamp embedded in the Nut has expired
-	 * <li>2. call {@link SqrlPersistence} to see if the Nut has been replayed
+	 * <li>2. check the {@link SqrlNutReplayFilter} for Nuts this node has already processed
+	 * <p>
+	 * Neither needs persistence, the Nut is marked as used in persistence once the unit of work is created
 	 * 
+	 * @return the time at which the Nut expires
 	 * @throws SqrlClientRequestProcessingException
-	 *             if any validation fails or if persistence fails
+	 *             if any validation fails, {@link SqrlInvalidRequestException} if the Nut was replayed
 	 */
-	private void validateNut(final String correlator, final SqrlNutToken0 nut, final SqrlConfig config, final SqrlPersistence sqrlPersistence)
+	private Date validateNutNotExpiredOrReplayed(final SqrlNutToken0 nut, final SqrlConfig config)
 			throws SqrlClientRequestProcessingException {
 		final long nutExpiryMs = nut.computeExpiresAt(config);
 		final long now = System.currentTimeMillis();
@@ -222,14 +232,54 @@ public class SqrlClientFacingOperations {
 					"ms, nut timetamp ms=TODO, expiry is set to ",
 					Long.toString(config.getNutValidityInSeconds()), " seconds");
 		}
-		// Mark the token as used since we will process this request
-		sqrlPersistence.markTokenAsUsed(nut.asEncryptedBase64(), nutExpiry);
+		if (nutReplayFilter.contains(nut.asEncryptedBase64())) {
+			throw new SqrlInvalidRequestException("Nut token has already been used");
+		}
+		return nutExpiry;
+	}
+
+	/**
+	 * Builds the reply and updates the correlator with the result of this request: the new server parrot on success,
+	 * or the error state
+	 *
+	 * @param exception
+	 *            the exception which caused processing to fail, or null if it succeeded
+	 */
+	private String buildReplyAndUpdateCorrelator(final HttpServletRequest servletRequest,
+			final SqrlClientRequest sqrlClientRequest, final SqrlTifResponse tif, final String correlator,
+			final SqrlInternalUserState sqrlInternalUserState, final Exception exception,
+			final SqrlPersistence sqrlPersistence) throws SqrlException {
+		final boolean isInErrorState = exception != null;
+		final SqrlCorrelator sqrlCorrelator = sqrlPersistence.fetchSqrlCorrelatorRequired(correlator);
+		final String serverReplyString = buildReply(servletRequest, sqrlClientRequest, tif, sqrlCorrelator,
+				sqrlInternalUserState, isInErrorState, sqrlPersistence);
+		if (isInErrorState || sqrlInternalUserState == DISABLED) {
+			// update the correlator with the proper error state
+			SqrlAuthenticationStatus authErrorState = SqrlAuthenticationStatus.ERROR_SQRL_INTERNAL;
+			if (exception instanceof SqrlInvalidRequestException) {
+				authErrorState = SqrlAuthenticationStatus.ERROR_BAD_REQUEST;
+			} else if (sqrlInternalUserState == DISABLED) {
+				authErrorState = SqrlAuthenticationStatus.SQRL_USER_DISABLED;
+			}
+			sqrlCorrelator.setAuthenticationStatus(authErrorState);
+			// There should be no further requests so remove the parrot value
+			if (sqrlCorrelator.getTransientAuthDataTable()
+					.remove(SqrlConstants.TRANSIENT_NAME_SERVER_PARROT) == null) {
+				logger.warn(formatForLogging(
+						"Tried to remove server parrot since we are in error state but it doesn't exist"));
+			}
+		} else {
+			// Store the serverReplyString in the server parrot value so we can validate it on the clients next
+			// request
+			sqrlCorrelator.getTransientAuthDataTable().put(SqrlConstants.TRANSIENT_NAME_SERVER_PARROT,
+					serverReplyString);
+		}
+		return serverReplyString;
 	}
 
 	private String buildReply(final HttpServletRequest servletRequest, final SqrlClientRequest sqrlRequest,
 			final SqrlTifResponse tif, final SqrlCorrelator sqrlCorrelator, final SqrlInternalUserState sqrlInternalUserState,
-			final boolean isInErrorState) throws SqrlException {
-		final SqrlPersistence sqrlPersistence = createSqrlPersistence();
+			final boolean isInErrorState, final SqrlPersistence sqrlPersistence) throws SqrlException {
 		try {
 			final URI sqrlServerUrl = new URI(servletRequest.getRequestURL().toString());
 			final String subsequentRequestPath = configOperations.getSubsequentRequestPath(servletRequest);
@@ -253,10 +303,8 @@ public class SqrlClientFacingOperations {
 
 			final String serverReplyString = reply.toBase64();
 			logger.debug(formatForLogging("Build serverReplyString: {}"), serverReplyString);
-			sqrlPersistence.closeCommit();
 			return serverReplyString;
 		} catch (final URISyntaxException e) {
-			sqrlPersistence.closeRollback();
 			throw new SqrlException(e,
 					"Error converting servletRequest.getRequestURL() to URI.  servletRequest.getRequestURL()=",
 					servletRequest.getRequestURL());
@@ -119,11 +119,22 @@ public class SqrlConfig {
 	 * The SQRL persistence provider class which implements {@link SqrlPersistenceFactory}
 	 * 
 	 * Default: {@link SqrlJpaPersistenceFactory}
+	 * 
+	 * @see com.github.sqrlserverjava.persistence.SqrlInMemoryPersistenceFactory
 	 */
 	private String sqrlPersistenceFactoryClass = "com.github.sqrlserverjava.persistence.SqrlJpaPersistenceFactory";
 
 	/**
-	 * The frequency with which to execute {@link SqrlPersistence#cleanUpExpiredEntries()} via {@link java.util.Timer};
+	 * A ready made {@link SqrlPersistenceFactory} instance, for factories which need constructor arguments such as a
+	 * {@link javax.sql.DataSource}. Takes precedence over {@link #sqrlPersistenceFactoryClass}. Can only be set via
+	 * setter, not by config file
+	 * 
+	 * @see #setSqrlPersistenceFactory(SqrlPersistenceFactory)
+	 */
+	private SqrlPersistenceFactory sqrlPersistenceFactory;
+
+	/**
+	 * The frequency with which to execute {@link SqrlPersistence#cleanUpExpiredEntries(int)} via {@link java.util.Timer};
 	 * Default: 15. 
 	 * 
 	 * If an alternate cleanup mechanism is in use (DB stored procedure, etc), this should be set to -1
@@ -131,6 +142,68 @@ public class SqrlConfig {
 	 */
 	private int cleanupTaskExecInMinutes = 15;
 
+	/**
+	 * The maximum number of rows of each kind the cleanup task deletes in a single unit of work, keeping lock hold
+	 * times short after a traffic spike; Default: 1000
+	 */
+	private int cleanupBatchSize = 1000;
+
+	/**
+	 * The maximum time a single run of the cleanup task may spend deleting batches, anything left is deleted on the
+	 * next run; Default: 60
+	 */
+	private int cleanupTimeBudgetInSeconds = 60;
+
+	/**
+	 * When using JPA persistence, capture the creation stack of 1 in this many EntityManager instances so a leaked
+	 * one can be traced to its caller. 1 captures every stack, 0 none. Only applies to the JPA factory created from
+	 * this config, a factory instance given to {@link #setSqrlPersistenceFactory(SqrlPersistenceFactory)} takes the
+	 * rate as a constructor argument instead; Default: 100
+	 */
+	private int entityManagerCreationStackSampleRate = 100;
+
+	/**
+	 * The number of decoded ED25519 public keys (idk) to keep so a returning user's signature verification skips
+	 * decoding the key again. Each takes a few KB, 0 disables the cache; Default: 1000
+	 */
+	private int ed25519PublicKeyCacheSize = 1000;
+
+	/**
+	 * When greater than 0, signatures from concurrent SQRL client requests are verified together as a batch, which
+	 * costs less per signature than verifying them one at a time. This is the longest a signature waits for others to
+	 * join its batch, so also the most latency batching adds to each signature check. 0 disables batching; Default: 0
+	 */
+	private long ed25519BatchWindowInMillis = 0;
+
+	/**
+	 * When batching is enabled, a batch with this many signatures is checked without waiting for the rest of
+	 * {@link #ed25519BatchWindowInMillis}; Default: 64
+	 */
+	private int ed25519BatchMaxSize = 64;
+
+	/**
+	 * The class which implements {@link SqrlSignatureVerifier} to verify the signatures sent by SQRL clients.
+	 * {@link com.github.sqrlserverjava.util.SqrlJdkEd25519Verifier} uses the JRE's own Ed25519 support, which requires
+	 * Java 15 or later. Batching with {@link #ed25519BatchWindowInMillis} is only available with the default verifier
+	 * 
+	 * Default: {@link com.github.sqrlserverjava.util.SqrlEd25519Verifier}
+	 */
+	private String signatureVerifierClass = "com.github.sqrlserverjava.util.SqrlEd25519Verifier";
+
+	/**
+	 * When greater than 0, the CPU bound validation of SQRL client requests (decoding, nut decryption and signature
+	 * verification) runs on this many worker threads instead of the servlet container's request thread, which bounds
+	 * the CPU a flood of bogus requests can take. 0 runs it on the request thread; Default: 0
+	 */
+	private int cryptoWorkerThreadCount = 0;
+
+	/**
+	 * When {@link #cryptoWorkerThreadCount} is greater than 0, the number of SQRL client requests which may wait for a
+	 * worker. Further requests are not processed and are answered at once with the TRANSIENT_ERROR and COMMAND_FAILED
+	 * tif; Default: 64
+	 */
+	private int cryptoWorkerQueueLimit = 64;
+
 	/**
 	 * The amount of time in millis to pause in between persistence queries to see if the SQRL client has finished
 	 * authenticating users.
@@ -339,6 +412,18 @@ public class SqrlConfig {
 		this.sqrlPersistenceFactoryClass = sqrlPersistenceFactoryClass;
 	}
 
+	@XmlTransient // Can only be set in code
+	public SqrlPersistenceFactory getSqrlPersistenceFactory() {
+		return sqrlPersistenceFactory;
+	}
+
+	/**
+	 * @see #sqrlPersistenceFactory
+	 */
+	public void setSqrlPersistenceFactory(final SqrlPersistenceFactory sqrlPersistenceFactory) {
+		this.sqrlPersistenceFactory = sqrlPersistenceFactory;
+	}
+
 	@XmlElement(required = false)
 	public int getCleanupTaskExecInMinutes() {
 		return cleanupTaskExecInMinutes;
@@ -351,6 +436,114 @@ public class SqrlConfig {
 		this.cleanupTaskExecInMinutes = cleanupTaskExecInMinutes;
 	}
 
+	@XmlElement(required = false)
+	public int getCleanupBatchSize() {
+		return cleanupBatchSize;
+	}
+
+	/**
+	 * @see #cleanupBatchSize
+	 */
+	public void setCleanupBatchSize(final int cleanupBatchSize) {
+		this.cleanupBatchSize = cleanupBatchSize;
+	}
+
+	@XmlElement(required = false)
+	public int getCleanupTimeBudgetInSeconds() {
+		return cleanupTimeBudgetInSeconds;
+	}
+
+	/**
+	 * @see #cleanupTimeBudgetInSeconds
+	 */
+	public void setCleanupTimeBudgetInSeconds(final int cleanupTimeBudgetInSeconds) {
+		this.cleanupTimeBudgetInSeconds = cleanupTimeBudgetInSeconds;
+	}
+
+	@XmlElement(required = false)
+	public int getEntityManagerCreationStackSampleRate() {
+		return entityManagerCreationStackSampleRate;
+	}
+
+	/**
+	 * @see #entityManagerCreationStackSampleRate
+	 */
+	public void setEntityManagerCreationStackSampleRate(final int entityManagerCreationStackSampleRate) {
+		this.entityManagerCreationStackSampleRate = entityManagerCreationStackSampleRate;
+	}
+
+	@XmlElement(required = false)
+	public int getEd25519PublicKeyCacheSize() {
+		return ed25519PublicKeyCacheSize;
+	}
+
+	/**
+	 * @see #ed25519PublicKeyCacheSize
+	 */
+	public void setEd25519PublicKeyCacheSize(final int ed25519PublicKeyCacheSize) {
+		this.ed25519PublicKeyCacheSize = ed25519PublicKeyCacheSize;
+	}
+
+	@XmlElement(required = false)
+	public long getEd25519BatchWindowInMillis() {
+		return ed25519BatchWindowInMillis;
+	}
+
+	/**
+	 * @see #ed25519BatchWindowInMillis
+	 */
+	public void setEd25519BatchWindowInMillis(final long ed25519BatchWindowInMillis) {
+		this.ed25519BatchWindowInMillis = ed25519BatchWindowInMillis;
+	}
+
+	@XmlElement(required = false)
+	public int getEd25519BatchMaxSize() {
+		return ed25519BatchMaxSize;
+	}
+
+	/**
+	 * @see #ed25519BatchMaxSize
+	 */
+	public void setEd25519BatchMaxSize(final int ed25519BatchMaxSize) {
+		this.ed25519BatchMaxSize = ed25519BatchMaxSize;
+	}
+
+	@XmlElement(required = false)
+	public String getSignatureVerifierClass() {
+		return signatureVerifierClass;
+	}
+
+	/**
+	 * @see #signatureVerifierClass
+	 */
+	public void setSignatureVerifierClass(final String signatureVerifierClass) {
+		this.signatureVerifierClass = signatureVerifierClass;
+	}
+
+	@XmlElement(required = false)
+	public int getCryptoWorkerThreadCount() {
+		return cryptoWorkerThreadCount;
+	}
+
+	/**
+	 * @see #cryptoWorkerThreadCount
+	 */
+	public void setCryptoWorkerThreadCount(final int cryptoWorkerThreadCount) {
+		this.cryptoWorkerThreadCount = cryptoWorkerThreadCount;
+	}
+
+	@XmlElement(required = false)
+	public int getCryptoWorkerQueueLimit() {
+		return cryptoWorkerQueueLimit;
+	}
+
+	/**
+	 * @see #cryptoWorkerQueueLimit
+	 */
+	public void setCryptoWorkerQueueLimit(final int cryptoWorkerQueueLimit) {
+		this.cryptoWorkerQueueLimit = cryptoWorkerQueueLimit;
+	}
+
 	@XmlElement(required = false)
 	public long getAuthSyncCheckInMillis() {
 		return authSyncCheckInMillis;
@@ -507,22 +700,32 @@ public class SqrlConfig {
 		result = prime * result + ((aesKeyBase64 == null) ? 0 : aesKeyBase64.hashCode());
 		result = prime * result + (int) (authSyncCheckInMillis ^ (authSyncCheckInMillis >>> 32));
 		result = prime * result + ((backchannelServletPath == null) ? 0 : backchannelServletPath.hashCode());
+		result = prime * result + cleanupBatchSize;
 		result = prime * result + cleanupTaskExecInMinutes;
+		result = prime * result + cleanupTimeBudgetInSeconds;
 		result = prime * result + ((clientAuthStateUpdaterClass == null) ? 0 : clientAuthStateUpdaterClass.hashCode());
 		result = prime * result + ((cookieDomain == null) ? 0 : cookieDomain.hashCode());
 		result = prime * result + ((cookiePath == null) ? 0 : cookiePath.hashCode());
 		result = prime * result + ((correlatorCookieName == null) ? 0 : correlatorCookieName.hashCode());
 		result = prime * result + ((cpsCancelUri == null) ? 0 : cpsCancelUri.hashCode());
+		result = prime * result + cryptoWorkerQueueLimit;
+		result = prime * result + cryptoWorkerThreadCount;
+		result = prime * result + ed25519BatchMaxSize;
+		result = prime * result + (int) (ed25519BatchWindowInMillis ^ (ed25519BatchWindowInMillis >>> 32));
+		result = prime * result + ed25519PublicKeyCacheSize;
 		result = prime * result + (enableCps ? 1231 : 1237);
+		result = prime * result + entityManagerCreationStackSampleRate;
 		result = prime * result + ((firstNutCookieName == null) ? 0 : firstNutCookieName.hashCode());
 		result = prime * result + Arrays.hashCode(ipForwardedForHeader);
 		result = prime * result + (int) (nutValidityInMillis ^ (nutValidityInMillis >>> 32));
 		result = prime * result + nutValidityInSeconds;
 		result = prime * result + ((qrCodeImageFormat == null) ? 0 : qrCodeImageFormat.hashCode());
+		result = prime * result + ((signatureVerifierClass == null) ? 0 : signatureVerifierClass.hashCode());
 		result = prime * result + sqrlDomainExtensionSpecifierUriCount;
 		result = prime * result + ((sqrlLoginServletPath == null) ? 0 : sqrlLoginServletPath.hashCode());
 		result = prime * result + sqrlNutTokenFormat;
 		result = prime * result + ((sqrlPersistenceFactoryClass == null) ? 0 : sqrlPersistenceFactoryClass.hashCode());
+		result = prime * result + ((sqrlPersistenceFactory == null) ? 0 : sqrlPersistenceFactory.hashCode());
 		return result;
 	}
 
@@ -555,9 +758,15 @@ public class SqrlConfig {
 		} else if (!backchannelServletPath.equals(other.backchannelServletPath)) {
 			return false;
 		}
+		if (cleanupBatchSize != other.cleanupBatchSize) {
+			return false;
+		}
 		if (cleanupTaskExecInMinutes != other.cleanupTaskExecInMinutes) {
 			return false;
 		}
+		if (cleanupTimeBudgetInSeconds != other.cleanupTimeBudgetInSeconds) {
+			return false;
+		}
 		if (clientAuthStateUpdaterClass == null) {
 			if (other.clientAuthStateUpdaterClass != null) {
 				return false;
@@ -593,9 +802,27 @@ public class SqrlConfig {
 		} else if (!cpsCancelUri.equals(other.cpsCancelUri)) {
 			return false;
 		}
+		if (cryptoWorkerQueueLimit != other.cryptoWorkerQueueLimit) {
+			return false;
+		}
+		if (cryptoWorkerThreadCount != other.cryptoWorkerThreadCount) {
+			return false;
+		}
+		if (ed25519BatchMaxSize != other.ed25519BatchMaxSize) {
+			return false;
+		}
+		if (ed25519BatchWindowInMillis != other.ed25519BatchWindowInMillis) {
+			return false;
+		}
+		if (ed25519PublicKeyCacheSize != other.ed25519PublicKeyCacheSize) {
+			return false;
+		}
 		if (enableCps != other.enableCps) {
 			return false;
 		}
+		if (entityManagerCreationStackSampleRate != other.entityManagerCreationStackSampleRate) {
+			return false;
+		}
 		if (firstNutCookieName == null) {
 			if (other.firstNutCookieName != null) {
 				return false;
@@ -615,6 +842,13 @@ public class SqrlConfig {
 		if (qrCodeImageFormat != other.qrCodeImageFormat) {
 			return false;
 		}
+		if (signatureVerifierClass == null) {
+			if (other.signatureVerifierClass != null) {
+				return false;
+			}
+		} else if (!signatureVerifierClass.equals(other.signatureVerifierClass)) {
+			return false;
+		}
 		if (sqrlDomainExtensionSpecifierUriCount != other.sqrlDomainExtensionSpecifierUriCount) {
 			return false;
 		}
@@ -635,6 +869,13 @@ public class SqrlConfig {
 		} else if (!sqrlPersistenceFactoryClass.equals(other.sqrlPersistenceFactoryClass)) {
 			return false;
 		}
+		if (sqrlPersistenceFactory == null) {
+			if (other.sqrlPersistenceFactory != null) {
+				return false;
+			}
+		} else if (!sqrlPersistenceFactory.equals(other.sqrlPersistenceFactory)) {
+			return false;
+		}
 		return true;
 	}
 }
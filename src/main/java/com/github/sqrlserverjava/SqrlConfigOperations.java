@@ -24,10 +24,13 @@ import javax.servlet.http.HttpServletRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.github.sqrlserverjava.backchannel.SqrlCryptoWorkerPool;
 import com.github.sqrlserverjava.exception.SqrlConfigSettingException;
 import com.github.sqrlserverjava.exception.SqrlException;
 import com.github.sqrlserverjava.persistence.SqrlJpaPersistenceFactory;
 import com.github.sqrlserverjava.util.SqrlConfigHelper;
+import com.github.sqrlserverjava.util.SqrlEd25519BatchVerifier;
+import com.github.sqrlserverjava.util.SqrlEd25519Verifier;
 import com.github.sqrlserverjava.util.SqrlServiceExecutor;
 import com.github.sqrlserverjava.util.SqrlUtil;
 
@@ -53,6 +56,8 @@ public class SqrlConfigOperations {
 
 	private final Key						aesKey;
 	private final BackchannelSettingType	backchannelSettingType;
+	private final SqrlSignatureVerifier		signatureVerifier;
+	private final SqrlCryptoWorkerPool		cryptoWorkerPool;
 
 	private String	subsequentRequestPath;
 
@@ -92,10 +97,44 @@ public class SqrlConfigOperations {
 		final String backchannelServletPathSetting = config.getBackchannelServletPath();
 		backchannelSettingType = validateBackchannelSetting(backchannelServletPathSetting);
 
+		// Signature verification
+		if (config.getEd25519PublicKeyCacheSize() < 0) {
+			throw new SqrlConfigSettingException("config ed25519PublicKeyCacheSize must be >= 0");
+		}
+		final SqrlSignatureVerifier configuredVerifier = createSignatureVerifier(config.getSignatureVerifierClass(),
+				config.getEd25519PublicKeyCacheSize());
+		if (config.getEd25519BatchWindowInMillis() < 0) {
+			throw new SqrlConfigSettingException("config ed25519BatchWindowInMillis must be >= 0");
+		} else if (config.getEd25519BatchWindowInMillis() == 0) {
+			signatureVerifier = configuredVerifier;
+		} else if (!(configuredVerifier instanceof SqrlEd25519Verifier)) {
+			// The batch equation is built on the i2p library's curve arithmetic
+			throw new SqrlConfigSettingException(
+					"config ed25519BatchWindowInMillis can only be used with the default signatureVerifierClass");
+		} else if (config.getEd25519BatchMaxSize() < 2) {
+			throw new SqrlConfigSettingException("config ed25519BatchMaxSize must be >= 2");
+		} else {
+			signatureVerifier = new SqrlEd25519BatchVerifier((SqrlEd25519Verifier) configuredVerifier, secureRandom,
+					config.getEd25519BatchWindowInMillis(), config.getEd25519BatchMaxSize());
+		}
+		logger.info("process=init detail=\"Signature verifier is {}\"", signatureVerifier.getClass().getName());
+
+		// Crypto worker pool
+		if (config.getCryptoWorkerThreadCount() < 0) {
+			throw new SqrlConfigSettingException("config cryptoWorkerThreadCount must be >= 0");
+		} else if (config.getCryptoWorkerQueueLimit() < 0) {
+			throw new SqrlConfigSettingException("config cryptoWorkerQueueLimit must be >= 0");
+		}
+		cryptoWorkerPool = new SqrlCryptoWorkerPool(config.getCryptoWorkerThreadCount(),
+				config.getCryptoWorkerQueueLimit());
+
 		// SQRL persistence factory class name
 		final String factoryClassName = config.getSqrlPersistenceFactoryClass();
-		if (SqrlUtil.isBlank(factoryClassName)) {
-			sqrlPersistenceFactory = new SqrlJpaPersistenceFactory();
+		if (config.getSqrlPersistenceFactory() != null) {
+			sqrlPersistenceFactory = config.getSqrlPersistenceFactory();
+		} else if (SqrlUtil.isBlank(factoryClassName)
+				|| SqrlJpaPersistenceFactory.class.getName().equals(factoryClassName)) {
+			sqrlPersistenceFactory = new SqrlJpaPersistenceFactory(config.getEntityManagerCreationStackSampleRate());
 		} else {
 			try {
 				@SuppressWarnings("rawtypes")
@@ -110,7 +149,8 @@ public class SqrlConfigOperations {
 		// register the cleanup task
 		final Class<? extends Runnable> cleanUpTaskClass = sqrlPersistenceFactory.getCleanupTaskClass();
 		if (cleanUpTaskClass == null) {
-			logger.warn("sqrlPersistenceFactory cleanup task was null, no background cleanup job scheduled");
+			// Expired entry cleanup is scheduled separately by SqrlServerOperations, so this is only an extra task
+			logger.debug("{} has no additional cleanup task to schedule", sqrlPersistenceFactory.getClass().getName());
 		} else {
 			final Runnable cleanupTask = (Runnable) createInstanceFromNoArgConstructor(cleanUpTaskClass,
 					"SqrlPersistenceFactory.getCleanupTaskClass()");
@@ -119,6 +159,28 @@ public class SqrlConfigOperations {
 		}
 	}
 
+	/**
+	 * @return a new verifier for this config, the default one has its own public key cache so configs with different
+	 *         cache sizes don't affect each other
+	 */
+	private static SqrlSignatureVerifier createSignatureVerifier(final String className,
+			final int ed25519PublicKeyCacheSize) {
+		if (SqrlUtil.isBlank(className) || SqrlEd25519Verifier.class.getName().equals(className)) {
+			return new SqrlEd25519Verifier(ed25519PublicKeyCacheSize);
+		}
+		final Class<?> clazz;
+		try {
+			clazz = Class.forName(className);
+		} catch (final ClassNotFoundException e) {
+			throw new SqrlConfigSettingException("Could not find signatureVerifierClass '" + className + "'", e);
+		}
+		if (!SqrlSignatureVerifier.class.isAssignableFrom(clazz)) {
+			throw new SqrlConfigSettingException("signatureVerifierClass " + className + " must implement "
+					+ SqrlSignatureVerifier.class.getName());
+		}
+		return (SqrlSignatureVerifier) createInstanceFromNoArgConstructor(clazz, "signatureVerifierClass");
+	}
+
 	private static Object createInstanceFromNoArgConstructor(@SuppressWarnings("rawtypes") final Class clazz,
 			final String description) {
 		try {
@@ -276,4 +338,24 @@ public class SqrlConfigOperations {
 	public SqrlPersistenceFactory getSqrlPersistenceFactory() {
 		return sqrlPersistenceFactory;
 	}
+
+	/**
+	 * Internal use only.
+	 *
+	 * @return the verifier for SQRL client signatures, as selected by {@link SqrlConfig#getSignatureVerifierClass()}
+	 *         and {@link SqrlConfig#getEd25519BatchWindowInMillis()}
+	 */
+	public SqrlSignatureVerifier getSignatureVerifier() {
+		return signatureVerifier;
+	}
+
+	/**
+	 * Internal use only.
+	 *
+	 * @return the pool which runs the CPU bound validation of SQRL client requests, exposes its queue depth and
+	 *         rejection count
+	 */
+	public SqrlCryptoWorkerPool getCryptoWorkerPool() {
+		return cryptoWorkerPool;
+	}
 }
@@ -1,6 +1,8 @@
 package com.github.sqrlserverjava;
 
 import java.util.Date;
+import java.util.EnumSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -9,8 +11,10 @@ import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
 import com.github.sqrlserverjava.enums.SqrlIdentityFlag;
 import com.github.sqrlserverjava.exception.SqrlPersistenceException;
 import com.github.sqrlserverjava.persistence.SqrlCorrelator;
+import com.github.sqrlserverjava.persistence.SqrlCorrelatorStatusChange;
 import com.github.sqrlserverjava.persistence.SqrlIdentity;
 import com.github.sqrlserverjava.persistence.SqrlJpaPersistenceProvider;
+import com.github.sqrlserverjava.persistence.SqrlPersistenceCleanupResult;
 
 /**
  * Bridge between the SQRL library and the persistence layer (database, etc)
@@ -47,6 +51,20 @@ public interface SqrlPersistence {
 	 */
 	public SqrlIdentity fetchSqrlIdentityByUserXref(final String appUserXref);
 
+	/**
+	 * Fetch the sqrl identity with the given sqrlIdk. Only required of implementations used as the identity store of a
+	 * {@link com.github.sqrlserverjava.persistence.SqrlShardedPersistenceFactory}
+	 *
+	 * @param sqrlIdk
+	 *            the SQRL ID to search by
+	 * @return the SQRL identity or null if none exists
+	 * @throws UnsupportedOperationException
+	 *             if this implementation doesn't support lookup by idk, which is the default
+	 */
+	public default SqrlIdentity fetchSqrlIdentity(final String sqrlIdk) {
+		throw new UnsupportedOperationException(getClass().getName() + " does not support fetchSqrlIdentity");
+	}
+
 	/**
 	 * The user has updated their SQRL ID but this application is still using the old one. The application must lookup
 	 * the user by previousSqrlIdk, and replace that SQRL ID with newSqrlIdk
@@ -124,6 +142,45 @@ public interface SqrlPersistence {
 	 */
 	public void setSqrlFlagForIdentity(String sqrlIdk, SqrlIdentityFlag flagToSet, boolean valueToSet);
 
+	/**
+	 * Invoked to fetch all flags of a user with a single lookup
+	 * <p>
+	 * The default calls {@link #fetchSqrlFlagForIdentity(String, SqrlIdentityFlag)} once per flag
+	 *
+	 * @param sqrlIdk
+	 *            the SQRL ID which represents the user.
+	 * @return a copy of the flags which are currently set
+	 * @throws SqrlPersistenceException
+	 *             if there was an error accessing the persistence store
+	 */
+	public default Set<SqrlIdentityFlag> fetchSqrlFlagsForIdentity(final String sqrlIdk) {
+		final Set<SqrlIdentityFlag> flagSet = EnumSet.noneOf(SqrlIdentityFlag.class);
+		for (final SqrlIdentityFlag flag : SqrlIdentityFlag.values()) {
+			if (fetchSqrlFlagForIdentity(sqrlIdk, flag)) {
+				flagSet.add(flag);
+			}
+		}
+		return flagSet;
+	}
+
+	/**
+	 * Invoked to set or unset multiple flags of a user with a single lookup and update
+	 * <p>
+	 * The default calls {@link #setSqrlFlagForIdentity(String, SqrlIdentityFlag, boolean)} once per flag
+	 *
+	 * @param sqrlIdk
+	 *            the SQRL ID which represents the user.
+	 * @param flagsToSet
+	 *            the value to set for each flag, flags which are not present are left unchanged
+	 * @throws SqrlPersistenceException
+	 *             if there was an error accessing the persistence store
+	 */
+	public default void setSqrlFlagsForIdentity(final String sqrlIdk, final Map<SqrlIdentityFlag, Boolean> flagsToSet) {
+		for (final Map.Entry<SqrlIdentityFlag, Boolean> entry : flagsToSet.entrySet()) {
+			setSqrlFlagForIdentity(sqrlIdk, entry.getKey(), entry.getValue().booleanValue());
+		}
+	}
+
 	/* ***************** SQRL IDENTITY DATA *********************/
 	/**
 	 * Indicates that we have received user specific data from the SQRL client that needs to be stored for the user;
@@ -241,6 +298,24 @@ public interface SqrlPersistence {
 	 */
 	public void cleanUpExpiredEntries();
 
+	/**
+	 * Delete expired objects in the persistence store along with any data which belongs to them, such as the transient
+	 * auth data of a correlator. At most maxRowsPerType rows of each kind are removed so the unit of work stays small;
+	 * callers which need everything removed call this repeatedly, committing in between, until
+	 * {@link SqrlPersistenceCleanupResult#isLimitReached(int)} returns false.
+	 * <p>
+	 * The default ignores the limit, removes everything with {@link #cleanUpExpiredEntries()} and, since the number of
+	 * rows is not known, returns a result with every count at 0
+	 *
+	 * @param maxRowsPerType
+	 *            the maximum number of rows of each kind to remove
+	 * @return the number of rows removed
+	 */
+	public default SqrlPersistenceCleanupResult cleanUpExpiredEntries(final int maxRowsPerType) {
+		cleanUpExpiredEntries();
+		return new SqrlPersistenceCleanupResult(0, 0, 0, 0);
+	}
+
 	Map<String, SqrlCorrelator> fetchSqrlCorrelatorsDetached(Set<String> correlatorStringSet);
 
 	/**
@@ -254,6 +329,26 @@ public interface SqrlPersistence {
 	public Map<String, SqrlAuthenticationStatus> fetchSqrlCorrelatorStatusUpdates(
 			Map<String, SqrlAuthenticationStatus> correlatorToCurrentStatusTable);
 
+	/**
+	 * Reads the correlator status change log, which is written whenever the authenticationStatus of a correlator
+	 * changes. Unlike {@link #fetchSqrlCorrelatorStatusUpdates(Map)} the cost does not depend on how many correlators
+	 * are being monitored
+	 *
+	 * @param sinceSequence
+	 *            the highest sequence the caller has already processed, 0 to read from the start
+	 * @param maxResults
+	 *            the maximum number of changes to return
+	 * @return the changes with a sequence greater than sinceSequence in ascending sequence order
+	 * @throws UnsupportedOperationException
+	 *             if there is no change log, which is the default. {@link AuthStateMonitor} then falls back to
+	 *             {@link #fetchSqrlCorrelatorStatusUpdates(Map)}
+	 */
+	public default List<SqrlCorrelatorStatusChange> fetchSqrlCorrelatorStatusChangesSince(final long sinceSequence,
+			final int maxResults) {
+		throw new UnsupportedOperationException(
+				getClass().getName() + " does not keep a correlator status change log");
+	}
+
 	public void deleteSqrlCorrelator(SqrlCorrelator sqrlCorrelator);
 
 }
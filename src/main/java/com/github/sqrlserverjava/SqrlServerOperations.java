@@ -1,6 +1,7 @@
 package com.github.sqrlserverjava;
 import java.lang.reflect.Constructor;
 import java.net.URL;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
@@ -19,6 +20,7 @@ import com.github.sqrlserverjava.exception.SqrlIllegalStateException;
 import com.github.sqrlserverjava.exception.SqrlPersistenceException;
 import com.github.sqrlserverjava.persistence.SqrlAutoCloseablePersistence;
 import com.github.sqrlserverjava.persistence.SqrlCorrelator;
+import com.github.sqrlserverjava.persistence.SqrlCorrelatorStatusChange;
 import com.github.sqrlserverjava.persistence.SqrlIdentity;
 import com.github.sqrlserverjava.persistence.SqrlPersistenceCleanupTask;
 import com.github.sqrlserverjava.util.SqrlServiceExecutor;
@@ -93,7 +95,8 @@ public class SqrlServerOperations {
 		} else {
 			logger.info("process=init detail=\"Persistence cleanup task registered to run every {} minutes\"",
 					cleanupIntervalInMinutes);
-			final SqrlPersistenceCleanupTask cleanupRunnable = new SqrlPersistenceCleanupTask(persistenceFactory);
+			final SqrlPersistenceCleanupTask cleanupRunnable = new SqrlPersistenceCleanupTask(persistenceFactory,
+					config.getCleanupBatchSize(), TimeUnit.SECONDS.toMillis(config.getCleanupTimeBudgetInSeconds()));
 			// TODO: put executor somewhere else, state?
 			sqrlServiceExecutor.scheduleAtFixedRate(cleanupRunnable, 0, cleanupIntervalInMinutes, TimeUnit.MINUTES);
 		}
@@ -252,6 +255,16 @@ public class SqrlServerOperations {
 		}
 	}
 
+	public List<SqrlCorrelatorStatusChange> fetchSqrlCorrelatorStatusChangesSince(final long sinceSequence,
+			final int maxResults) {
+		try (SqrlAutoCloseablePersistence sqrlPersistence = createSqrlPersistence(configOperations)) {
+			final List<SqrlCorrelatorStatusChange> changeList = sqrlPersistence
+					.fetchSqrlCorrelatorStatusChangesSince(sinceSequence, maxResults);
+			sqrlPersistence.closeCommit();
+			return changeList;
+		}
+	}
+
 	public void deleteSqrlCorrelator(final SqrlCorrelator sqrlCorrelator) {
 		try (SqrlAutoCloseablePersistence sqrlPersistence = createSqrlPersistence(configOperations)) {
 			sqrlPersistence.deleteSqrlCorrelator(sqrlCorrelator);
@@ -0,0 +1,28 @@
+package com.github.sqrlserverjava;
+
+import com.github.sqrlserverjava.exception.SqrlException;
+
+/**
+ * Verifies the ED25519 signatures sent by SQRL clients. The implementation is selected with
+ * {@link SqrlConfig#setSignatureVerifierClass(String)} and must have a public no-arg constructor. Implementations are
+ * shared by every request so must be thread safe.
+ *
+ * @author Dave Badia
+ *
+ * @see com.github.sqrlserverjava.util.SqrlEd25519Verifier
+ * @see com.github.sqrlserverjava.util.SqrlJdkEd25519Verifier
+ */
+public interface SqrlSignatureVerifier {
+	/**
+	 * @param signature
+	 *            the 64 byte signature to be verified
+	 * @param message
+	 *            the message which was signed
+	 * @param publicKeyBytes
+	 *            the raw 32 byte public key
+	 * @return true if the signature is valid
+	 * @throws SqrlException
+	 *             if the public key is invalid or an error occurs during ED25519 operations
+	 */
+	public boolean verify(byte[] signature, byte[] message, byte[] publicKeyBytes) throws SqrlException;
+}
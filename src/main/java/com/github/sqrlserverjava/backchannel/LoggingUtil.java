@@ -19,6 +19,7 @@ import static com.github.sqrlserverjava.backchannel.LoggingUtil.LogField.USER_AG
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -192,6 +193,24 @@ public class LoggingUtil {
 		tlFooter.set("");
 	}
 
+	/**
+	 * @return a copy of this thread's logging fields, for {@link #restoreLoggingFields(Map)} on another thread
+	 */
+	static Map<LogField, String> copyLoggingFields() {
+		return new HashMap<>(tlDataTable.get());
+	}
+
+	/**
+	 * Replaces this thread's logging fields with ones from {@link #copyLoggingFields()}
+	 */
+	static void restoreLoggingFields(final Map<LogField, String> loggingFieldTable) {
+		final Map<LogField, String> dataTable = tlDataTable.get();
+		dataTable.clear();
+		dataTable.putAll(loggingFieldTable);
+		rebuildHeader();
+		rebuildFooter();
+	}
+
 	private static String buildSimpleUserAgent(final String fullUserAgentString) {
 		if (SqrlUtil.isBlank(fullUserAgentString)) {
 			return null;
@@ -0,0 +1,232 @@
+package com.github.sqrlserverjava.backchannel;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.sqrlserverjava.exception.SqrlInvalidRequestException;
+import com.github.sqrlserverjava.util.SqrlConstants;
+
+/**
+ * Byte level decoding of the client and server params of a SQRL client request. Each param is validated against the
+ * base64url alphabet while it is decoded, so it is only walked once, and the decoded client param is split into its
+ * name=value lines in a single pass over the bytes without building the intermediate string.
+ * <p>
+ * This replaces the regex validation of {@link com.github.sqrlserverjava.util.SqrlSanitize} for these params, the
+ * rules are the same: at most {@link SqrlConstants#MAX_SQRL_TOKEN_SIZE} characters, base64url alphabet only, no
+ * padding
+ *
+ * @author Dave Badia
+ *
+ */
+final class SqrlClientParamCodec {
+	private static final Logger logger = LoggerFactory.getLogger(SqrlClientParamCodec.class);
+
+	private static final byte[] DECODE_TABLE = new byte[128];
+
+	static {
+		Arrays.fill(DECODE_TABLE, (byte) -1);
+		final String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+		for (int i = 0; i < alphabet.length(); i++) {
+			DECODE_TABLE[alphabet.charAt(i)] = (byte) i;
+		}
+	}
+
+	private static final byte	EQUALS		= '=';
+	private static final byte	AMPERSAND	= '&';
+	private static final byte	CR			= '\r';
+	private static final byte	LF			= '\n';
+
+	private SqrlClientParamCodec() {
+		// Util class
+	}
+
+	/**
+	 * Validates and decodes unpadded base64url data received from a SQRL client
+	 *
+	 * @param paramName
+	 *            the name of the param being decoded, for error messages
+	 * @throws SqrlInvalidRequestException
+	 *             if the data is too large or not unpadded base64url
+	 */
+	static byte[] decode(final String paramName, final String data) throws SqrlInvalidRequestException {
+		final int length = data.length();
+		if (length > SqrlConstants.MAX_SQRL_TOKEN_SIZE) {
+			throw new SqrlInvalidRequestException("Data size of ", Integer.toString(length), " for ", paramName,
+					" exceeded max size of ", Integer.toString(SqrlConstants.MAX_SQRL_TOKEN_SIZE));
+		}
+		if (length % 4 == 1) {
+			throw new SqrlInvalidRequestException("Data failed base64url validation for ", paramName, ", length is ",
+					Integer.toString(length));
+		}
+		final byte[] decoded = new byte[length * 3 / 4];
+		int bits = 0;
+		int bitCount = 0;
+		int index = 0;
+		for (int i = 0; i < length; i++) {
+			final char c = data.charAt(i);
+			final int value = c < DECODE_TABLE.length ? DECODE_TABLE[c] : -1;
+			if (value < 0) {
+				throw new SqrlInvalidRequestException("Data failed base64url validation for ", paramName, ": '", data,
+						"'");
+			}
+			bits = bits << 6 | value;
+			bitCount += 6;
+			if (bitCount >= 8) {
+				bitCount -= 8;
+				decoded[index++] = (byte) (bits >> bitCount);
+			}
+		}
+		return decoded;
+	}
+
+	/**
+	 * Splits the decoded client param into its name=value lines. Lines end with CR, LF or CRLF; a line without a name,
+	 * without a value or with more than one = is logged and skipped
+	 */
+	static NameValueLines tokenizeLines(final byte[] decoded) {
+		final NameValueLines lines = new NameValueLines();
+		int lineStart = 0;
+		int equalsIndex = -1;
+		int equalsCount = 0;
+		for (int i = 0; i <= decoded.length; i++) {
+			final byte b = i < decoded.length ? decoded[i] : LF;
+			if (b == EQUALS) {
+				if (equalsCount++ == 0) {
+					equalsIndex = i;
+				}
+			} else if (b == CR || b == LF) {
+				if (i > lineStart) {
+					if (equalsCount != 1 || equalsIndex == lineStart || equalsIndex == i - 1) {
+						logger.info("Received empty param "
+								+ new String(decoded, lineStart, i - lineStart, SqrlConstants.UTF8_CHARSET));
+					} else {
+						lines.add(new String(decoded, lineStart, equalsIndex - lineStart, SqrlConstants.UTF8_CHARSET),
+								new String(decoded, equalsIndex + 1, i - equalsIndex - 1, SqrlConstants.UTF8_CHARSET));
+					}
+				}
+				if (b == CR && i + 1 < decoded.length && decoded[i + 1] == LF) {
+					i++;
+				}
+				lineStart = i + 1;
+				equalsCount = 0;
+			}
+		}
+		return lines;
+	}
+
+	/**
+	 * Finds a value in the decoded server param, which is either the query string of the URL we gave the client or the
+	 * lines of our last reply. The value ends at &amp;, CRLF or the end of the param
+	 *
+	 * @param name
+	 *            the name of the value to find, without the =
+	 * @throws SqrlInvalidRequestException
+	 *             if the name is not present or the value is not base64url
+	 */
+	static String findServerValue(final byte[] decodedServer, final String name) throws SqrlInvalidRequestException {
+		final int valueStart = indexOfNameEquals(decodedServer, name);
+		if (valueStart == -1) {
+			throw new SqrlInvalidRequestException("Could not find ", name, "= in server param: ",
+					new String(decodedServer, SqrlConstants.UTF8_CHARSET));
+		}
+		int valueEnd = valueStart;
+		while (valueEnd < decodedServer.length && decodedServer[valueEnd] != AMPERSAND
+				&& !(decodedServer[valueEnd] == CR && valueEnd + 1 < decodedServer.length
+				&& decodedServer[valueEnd + 1] == LF)) {
+			valueEnd++;
+		}
+		if (valueEnd - valueStart > SqrlConstants.MAX_SQRL_TOKEN_SIZE) {
+			throw new SqrlInvalidRequestException("Data size of ", Integer.toString(valueEnd - valueStart), " for ",
+					name, " exceeded max size of ", Integer.toString(SqrlConstants.MAX_SQRL_TOKEN_SIZE));
+		}
+		for (int i = valueStart; i < valueEnd; i++) {
+			final byte b = decodedServer[i];
+			if (b < 0 || DECODE_TABLE[b] < 0) {
+				throw new SqrlInvalidRequestException("Data failed base64url validation for ", name, ": '",
+						new String(decodedServer, valueStart, valueEnd - valueStart, SqrlConstants.UTF8_CHARSET), "'");
+			}
+		}
+		// The value is pure ASCII at this point
+		return new String(decodedServer, valueStart, valueEnd - valueStart, StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * @return the index just after the first occurrence of name=, or -1
+	 */
+	private static int indexOfNameEquals(final byte[] data, final String name) {
+		final int nameLength = name.length();
+		final int last = data.length - nameLength - 1;
+		outer: for (int i = 0; i <= last; i++) {
+			for (int j = 0; j < nameLength; j++) {
+				if (data[i + j] != name.charAt(j)) {
+					continue outer;
+				}
+			}
+			if (data[i + nameLength] == EQUALS) {
+				return i + nameLength + 1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * The name=value lines of a client param, in the order received. A client sends around ten lines, so they are kept
+	 * in a pair of arrays sized for that and searched linearly
+	 */
+	static final class NameValueLines {
+		private static final int INITIAL_CAPACITY = 12;
+
+		private String[]	names	= new String[INITIAL_CAPACITY];
+		private String[]	values	= new String[INITIAL_CAPACITY];
+		private int			size	= 0;
+
+		private void add(final String name, final String value) {
+			if (size == names.length) {
+				names = Arrays.copyOf(names, size * 2);
+				values = Arrays.copyOf(values, size * 2);
+			}
+			names[size] = name;
+			values[size] = value;
+			size++;
+		}
+
+		int size() {
+			return size;
+		}
+
+		String getName(final int index) {
+			return names[index];
+		}
+
+		String getValue(final int index) {
+			return values[index];
+		}
+
+		/**
+		 * @return the value of the last line with this name, or null if there is none
+		 */
+		String get(final String name) {
+			for (int i = size - 1; i >= 0; i--) {
+				if (names[i].equals(name)) {
+					return values[i];
+				}
+			}
+			return null;
+		}
+
+		@Override
+		public String toString() {
+			final StringBuilder buf = new StringBuilder("{");
+			for (int i = 0; i < size; i++) {
+				if (i > 0) {
+					buf.append(", ");
+				}
+				buf.append(names[i]).append('=').append(values[i]);
+			}
+			return buf.append('}').toString();
+		}
+	}
+}
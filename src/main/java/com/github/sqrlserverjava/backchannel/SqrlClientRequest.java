@@ -3,13 +3,10 @@ package com.github.sqrlserverjava.backchannel;
 import static com.github.sqrlserverjava.backchannel.LoggingUtil.formatForLogging;
 import static com.github.sqrlserverjava.backchannel.LoggingUtil.setLoggingField;
 
-import java.io.BufferedReader;
-import java.io.StringReader;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 
 import javax.servlet.http.HttpServletRequest;
@@ -19,7 +16,9 @@ import org.slf4j.LoggerFactory;
 
 import com.github.sqrlserverjava.SqrlConfigOperations;
 import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.SqrlSignatureVerifier;
 import com.github.sqrlserverjava.backchannel.LoggingUtil.LogField;
+import com.github.sqrlserverjava.backchannel.SqrlClientParamCodec.NameValueLines;
 import com.github.sqrlserverjava.backchannel.nut.SqrlNutToken0;
 import com.github.sqrlserverjava.backchannel.nut.SqrlNutTokenFactory;
 import com.github.sqrlserverjava.enums.SqrlClientParam;
@@ -29,10 +28,8 @@ import com.github.sqrlserverjava.enums.SqrlServerSideKey;
 import com.github.sqrlserverjava.enums.SqrlSignatureType;
 import com.github.sqrlserverjava.exception.SqrlClientRequestProcessingException;
 import com.github.sqrlserverjava.exception.SqrlException;
-import com.github.sqrlserverjava.exception.SqrlInvalidDataException;
 import com.github.sqrlserverjava.exception.SqrlInvalidRequestException;
 import com.github.sqrlserverjava.util.SqrlConstants;
-import com.github.sqrlserverjava.util.SqrlSanitize;
 import com.github.sqrlserverjava.util.SqrlUtil;
 import com.github.sqrlserverjava.util.SqrlVersionUtil;
 
@@ -45,7 +42,9 @@ import com.github.sqrlserverjava.util.SqrlVersionUtil;
 public class SqrlClientRequest {
 	private static final Logger logger = LoggerFactory.getLogger(SqrlClientRequest.class);
 
-	private static final String NUT_EQUALS = "nut=";
+	private static final String	NUT				= "nut";
+	private static final String	CLIENT_PARAM	= "client";
+	private static final String	SERVER_PARAM	= "server";
 
 	private final Integer				negotiatedSqrlProtocolVersion;
 	private final SqrlNutToken0						nut;
@@ -59,20 +58,25 @@ public class SqrlClientRequest {
 	private final String				serverParam;
 	private final String				correlator;
 
-	public SqrlClientRequest(final HttpServletRequest servletRequest, final SqrlPersistence persistence,
-			final SqrlConfigOperations configOps) throws SqrlClientRequestProcessingException {
+	/**
+	 * Parses the request and validates its signatures. This is CPU bound and does not access persistence, the caller
+	 * must also call {@link #validateServerParrot(SqrlPersistence)}
+	 */
+	public SqrlClientRequest(final HttpServletRequest servletRequest, final SqrlConfigOperations configOps)
+			throws SqrlClientRequestProcessingException {
 		this.servletRequest = servletRequest;
-		this.clientParam = getRequiredParameter(servletRequest, "client");
+		this.clientParam = getRequiredParameter(servletRequest, CLIENT_PARAM);
 		setLoggingField(LogField.CLIENT_PARAM, clientParam);
-		this.serverParam = getRequiredParameter(servletRequest, "server");
+		this.serverParam = getRequiredParameter(servletRequest, SERVER_PARAM);
 		setLoggingField(LogField.SERVER_PARAM, serverParam);
-		this.nut = SqrlNutTokenFactory.unmarshal(extractFromSqrlCsvString(serverParam, NUT_EQUALS), configOps);
-		final String decoded = SqrlUtil.base64UrlDecodeDataFromSqrlClientToString(clientParam);
-		// parse server - not a name value pair, just the query string we gave
-		this.correlator = extractFromSqrlCsvString(serverParam, SqrlClientParam.cor.toString());
+		// parse server - not a name value pair, just the query string we gave. Decoded once for both values
+		final byte[] decodedServer = SqrlClientParamCodec.decode(SERVER_PARAM, serverParam);
+		this.nut = SqrlNutTokenFactory.unmarshal(SqrlClientParamCodec.findServerValue(decodedServer, NUT), configOps);
+		this.correlator = SqrlClientParamCodec.findServerValue(decodedServer, SqrlClientParam.cor.toString());
 
 		// parse client
-		final Map<String, String> clientNameValuePairTable = parseLinesToNameValueMap(decoded);
+		final NameValueLines clientNameValuePairTable = SqrlClientParamCodec
+				.tokenizeLines(SqrlClientParamCodec.decode(CLIENT_PARAM, clientParam));
 		// clientVersionString format is 1[,n],[n-m]
 		final String clientVersionString = clientNameValuePairTable.get(SqrlClientParam.ver.toString());
 		final Collection<Integer> clientVersionsSupported = SqrlVersionUtil
@@ -107,16 +111,16 @@ public class SqrlClientRequest {
 		}
 
 		// parse keys
-		for (final Map.Entry<String, String> entry : parseLinesToNameValueMap(decoded).entrySet()) {
-			final SqrlServerSideKey keyType = SqrlServerSideKey.valueOfOrNull(entry.getKey());
+		for (int i = 0; i < clientNameValuePairTable.size(); i++) {
+			final SqrlServerSideKey keyType = SqrlServerSideKey.valueOfOrNull(clientNameValuePairTable.getName(i));
 			if (keyType == null) {
 				continue;
 			}
-			final String keyBase64 = entry.getValue();
+			final String keyBase64 = clientNameValuePairTable.getValue(i);
 			// Sanity check for a client sending the same key more than once
 			if (requestKeyTableRaw.containsKey(keyType)) {
 				// Uh oh, is the value different?
-				if (requestKeyTableBase64.get(keyType).equals(entry.getValue())) {
+				if (requestKeyTableBase64.get(keyType).equals(keyBase64)) {
 					logger.info("Client sent the key " + keyType
 							+ " multiple times but with the same value; this should be reported as a minor bug to the client author.  clientParam="
 							+ clientParam);
@@ -126,26 +130,13 @@ public class SqrlClientRequest {
 				}
 			} else {
 				// Store the keys in our tables
-				final byte[] keyBytes = SqrlUtil.base64UrlDecodeDataFromSqrlClient(entry.getValue());
+				final byte[] keyBytes = SqrlClientParamCodec.decode(keyType.toString(), keyBase64);
 				requestKeyTableRaw.put(keyType, keyBytes);
 				requestKeyTableBase64.put(keyType, keyBase64);
 			}
 		}
 		logger.debug(formatForLogging("keys found in request: {}", requestKeyTableBase64.keySet()));
 
-		// Per the SQRL spec, since the server response is not signed, we must check the value that comes
-		// back to ensure it wasn't tampered with
-		final String expectedServerValue = persistence.fetchTransientAuthData(correlator,
-				SqrlConstants.TRANSIENT_NAME_SERVER_PARROT);
-		if (SqrlUtil.isBlank(expectedServerValue)) {
-			throw new SqrlInvalidRequestException("Server parrot was not found in persistence");
-		}
-		if (!expectedServerValue.equals(serverParam)) {
-			logger.warn(formatForLogging("Server parrot mismatch: Expected={}, Received={}", expectedServerValue,
-					serverParam));
-			throw new SqrlInvalidRequestException("Server parrot mismatch, possible tampering");
-		}
-
 		// Validate the signatures
 		boolean idsFound = false;
 		for (final SqrlSignatureType aSignatureType : SqrlSignatureType.values()) {
@@ -153,7 +144,7 @@ public class SqrlClientRequest {
 			if (SqrlUtil.isNotBlank(signatureParamValue)) {
 				// Validate the signature
 				validateSignature(SqrlSignatureType.getSignatureToKeyParamTable().get(aSignatureType),
-						signatureParamValue);
+						signatureParamValue, configOps.getSignatureVerifier());
 				if (aSignatureType == SqrlSignatureType.ids) {
 					idsFound = true;
 				}
@@ -176,15 +167,40 @@ public class SqrlClientRequest {
 		}
 	}
 
+	/**
+	 * Per the SQRL spec, since the server response is not signed, we must check the value that comes back to ensure it
+	 * wasn't tampered with
+	 *
+	 * @throws SqrlInvalidRequestException
+	 *             if the server param does not match the value we sent in our last reply
+	 */
+	public void validateServerParrot(final SqrlPersistence persistence) throws SqrlInvalidRequestException {
+		final String expectedServerValue = persistence.fetchTransientAuthData(correlator,
+				SqrlConstants.TRANSIENT_NAME_SERVER_PARROT);
+		if (SqrlUtil.isBlank(expectedServerValue)) {
+			throw new SqrlInvalidRequestException("Server parrot was not found in persistence");
+		}
+		if (!expectedServerValue.equals(serverParam)) {
+			logger.warn(formatForLogging("Server parrot mismatch: Expected={}, Received={}", expectedServerValue,
+					serverParam));
+			throw new SqrlInvalidRequestException("Server parrot mismatch, possible tampering");
+		}
+	}
+
 	/**
 	 * The correlator is our only key to determining which user this is, so it's critical we parse this out first
 	 */
 	public static String parseCorrelatorOnly(final HttpServletRequest servletRequest) throws SqrlException {
-		final String serverParam = getRequiredParameter(servletRequest, "server");
+		final String serverParam = getRequiredParameter(servletRequest, SERVER_PARAM);
 		// parse server - not a name value pair, just the query string we gave
-		return extractFromSqrlCsvString(serverParam, SqrlClientParam.cor.toString());
+		return SqrlClientParamCodec.findServerValue(SqrlClientParamCodec.decode(SERVER_PARAM, serverParam),
+				SqrlClientParam.cor.toString());
 	}
 
+	/**
+	 * Fetches a required param, it is validated by {@link SqrlClientParamCodec} as it is decoded
+	 */
+
 	private static String getRequiredParameter(final HttpServletRequest servletRequest, final String requiredParamName)
 			throws SqrlInvalidRequestException {
 		final String value = servletRequest.getParameter(requiredParamName);
@@ -192,49 +208,11 @@ public class SqrlClientRequest {
 			throw new SqrlInvalidRequestException("Missing required parameter " + requiredParamName
 					+ ".  Request contained: " + SqrlUtil.buildRequestParamList(servletRequest));
 		}
-		try {
-			SqrlSanitize.inspectIncomingData(value);
-		} catch (final SqrlInvalidDataException e) {
-			// Convert to SqrlInvalidRequestException since it came from a SQRL client app
-			throw new SqrlInvalidRequestException(e, e.getMessage());
-		}
-		return value;
-	}
-
-	static String extractFromSqrlCsvString(final String serverParam, final String variableToFind)
-			throws SqrlClientRequestProcessingException {
-		final String toSearch = SqrlUtil.base64UrlDecodeDataFromSqrlClientToString(serverParam);
-		String toFind = variableToFind;
-		if (!variableToFind.endsWith("=")) {
-			toFind += "=";
-		}
-		// Find the nut param
-		int index = toSearch.indexOf(toFind);
-		if (index == -1) {
-			throw new SqrlInvalidRequestException("Could not find " + toFind + " in server param: " + toSearch);
-		}
-		String value = toSearch.substring(index + toFind.length());
-		// Need to find the end of the nut string - could be & if from our login page URL or SqrlServerReply.SEPARATOR
-		// if from a server reply
-		index = value.indexOf(SqrlClientReply.SEPARATOR);
-		if (index > -1) {
-			value = value.substring(0, index);
-		}
-		index = value.indexOf('&');
-		if (index > -1) {
-			value = value.substring(0, index);
-		}
-		try {
-			SqrlSanitize.inspectIncomingData(value);
-		} catch (final SqrlInvalidDataException e) {
-			// Convert to SqrlInvalidRequestException since it came from a SQRL client app
-			throw new SqrlInvalidRequestException(e, e.getMessage());
-		}
 		return value;
 	}
 
-	private void validateSignature(final SqrlServerSideKey keyName, final String signatureParamValue)
-			throws SqrlInvalidRequestException {
+	private void validateSignature(final SqrlServerSideKey keyName, final String signatureParamValue,
+			final SqrlSignatureVerifier signatureVerifier) throws SqrlInvalidRequestException {
 		final byte[] signatureFromMessage = SqrlUtil.base64UrlDecodeDataFromSqrlClient(signatureParamValue);
 
 		try {
@@ -243,7 +221,7 @@ public class SqrlClientRequest {
 				throw new SqrlInvalidRequestException(keyName.toString(), " not found in client param: ", clientParam);
 			}
 			final byte[] messageBytes = (clientParam + serverParam).getBytes();
-			final boolean isSignatureValid = SqrlUtil.verifyED25519(signatureFromMessage, messageBytes, publicKey);
+			final boolean isSignatureValid = signatureVerifier.verify(signatureFromMessage, messageBytes, publicKey);
 			if (!isSignatureValid) {
 				throw new SqrlInvalidRequestException("Signature for ", keyName.toString(), " was invalid");
 			}
@@ -254,26 +232,6 @@ public class SqrlClientRequest {
 		}
 	}
 
-	private Map<String, String> parseLinesToNameValueMap(final String decoded) throws SqrlInvalidRequestException {
-		final Map<String, String> table = new TreeMap<>();
-		final BufferedReader reader = new BufferedReader(new StringReader(decoded));
-		try {
-			String line = reader.readLine();
-			while (line != null) {
-				final String[] data = line.split("=");
-				if (data.length != 2) {
-					logger.info("Received empty param " + line);
-				} else {
-					table.put(data[0], data[1]);
-				}
-				line = reader.readLine();
-			}
-			return table;
-		} catch (final Exception e) {
-			throw new SqrlInvalidRequestException(e, "Exception parsing decoded <", decoded, ">");
-		}
-	}
-
 	public SqrlRequestCommand getClientCommand() {
 		return clientCommand;
 	}
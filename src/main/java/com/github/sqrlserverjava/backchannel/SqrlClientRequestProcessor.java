@@ -7,7 +7,9 @@ import static com.github.sqrlserverjava.enums.SqrlInternalUserState.PIDK_EXISTS;
 import static com.github.sqrlserverjava.enums.SqrlServerSideKey.idk;
 import static com.github.sqrlserverjava.enums.SqrlServerSideKey.pidk;
 
+import java.util.EnumMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 import org.slf4j.Logger;
@@ -37,6 +39,10 @@ public class SqrlClientRequestProcessor {
 	private final SqrlConfig			sqrlconfig;
 
 	private SqrlInternalUserState		sqrlInternalUserState	= NONE_EXIST;
+	/**
+	 * The flags of the identity, loaded once per request and kept in step with our own updates. null if not loaded
+	 */
+	private Set<SqrlIdentityFlag>		identityFlagSet			= null;
 
 	public SqrlClientRequestProcessor(final SqrlClientRequest sqrlClientRequest,
 			final SqrlPersistence sqrlPersistence, final SqrlConfig sqrlConfig) throws SqrlInvalidRequestException {
@@ -73,13 +79,32 @@ public class SqrlClientRequestProcessor {
 		return sqrlInternalUserState;
 	}
 
-	private void updateOptValueAsNeeded(final SqrlIdentityFlag flag, final SqrlRequestOpt opt) {
+	private Set<SqrlIdentityFlag> fetchIdentityFlags() {
+		if (identityFlagSet == null) {
+			identityFlagSet = sqrlPersistence.fetchSqrlFlagsForIdentity(sqrlIdk);
+		}
+		return identityFlagSet;
+	}
+
+	private void setIdentityFlag(final SqrlIdentityFlag flag, final boolean value) {
+		sqrlPersistence.setSqrlFlagForIdentity(sqrlIdk, flag, value);
+		if (identityFlagSet != null) {
+			if (value) {
+				identityFlagSet.add(flag);
+			} else {
+				identityFlagSet.remove(flag);
+			}
+		}
+	}
+
+	private void updateOptValueAsNeeded(final SqrlIdentityFlag flag, final SqrlRequestOpt opt,
+			final Map<SqrlIdentityFlag, Boolean> flagsToUpdate) {
 		if (opt != null) {
 			final boolean clientValue = sqrlClientRequest.getOptList().contains(opt);
-			final boolean dbValue = sqrlPersistence.fetchSqrlFlagForIdentity(sqrlIdk, flag);
+			final boolean dbValue = fetchIdentityFlags().contains(flag);
 			if (clientValue != dbValue) { // update it
 				logger.debug(formatForLogging("Updating SQRL opt flag ", opt, " from ", dbValue, " to ", clientValue));
-				sqrlPersistence.setSqrlFlagForIdentity(sqrlIdk, flag, clientValue);
+				flagsToUpdate.put(flag, clientValue);
 				// TODO_AUDIT, client updated value to clientSet
 			}
 		}
@@ -99,14 +124,26 @@ public class SqrlClientRequestProcessor {
 
 		// The absence of given flags means they should be disabled. So loop through all known flags and take the
 		// appropriate action
+		final Map<SqrlIdentityFlag, Boolean> flagsToUpdate = new EnumMap<>(SqrlIdentityFlag.class);
 		for (final SqrlIdentityFlag flag : SqrlIdentityFlag.values()) {
 			final SqrlRequestOpt opt = flag.getSqrlClientOpt();
 			if (flag.hasOptEquivalent() && opt.isPersist()) {
-				updateOptValueAsNeeded(flag, opt);
+				updateOptValueAsNeeded(flag, opt, flagsToUpdate);
 				// Return type of remove is irrelevant since absence of opt means disable
 				unsupportedOpList.remove(flag.getSqrlClientOpt());
 			}
 		}
+		// Write all changes with a single update
+		if (!flagsToUpdate.isEmpty()) {
+			sqrlPersistence.setSqrlFlagsForIdentity(sqrlIdk, flagsToUpdate);
+			for (final Map.Entry<SqrlIdentityFlag, Boolean> entry : flagsToUpdate.entrySet()) {
+				if (entry.getValue().booleanValue()) {
+					identityFlagSet.add(entry.getKey());
+				} else {
+					identityFlagSet.remove(entry.getKey());
+				}
+			}
+		}
 
 		// Some flags require special processing and were not handled above
 		// CPS is a request flag that is per request
@@ -130,11 +167,10 @@ public class SqrlClientRequestProcessor {
 			processIdentCommand();
 			return;
 		case ENABLE:
-			final boolean sqrlEnabledForIdentity = sqrlPersistence.fetchSqrlFlagForIdentity(sqrlIdk,
-					SqrlIdentityFlag.SQRL_AUTH_ENABLED);
+			final boolean sqrlEnabledForIdentity = fetchIdentityFlags().contains(SqrlIdentityFlag.SQRL_AUTH_ENABLED);
 			if (!sqrlEnabledForIdentity) {
 				if (sqrlClientRequest.containsUrs()) {
-					sqrlPersistence.setSqrlFlagForIdentity(sqrlIdk, SqrlIdentityFlag.SQRL_AUTH_ENABLED, true);
+					setIdentityFlag(SqrlIdentityFlag.SQRL_AUTH_ENABLED, true);
 				} else {
 					throw new SqrlInvalidRequestException(
 							"Request was to enable SQRL but didn't contain urs signature");
@@ -144,7 +180,7 @@ public class SqrlClientRequestProcessor {
 			}
 			return;
 		case DISABLE:
-			sqrlPersistence.setSqrlFlagForIdentity(sqrlIdk, SqrlIdentityFlag.SQRL_AUTH_ENABLED, false);
+			setIdentityFlag(SqrlIdentityFlag.SQRL_AUTH_ENABLED, false);
 			return;
 		case REMOVE:
 			if (sqrlClientRequest.containsUrs()) {
@@ -166,8 +202,7 @@ public class SqrlClientRequestProcessor {
 			sqrlPersistence.createAndEnableSqrlIdentity(sqrlIdk);
 			sqrlPersistence.storeSqrlDataForSqrlIdentity(sqrlIdk, sqrlClientRequest.getKeysToBePersisted());
 		}
-		final boolean sqrlEnabledForIdentity = sqrlPersistence.fetchSqrlFlagForIdentity(sqrlIdk,
-				SqrlIdentityFlag.SQRL_AUTH_ENABLED);
+		final boolean sqrlEnabledForIdentity = fetchIdentityFlags().contains(SqrlIdentityFlag.SQRL_AUTH_ENABLED);
 		if (!sqrlEnabledForIdentity) {
 			sqrlInternalUserState = SqrlInternalUserState.DISABLED;
 		} else if (sqrlInternalUserState == SqrlInternalUserState.PIDK_EXISTS) {
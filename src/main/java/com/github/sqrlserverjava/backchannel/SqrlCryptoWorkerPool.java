@@ -0,0 +1,196 @@
+package com.github.sqrlserverjava.backchannel;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.sqrlserverjava.backchannel.LoggingUtil.LogField;
+import com.github.sqrlserverjava.exception.SqrlException;
+import com.github.sqrlserverjava.exception.SqrlServerBusyException;
+
+/**
+ * Runs the CPU bound stage of SQRL client request processing (decoding, nut decryption and signature verification) on
+ * a fixed number of threads with a bounded queue. A flood of well formed requests with bogus signatures can then only
+ * keep that many CPUs busy, and once the queue is full further requests are turned away immediately with
+ * {@link SqrlServerBusyException} rather than piling up behind it.
+ * <p>
+ * The request thread waits for its task, so the {@link LoggingUtil} fields of the request are carried to the worker
+ * and back. With a thread count of 0 there is no pool, tasks run on the calling thread
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlCryptoWorkerPool {
+	private static final long IDLE_THREAD_TIMEOUT_SECONDS = 60;
+
+	private final int					threadCount;
+	private final int					queueLimit;
+	// null when threadCount is 0
+	private final ThreadPoolExecutor	executor;
+	private final AtomicLong			rejectedCount	= new AtomicLong();
+
+	/**
+	 * @param threadCount
+	 *            the number of worker threads, 0 runs tasks on the calling thread
+	 * @param queueLimit
+	 *            the number of tasks which may wait for a worker, any more are rejected. 0 only accepts a task when a
+	 *            worker is free
+	 */
+	public SqrlCryptoWorkerPool(final int threadCount, final int queueLimit) {
+		if (threadCount < 0) {
+			throw new IllegalArgumentException("threadCount must be >= 0");
+		}
+		if (queueLimit < 0) {
+			throw new IllegalArgumentException("queueLimit must be >= 0");
+		}
+		this.threadCount = threadCount;
+		this.queueLimit = queueLimit;
+		if (threadCount == 0) {
+			executor = null;
+		} else {
+			final BlockingQueue<Runnable> queue = queueLimit == 0 ? new SynchronousQueue<>()
+					: new ArrayBlockingQueue<>(queueLimit);
+			executor = new ThreadPoolExecutor(threadCount, threadCount, IDLE_THREAD_TIMEOUT_SECONDS, TimeUnit.SECONDS,
+					queue, new SqrlCryptoThreadFactory(), new ThreadPoolExecutor.AbortPolicy());
+			// Threads are only started under load, and stop once it passes
+			executor.allowCoreThreadTimeOut(true);
+		}
+	}
+
+	/**
+	 * Runs the task on a worker thread and waits for its result
+	 *
+	 * @throws SqrlServerBusyException
+	 *             if the queue is full
+	 * @throws SqrlException
+	 *             thrown by the task, or if the calling thread was interrupted while waiting
+	 */
+	public <T> T execute(final Callable<T> task) throws SqrlException {
+		if (executor == null) {
+			return callInline(task);
+		}
+		final Map<LogField, String> callerLoggingFields = LoggingUtil.copyLoggingFields();
+		final Map<LogField, String> workerLoggingFields = new ConcurrentHashMap<>();
+		final Future<T> future;
+		try {
+			future = executor.submit(() -> {
+				LoggingUtil.restoreLoggingFields(callerLoggingFields);
+				try {
+					return task.call();
+				} finally {
+					workerLoggingFields.putAll(LoggingUtil.copyLoggingFields());
+					LoggingUtil.cleanup();
+				}
+			});
+		} catch (final RejectedExecutionException e) {
+			rejectedCount.incrementAndGet();
+			throw new SqrlServerBusyException(e, "Crypto worker queue is full, ", Integer.toString(getQueueDepth()),
+					" requests waiting");
+		}
+		try {
+			return future.get();
+		} catch (final InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new SqrlException(e, "Interrupted waiting for crypto worker");
+		} catch (final ExecutionException e) {
+			throw unwrap(e.getCause());
+		} finally {
+			// Empty if the task never ran
+			if (!workerLoggingFields.isEmpty()) {
+				LoggingUtil.restoreLoggingFields(workerLoggingFields);
+			}
+		}
+	}
+
+	private static <T> T callInline(final Callable<T> task) throws SqrlException {
+		try {
+			return task.call();
+		} catch (final SqrlException | RuntimeException e) {
+			throw e;
+		} catch (final Exception e) {
+			throw new SqrlException(e, "Error in crypto task");
+		}
+	}
+
+	private static SqrlException unwrap(final Throwable cause) {
+		if (cause instanceof SqrlException) {
+			return (SqrlException) cause;
+		} else if (cause instanceof RuntimeException) {
+			throw (RuntimeException) cause;
+		} else if (cause instanceof Error) {
+			throw (Error) cause;
+		}
+		return new SqrlException(cause, "Error in crypto task");
+	}
+
+	public int getThreadCount() {
+		return threadCount;
+	}
+
+	public int getQueueLimit() {
+		return queueLimit;
+	}
+
+	/**
+	 * @return the number of tasks waiting for a worker
+	 */
+	public int getQueueDepth() {
+		return executor == null ? 0 : executor.getQueue().size();
+	}
+
+	/**
+	 * @return the approximate number of workers running a task
+	 */
+	public int getActiveCount() {
+		return executor == null ? 0 : executor.getActiveCount();
+	}
+
+	/**
+	 * @return the approximate number of tasks run by the workers
+	 */
+	public long getCompletedCount() {
+		return executor == null ? 0 : executor.getCompletedTaskCount();
+	}
+
+	/**
+	 * @return the number of tasks rejected because the queue was full
+	 */
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	/**
+	 * Stops the workers once queued tasks are done, later tasks are rejected
+	 */
+	public void shutdown() {
+		if (executor != null) {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * The only reason for this is to give our threads meaningful names
+	 */
+	private static class SqrlCryptoThreadFactory implements ThreadFactory {
+		private static final AtomicInteger THREAD_COUNTER = new AtomicInteger(1);
+
+		@Override
+		public Thread newThread(final Runnable r) {
+			final Thread thread = new Thread(r, "Sqrl Crypto #" + THREAD_COUNTER.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package com.github.sqrlserverjava.backchannel.nut;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+
+/**
+ * Node local record of the nut tokens whose requests were committed, so a replayed token can be rejected before any
+ * call to {@link SqrlPersistence}. Tokens are grouped into buckets by expiry time, each covering a quarter of the nut
+ * validity period; a bucket is dropped as a whole once every token in it has expired, so the filter holds at most one
+ * validity period worth of tokens.
+ * <p>
+ * The sets are exact, so a hit is always a replay. A miss only means this node hasn't seen the token, the
+ * {@link SqrlPersistence#markTokenAsUsed(String, java.util.Date)} insert remains the authoritative check across the
+ * cluster
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlNutReplayFilter {
+	static final int BUCKET_COUNT = 4;
+
+	private final long								bucketMillis;
+	/**
+	 * key is expiry time / bucketMillis
+	 */
+	private final ConcurrentSkipListMap<Long, Set<String>>	bucketTable	= new ConcurrentSkipListMap<>();
+
+	public SqrlNutReplayFilter(final int nutValidityInSeconds) {
+		this.bucketMillis = Math.max(1, TimeUnit.SECONDS.toMillis(nutValidityInSeconds) / BUCKET_COUNT);
+	}
+
+	/**
+	 * @return true if the token was recorded via {@link #add(String, long)} and has not yet expired
+	 */
+	public boolean contains(final String nutTokenString) {
+		for (final Set<String> bucket : bucketTable.tailMap(currentBucket(), true).values()) {
+			if (bucket.contains(nutTokenString)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Records the token as used, should only be called once the unit of work which marked it as used has committed
+	 *
+	 * @param expiresAtMillis
+	 *            the time at which the nut token expires
+	 */
+	public void add(final String nutTokenString, final long expiresAtMillis) {
+		final long currentBucket = currentBucket();
+		final long bucket = expiresAtMillis / bucketMillis;
+		if (bucket < currentBucket) {
+			return;
+		}
+		bucketTable.computeIfAbsent(bucket, k -> ConcurrentHashMap.newKeySet()).add(nutTokenString);
+		bucketTable.headMap(currentBucket).clear();
+	}
+
+	int bucketCount() {
+		return bucketTable.size();
+	}
+
+	private long currentBucket() {
+		return System.currentTimeMillis() / bucketMillis;
+	}
+}
@@ -1,7 +1,8 @@
 package com.github.sqrlserverjava.enums;
 
 /**
- * Flags that can be applied to a particular SQRL identity
+ * Flags that can be applied to a particular SQRL identity. The denormalized identity layout stores each flag as the bit
+ * at its ordinal, so new flags must be added at the end
  * 
  * @author Dave Badia
  *
@@ -0,0 +1,20 @@
+package com.github.sqrlserverjava.exception;
+
+import com.github.sqrlserverjava.backchannel.SqrlCryptoWorkerPool;
+import com.github.sqrlserverjava.backchannel.SqrlTifFlag;
+
+/**
+ * Indicates that a SQRL client request was turned away because {@link SqrlCryptoWorkerPool} was full. The request was
+ * not processed, so {@link SqrlTifFlag#TRANSIENT_ERROR} is set on the SQRL response
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlServerBusyException extends SqrlClientRequestProcessingException {
+	private static final long serialVersionUID = 4915266804731262553L;
+
+	public SqrlServerBusyException(final Throwable cause, final CharSequence... messagePartArray) {
+		super(SqrlTifFlag.TRANSIENT_ERROR, cause, messagePartArray);
+	}
+
+}
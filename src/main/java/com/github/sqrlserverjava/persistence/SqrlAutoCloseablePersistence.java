@@ -1,6 +1,7 @@
 package com.github.sqrlserverjava.persistence;
 
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -56,6 +57,11 @@ public class SqrlAutoCloseablePersistence implements SqrlPersistence, AutoClosea
 		return sqrlPersistence.fetchSqrlIdentityByUserXref(appUserXref);
 	}
 
+	@Override
+	public SqrlIdentity fetchSqrlIdentity(final String sqrlIdk) {
+		return sqrlPersistence.fetchSqrlIdentity(sqrlIdk);
+	}
+
 	@Override
 	public void updateIdkForSqrlIdentity(final String previousSqrlIdk, final String newSqrlIdk) {
 		sqrlPersistence.updateIdkForSqrlIdentity(previousSqrlIdk, newSqrlIdk);
@@ -86,6 +92,16 @@ public class SqrlAutoCloseablePersistence implements SqrlPersistence, AutoClosea
 		sqrlPersistence.setSqrlFlagForIdentity(sqrlIdk, flagToSet, valueToSet);
 	}
 
+	@Override
+	public Set<SqrlIdentityFlag> fetchSqrlFlagsForIdentity(final String sqrlIdk) {
+		return sqrlPersistence.fetchSqrlFlagsForIdentity(sqrlIdk);
+	}
+
+	@Override
+	public void setSqrlFlagsForIdentity(final String sqrlIdk, final Map<SqrlIdentityFlag, Boolean> flagsToSet) {
+		sqrlPersistence.setSqrlFlagsForIdentity(sqrlIdk, flagsToSet);
+	}
+
 	@Override
 	public void storeSqrlDataForSqrlIdentity(final String sqrlIdk, final Map<String, String> dataToStore) {
 		sqrlPersistence.storeSqrlDataForSqrlIdentity(sqrlIdk, dataToStore);
@@ -146,6 +162,11 @@ public class SqrlAutoCloseablePersistence implements SqrlPersistence, AutoClosea
 		sqrlPersistence.cleanUpExpiredEntries();
 	}
 
+	@Override
+	public SqrlPersistenceCleanupResult cleanUpExpiredEntries(final int maxRowsPerType) {
+		return sqrlPersistence.cleanUpExpiredEntries(maxRowsPerType);
+	}
+
 	@Override
 	public Map<String, SqrlCorrelator> fetchSqrlCorrelatorsDetached(final Set<String> correlatorStringSet) {
 		return sqrlPersistence.fetchSqrlCorrelatorsDetached(correlatorStringSet);
@@ -157,6 +178,12 @@ public class SqrlAutoCloseablePersistence implements SqrlPersistence, AutoClosea
 		return sqrlPersistence.fetchSqrlCorrelatorStatusUpdates(correlatorToCurrentStatusTable);
 	}
 
+	@Override
+	public List<SqrlCorrelatorStatusChange> fetchSqrlCorrelatorStatusChangesSince(final long sinceSequence,
+			final int maxResults) {
+		return sqrlPersistence.fetchSqrlCorrelatorStatusChangesSince(sinceSequence, maxResults);
+	}
+
 	@Override
 	public void deleteSqrlCorrelator(final SqrlCorrelator sqrlCorrelator) {
 		sqrlPersistence.deleteSqrlCorrelator(sqrlCorrelator);
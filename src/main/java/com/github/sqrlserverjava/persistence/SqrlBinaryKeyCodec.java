@@ -0,0 +1,120 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.UUID;
+
+import com.github.sqrlserverjava.exception.SqrlPersistenceException;
+import com.github.sqrlserverjava.util.SqrlConstants;
+
+/**
+ * Converts idk, correlator and nut token strings to and from the binary key columns of the binary key mapping. The
+ * first byte tells how the rest was encoded:
+ * <ul>
+ * <li>{@link #TYPE_UUID}: a correlator in the lower case form of {@link UUID#toString()}, stored as its 16 bytes</li>
+ * <li>{@link #TYPE_BASE64URL}: an idk or nut token in unpadded base64url, stored as the decoded bytes</li>
+ * <li>{@link #TYPE_UTF8}: anything else, stored as UTF-8</li>
+ * </ul>
+ * A string is only stored in binary form if it is the exact encoding of those bytes, so every string converts back
+ * to itself and two strings never share a key
+ *
+ * @author Dave Badia
+ *
+ */
+class SqrlBinaryKeyCodec {
+	static final byte	TYPE_UTF8		= 0;
+	static final byte	TYPE_UUID		= 1;
+	static final byte	TYPE_BASE64URL	= 2;
+
+	private static final int	UUID_STRING_LENGTH	= 36;
+	private static final int	UUID_KEY_LENGTH		= 17;
+
+	private SqrlBinaryKeyCodec() {
+		// Util class
+	}
+
+	static byte[] encode(final String key) {
+		if (key == null) {
+			return null;
+		}
+		if (key.length() == UUID_STRING_LENGTH) {
+			final byte[] uuidBytes = encodeUuid(key);
+			if (uuidBytes != null) {
+				return uuidBytes;
+			}
+		}
+		final byte[] base64Bytes = encodeBase64Url(key);
+		if (base64Bytes != null) {
+			return base64Bytes;
+		}
+		return tagged(TYPE_UTF8, key.getBytes(SqrlConstants.UTF8_CHARSET));
+	}
+
+	private static byte[] encodeUuid(final String key) {
+		final UUID uuid;
+		try {
+			uuid = UUID.fromString(key);
+		} catch (final IllegalArgumentException e) {
+			return null;
+		}
+		if (!uuid.toString().equals(key)) {
+			return null;
+		}
+		return ByteBuffer.allocate(UUID_KEY_LENGTH).put(TYPE_UUID).putLong(uuid.getMostSignificantBits())
+				.putLong(uuid.getLeastSignificantBits()).array();
+	}
+
+	private static byte[] encodeBase64Url(final String key) {
+		if (key.isEmpty() || key.length() % 4 == 1) {
+			return null;
+		}
+		for (int i = 0; i < key.length(); i++) {
+			final char c = key.charAt(i);
+			if (!(c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z' || c >= '0' && c <= '9' || c == '-' || c == '_')) {
+				return null;
+			}
+		}
+		final byte[] decoded = Base64.getUrlDecoder().decode(key);
+		// Unused trailing bits must be zero for the string to be the exact encoding of the bytes
+		if (!Base64.getUrlEncoder().withoutPadding().encodeToString(decoded).equals(key)) {
+			return null;
+		}
+		return tagged(TYPE_BASE64URL, decoded);
+	}
+
+	private static byte[] tagged(final byte type, final byte[] bytes) {
+		final byte[] keyBytes = new byte[bytes.length + 1];
+		keyBytes[0] = type;
+		System.arraycopy(bytes, 0, keyBytes, 1, bytes.length);
+		return keyBytes;
+	}
+
+	static String decode(final byte[] keyBytes) {
+		if (keyBytes == null) {
+			return null;
+		}
+		if (keyBytes.length == 0) {
+			throw new SqrlPersistenceException("Invalid binary key, it is empty");
+		}
+		switch (keyBytes[0]) {
+			case TYPE_UUID:
+				if (keyBytes.length != UUID_KEY_LENGTH) {
+					throw new SqrlPersistenceException("Invalid binary UUID key of length " + keyBytes.length);
+				}
+				final ByteBuffer buffer = ByteBuffer.wrap(keyBytes, 1, 16);
+				return new UUID(buffer.getLong(), buffer.getLong()).toString();
+			case TYPE_BASE64URL:
+				return Base64.getUrlEncoder().withoutPadding().encodeToString(untagged(keyBytes));
+			case TYPE_UTF8:
+				return new String(untagged(keyBytes), SqrlConstants.UTF8_CHARSET);
+			default:
+				throw new SqrlPersistenceException("Invalid binary key type " + keyBytes[0]);
+		}
+	}
+
+	private static byte[] untagged(final byte[] keyBytes) {
+		final byte[] bytes = new byte[keyBytes.length - 1];
+		System.arraycopy(keyBytes, 1, bytes, 0, bytes.length);
+		return bytes;
+	}
+}
@@ -0,0 +1,25 @@
+package com.github.sqrlserverjava.persistence;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+
+/**
+ * Stores idk, correlator and nut token strings in binary key columns, see {@link SqrlBinaryKeyCodec}. Only applied by
+ * the binary key mapping in META-INF/sqrl-binary-keys.xml
+ *
+ * @author Dave Badia
+ *
+ */
+@Converter
+public class SqrlBinaryKeyConverter implements AttributeConverter<String, byte[]> {
+
+	@Override
+	public byte[] convertToDatabaseColumn(final String key) {
+		return SqrlBinaryKeyCodec.encode(key);
+	}
+
+	@Override
+	public String convertToEntityAttribute(final byte[] keyBytes) {
+		return SqrlBinaryKeyCodec.decode(keyBytes);
+	}
+}
@@ -0,0 +1,91 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.sqrlserverjava.exception.SqrlPersistenceException;
+
+/**
+ * Fills the sqrl_identity.idk_binary column with the binary form of each idk, the step of the binary key migration
+ * which can't be done in SQL, see datastore/sqrl-binary-keys.ddl.
+ * <p>
+ * Identities are migrated in batches of ascending id, each committed on its own, so a failed migration can simply be
+ * run again. The idk column is only read, so nodes using it keep working while the migration runs
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlBinaryKeyMigration {
+	private static final Logger logger = LoggerFactory.getLogger(SqrlBinaryKeyMigration.class);
+
+	public static final int DEFAULT_BATCH_SIZE = 500;
+
+	// @formatter:off
+	private static final String SELECT_IDKS		= "SELECT id, idk FROM sqrl_identity WHERE id > ? ORDER BY id";
+	private static final String UPDATE_IDK		= "UPDATE sqrl_identity SET idk_binary = ? WHERE id = ?";
+	// @formatter:on
+
+	private SqrlBinaryKeyMigration() {
+		// Util class
+	}
+
+	/**
+	 * @return the number of identities migrated
+	 */
+	public static int migrateIdks(final DataSource dataSource) {
+		return migrateIdks(dataSource, DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * @param batchSize
+	 *            the number of identities to update per commit
+	 * @return the number of identities migrated
+	 */
+	public static int migrateIdks(final DataSource dataSource, final int batchSize) {
+		if (batchSize <= 0) {
+			throw new IllegalArgumentException("batchSize must be > 0");
+		}
+		final long startTime = System.currentTimeMillis();
+		int count = 0;
+		try (Connection connection = dataSource.getConnection()) {
+			connection.setAutoCommit(false);
+			try (PreparedStatement select = connection.prepareStatement(SELECT_IDKS);
+					PreparedStatement update = connection.prepareStatement(UPDATE_IDK)) {
+				select.setMaxRows(batchSize);
+				long lastId = Long.MIN_VALUE;
+				int batchCount;
+				do {
+					batchCount = 0;
+					select.setLong(1, lastId);
+					try (ResultSet resultSet = select.executeQuery()) {
+						while (resultSet.next()) {
+							lastId = resultSet.getLong(1);
+							update.setBytes(1, SqrlBinaryKeyCodec.encode(resultSet.getString(2)));
+							update.setLong(2, lastId);
+							update.addBatch();
+							batchCount++;
+						}
+					}
+					update.executeBatch();
+					connection.commit();
+					count += batchCount;
+				} while (batchCount == batchSize);
+			} catch (final SQLException | RuntimeException e) {
+				connection.rollback();
+				throw e;
+			}
+		} catch (final SQLException e) {
+			throw new SqrlPersistenceException("Error migrating idks, " + count + " were migrated", e);
+		}
+		logger.info("process=migration detail=\"Migrated {} idks to binary keys\" durationMs={}", count,
+				System.currentTimeMillis() - startTime);
+		return count;
+	}
+}
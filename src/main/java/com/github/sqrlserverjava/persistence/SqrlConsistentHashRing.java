@@ -0,0 +1,52 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Maps keys to one of N shards by consistent hashing. Each shard is placed on the ring at several points so keys are
+ * spread evenly, and adding a shard only moves the keys which now hash to it, about 1/N of them
+ *
+ * @author Dave Badia
+ *
+ */
+class SqrlConsistentHashRing {
+	static final int DEFAULT_POINTS_PER_SHARD = 128;
+
+	// TreeMap<Long=ring position, Integer=shard index>
+	private final TreeMap<Long, Integer> ring = new TreeMap<>();
+
+	SqrlConsistentHashRing(final int shardCount, final int pointsPerShard) {
+		if (shardCount <= 0) {
+			throw new IllegalArgumentException("shardCount must be > 0");
+		}
+		for (int shard = 0; shard < shardCount; shard++) {
+			for (int point = 0; point < pointsPerShard; point++) {
+				ring.put(hash("shard-" + shard + "-" + point), shard);
+			}
+		}
+	}
+
+	int shardFor(final String key) {
+		final Map.Entry<Long, Integer> entry = ring.ceilingEntry(hash(key));
+		return entry == null ? ring.firstEntry().getValue() : entry.getValue();
+	}
+
+	/**
+	 * 64 bit FNV-1a followed by the murmur3 finalizer; fast, stable across JVMs and well distributed even for keys that
+	 * only differ in their last character
+	 */
+	static long hash(final String key) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < key.length(); i++) {
+			hash ^= key.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+}
@@ -17,10 +17,14 @@ import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.MapKeyColumn;
+import javax.persistence.NamedNativeQuery;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
 import javax.persistence.Table;
 import javax.persistence.TableGenerator;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
+import javax.persistence.Transient;
 
 import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
 import com.github.sqrlserverjava.exception.SqrlPersistenceException;
@@ -31,14 +35,34 @@ import com.github.sqrlserverjava.exception.SqrlPersistenceException;
  * @author Dave Badia
  *
  */
+// @formatter:off
+@NamedQueries({
+	@NamedQuery(name = SqrlJpaNamedQuery.Names.CORRELATOR_BY_VALUE,
+			query = "SELECT c FROM SqrlCorrelator c WHERE c.value = :correlator"),
+	@NamedQuery(name = SqrlJpaNamedQuery.Names.CORRELATORS_BY_VALUES,
+			query = "SELECT c FROM SqrlCorrelator c WHERE c.value IN :correlators"),
+	// Project only the status, the entity would pull in the EAGER transientAuthDataTable
+	@NamedQuery(name = SqrlJpaNamedQuery.Names.CORRELATOR_STATUS_BY_VALUES,
+			query = "SELECT c.value, c.authenticationStatus FROM SqrlCorrelator c WHERE c.value IN :correlators"),
+	@NamedQuery(name = SqrlJpaNamedQuery.Names.EXPIRED_CORRELATOR_IDS,
+			query = "SELECT c.id FROM SqrlCorrelator c WHERE c.expiryTime < :now"),
+	@NamedQuery(name = SqrlJpaNamedQuery.Names.DELETE_CORRELATORS_BY_IDS,
+			query = "DELETE FROM SqrlCorrelator c WHERE c.id IN :ids"),
+})
+// The transient auth data table is not an entity so it is accessed with native SQL
+@NamedNativeQuery(name = SqrlJpaNamedQuery.Names.ORPHANED_TRANSIENT_AUTH_DATA_IDS,
+		query = "SELECT DISTINCT t.id FROM sqrl_transient_auth_data t "
+				+ "LEFT JOIN sqrl_correlator c ON c.id = t.id WHERE c.id IS NULL")
+// @formatter:on
 @Entity
 @Table(name = "sqrl_correlator")
 public class SqrlCorrelator implements Serializable {
 	private static final long serialVersionUID = -670589151677266808L;
 
 	@Id
+	// Ids are reserved in blocks, to change the block size override correlator_gen with a table-generator in orm.xml
 	@TableGenerator(name = "correlator_gen", table = "sqrl_db_id_gen", pkColumnName = "name", valueColumnName = "value",
-	allocationSize = 1)
+	allocationSize = SqrlIdBlockAllocator.DEFAULT_BLOCK_SIZE)
 	@GeneratedValue(generator = "correlator_gen")
 	@Column(name = "id")
 	private long id;
@@ -61,6 +85,19 @@ public class SqrlCorrelator implements Serializable {
 	@Column(name = "value", length = 5000)
 	private final Map<String, String> transientAuthDataTable = new HashMap<>();
 
+	// Only mapped by the compact mapping in META-INF/sqrl-compact-transient-auth-data.xml, which stores
+	// transientAuthDataTable here instead of in sqrl_transient_auth_data. See SqrlTransientAuthDataCodec
+	@Transient
+	private String encodedTransientAuthData;
+
+	// true if the compact mapping is in use, set by its JPA callbacks
+	@Transient
+	private boolean compactTransientAuthData;
+
+	// false until encodedTransientAuthData has been decoded into transientAuthDataTable
+	@Transient
+	private boolean transientAuthDataDecoded = true;
+
 	@ManyToOne
 	@JoinColumn(name = "authenticated_identity", nullable = true)
 	private SqrlIdentity authenticatedIdentity;
@@ -83,6 +120,10 @@ public class SqrlCorrelator implements Serializable {
 	}
 
 	public Map<String, String> getTransientAuthDataTable() {
+		if (!transientAuthDataDecoded) {
+			transientAuthDataTable.putAll(SqrlTransientAuthDataCodec.decode(encodedTransientAuthData));
+			transientAuthDataDecoded = true;
+		}
 		return transientAuthDataTable;
 	}
 
@@ -122,7 +163,7 @@ public class SqrlCorrelator implements Serializable {
 		builder.append(", expiryTime=");
 		builder.append(expiryTime);
 		builder.append(", transientAuthDataTable=");
-		builder.append(transientAuthDataTable);
+		builder.append(getTransientAuthDataTable());
 		builder.append(", authenticatedIdentity=");
 		builder.append(authenticatedIdentity);
 		builder.append("]");
@@ -137,7 +178,7 @@ public class SqrlCorrelator implements Serializable {
 		result = prime * result + ((authenticationStatus == null) ? 0 : authenticationStatus.hashCode());
 		result = prime * result + ((expiryTime == null) ? 0 : expiryTime.hashCode());
 		result = prime * result + (int) (id ^ (id >>> 32));
-		result = prime * result + ((transientAuthDataTable == null) ? 0 : transientAuthDataTable.hashCode());
+		result = prime * result + getTransientAuthDataTable().hashCode();
 		result = prime * result + ((value == null) ? 0 : value.hashCode());
 		return result;
 	}
@@ -174,11 +215,7 @@ public class SqrlCorrelator implements Serializable {
 		if (id != other.id) {
 			return false;
 		}
-		if (transientAuthDataTable == null) {
-			if (other.transientAuthDataTable != null) {
-				return false;
-			}
-		} else if (!transientAuthDataTable.equals(other.transientAuthDataTable)) {
+		if (!getTransientAuthDataTable().equals(other.getTransientAuthDataTable())) {
 			return false;
 		}
 		if (value == null) {
@@ -195,4 +232,92 @@ public class SqrlCorrelator implements Serializable {
 		return id;
 	}
 
+	/**
+	 * @param authenticatedIdentity
+	 *            the identity the copy should reference, typically a copy itself
+	 * @return a detached copy, for non-JPA persistence implementations which track changes by comparing snapshots
+	 */
+	SqrlCorrelator copy(final SqrlIdentity authenticatedIdentity) {
+		final SqrlCorrelator copy = new SqrlCorrelator(value, expiryTime);
+		copy.id = id;
+		copy.authenticationStatus = authenticationStatus;
+		if (transientAuthDataDecoded) {
+			copy.transientAuthDataTable.putAll(transientAuthDataTable);
+		} else {
+			// Leave the copy encoded too, so neither is decoded unless it is read
+			copy.encodedTransientAuthData = encodedTransientAuthData;
+			copy.transientAuthDataDecoded = false;
+		}
+		copy.authenticatedIdentity = authenticatedIdentity;
+		return copy;
+	}
+
+	/**
+	 * For non-JPA {@link com.github.sqrlserverjava.SqrlPersistence} implementations which assign their own ids
+	 */
+	void setId(final long id) {
+		this.id = id;
+	}
+
+	/**
+	 * Same as {@link #getAuthenticatedIdentity()} without the status check, for persistence implementations
+	 */
+	SqrlIdentity peekAuthenticatedIdentity() {
+		return authenticatedIdentity;
+	}
+
+	/**
+	 * Sets the encoded form of the transient auth data as read from the compact column, it is decoded on the first
+	 * call to {@link #getTransientAuthDataTable()}
+	 */
+	void setEncodedTransientAuthData(final String encodedTransientAuthData) {
+		this.encodedTransientAuthData = encodedTransientAuthData;
+		transientAuthDataTable.clear();
+		transientAuthDataDecoded = false;
+	}
+
+	/**
+	 * @return the encoded form of the transient auth data for the compact column, re-encoding it only if it has been
+	 *         decoded since it was read
+	 */
+	String getEncodedTransientAuthData() {
+		if (transientAuthDataDecoded) {
+			encodedTransientAuthData = SqrlTransientAuthDataCodec.encode(transientAuthDataTable);
+		}
+		return encodedTransientAuthData;
+	}
+
+	/**
+	 * The JPA pre persist callback of the compact mapping
+	 */
+	void useCompactTransientAuthData() {
+		compactTransientAuthData = true;
+	}
+
+	/**
+	 * The JPA post load callback of the compact mapping
+	 */
+	void decodeTransientAuthDataOnAccess() {
+		compactTransientAuthData = true;
+		setEncodedTransientAuthData(encodedTransientAuthData);
+	}
+
+	/**
+	 * Called by {@link SqrlJpaPersistenceProvider} before commit. With the compact mapping JPA only sees changes to
+	 * the encoded column, not to {@link #getTransientAuthDataTable()}, so it has to be encoded first
+	 */
+	void encodeTransientAuthDataForCommit() {
+		if (compactTransientAuthData) {
+			getEncodedTransientAuthData();
+		}
+	}
+
+	/**
+	 * @return true if the transient auth data may have been changed since it was read, false if it hasn't been
+	 *         decoded
+	 */
+	boolean isTransientAuthDataDecoded() {
+		return transientAuthDataDecoded;
+	}
+
 }
@@ -0,0 +1,108 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.Table;
+import javax.persistence.TableGenerator;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+
+/**
+ * One entry in the correlator status change log. A row is written, in the same transaction, whenever the
+ * authenticationStatus of a {@link SqrlCorrelator} changes. The sequence is the primary key so
+ * {@link SqrlPersistence#fetchSqrlCorrelatorStatusChangesSince(long, int)} is a single range scan no matter how many
+ * correlators are being monitored.
+ * <p>
+ * The generator deliberately uses an allocationSize of 1 so that, apart from rollbacks, the sequence has no gaps and
+ * readers can recognize changes which are still being committed
+ *
+ * @author Dave Badia
+ *
+ */
+// @formatter:off
+@NamedQueries({
+	@NamedQuery(name = SqrlJpaNamedQuery.Names.STATUS_CHANGES_SINCE,
+			query = "SELECT c FROM SqrlCorrelatorStatusChange c WHERE c.sequence > :sinceSequence ORDER BY c.sequence"),
+	@NamedQuery(name = SqrlJpaNamedQuery.Names.EXPIRED_STATUS_CHANGE_SEQUENCES,
+			query = "SELECT c.sequence FROM SqrlCorrelatorStatusChange c WHERE c.expiryTime < :now"),
+	@NamedQuery(name = SqrlJpaNamedQuery.Names.DELETE_STATUS_CHANGES_BY_SEQUENCES,
+			query = "DELETE FROM SqrlCorrelatorStatusChange c WHERE c.sequence IN :sequences"),
+})
+// @formatter:on
+@Entity
+@Table(name = "sqrl_correlator_status_change")
+public class SqrlCorrelatorStatusChange implements Serializable {
+	private static final long serialVersionUID = 2871905637180482311L;
+
+	@Id
+	@TableGenerator(name = "correlator_status_gen", table = "sqrl_db_id_gen", pkColumnName = "name",
+	valueColumnName = "value", allocationSize = 1)
+	@GeneratedValue(generator = "correlator_status_gen")
+	@Column(name = "change_sequence")
+	private long sequence;
+
+	@Column(name = "correlator", nullable = false)
+	private String correlator;
+
+	@Column(name = "authenticationStatus", nullable = false)
+	@Enumerated(EnumType.STRING)
+	private SqrlAuthenticationStatus authenticationStatus;
+
+	@Column(name = "expiryTime", nullable = false)
+	@Temporal(TemporalType.TIMESTAMP)
+	private Date expiryTime;
+
+	public SqrlCorrelatorStatusChange() {
+		// Required by JPA
+	}
+
+	/**
+	 * @param expiryTime
+	 *            the expiry time of the correlator, the change is of no interest after that
+	 */
+	public SqrlCorrelatorStatusChange(final String correlator, final SqrlAuthenticationStatus authenticationStatus,
+			final Date expiryTime) {
+		this.correlator = correlator;
+		this.authenticationStatus = authenticationStatus;
+		this.expiryTime = expiryTime;
+	}
+
+	public long getSequence() {
+		return sequence;
+	}
+
+	void setSequence(final long sequence) {
+		this.sequence = sequence;
+	}
+
+	public String getCorrelator() {
+		return correlator;
+	}
+
+	public SqrlAuthenticationStatus getAuthenticationStatus() {
+		return authenticationStatus;
+	}
+
+	public Date getExpiryTime() {
+		return expiryTime;
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuilder("SqrlCorrelatorStatusChange [sequence=").append(sequence).append(", correlator=")
+				.append(correlator).append(", authenticationStatus=").append(authenticationStatus).append("]")
+				.toString();
+	}
+}
@@ -0,0 +1,154 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.sqrlserverjava.enums.SqrlIdentityFlag;
+import com.github.sqrlserverjava.enums.SqrlServerSideKey;
+import com.github.sqrlserverjava.exception.SqrlPersistenceException;
+
+/**
+ * Copies the flags and identity data of every identity from the sqrl_identity_flag and sqrl_identity_data tables into
+ * the sqrl_identity.flags, sqrl_identity.suk and sqrl_identity.vuk columns used by the denormalized identity layout.
+ * The columns must have been added first, see datastore/sqrl-denormalized-identity.ddl.
+ * <p>
+ * Identities are migrated in batches of ascending id, each committed on its own, so the identity tables are never
+ * locked for long and a failed migration can simply be run again. The old tables are read but left as they are, so
+ * nodes still using the old layout keep working while the migration runs. Identity data other than suk and vuk has no
+ * column in the denormalized layout and is logged and skipped
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlDenormalizedIdentityMigration {
+	private static final Logger logger = LoggerFactory.getLogger(SqrlDenormalizedIdentityMigration.class);
+
+	public static final int DEFAULT_BATCH_SIZE = 500;
+
+	// @formatter:off
+	private static final String SELECT_NEXT_IDS		= "SELECT id FROM sqrl_identity WHERE id > ? ORDER BY id";
+	private static final String SELECT_IDENTITIES	= "SELECT i.id, f.name, d.name, d.value FROM sqrl_identity i "
+			+ "LEFT JOIN sqrl_identity_flag f ON f.id = i.id LEFT JOIN sqrl_identity_data d ON d.id = i.id "
+			+ "WHERE i.id > ? AND i.id <= ?";
+	private static final String UPDATE_IDENTITY		= "UPDATE sqrl_identity SET flags = ?, suk = ?, vuk = ? WHERE id = ?";
+	// @formatter:on
+
+	private SqrlDenormalizedIdentityMigration() {
+		// Util class
+	}
+
+	/**
+	 * @return the number of identities migrated
+	 */
+	public static int migrate(final DataSource dataSource) {
+		return migrate(dataSource, DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * @param batchSize
+	 *            the number of identities to update per commit
+	 * @return the number of identities migrated
+	 */
+	public static int migrate(final DataSource dataSource, final int batchSize) {
+		if (batchSize <= 0) {
+			throw new IllegalArgumentException("batchSize must be > 0");
+		}
+		final long startTime = System.currentTimeMillis();
+		int count = 0;
+		try (Connection connection = dataSource.getConnection()) {
+			connection.setAutoCommit(false);
+			try (PreparedStatement selectIds = connection.prepareStatement(SELECT_NEXT_IDS);
+					PreparedStatement select = connection.prepareStatement(SELECT_IDENTITIES);
+					PreparedStatement update = connection.prepareStatement(UPDATE_IDENTITY)) {
+				selectIds.setMaxRows(batchSize);
+				long fromId = Long.MIN_VALUE;
+				long lastId = lastIdOfNextBatch(selectIds, fromId);
+				while (lastId != fromId) {
+					count += migrateBatch(select, update, fromId, lastId);
+					connection.commit();
+					fromId = lastId;
+					lastId = lastIdOfNextBatch(selectIds, fromId);
+				}
+				// Ends the read only transaction of the last query
+				connection.commit();
+			} catch (final SQLException | RuntimeException e) {
+				connection.rollback();
+				throw e;
+			}
+		} catch (final SQLException e) {
+			throw new SqrlPersistenceException("Error migrating identities, " + count + " were migrated", e);
+		}
+		logger.info("process=migration detail=\"Migrated {} identities to the denormalized layout\" durationMs={}", count,
+				System.currentTimeMillis() - startTime);
+		return count;
+	}
+
+	/**
+	 * @return the highest id of the next batch, or fromId if there are no identities after it
+	 */
+	private static long lastIdOfNextBatch(final PreparedStatement selectIds, final long fromId) throws SQLException {
+		long lastId = fromId;
+		selectIds.setLong(1, fromId);
+		try (ResultSet resultSet = selectIds.executeQuery()) {
+			while (resultSet.next()) {
+				lastId = resultSet.getLong(1);
+			}
+		}
+		return lastId;
+	}
+
+	private static int migrateBatch(final PreparedStatement select, final PreparedStatement update, final long fromId,
+			final long toId) throws SQLException {
+		final Map<Long, SqrlIdentity> identityTable = new LinkedHashMap<>();
+		select.setLong(1, fromId);
+		select.setLong(2, toId);
+		try (ResultSet resultSet = select.executeQuery()) {
+			while (resultSet.next()) {
+				final long id = resultSet.getLong(1);
+				final SqrlIdentity sqrlIdentity = identityTable.computeIfAbsent(id, k -> new SqrlIdentity());
+				final String flag = resultSet.getString(2);
+				if (flag != null) {
+					sqrlIdentity.getEnabledFlagList().add(SqrlIdentityFlag.valueOf(flag));
+				}
+				final String dataName = resultSet.getString(3);
+				if (SqrlServerSideKey.suk.toString().equals(dataName)
+						|| SqrlServerSideKey.vuk.toString().equals(dataName)) {
+					sqrlIdentity.getIdentityDataTable().put(dataName, resultSet.getString(4));
+				} else if (dataName != null) {
+					logger.warn("process=migration detail=\"Skipping identity data with no denormalized column\" "
+							+ "id={} name={}", id, dataName);
+				}
+			}
+		}
+		for (final Map.Entry<Long, SqrlIdentity> entry : identityTable.entrySet()) {
+			final SqrlIdentity sqrlIdentity = entry.getValue();
+			sqrlIdentity.packDenormalizedColumns();
+			update.setInt(1, sqrlIdentity.getFlagBits());
+			setNullableString(update, 2, sqrlIdentity.getSuk());
+			setNullableString(update, 3, sqrlIdentity.getVuk());
+			update.setLong(4, entry.getKey());
+			update.addBatch();
+		}
+		update.executeBatch();
+		return identityTable.size();
+	}
+
+	private static void setNullableString(final PreparedStatement statement, final int index, final String value)
+			throws SQLException {
+		if (value == null) {
+			statement.setNull(index, Types.VARCHAR);
+		} else {
+			statement.setString(index, value);
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.persistence.EntityManager;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tracks the open {@link EntityManager} instances of {@link SqrlJpaPersistenceProvider} so any which are never closed
+ * can be found and closed by {@link SqrlJpaPersistenceProvider.SqrlJpaEntityManagerMonitorTask}.
+ * <p>
+ * The request path only adds an entry on create, writes a primitive timestamp on use and removes the entry on close,
+ * none of which take a lock. The monitor task scans a weakly consistent view of the table so it never blocks requests.
+ * Capturing the stack of the creating thread is by far the most expensive part, so it is sampled at the rate passed
+ * to {@link #track(EntityManager, int)} by each provider
+ *
+ * @author Dave Badia
+ *
+ */
+class SqrlEntityManagerLeakTracker {
+	private static final Logger logger = LoggerFactory.getLogger(SqrlEntityManagerLeakTracker.class);
+
+	/**
+	 * Capture the creation stack of every {@link EntityManager}
+	 */
+	static final int	SAMPLE_ALWAYS	= 1;
+	/**
+	 * Never capture creation stacks, leaks are still found and closed but can't be traced to their caller
+	 */
+	static final int	SAMPLE_NEVER	= 0;
+
+	private final Map<EntityManager, TrackedEntityManager> trackedTable = new ConcurrentHashMap<>();
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if the rate is negative
+	 */
+	static void validateCreationStackSampleRate(final int creationStackSampleRate) {
+		if (creationStackSampleRate < 0) {
+			throw new IllegalArgumentException("creationStackSampleRate must be >= 0");
+		}
+	}
+
+	/**
+	 * @param creationStackSampleRate
+	 *            {@link #SAMPLE_ALWAYS}, {@link #SAMPLE_NEVER} or N to capture the stack of 1 in N on average
+	 */
+	TrackedEntityManager track(final EntityManager entityManager, final int creationStackSampleRate) {
+		final TrackedEntityManager tracked = new TrackedEntityManager(entityManager,
+				sampleCreationStack(creationStackSampleRate));
+		trackedTable.put(entityManager, tracked);
+		return tracked;
+	}
+
+	private static Exception sampleCreationStack(final int sampleRate) {
+		if (sampleRate == SAMPLE_NEVER
+				|| sampleRate != SAMPLE_ALWAYS && ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+			return null;
+		}
+		return new Exception("create SqrlJpaPersistenceProvider trace");
+	}
+
+	void untrack(final EntityManager entityManager) {
+		trackedTable.remove(entityManager);
+	}
+
+	int getTrackedCount() {
+		return trackedTable.size();
+	}
+
+	/**
+	 * Closes every tracked {@link EntityManager} which is still open but has not been used for longer than the
+	 * threshold, and stops tracking any which were closed elsewhere
+	 *
+	 * @return the number of {@link EntityManager} instances closed
+	 */
+	int closeIdle(final long thresholdMillis) {
+		final long now = System.currentTimeMillis();
+		int closedCount = 0;
+		final Iterator<TrackedEntityManager> iter = trackedTable.values().iterator();
+		while (iter.hasNext()) {
+			final TrackedEntityManager tracked = iter.next();
+			if (!tracked.entityManager.isOpen()) {
+				logger.trace("entityManager closed, removing from monitor table");
+				iter.remove();
+			} else if (now - tracked.lastUsedMillis > thresholdMillis) {
+				if (tracked.createdBy == null) {
+					logger.error("Entity Manager is still open and has not been used for " + thresholdMillis
+							+ "ms.  Closing now.  Creation stack was not sampled");
+				} else {
+					logger.error("Entity Manager is still open and has not been used for " + thresholdMillis
+							+ "ms.  Closing now.  Was created from", tracked.createdBy);
+				}
+				iter.remove();
+				tracked.entityManager.close();
+				closedCount++;
+			}
+		}
+		return closedCount;
+	}
+
+	/**
+	 * The tracking state of one {@link EntityManager}, held by its provider so recording a use is a single field write
+	 */
+	static final class TrackedEntityManager {
+		private final EntityManager	entityManager;
+		// null when the creation stack was not sampled
+		private final Exception		createdBy;
+		private volatile long		lastUsedMillis;
+
+		private TrackedEntityManager(final EntityManager entityManager, final Exception createdBy) {
+			this.entityManager = entityManager;
+			this.createdBy = createdBy;
+			this.lastUsedMillis = System.currentTimeMillis();
+		}
+
+		void touch() {
+			lastUsedMillis = System.currentTimeMillis();
+		}
+
+		long getLastUsedMillis() {
+			return lastUsedMillis;
+		}
+
+		boolean hasCreationStack() {
+			return createdBy != null;
+		}
+	}
+}
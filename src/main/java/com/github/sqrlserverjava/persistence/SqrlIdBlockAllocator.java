@@ -0,0 +1,115 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.sql.DataSource;
+
+import com.github.sqrlserverjava.exception.SqrlPersistenceException;
+
+/**
+ * Allocates ids from the sqrl_db_id_gen table in blocks, so the generator row is only locked once per block instead of
+ * once per insert. Shared by all {@link SqrlJdbcPersistenceProvider} instances of a {@link SqrlJdbcPersistenceFactory}.
+ * <p>
+ * A block is reserved by adding its size to the generator value and reading the result, which is the highest id of
+ * the block. This is the same scheme EclipseLink uses for a JPA {@code @TableGenerator}, so JPA and JDBC nodes, and
+ * nodes with different block sizes, can share the table without handing out the same id twice. Ids are unique but not
+ * contiguous, unused ids of a block are skipped when the JVM exits
+ *
+ * @author Dave Badia
+ *
+ */
+class SqrlIdBlockAllocator {
+	/**
+	 * Used for identities and correlators by both the JDBC and JPA providers
+	 */
+	static final int DEFAULT_BLOCK_SIZE = 50;
+
+	// @formatter:off
+	private static final String UPDATE_ID_GENERATOR	= "UPDATE sqrl_db_id_gen SET value = value + ? WHERE name = ?";
+	private static final String SELECT_ID_GENERATOR	= "SELECT value FROM sqrl_db_id_gen WHERE name = ?";
+	private static final String INSERT_ID_GENERATOR	= "INSERT INTO sqrl_db_id_gen (name, value) VALUES (?, ?)";
+	// @formatter:on
+
+	private final DataSource			dataSource;
+	private final int					blockSize;
+	private final Map<String, IdBlock>	blockTable	= new ConcurrentHashMap<>();
+
+	SqrlIdBlockAllocator(final DataSource dataSource, final int blockSize) {
+		if (blockSize <= 0) {
+			throw new IllegalArgumentException("id blockSize must be > 0");
+		}
+		this.dataSource = dataSource;
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * @return the next id from the current block of the given generator, reserving a new block if it is used up
+	 */
+	long nextId(final String generatorName) {
+		final IdBlock idBlock = blockTable.computeIfAbsent(generatorName, k -> new IdBlock());
+		synchronized (idBlock) {
+			if (idBlock.next > idBlock.last) {
+				idBlock.last = reserveBlock(generatorName, blockSize);
+				idBlock.next = idBlock.last - blockSize + 1;
+			}
+			return idBlock.next++;
+		}
+	}
+
+	/**
+	 * Reserves a single id, for generators whose values should increase in allocation order across every node, which a
+	 * block would not since each node hands out its own range.
+	 * <p>
+	 * The id is reserved and committed on a separate connection when the caller inserts its row, not when the caller's
+	 * unit of work commits. Rows can therefore become visible out of id order, and a unit of work which rolls back
+	 * leaves a gap
+	 */
+	long nextUnpooledId(final String generatorName) {
+		return reserveBlock(generatorName, 1);
+	}
+
+	/**
+	 * Uses its own connection so the generator row is not locked for the duration of the callers unit of work
+	 *
+	 * @return the highest id of the reserved block
+	 */
+	private long reserveBlock(final String generatorName, final int size) {
+		try (Connection idConnection = dataSource.getConnection()) {
+			idConnection.setAutoCommit(false);
+			try (PreparedStatement update = idConnection.prepareStatement(UPDATE_ID_GENERATOR);
+					PreparedStatement select = idConnection.prepareStatement(SELECT_ID_GENERATOR)) {
+				update.setLong(1, size);
+				update.setString(2, generatorName);
+				if (update.executeUpdate() == 0) {
+					try (PreparedStatement insert = idConnection.prepareStatement(INSERT_ID_GENERATOR)) {
+						insert.setString(1, generatorName);
+						insert.setLong(2, size);
+						insert.executeUpdate();
+					}
+				}
+				select.setString(1, generatorName);
+				try (ResultSet resultSet = select.executeQuery()) {
+					resultSet.next();
+					final long id = resultSet.getLong(1);
+					idConnection.commit();
+					return id;
+				}
+			} catch (final SQLException e) {
+				idConnection.rollback();
+				throw e;
+			}
+		} catch (final SQLException e) {
+			throw new SqrlPersistenceException("Error allocating id from " + generatorName, e);
+		}
+	}
+
+	private static final class IdBlock {
+		private long	next	= 1;
+		private long	last	= 0;
+	}
+}
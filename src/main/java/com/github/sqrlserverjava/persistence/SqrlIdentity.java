@@ -1,9 +1,11 @@
 package com.github.sqrlserverjava.persistence;
 
 import java.io.Serializable;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import javax.persistence.CollectionTable;
 import javax.persistence.Column;
@@ -16,10 +18,15 @@ import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.MapKeyColumn;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
 import javax.persistence.Table;
 import javax.persistence.TableGenerator;
+import javax.persistence.Transient;
 
 import com.github.sqrlserverjava.enums.SqrlIdentityFlag;
+import com.github.sqrlserverjava.enums.SqrlServerSideKey;
+import com.github.sqrlserverjava.exception.SqrlPersistenceException;
 
 /**
  * Represents a users SQRL identity including a String id the users native app identity
@@ -27,14 +34,23 @@ import com.github.sqrlserverjava.enums.SqrlIdentityFlag;
  * @author Dave Badia
  *
  */
+// @formatter:off
+@NamedQueries({
+	@NamedQuery(name = SqrlJpaNamedQuery.Names.IDENTITY_BY_IDK,
+			query = "SELECT i FROM SqrlIdentity i WHERE i.idk = :sqrlIdk"),
+	@NamedQuery(name = SqrlJpaNamedQuery.Names.IDENTITY_BY_USER_XREF,
+			query = "SELECT i FROM SqrlIdentity i WHERE i.nativeUserXref = :userXref"),
+})
+// @formatter:on
 @Entity
 @Table(name = "sqrl_identity")
 public class SqrlIdentity implements Serializable {
 	private static final long serialVersionUID = 8253431723090135998L;
 
 	@Id
+	// Ids are reserved in blocks, to change the block size override identity_gen with a table-generator in orm.xml
 	@TableGenerator(name = "identity_gen", table = "sqrl_db_id_gen", pkColumnName = "name", valueColumnName = "value",
-	allocationSize = 1)
+	allocationSize = SqrlIdBlockAllocator.DEFAULT_BLOCK_SIZE)
 	@GeneratedValue(generator = "identity_gen")
 	@Column(name = "id")
 	private long id;
@@ -60,6 +76,22 @@ public class SqrlIdentity implements Serializable {
 	@Column(name = "name")
 	private final HashSet<SqrlIdentityFlag> enabledFlagList = new HashSet<SqrlIdentityFlag>();
 
+	// Only mapped by the denormalized layout in META-INF/sqrl-denormalized-identity.xml, which stores enabledFlagList
+	// as a bitmask and the suk and vuk entries of identityDataTable in sqrl_identity instead of in sqrl_identity_flag
+	// and sqrl_identity_data, so an identity is a single row read
+	@Transient
+	private int flagBits;
+
+	@Transient
+	private String suk;
+
+	@Transient
+	private String vuk;
+
+	// true if the denormalized layout is in use, set by its JPA callbacks
+	@Transient
+	private boolean denormalized;
+
 	public SqrlIdentity() {
 		// Required by JPA
 	}
@@ -100,6 +132,139 @@ public class SqrlIdentity implements Serializable {
 		return enabledFlagList;
 	}
 
+	/**
+	 * @return a copy of the flags which are set
+	 */
+	EnumSet<SqrlIdentityFlag> copyEnabledFlags() {
+		final EnumSet<SqrlIdentityFlag> copy = EnumSet.noneOf(SqrlIdentityFlag.class);
+		copy.addAll(enabledFlagList);
+		return copy;
+	}
+
+	/**
+	 * @param flagsToSet
+	 *            the value to set for each flag, flags which are not present are left unchanged
+	 * @return true if any flag changed
+	 */
+	boolean applyFlags(final Map<SqrlIdentityFlag, Boolean> flagsToSet) {
+		boolean changed = false;
+		for (final Map.Entry<SqrlIdentityFlag, Boolean> entry : flagsToSet.entrySet()) {
+			if (entry.getValue().booleanValue()) {
+				changed |= enabledFlagList.add(entry.getKey());
+			} else {
+				changed |= enabledFlagList.remove(entry.getKey());
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * @return the bitmask of the given flags for the denormalized layout, each flag is the bit at its ordinal
+	 */
+	static int toFlagBits(final Set<SqrlIdentityFlag> flagSet) {
+		int flagBits = 0;
+		for (final SqrlIdentityFlag flag : flagSet) {
+			flagBits |= 1 << flag.ordinal();
+		}
+		return flagBits;
+	}
+
+	static EnumSet<SqrlIdentityFlag> fromFlagBits(final int flagBits) {
+		final EnumSet<SqrlIdentityFlag> flagSet = EnumSet.noneOf(SqrlIdentityFlag.class);
+		for (final SqrlIdentityFlag flag : SqrlIdentityFlag.values()) {
+			if ((flagBits & 1 << flag.ordinal()) != 0) {
+				flagSet.add(flag);
+			}
+		}
+		return flagSet;
+	}
+
+	/**
+	 * Sets the flags and identity data from the columns of the denormalized layout
+	 */
+	void setDenormalizedColumns(final int flagBits, final String suk, final String vuk) {
+		this.flagBits = flagBits;
+		this.suk = suk;
+		this.vuk = vuk;
+		unpackDenormalizedColumns();
+	}
+
+	/**
+	 * The JPA post load callback of the denormalized layout
+	 */
+	void unpackDenormalizedColumns() {
+		denormalized = true;
+		enabledFlagList.clear();
+		enabledFlagList.addAll(fromFlagBits(flagBits));
+		identityDataTable.clear();
+		if (suk != null) {
+			identityDataTable.put(SqrlServerSideKey.suk.toString(), suk);
+		}
+		if (vuk != null) {
+			identityDataTable.put(SqrlServerSideKey.vuk.toString(), vuk);
+		}
+	}
+
+	/**
+	 * The JPA pre persist callback of the denormalized layout
+	 */
+	void useDenormalizedColumns() {
+		denormalized = true;
+	}
+
+	/**
+	 * Called by {@link SqrlJpaPersistenceProvider} before commit. With the denormalized layout JPA only sees changes to
+	 * the columns, not to {@link #getEnabledFlagList()} or {@link #getIdentityDataTable()}, so they have to be packed
+	 * first
+	 */
+	void packDenormalizedColumnsForCommit() {
+		if (denormalized) {
+			packDenormalizedColumns();
+		}
+	}
+
+	/**
+	 * Copies the flags and identity data into the columns of the denormalized layout
+	 *
+	 * @throws SqrlPersistenceException
+	 *             if the identity data holds anything other than suk and vuk, which the layout has no column for
+	 */
+	void packDenormalizedColumns() {
+		for (final String name : identityDataTable.keySet()) {
+			if (!SqrlServerSideKey.suk.toString().equals(name) && !SqrlServerSideKey.vuk.toString().equals(name)) {
+				throw new SqrlPersistenceException(
+						"The denormalized identity layout only stores suk and vuk, can't store " + name);
+			}
+		}
+		flagBits = toFlagBits(enabledFlagList);
+		suk = identityDataTable.get(SqrlServerSideKey.suk.toString());
+		vuk = identityDataTable.get(SqrlServerSideKey.vuk.toString());
+	}
+
+	int getFlagBits() {
+		return flagBits;
+	}
+
+	String getSuk() {
+		return suk;
+	}
+
+	String getVuk() {
+		return vuk;
+	}
+
+	/**
+	 * @return a detached copy, for non-JPA persistence implementations which track changes by comparing snapshots
+	 */
+	SqrlIdentity copy() {
+		final SqrlIdentity copy = new SqrlIdentity(idk);
+		copy.id = id;
+		copy.nativeUserXref = nativeUserXref;
+		copy.identityDataTable.putAll(identityDataTable);
+		copy.enabledFlagList.addAll(enabledFlagList);
+		return copy;
+	}
+
 	@Override
 	public String toString() {
 		final StringBuilder builder = new StringBuilder();
@@ -0,0 +1,262 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.sqrlserverjava.enums.SqrlIdentityFlag;
+
+/**
+ * Size bounded, least recently used cache of {@link SqrlIdentity} lookups, shared by all
+ * {@link SqrlIdentityCachingPersistence} instances of a {@link SqrlIdentityCachingPersistenceFactory}. Entries are
+ * keyed by idk or native user xref and expire after a maximum age.
+ * <p>
+ * Invalidation is local to this JVM, so in a cluster the maximum age bounds how long a change made on another node can
+ * go unseen
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlIdentityCache {
+	/**
+	 * Stands in for a cached null
+	 */
+	private static final String NULL_VALUE = new String("null");
+
+	private final long				maxAgeMillis;
+	private final LruMap<IdkEntry>	idkTable;
+	private final LruMap<XrefEntry>	xrefTable;
+	private final AtomicLong		hitCount		= new AtomicLong();
+	private final AtomicLong		missCount		= new AtomicLong();
+	/**
+	 * Incremented on every invalidation. A value loaded from persistence is only cached if no invalidation happened
+	 * while it was being loaded, otherwise it may predate a change which was committed in the meantime
+	 */
+	private final AtomicLong		generation		= new AtomicLong();
+
+	/**
+	 * @param maxEntries
+	 *            the maximum number of identities to cache, the same limit applies to xref lookups
+	 * @param maxAgeMillis
+	 *            the time after which a cached entry is reloaded
+	 */
+	public SqrlIdentityCache(final int maxEntries, final long maxAgeMillis) {
+		this.maxAgeMillis = maxAgeMillis;
+		this.idkTable = new LruMap<>(maxEntries);
+		this.xrefTable = new LruMap<>(maxEntries);
+	}
+
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * @return the number of identities and xref lookups currently cached
+	 */
+	public synchronized int getSize() {
+		return idkTable.size() + xrefTable.size();
+	}
+
+	long currentGeneration() {
+		return generation.get();
+	}
+
+	/* ************************ Lookups by idk *****************************/
+
+	Boolean getExists(final String sqrlIdk) {
+		final IdkEntry entry = getIdkEntry(sqrlIdk);
+		return countHitOrMiss(entry == null ? null : entry.exists);
+	}
+
+	void putExists(final String sqrlIdk, final boolean exists, final long loadedGeneration) {
+		final IdkEntry entry = getOrCreateIdkEntry(sqrlIdk, loadedGeneration);
+		if (entry != null) {
+			entry.exists = exists;
+		}
+	}
+
+	Boolean getFlag(final String sqrlIdk, final SqrlIdentityFlag flag) {
+		final IdkEntry entry = getIdkEntry(sqrlIdk);
+		if (entry == null) {
+			return countHitOrMiss(null);
+		}
+		final Set<SqrlIdentityFlag> enabledFlagSet = entry.enabledFlagSet;
+		if (enabledFlagSet != null) {
+			return countHitOrMiss(enabledFlagSet.contains(flag));
+		}
+		return countHitOrMiss(entry.flagTable.get(flag));
+	}
+
+	/**
+	 * @return a copy of the cached flags which are set, or null on a cache miss
+	 */
+	Set<SqrlIdentityFlag> getFlags(final String sqrlIdk) {
+		final IdkEntry entry = getIdkEntry(sqrlIdk);
+		final Set<SqrlIdentityFlag> enabledFlagSet = entry == null ? null : entry.enabledFlagSet;
+		return countHitOrMiss(enabledFlagSet == null ? null : EnumSet.copyOf(enabledFlagSet));
+	}
+
+	void putFlags(final String sqrlIdk, final Set<SqrlIdentityFlag> enabledFlagSet, final long loadedGeneration) {
+		final IdkEntry entry = getOrCreateIdkEntry(sqrlIdk, loadedGeneration);
+		if (entry != null) {
+			final EnumSet<SqrlIdentityFlag> copy = EnumSet.noneOf(SqrlIdentityFlag.class);
+			copy.addAll(enabledFlagSet);
+			entry.enabledFlagSet = copy;
+		}
+	}
+
+	void putFlag(final String sqrlIdk, final SqrlIdentityFlag flag, final boolean value,
+			final long loadedGeneration) {
+		final IdkEntry entry = getOrCreateIdkEntry(sqrlIdk, loadedGeneration);
+		if (entry != null) {
+			entry.flagTable.put(flag, value);
+		}
+	}
+
+	/**
+	 * @return the cached value, {@link #NULL_VALUE} if the item is known not to exist or null on a cache miss
+	 */
+	String getDataItem(final String sqrlIdk, final String name) {
+		final IdkEntry entry = getIdkEntry(sqrlIdk);
+		return countHitOrMiss(entry == null ? null : entry.dataTable.get(name));
+	}
+
+	void putDataItem(final String sqrlIdk, final String name, final String value, final long loadedGeneration) {
+		final IdkEntry entry = getOrCreateIdkEntry(sqrlIdk, loadedGeneration);
+		if (entry != null) {
+			entry.dataTable.put(name, value == null ? NULL_VALUE : value);
+		}
+	}
+
+	static boolean isNullValue(final Object value) {
+		return value == NULL_VALUE;
+	}
+
+	/* ************************ Lookups by xref *****************************/
+
+	/**
+	 * @return the cached identity, {@link #NULL_VALUE} if there is known to be none or null on a cache miss
+	 */
+	Object getByXref(final String userXref) {
+		XrefEntry entry;
+		synchronized (this) {
+			entry = xrefTable.get(userXref);
+			if (entry != null && isExpired(entry.loadedAt)) {
+				xrefTable.remove(userXref);
+				entry = null;
+			}
+		}
+		return countHitOrMiss(entry == null ? null : entry.value);
+	}
+
+	void putByXref(final String userXref, final SqrlIdentity sqrlIdentity, final long loadedGeneration) {
+		synchronized (this) {
+			if (generation.get() == loadedGeneration) {
+				xrefTable.put(userXref, new XrefEntry(sqrlIdentity == null ? NULL_VALUE : sqrlIdentity.copy()));
+			}
+		}
+	}
+
+	/* ************************ Invalidation *****************************/
+
+	/**
+	 * Removes everything cached about the identity with the given idk, including xref lookups which returned it
+	 */
+	synchronized void invalidateIdk(final String sqrlIdk) {
+		generation.incrementAndGet();
+		idkTable.remove(sqrlIdk);
+		xrefTable.values().removeIf(entry -> entry.value instanceof SqrlIdentity
+				&& sqrlIdk.equals(((SqrlIdentity) entry.value).getIdk()));
+	}
+
+	/**
+	 * Removes the xref lookups for the given xref and for the identity with the given id
+	 */
+	synchronized void invalidateXref(final long sqrlIdentityId, final String userXref) {
+		generation.incrementAndGet();
+		if (userXref != null) {
+			xrefTable.remove(userXref);
+		}
+		xrefTable.values().removeIf(entry -> entry.value instanceof SqrlIdentity
+				&& ((SqrlIdentity) entry.value).getId() == sqrlIdentityId);
+	}
+
+	private synchronized IdkEntry getIdkEntry(final String sqrlIdk) {
+		final IdkEntry entry = idkTable.get(sqrlIdk);
+		if (entry != null && isExpired(entry.loadedAt)) {
+			idkTable.remove(sqrlIdk);
+			return null;
+		}
+		return entry;
+	}
+
+	/**
+	 * @return the entry to store into, or null if the value loaded may already be stale
+	 */
+	private synchronized IdkEntry getOrCreateIdkEntry(final String sqrlIdk, final long loadedGeneration) {
+		if (generation.get() != loadedGeneration) {
+			return null;
+		}
+		IdkEntry entry = getIdkEntry(sqrlIdk);
+		if (entry == null) {
+			entry = new IdkEntry();
+			idkTable.put(sqrlIdk, entry);
+		}
+		return entry;
+	}
+
+	private boolean isExpired(final long loadedAt) {
+		return System.currentTimeMillis() - loadedAt > maxAgeMillis;
+	}
+
+	private <T> T countHitOrMiss(final T value) {
+		if (value == null) {
+			missCount.incrementAndGet();
+		} else {
+			hitCount.incrementAndGet();
+		}
+		return value;
+	}
+
+	private static final class IdkEntry {
+		private final long							loadedAt	= System.currentTimeMillis();
+		private volatile Boolean					exists;
+		/**
+		 * All flags which are set, null until loaded with {@link SqrlIdentityCache#putFlags(String, Set, long)}
+		 */
+		private volatile Set<SqrlIdentityFlag>		enabledFlagSet;
+		private final Map<SqrlIdentityFlag, Boolean>	flagTable	= new ConcurrentHashMap<>();
+		private final Map<String, String>			dataTable	= new ConcurrentHashMap<>();
+	}
+
+	private static final class XrefEntry {
+		private final long		loadedAt	= System.currentTimeMillis();
+		private final Object	value;
+
+		private XrefEntry(final Object value) {
+			this.value = value;
+		}
+	}
+
+	private static final class LruMap<V> extends LinkedHashMap<String, V> {
+		private static final long	serialVersionUID	= -2287015475235418806L;
+		private final int			maxEntries;
+
+		private LruMap(final int maxEntries) {
+			super(16, 0.75f, true);
+			this.maxEntries = maxEntries;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, V> eldest) {
+			return size() > maxEntries;
+		}
+	}
+}
@@ -0,0 +1,286 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+import com.github.sqrlserverjava.enums.SqrlIdentityFlag;
+
+/**
+ * Decorator pattern wrapper for {@link SqrlPersistence} which answers identity lookups by idk and native user xref from
+ * a {@link SqrlIdentityCache}, so the repeated lookups of a single SQRL request only query persistence once.
+ * <p>
+ * Every method which modifies an identity invalidates its cache entries, both immediately and again once this unit of
+ * work is closed. Until then, lookups of an identity modified here bypass the cache so they see the uncommitted
+ * change. Identities returned by {@link #fetchSqrlIdentityByUserXref(String)} may come from the cache, so they are
+ * detached copies; use the {@link SqrlPersistence} methods to modify them
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlIdentityCachingPersistence implements SqrlPersistence {
+	private final SqrlPersistence	sqrlPersistence;
+	private final SqrlIdentityCache	identityCache;
+
+	private final Set<String>		modifiedIdkSet		= new HashSet<>();
+	// Map<Long=identity id, String=new xref>
+	private final Map<Long, String>	modifiedXrefTable	= new HashMap<>();
+
+	public SqrlIdentityCachingPersistence(final SqrlPersistence sqrlPersistence,
+			final SqrlIdentityCache identityCache) {
+		this.sqrlPersistence = sqrlPersistence;
+		this.identityCache = identityCache;
+	}
+
+	/* ************************ Cached lookups *****************************/
+
+	@Override
+	public boolean doesSqrlIdentityExistByIdk(final String sqrlIdk) {
+		if (modifiedIdkSet.contains(sqrlIdk)) {
+			return sqrlPersistence.doesSqrlIdentityExistByIdk(sqrlIdk);
+		}
+		final long generation = identityCache.currentGeneration();
+		Boolean exists = identityCache.getExists(sqrlIdk);
+		if (exists == null) {
+			exists = sqrlPersistence.doesSqrlIdentityExistByIdk(sqrlIdk);
+			identityCache.putExists(sqrlIdk, exists, generation);
+		}
+		return exists;
+	}
+
+	@Override
+	public boolean fetchSqrlFlagForIdentity(final String sqrlIdk, final SqrlIdentityFlag flagToFetch) {
+		if (modifiedIdkSet.contains(sqrlIdk)) {
+			return sqrlPersistence.fetchSqrlFlagForIdentity(sqrlIdk, flagToFetch);
+		}
+		final long generation = identityCache.currentGeneration();
+		Boolean value = identityCache.getFlag(sqrlIdk, flagToFetch);
+		if (value == null) {
+			value = sqrlPersistence.fetchSqrlFlagForIdentity(sqrlIdk, flagToFetch);
+			identityCache.putFlag(sqrlIdk, flagToFetch, value, generation);
+		}
+		return value;
+	}
+
+	@Override
+	public Set<SqrlIdentityFlag> fetchSqrlFlagsForIdentity(final String sqrlIdk) {
+		if (modifiedIdkSet.contains(sqrlIdk)) {
+			return sqrlPersistence.fetchSqrlFlagsForIdentity(sqrlIdk);
+		}
+		final long generation = identityCache.currentGeneration();
+		Set<SqrlIdentityFlag> enabledFlagSet = identityCache.getFlags(sqrlIdk);
+		if (enabledFlagSet == null) {
+			enabledFlagSet = sqrlPersistence.fetchSqrlFlagsForIdentity(sqrlIdk);
+			identityCache.putFlags(sqrlIdk, enabledFlagSet, generation);
+		}
+		return enabledFlagSet;
+	}
+
+	@Override
+	public String fetchSqrlIdentityDataItem(final String sqrlIdk, final String toFetch) {
+		if (modifiedIdkSet.contains(sqrlIdk)) {
+			return sqrlPersistence.fetchSqrlIdentityDataItem(sqrlIdk, toFetch);
+		}
+		final long generation = identityCache.currentGeneration();
+		String value = identityCache.getDataItem(sqrlIdk, toFetch);
+		if (value == null) {
+			value = sqrlPersistence.fetchSqrlIdentityDataItem(sqrlIdk, toFetch);
+			identityCache.putDataItem(sqrlIdk, toFetch, value, generation);
+		} else if (SqrlIdentityCache.isNullValue(value)) {
+			value = null;
+		}
+		return value;
+	}
+
+	@Override
+	public SqrlIdentity fetchSqrlIdentityByUserXref(final String appUserXref) {
+		if (!modifiedIdkSet.isEmpty() || !modifiedXrefTable.isEmpty()) {
+			// We can't tell if the identity was one of those modified
+			return sqrlPersistence.fetchSqrlIdentityByUserXref(appUserXref);
+		}
+		final long generation = identityCache.currentGeneration();
+		final Object cached = identityCache.getByXref(appUserXref);
+		if (cached == null) {
+			final SqrlIdentity sqrlIdentity = sqrlPersistence.fetchSqrlIdentityByUserXref(appUserXref);
+			identityCache.putByXref(appUserXref, sqrlIdentity, generation);
+			return sqrlIdentity;
+		} else if (SqrlIdentityCache.isNullValue(cached)) {
+			return null;
+		} else {
+			return ((SqrlIdentity) cached).copy();
+		}
+	}
+
+	/* ************************ Invalidating methods *****************************/
+
+	/**
+	 * Not cached, and since the caller may modify the returned identity it is treated as modified
+	 */
+	@Override
+	public SqrlIdentity fetchSqrlIdentity(final String sqrlIdk) {
+		modifiedIdk(sqrlIdk);
+		return sqrlPersistence.fetchSqrlIdentity(sqrlIdk);
+	}
+
+	@Override
+	public void createAndEnableSqrlIdentity(final String sqrlIdk) {
+		sqrlPersistence.createAndEnableSqrlIdentity(sqrlIdk);
+		modifiedIdk(sqrlIdk);
+	}
+
+	@Override
+	public void updateIdkForSqrlIdentity(final String previousSqrlIdk, final String newSqrlIdk) {
+		sqrlPersistence.updateIdkForSqrlIdentity(previousSqrlIdk, newSqrlIdk);
+		modifiedIdk(previousSqrlIdk);
+		modifiedIdk(newSqrlIdk);
+	}
+
+	@Override
+	public void deleteSqrlIdentity(final String sqrlIdk) {
+		sqrlPersistence.deleteSqrlIdentity(sqrlIdk);
+		modifiedIdk(sqrlIdk);
+	}
+
+	@Override
+	public void updateNativeUserXref(final long sqrlIdentityId, final String nativeUserXref) {
+		sqrlPersistence.updateNativeUserXref(sqrlIdentityId, nativeUserXref);
+		modifiedXrefTable.put(sqrlIdentityId, nativeUserXref);
+		identityCache.invalidateXref(sqrlIdentityId, nativeUserXref);
+	}
+
+	@Override
+	public void setSqrlFlagForIdentity(final String sqrlIdk, final SqrlIdentityFlag flagToSet,
+			final boolean valueToSet) {
+		sqrlPersistence.setSqrlFlagForIdentity(sqrlIdk, flagToSet, valueToSet);
+		modifiedIdk(sqrlIdk);
+	}
+
+	@Override
+	public void setSqrlFlagsForIdentity(final String sqrlIdk, final Map<SqrlIdentityFlag, Boolean> flagsToSet) {
+		sqrlPersistence.setSqrlFlagsForIdentity(sqrlIdk, flagsToSet);
+		modifiedIdk(sqrlIdk);
+	}
+
+	@Override
+	public void storeSqrlDataForSqrlIdentity(final String sqrlIdk, final Map<String, String> dataToStore) {
+		sqrlPersistence.storeSqrlDataForSqrlIdentity(sqrlIdk, dataToStore);
+		modifiedIdk(sqrlIdk);
+	}
+
+	private void modifiedIdk(final String sqrlIdk) {
+		modifiedIdkSet.add(sqrlIdk);
+		identityCache.invalidateIdk(sqrlIdk);
+	}
+
+	/**
+	 * Invalidate again, since other units of work may have cached the previous values before our changes were
+	 * committed
+	 */
+	private void invalidateModified() {
+		for (final String sqrlIdk : modifiedIdkSet) {
+			identityCache.invalidateIdk(sqrlIdk);
+		}
+		for (final Map.Entry<Long, String> entry : modifiedXrefTable.entrySet()) {
+			identityCache.invalidateXref(entry.getKey(), entry.getValue());
+		}
+		modifiedIdkSet.clear();
+		modifiedXrefTable.clear();
+	}
+
+	@Override
+	public void closeCommit() {
+		try {
+			sqrlPersistence.closeCommit();
+		} finally {
+			invalidateModified();
+		}
+	}
+
+	@Override
+	public void closeRollback() {
+		try {
+			sqrlPersistence.closeRollback();
+		} finally {
+			invalidateModified();
+		}
+	}
+
+	/* ************************ Delegate methods *****************************/
+
+	@Override
+	public void userAuthenticatedViaSqrl(final String sqrlIdk, final String correlator) {
+		sqrlPersistence.userAuthenticatedViaSqrl(sqrlIdk, correlator);
+	}
+
+	@Override
+	public boolean hasTokenBeenUsed(final String nutTokenString) {
+		return sqrlPersistence.hasTokenBeenUsed(nutTokenString);
+	}
+
+	@Override
+	public void markTokenAsUsed(final String nutTokenString, final Date expiryTime) {
+		sqrlPersistence.markTokenAsUsed(nutTokenString, expiryTime);
+	}
+
+	@Override
+	public String fetchTransientAuthData(final String correlator, final String transientNameServerParrot) {
+		return sqrlPersistence.fetchTransientAuthData(correlator, transientNameServerParrot);
+	}
+
+	@Override
+	public SqrlCorrelator createCorrelator(final String correlatorString, final Date expiryTime) {
+		return sqrlPersistence.createCorrelator(correlatorString, expiryTime);
+	}
+
+	@Override
+	public SqrlCorrelator fetchSqrlCorrelator(final String correlator) {
+		return sqrlPersistence.fetchSqrlCorrelator(correlator);
+	}
+
+	@Override
+	public SqrlCorrelator fetchSqrlCorrelatorRequired(final String correlator) {
+		return sqrlPersistence.fetchSqrlCorrelatorRequired(correlator);
+	}
+
+	@Override
+	public boolean isClosed() {
+		return sqrlPersistence.isClosed();
+	}
+
+	@Override
+	public void cleanUpExpiredEntries() {
+		sqrlPersistence.cleanUpExpiredEntries();
+	}
+
+	@Override
+	public SqrlPersistenceCleanupResult cleanUpExpiredEntries(final int maxRowsPerType) {
+		return sqrlPersistence.cleanUpExpiredEntries(maxRowsPerType);
+	}
+
+	@Override
+	public Map<String, SqrlCorrelator> fetchSqrlCorrelatorsDetached(final Set<String> correlatorStringSet) {
+		return sqrlPersistence.fetchSqrlCorrelatorsDetached(correlatorStringSet);
+	}
+
+	@Override
+	public Map<String, SqrlAuthenticationStatus> fetchSqrlCorrelatorStatusUpdates(
+			final Map<String, SqrlAuthenticationStatus> correlatorToCurrentStatusTable) {
+		return sqrlPersistence.fetchSqrlCorrelatorStatusUpdates(correlatorToCurrentStatusTable);
+	}
+
+	@Override
+	public List<SqrlCorrelatorStatusChange> fetchSqrlCorrelatorStatusChangesSince(final long sinceSequence,
+			final int maxResults) {
+		return sqrlPersistence.fetchSqrlCorrelatorStatusChangesSince(sinceSequence, maxResults);
+	}
+
+	@Override
+	public void deleteSqrlCorrelator(final SqrlCorrelator sqrlCorrelator) {
+		sqrlPersistence.deleteSqrlCorrelator(sqrlCorrelator);
+	}
+}
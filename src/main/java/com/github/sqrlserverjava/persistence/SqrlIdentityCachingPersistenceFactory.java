@@ -0,0 +1,56 @@
+package com.github.sqrlserverjava.persistence;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.SqrlPersistenceFactory;
+
+/**
+ * A {@link SqrlPersistenceFactory} which wraps another and caches identity lookups in a {@link SqrlIdentityCache}
+ * shared by all {@link SqrlPersistence} instances it creates. Set on {@code SqrlConfig.setSqrlPersistenceFactory} to
+ * opt in, for example:
+ *
+ * <pre>
+ * config.setSqrlPersistenceFactory(new SqrlIdentityCachingPersistenceFactory(new SqrlJpaPersistenceFactory(), 10000,
+ * 		TimeUnit.MINUTES.toMillis(5)));
+ * </pre>
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlIdentityCachingPersistenceFactory implements SqrlPersistenceFactory {
+	private final SqrlPersistenceFactory	delegate;
+	private final SqrlIdentityCache			identityCache;
+
+	/**
+	 * @param maxEntries
+	 *            the maximum number of identities to cache
+	 * @param maxAgeMillis
+	 *            the time after which a cached entry is reloaded. In a cluster this bounds how long a change made on
+	 *            another node can go unseen
+	 */
+	public SqrlIdentityCachingPersistenceFactory(final SqrlPersistenceFactory delegate, final int maxEntries,
+			final long maxAgeMillis) {
+		this.delegate = delegate;
+		this.identityCache = new SqrlIdentityCache(maxEntries, maxAgeMillis);
+	}
+
+	@Override
+	public SqrlPersistence createSqrlPersistence() {
+		return new SqrlIdentityCachingPersistence(delegate.createSqrlPersistence(), identityCache);
+	}
+
+	@Override
+	public Class<? extends Runnable> getCleanupTaskClass() {
+		return delegate.getCleanupTaskClass();
+	}
+
+	public SqrlPersistenceFactory getDelegate() {
+		return delegate;
+	}
+
+	/**
+	 * @return the cache, for hit and miss metrics
+	 */
+	public SqrlIdentityCache getIdentityCache() {
+		return identityCache;
+	}
+}
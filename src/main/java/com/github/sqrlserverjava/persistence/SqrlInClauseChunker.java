@@ -0,0 +1,61 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Splits a collection of values into chunks for <code>IN</code> clause queries. Every chunk is padded to one of
+ * {@link #CHUNK_SIZES} by repeating its last value, so no matter how many values are queried only a handful of
+ * distinct statements are ever generated and the driver (and JPA provider) can cache them. The largest size stays
+ * below the 1000 element <code>IN</code> list limit of Oracle, the lowest of the common databases
+ *
+ * @author Dave Badia
+ *
+ */
+final class SqrlInClauseChunker {
+	static final int[] CHUNK_SIZES = { 1, 4, 16, 64, 256, 1000 };
+
+	private static final int MAX_CHUNK_SIZE = CHUNK_SIZES[CHUNK_SIZES.length - 1];
+
+	private SqrlInClauseChunker() {
+		// Util class
+	}
+
+	/**
+	 * @return the values split into chunks, each of which has exactly one of the {@link #CHUNK_SIZES} elements. Empty
+	 *         if valueCollection is empty
+	 */
+	static <T> List<List<T>> chunk(final Collection<T> valueCollection) {
+		final List<List<T>> chunkList = new ArrayList<>();
+		final Iterator<T> iter = valueCollection.iterator();
+		int remaining = valueCollection.size();
+		while (remaining > 0) {
+			final int count = Math.min(remaining, MAX_CHUNK_SIZE);
+			final List<T> chunk = new ArrayList<>(chunkSizeFor(count));
+			for (int i = 0; i < count; i++) {
+				chunk.add(iter.next());
+			}
+			final T padding = chunk.get(count - 1);
+			while (chunk.size() < chunkSizeFor(count)) {
+				chunk.add(padding);
+			}
+			chunkList.add(chunk);
+			remaining -= count;
+		}
+		return chunkList;
+	}
+
+	/**
+	 * @return the smallest of the {@link #CHUNK_SIZES} which can hold count values
+	 */
+	static int chunkSizeFor(final int count) {
+		for (final int size : CHUNK_SIZES) {
+			if (count <= size) {
+				return size;
+			}
+		}
+		throw new IllegalArgumentException("count " + count + " exceeds max chunk size of " + MAX_CHUNK_SIZE);
+	}
+}
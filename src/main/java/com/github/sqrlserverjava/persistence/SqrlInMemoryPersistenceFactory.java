@@ -0,0 +1,54 @@
+package com.github.sqrlserverjava.persistence;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.SqrlPersistenceFactory;
+
+/**
+ * A {@link SqrlPersistenceFactory} which keeps all SQRL data on the heap. Suitable for single node deployments and
+ * load testing; all data is lost when the JVM exits.
+ * <p>
+ * Expired entries are removed by {@link SqrlPersistenceCleanupTask} via
+ * {@link SqrlPersistence#cleanUpExpiredEntries(int)}, so no additional cleanup task is required
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlInMemoryPersistenceFactory implements SqrlPersistenceFactory {
+	private static final SqrlInMemoryPersistenceStore DEFAULT_STORE = new SqrlInMemoryPersistenceStore();
+
+	private final SqrlInMemoryPersistenceStore store;
+
+	/**
+	 * Used when this class is set on {@code SqrlConfig.setSqrlPersistenceFactoryClass(String)}; all instances created
+	 * this way share the same store
+	 */
+	public SqrlInMemoryPersistenceFactory() {
+		this(DEFAULT_STORE);
+	}
+
+	public SqrlInMemoryPersistenceFactory(final SqrlInMemoryPersistenceStore store) {
+		this.store = store;
+	}
+
+	/**
+	 * @return the store shared by all instances created via the no-arg constructor
+	 */
+	public static SqrlInMemoryPersistenceStore getDefaultStore() {
+		return DEFAULT_STORE;
+	}
+
+	@Override
+	public SqrlPersistence createSqrlPersistence() {
+		return new SqrlInMemoryPersistenceProvider(store);
+	}
+
+	/**
+	 * @return null, there are no EntityManagers to monitor and expired entries are removed by
+	 *         {@link SqrlPersistenceCleanupTask}
+	 */
+	@Override
+	public Class<? extends Runnable> getCleanupTaskClass() {
+		return null;
+	}
+
+}
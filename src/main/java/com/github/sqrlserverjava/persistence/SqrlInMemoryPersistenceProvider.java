@@ -0,0 +1,581 @@
+package com.github.sqrlserverjava.persistence;
+
+import static com.github.sqrlserverjava.enums.SqrlAuthenticationStatus.AUTHENTICATED_BROWSER;
+import static com.github.sqrlserverjava.enums.SqrlAuthenticationStatus.AUTHENTICATED_CPS;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+import com.github.sqrlserverjava.enums.SqrlIdentityFlag;
+import com.github.sqrlserverjava.exception.SqrlDebugException;
+import com.github.sqrlserverjava.exception.SqrlPersistenceException;
+
+/**
+ * A {@link SqrlPersistence} implementation backed by a {@link SqrlInMemoryPersistenceStore}.
+ * <p>
+ * Each instance is one unit of work. Entities are handed out as working copies which the caller is free to modify, just
+ * as with managed JPA entities; the modified copies are written back to the store on {@link #closeCommit()}. The few
+ * operations which must take effect immediately (marking a nut token as used, expiry cleanup) are applied to the store
+ * right away and recorded in an undo log which is replayed on {@link #closeRollback()}.
+ * <p>
+ * Web apps should not use this class directly, use {@link SqrlInMemoryPersistenceFactory} instead
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlInMemoryPersistenceProvider implements SqrlPersistence {
+	private static final Logger logger = LoggerFactory.getLogger(SqrlInMemoryPersistenceProvider.class);
+
+	private final SqrlInMemoryPersistenceStore store;
+
+	// Working copies and the snapshot they were copied from, used to detect changes at commit time
+	private final Map<String, SqrlCorrelator>	correlatorTable			= new HashMap<>();
+	private final Map<String, SqrlCorrelator>	correlatorOriginalTable	= new HashMap<>();
+	private final Set<String>					deletedCorrelatorSet	= new HashSet<>();
+	private final Map<Long, SqrlIdentity>		identityTable			= new HashMap<>();
+	private final Map<Long, SqrlIdentity>		identityOriginalTable	= new HashMap<>();
+	private final Set<Long>						deletedIdentitySet		= new HashSet<>();
+
+	private final Deque<Runnable>	undoLog	= new ArrayDeque<>();
+	private boolean					closed	= false;
+
+	SqrlInMemoryPersistenceProvider(final SqrlInMemoryPersistenceStore store) {
+		this.store = store;
+	}
+
+	/* ************************ SqrlIdentity methods *****************************/
+
+	@Override
+	public void createAndEnableSqrlIdentity(final String sqrlIdk) {
+		checkOpen();
+		final SqrlIdentity sqrlIdentity = new SqrlIdentity(sqrlIdk);
+		sqrlIdentity.setId(store.nextId());
+		sqrlIdentity.getEnabledFlagList().add(SqrlIdentityFlag.SQRL_AUTH_ENABLED);
+		identityTable.put(sqrlIdentity.getId(), sqrlIdentity);
+	}
+
+	@Override
+	public boolean doesSqrlIdentityExistByIdk(final String sqrlIdk) {
+		return fetchSqrlIdentity(sqrlIdk) != null;
+	}
+
+	@Override
+	public SqrlIdentity fetchSqrlIdentityByUserXref(final String userXref) {
+		checkOpen();
+		for (final SqrlIdentity sqrlIdentity : identityTable.values()) {
+			if (Objects.equals(userXref, sqrlIdentity.getNativeUserXref())) {
+				return sqrlIdentity;
+			}
+		}
+		return trackIdentity(store.userXrefIndex.get(userXref));
+	}
+
+	@Override
+	public void updateIdkForSqrlIdentity(final String previousSqrlIdk, final String newSqrlIdk) {
+		fetchRequiredSqrlIdentity(previousSqrlIdk).setIdk(newSqrlIdk);
+	}
+
+	@Override
+	public void deleteSqrlIdentity(final String sqrlIdk) {
+		final SqrlIdentity sqrlIdentity = fetchSqrlIdentity(sqrlIdk);
+		if (sqrlIdentity == null) {
+			logger.warn("Can't find idk " + sqrlIdk + " to delete");
+		} else {
+			identityTable.remove(sqrlIdentity.getId());
+			if (identityOriginalTable.containsKey(sqrlIdentity.getId())) {
+				deletedIdentitySet.add(sqrlIdentity.getId());
+			}
+		}
+	}
+
+	@Override
+	public void updateNativeUserXref(final long sqrlIdentityId, final String nativeUserXref) {
+		checkOpen();
+		SqrlIdentity sqrlIdentity = identityTable.get(sqrlIdentityId);
+		if (sqrlIdentity == null) {
+			sqrlIdentity = trackIdentity(sqrlIdentityId);
+		}
+		if (sqrlIdentity == null) {
+			throw new SqrlPersistenceException("SqrlIdentity does not exist for id=" + sqrlIdentityId);
+		}
+		sqrlIdentity.setNativeUserXref(nativeUserXref);
+	}
+
+	@Override
+	public void userAuthenticatedViaSqrl(final String sqrlIdk, final String correlatorString) {
+		final SqrlCorrelator sqrlCorrelator = fetchSqrlCorrelatorRequired(correlatorString);
+		final SqrlIdentity sqrlIdentity = fetchRequiredSqrlIdentity(sqrlIdk);
+		sqrlCorrelator.setAuthenticatedIdentity(sqrlIdentity);
+		if (sqrlCorrelator.getAuthenticationStatus() != AUTHENTICATED_CPS) {
+			sqrlCorrelator.setAuthenticationStatus(AUTHENTICATED_BROWSER);
+		}
+	}
+
+	@Override
+	public boolean fetchSqrlFlagForIdentity(final String sqrlIdk, final SqrlIdentityFlag flagToFetch) {
+		return fetchRequiredSqrlIdentity(sqrlIdk).getEnabledFlagList().contains(flagToFetch);
+	}
+
+	@Override
+	public void setSqrlFlagForIdentity(final String sqrlIdk, final SqrlIdentityFlag flagToSet,
+			final boolean enableOrDisable) {
+		final Set<SqrlIdentityFlag> enabledFlagSet = fetchRequiredSqrlIdentity(sqrlIdk).getEnabledFlagList();
+		if (enableOrDisable && !enabledFlagSet.add(flagToSet)) {
+			logger.warn("INFO-ONLY-STACK: Attempt to enable flag " + flagToSet + " that is already present",
+					new SqrlDebugException());
+		} else if (!enableOrDisable && !enabledFlagSet.remove(flagToSet)) {
+			logger.warn("INFO-ONLY-STACK: Attempt to remove flag " + flagToSet + " that wasn't present",
+					new SqrlDebugException());
+		}
+	}
+
+	@Override
+	public Set<SqrlIdentityFlag> fetchSqrlFlagsForIdentity(final String sqrlIdk) {
+		return fetchRequiredSqrlIdentity(sqrlIdk).copyEnabledFlags();
+	}
+
+	@Override
+	public void setSqrlFlagsForIdentity(final String sqrlIdk, final Map<SqrlIdentityFlag, Boolean> flagsToSet) {
+		// Changes are detected and written on commit
+		fetchRequiredSqrlIdentity(sqrlIdk).applyFlags(flagsToSet);
+	}
+
+	@Override
+	public void storeSqrlDataForSqrlIdentity(final String sqrlIdk, final Map<String, String> dataToStore) {
+		final SqrlIdentity sqrlIdentity = fetchSqrlIdentity(sqrlIdk);
+		if (sqrlIdentity == null) {
+			throw new SqrlPersistenceException("SqrlIdentity not found for " + sqrlIdk);
+		}
+		sqrlIdentity.getIdentityDataTable().putAll(dataToStore);
+	}
+
+	@Override
+	public String fetchSqrlIdentityDataItem(final String sqrlIdk, final String toFetch) {
+		final SqrlIdentity sqrlIdentity = fetchSqrlIdentity(sqrlIdk);
+		if (sqrlIdentity == null) {
+			throw new SqrlPersistenceException("Couldn't find SqrlIdentity for idk " + sqrlIdk);
+		}
+		return sqrlIdentity.getIdentityDataTable().get(toFetch);
+	}
+
+	@Override
+	public SqrlIdentity fetchSqrlIdentity(final String sqrlIdk) {
+		checkOpen();
+		// The idk may have been changed in this unit of work, so check our working copies first
+		for (final SqrlIdentity sqrlIdentity : identityTable.values()) {
+			if (sqrlIdk.equals(sqrlIdentity.getIdk())) {
+				return sqrlIdentity;
+			}
+		}
+		return trackIdentity(store.idkIndex.get(sqrlIdk));
+	}
+
+	private SqrlIdentity fetchRequiredSqrlIdentity(final String sqrlIdk) {
+		final SqrlIdentity sqrlIdentity = fetchSqrlIdentity(sqrlIdk);
+		if (sqrlIdentity == null) {
+			throw new SqrlPersistenceException("SqrlIdentity does not exist for idk=" + sqrlIdk);
+		}
+		return sqrlIdentity;
+	}
+
+	/**
+	 * Copies the stored identity into this unit of work
+	 *
+	 * @return the working copy or null if the id is null, does not exist, or was modified or deleted in this unit of
+	 *         work such that the caller's index lookup no longer applies
+	 */
+	private SqrlIdentity trackIdentity(final Long id) {
+		if (id == null || identityTable.containsKey(id) || deletedIdentitySet.contains(id)) {
+			return null;
+		}
+		final SqrlIdentity stored = store.identityTable.get(id);
+		if (stored == null) {
+			return null;
+		}
+		final SqrlIdentity workingCopy = stored.copy();
+		identityTable.put(id, workingCopy);
+		identityOriginalTable.put(id, stored.copy());
+		return workingCopy;
+	}
+
+	/* ************************ Sqrl Correlator methods *****************************/
+
+	@Override
+	public SqrlCorrelator createCorrelator(final String correlatorString, final Date expiryTime) {
+		checkOpen();
+		final SqrlCorrelator sqrlCorrelator = new SqrlCorrelator(correlatorString, expiryTime);
+		sqrlCorrelator.setId(store.nextId());
+		correlatorTable.put(correlatorString, sqrlCorrelator);
+		deletedCorrelatorSet.remove(correlatorString);
+		return sqrlCorrelator;
+	}
+
+	@Override
+	public SqrlCorrelator fetchSqrlCorrelator(final String correlatorString) {
+		checkOpen();
+		SqrlCorrelator sqrlCorrelator = correlatorTable.get(correlatorString);
+		if (sqrlCorrelator != null || deletedCorrelatorSet.contains(correlatorString)) {
+			return sqrlCorrelator;
+		}
+		final SqrlCorrelator stored = store.correlatorTable.get(correlatorString);
+		if (stored == null) {
+			return null;
+		}
+		SqrlIdentity authenticatedIdentity = null;
+		if (stored.peekAuthenticatedIdentity() != null) {
+			final long identityId = stored.peekAuthenticatedIdentity().getId();
+			authenticatedIdentity = identityTable.containsKey(identityId) ? identityTable.get(identityId)
+					: trackIdentity(identityId);
+		}
+		sqrlCorrelator = stored.copy(authenticatedIdentity);
+		correlatorTable.put(correlatorString, sqrlCorrelator);
+		correlatorOriginalTable.put(correlatorString, stored.copy(authenticatedIdentity));
+		return sqrlCorrelator;
+	}
+
+	@Override
+	public SqrlCorrelator fetchSqrlCorrelatorRequired(final String correlatorString) {
+		final SqrlCorrelator sqrlCorrelator = fetchSqrlCorrelator(correlatorString);
+		if (sqrlCorrelator == null) {
+			throw new SqrlPersistenceException("SqrlCorrelator does not exist for correlator=" + correlatorString);
+		}
+		return sqrlCorrelator;
+	}
+
+	@Override
+	public Map<String, SqrlCorrelator> fetchSqrlCorrelatorsDetached(final Set<String> correlatorStringSet) {
+		checkOpen();
+		if (correlatorStringSet.isEmpty()) {
+			return Collections.emptyMap();
+		}
+		final Map<String, SqrlCorrelator> resultTable = new ConcurrentHashMap<>();
+		for (final String correlatorString : correlatorStringSet) {
+			final SqrlCorrelator stored = store.correlatorTable.get(correlatorString);
+			if (stored != null) {
+				// The identity captured with the correlator may be stale, resolve the committed version by id
+				SqrlIdentity authenticatedIdentity = null;
+				if (stored.peekAuthenticatedIdentity() != null) {
+					final SqrlIdentity storedIdentity = store.identityTable
+							.get(stored.peekAuthenticatedIdentity().getId());
+					authenticatedIdentity = storedIdentity == null ? null : storedIdentity.copy();
+				}
+				resultTable.put(correlatorString, stored.copy(authenticatedIdentity));
+			}
+		}
+		return resultTable;
+	}
+
+	@Override
+	public Map<String, SqrlAuthenticationStatus> fetchSqrlCorrelatorStatusUpdates(
+			final Map<String, SqrlAuthenticationStatus> correlatorToCurrentStatusTable) {
+		checkOpen();
+		if (correlatorToCurrentStatusTable.isEmpty()) {
+			return Collections.emptyMap();
+		}
+		final Map<String, SqrlAuthenticationStatus> resultTable = new ConcurrentHashMap<>();
+		for (final Map.Entry<String, SqrlAuthenticationStatus> entry : correlatorToCurrentStatusTable.entrySet()) {
+			final SqrlCorrelator stored = store.correlatorTable.get(entry.getKey());
+			// If we are in the end state (isAuthComplete), always return the result
+			if (stored != null && (entry.getValue().isAuthComplete()
+					|| stored.getAuthenticationStatus() != entry.getValue())) {
+				resultTable.put(entry.getKey(), stored.getAuthenticationStatus());
+			}
+		}
+		return resultTable;
+	}
+
+	@Override
+	public List<SqrlCorrelatorStatusChange> fetchSqrlCorrelatorStatusChangesSince(final long sinceSequence,
+			final int maxResults) {
+		checkOpen();
+		final List<SqrlCorrelatorStatusChange> changeList = new ArrayList<>();
+		for (final SqrlCorrelatorStatusChange change : store.statusChangeLog.tailMap(sinceSequence, false).values()) {
+			if (changeList.size() >= maxResults) {
+				break;
+			}
+			changeList.add(change);
+		}
+		return changeList;
+	}
+
+	@Override
+	public String fetchTransientAuthData(final String correlator, final String dataName) {
+		return fetchSqrlCorrelatorRequired(correlator).getTransientAuthDataTable().get(dataName);
+	}
+
+	@Override
+	public void deleteSqrlCorrelator(final SqrlCorrelator sqrlCorrelator) {
+		if (sqrlCorrelator == null) {
+			return;
+		}
+		final String correlatorString = sqrlCorrelator.getCorrelatorString();
+		if (fetchSqrlCorrelator(correlatorString) == null) {
+			logger.debug("INFO-ONLY-STACK: Attempt to remove correlator that doesn't exist", new SqrlDebugException());
+			return;
+		}
+		correlatorTable.remove(correlatorString);
+		if (correlatorOriginalTable.containsKey(correlatorString)) {
+			deletedCorrelatorSet.add(correlatorString);
+		}
+	}
+
+	/* ************************ Nut token methods *****************************/
+
+	@Override
+	public boolean hasTokenBeenUsed(final String nutTokenString) {
+		checkOpen();
+		return isNutTokenInLiveSegment(nutTokenString);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The token is reserved immediately so a concurrent replay is rejected even before this unit of work commits
+	 *
+	 * @throws SqrlPersistenceException
+	 *             if the token has already been used
+	 */
+	@Override
+	public void markTokenAsUsed(final String nutTokenString, final Date expiryTime) {
+		checkOpen();
+		// A given token always has the same expiry, so the putIfAbsent on its segment is what rejects a concurrent replay
+		final Map<String, Date> segment = store.usedNutTokenSegment(expiryTime);
+		if (isNutTokenInLiveSegment(nutTokenString) || segment.putIfAbsent(nutTokenString, expiryTime) != null) {
+			throw new SqrlPersistenceException("Nut token has already been used: " + nutTokenString);
+		}
+		undoLog.push(() -> segment.remove(nutTokenString, expiryTime));
+	}
+
+	private boolean isNutTokenInLiveSegment(final String nutTokenString) {
+		for (final Map<String, Date> segment : store.liveUsedNutTokenSegments()) {
+			if (segment.containsKey(nutTokenString)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/* ************************ Housekeeping *****************************/
+
+	@Override
+	public void cleanUpExpiredEntries() {
+		cleanUpExpiredEntries(Integer.MAX_VALUE);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Transient auth data is held within each correlator so it is always removed along with it. Used nut tokens are
+	 * removed a whole segment at a time, so their count may exceed maxRowsPerType
+	 */
+	@Override
+	public SqrlPersistenceCleanupResult cleanUpExpiredEntries(final int maxRowsPerType) {
+		checkOpen();
+		final int correlatorCount;
+		// Hold the commit lock so a concurrent commit can't write back a correlator as we remove it
+		synchronized (store.commitLock) {
+			correlatorCount = cleanUpExpiredCorrelators(maxRowsPerType);
+		}
+		final Date now = new Date();
+		// Drop whole segments, tokens in the current segment are removed once it has passed
+		int usedNutTokenCount = 0;
+		Map.Entry<Long, Map<String, Date>> segmentEntry;
+		while (usedNutTokenCount < maxRowsPerType
+				&& (segmentEntry = store.expiredUsedNutTokenSegments().pollFirstEntry()) != null) {
+			final Long segmentKey = segmentEntry.getKey();
+			final Map<String, Date> segment = segmentEntry.getValue();
+			undoLog.push(() -> store.usedNutTokenSegmentTable.putIfAbsent(segmentKey, segment));
+			usedNutTokenCount += segment.size();
+		}
+
+		int statusChangeCount = 0;
+		for (final SqrlCorrelatorStatusChange change : store.statusChangeLog.values()) {
+			if (statusChangeCount >= maxRowsPerType) {
+				break;
+			}
+			if (change.getExpiryTime().before(now) && store.statusChangeLog.remove(change.getSequence(), change)) {
+				undoLog.push(() -> store.statusChangeLog.putIfAbsent(change.getSequence(), change));
+				statusChangeCount++;
+			}
+		}
+		return new SqrlPersistenceCleanupResult(correlatorCount, 0, usedNutTokenCount, statusChangeCount);
+	}
+
+	private int cleanUpExpiredCorrelators(final int maxRowsPerType) {
+		final Date now = new Date();
+		int rowsDeleted = 0;
+		for (final SqrlCorrelator stored : store.correlatorTable.values()) {
+			if (rowsDeleted >= maxRowsPerType) {
+				break;
+			}
+			if (stored.getExpiryTime().before(now)
+					&& store.correlatorTable.remove(stored.getCorrelatorString(), stored)) {
+				undoLog.push(() -> store.correlatorTable.putIfAbsent(stored.getCorrelatorString(), stored));
+				rowsDeleted++;
+			}
+		}
+		return rowsDeleted;
+	}
+
+	/* ************************ TRANSACTION START / STOP *********************/
+
+	@Override
+	public void closeCommit() {
+		checkOpen();
+		synchronized (store.commitLock) {
+			try {
+				flushIdentities();
+				flushCorrelators();
+			} catch (final RuntimeException e) {
+				replayUndoLog();
+				closed = true;
+				throw e;
+			}
+		}
+		undoLog.clear();
+		closed = true;
+	}
+
+	@Override
+	public void closeRollback() {
+		checkOpen();
+		synchronized (store.commitLock) {
+			replayUndoLog();
+		}
+		closed = true;
+	}
+
+	@Override
+	public boolean isClosed() {
+		return closed;
+	}
+
+	private void checkOpen() {
+		if (closed) {
+			throw new SqrlPersistenceException("SqrlInMemoryPersistenceProvider is closed");
+		}
+	}
+
+	private void replayUndoLog() {
+		while (!undoLog.isEmpty()) {
+			undoLog.pop().run();
+		}
+	}
+
+	private void flushIdentities() {
+		for (final Long id : deletedIdentitySet) {
+			final SqrlIdentity previous = remove(store.identityTable, id);
+			if (previous != null) {
+				removeIndex(store.idkIndex, previous.getIdk(), id);
+				removeIndex(store.userXrefIndex, previous.getNativeUserXref(), id);
+			}
+		}
+		for (final SqrlIdentity workingCopy : identityTable.values()) {
+			final Long id = workingCopy.getId();
+			if (workingCopy.equals(identityOriginalTable.get(id))) {
+				continue; // Unchanged
+			}
+			final Long existingIdForIdk = store.idkIndex.get(workingCopy.getIdk());
+			if (existingIdForIdk != null && !existingIdForIdk.equals(id)) {
+				throw new SqrlPersistenceException("SqrlIdentity already exists for idk=" + workingCopy.getIdk());
+			}
+			final SqrlIdentity previous = put(store.identityTable, id, workingCopy.copy());
+			if (previous != null) {
+				removeIndex(store.idkIndex, previous.getIdk(), id);
+				removeIndex(store.userXrefIndex, previous.getNativeUserXref(), id);
+			}
+			put(store.idkIndex, workingCopy.getIdk(), id);
+			if (workingCopy.getNativeUserXref() != null) {
+				put(store.userXrefIndex, workingCopy.getNativeUserXref(), id);
+			}
+		}
+	}
+
+	private void flushCorrelators() {
+		for (final String correlatorString : deletedCorrelatorSet) {
+			remove(store.correlatorTable, correlatorString);
+		}
+		for (final SqrlCorrelator workingCopy : correlatorTable.values()) {
+			final SqrlCorrelator original = correlatorOriginalTable.get(workingCopy.getCorrelatorString());
+			if (original == null && store.correlatorTable.containsKey(workingCopy.getCorrelatorString())) {
+				throw new SqrlPersistenceException(
+						"SqrlCorrelator already exists for correlator=" + workingCopy.getCorrelatorString());
+			} else if (original != null && (!isModified(workingCopy, original)
+					|| !store.correlatorTable.containsKey(workingCopy.getCorrelatorString()))) {
+				continue; // Unchanged, or deleted by cleanup since it was read
+			}
+			SqrlIdentity storedIdentity = null;
+			if (workingCopy.peekAuthenticatedIdentity() != null) {
+				// Identities were flushed first, so this is the committed version
+				storedIdentity = store.identityTable.get(workingCopy.peekAuthenticatedIdentity().getId());
+			}
+			put(store.correlatorTable, workingCopy.getCorrelatorString(), workingCopy.copy(storedIdentity));
+			final SqrlAuthenticationStatus originalStatus = original == null ? SqrlAuthenticationStatus.CORRELATOR_ISSUED
+					: original.getAuthenticationStatus();
+			if (workingCopy.getAuthenticationStatus() != originalStatus) {
+				final SqrlCorrelatorStatusChange change = new SqrlCorrelatorStatusChange(
+						workingCopy.getCorrelatorString(), workingCopy.getAuthenticationStatus(),
+						workingCopy.getExpiryTime());
+				change.setSequence(store.nextStatusChangeSequence());
+				put(store.statusChangeLog, change.getSequence(), change);
+			}
+		}
+	}
+
+	private static boolean isModified(final SqrlCorrelator workingCopy, final SqrlCorrelator original) {
+		return workingCopy.getAuthenticationStatus() != original.getAuthenticationStatus()
+				|| !workingCopy.getExpiryTime().equals(original.getExpiryTime())
+				|| !workingCopy.getTransientAuthDataTable().equals(original.getTransientAuthDataTable())
+				|| identityIdOf(workingCopy) != identityIdOf(original);
+	}
+
+	private static long identityIdOf(final SqrlCorrelator sqrlCorrelator) {
+		final SqrlIdentity sqrlIdentity = sqrlCorrelator.peekAuthenticatedIdentity();
+		return sqrlIdentity == null ? 0 : sqrlIdentity.getId();
+	}
+
+	/* ************************ Undo aware store updates *****************************/
+
+	private <K, V> V put(final Map<K, V> table, final K key, final V value) {
+		final V previous = table.put(key, value);
+		undoLog.push(() -> restore(table, key, previous));
+		return previous;
+	}
+
+	private <K, V> V remove(final Map<K, V> table, final K key) {
+		final V previous = table.remove(key);
+		if (previous != null) {
+			undoLog.push(() -> table.put(key, previous));
+		}
+		return previous;
+	}
+
+	private void removeIndex(final Map<String, Long> index, final String key, final Long id) {
+		if (key != null && index.remove(key, id)) {
+			undoLog.push(() -> index.put(key, id));
+		}
+	}
+
+	private static <K, V> void restore(final Map<K, V> table, final K key, final V previous) {
+		if (previous == null) {
+			table.remove(key);
+		} else {
+			table.put(key, previous);
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The shared, in-heap data behind {@link SqrlInMemoryPersistenceProvider}. Every table is a concurrent map so readers
+ * never block; writers take {@link #commitLock} so a unit of work is applied as a whole.
+ * <p>
+ * Entities held here are never handed out directly, providers work on copies which are written back on commit
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlInMemoryPersistenceStore {
+	static final long USED_NUT_TOKEN_SEGMENT_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+	final Map<String, SqrlCorrelator>	correlatorTable		= new ConcurrentHashMap<>();
+	final Map<Long, SqrlIdentity>		identityTable		= new ConcurrentHashMap<>();
+	final Map<String, Long>				idkIndex			= new ConcurrentHashMap<>();
+	final Map<String, Long>				userXrefIndex		= new ConcurrentHashMap<>();
+	/**
+	 * Used nut tokens, segmented by expiry time so cleanup can drop a whole segment instead of visiting every token.
+	 * key is expiryTime / {@link #USED_NUT_TOKEN_SEGMENT_MILLIS}
+	 */
+	final NavigableMap<Long, Map<String, Date>>				usedNutTokenSegmentTable	= new ConcurrentSkipListMap<>();
+	// Only written under commitLock, so sequences become visible in order
+	final NavigableMap<Long, SqrlCorrelatorStatusChange>	statusChangeLog		= new ConcurrentSkipListMap<>();
+	final Object											commitLock			= new Object();
+	private final AtomicLong								idSequence			= new AtomicLong();
+	private final AtomicLong								statusChangeSequence	= new AtomicLong();
+
+	long nextId() {
+		return idSequence.incrementAndGet();
+	}
+
+	long nextStatusChangeSequence() {
+		return statusChangeSequence.incrementAndGet();
+	}
+
+	/**
+	 * @return the segment which holds used nut tokens expiring at the given time
+	 */
+	Map<String, Date> usedNutTokenSegment(final Date expiryTime) {
+		return usedNutTokenSegmentTable.computeIfAbsent(segmentFor(expiryTime.getTime()),
+				k -> new ConcurrentHashMap<>());
+	}
+
+	/**
+	 * @return the used nut token segments which may still hold unexpired tokens, oldest first
+	 */
+	Collection<Map<String, Date>> liveUsedNutTokenSegments() {
+		return usedNutTokenSegmentTable.tailMap(segmentFor(System.currentTimeMillis()), true).values();
+	}
+
+	/**
+	 * @return the used nut token segments in which every token has expired, keyed as in
+	 *         {@link #usedNutTokenSegmentTable}
+	 */
+	NavigableMap<Long, Map<String, Date>> expiredUsedNutTokenSegments() {
+		return usedNutTokenSegmentTable.headMap(segmentFor(System.currentTimeMillis()), false);
+	}
+
+	private static long segmentFor(final long timeMillis) {
+		return timeMillis / USED_NUT_TOKEN_SEGMENT_MILLIS;
+	}
+
+	/**
+	 * @return the number of correlators currently held, useful for monitoring heap usage
+	 */
+	public int getCorrelatorCount() {
+		return correlatorTable.size();
+	}
+
+	/**
+	 * @return the number of used nut tokens currently held, useful for monitoring heap usage
+	 */
+	public int getUsedNutTokenCount() {
+		int count = 0;
+		for (final Map<String, Date> segment : usedNutTokenSegmentTable.values()) {
+			count += segment.size();
+		}
+		return count;
+	}
+
+	/**
+	 * Discards all data in the store
+	 */
+	public void clear() {
+		synchronized (commitLock) {
+			correlatorTable.clear();
+			identityTable.clear();
+			idkIndex.clear();
+			userXrefIndex.clear();
+			usedNutTokenSegmentTable.clear();
+			statusChangeLog.clear();
+		}
+	}
+}
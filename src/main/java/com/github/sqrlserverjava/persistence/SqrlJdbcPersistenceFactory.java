@@ -0,0 +1,125 @@
+package com.github.sqrlserverjava.persistence;
+
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.sql.DataSource;
+
+import com.github.sqrlserverjava.SqrlConfig;
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.SqrlPersistenceFactory;
+import com.github.sqrlserverjava.exception.SqrlConfigSettingException;
+
+/**
+ * A {@link SqrlPersistenceFactory} which uses plain JDBC against the datastore/sqrl.ddl schema, without JPA.
+ * <p>
+ * When set by class name via {@link SqrlConfig#setSqrlPersistenceFactoryClass(String)}, the {@link DataSource} is
+ * looked up in JNDI at {@link #DEFAULT_DATASOURCE_JNDI_NAME}. Otherwise construct it with a {@link DataSource} and pass
+ * it to {@link SqrlConfig#setSqrlPersistenceFactory(SqrlPersistenceFactory)}
+ * <p>
+ * Identity and correlator ids are reserved from sqrl_db_id_gen in blocks of {@link #DEFAULT_ID_BLOCK_SIZE} per JVM,
+ * the block size can be changed via {@link #SqrlJdbcPersistenceFactory(DataSource, int)}
+ * <p>
+ * By default transient auth data is kept in the sqrl_transient_auth_data table. With the compact mapping, see
+ * {@link #SqrlJdbcPersistenceFactory(DataSource, int, boolean)}, it is kept in the sqrl_correlator.transient_auth_data
+ * column instead: reading a correlator doesn't join and a parrot update is one row update instead of a delete and
+ * insert per changed entry. The column is only decoded when the transient auth data is read. Use the same setting
+ * as the JPA mapping, META-INF/sqrl-compact-transient-auth-data.xml, if both are used against one database
+ * <p>
+ * Likewise, with the denormalized identity layout, see {@link #SqrlJdbcPersistenceFactory(DataSource, int, boolean,
+ * boolean)}, the flags, suk and vuk of an identity are kept in the sqrl_identity row so it is read without joining
+ * sqrl_identity_flag and sqrl_identity_data. The matching JPA mapping is META-INF/sqrl-denormalized-identity.xml and
+ * existing identities are migrated with {@link SqrlDenormalizedIdentityMigration}
+ * <p>
+ * With binary keys, see {@link #SqrlJdbcPersistenceFactory(DataSource, int, boolean, boolean, boolean)}, the idk,
+ * correlator and nut token columns hold the binary form of the strings, which keeps their unique indexes small. See
+ * datastore/sqrl-binary-keys.ddl; the JPA mapping is META-INF/sqrl-binary-keys.xml
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlJdbcPersistenceFactory implements SqrlPersistenceFactory {
+	public static final String	DEFAULT_DATASOURCE_JNDI_NAME	= "java:comp/env/jdbc/sqrl";
+	public static final int		DEFAULT_ID_BLOCK_SIZE			= SqrlIdBlockAllocator.DEFAULT_BLOCK_SIZE;
+
+	private final DataSource			dataSource;
+	private final SqrlIdBlockAllocator	idAllocator;
+	private final boolean				compactTransientAuthData;
+	private final boolean				denormalizedIdentity;
+	private final boolean				binaryKeys;
+
+	public SqrlJdbcPersistenceFactory() {
+		this(lookupDataSource(DEFAULT_DATASOURCE_JNDI_NAME));
+	}
+
+	public SqrlJdbcPersistenceFactory(final DataSource dataSource) {
+		this(dataSource, DEFAULT_ID_BLOCK_SIZE);
+	}
+
+	/**
+	 * @param idBlockSize
+	 *            the number of identity and correlator ids to reserve per round trip to sqrl_db_id_gen, 1 reserves
+	 *            each id individually
+	 */
+	public SqrlJdbcPersistenceFactory(final DataSource dataSource, final int idBlockSize) {
+		this(dataSource, idBlockSize, false);
+	}
+
+	/**
+	 * @param compactTransientAuthData
+	 *            true to keep transient auth data in the sqrl_correlator.transient_auth_data column instead of the
+	 *            sqrl_transient_auth_data table
+	 */
+	public SqrlJdbcPersistenceFactory(final DataSource dataSource, final int idBlockSize,
+			final boolean compactTransientAuthData) {
+		this(dataSource, idBlockSize, compactTransientAuthData, false);
+	}
+
+	/**
+	 * @param denormalizedIdentity
+	 *            true to keep identity flags as a bitmask in sqrl_identity.flags and the suk and vuk in
+	 *            sqrl_identity.suk and sqrl_identity.vuk instead of the sqrl_identity_flag and sqrl_identity_data
+	 *            tables. No other identity data can be stored
+	 */
+	public SqrlJdbcPersistenceFactory(final DataSource dataSource, final int idBlockSize,
+			final boolean compactTransientAuthData, final boolean denormalizedIdentity) {
+		this(dataSource, idBlockSize, compactTransientAuthData, denormalizedIdentity, false);
+	}
+
+	/**
+	 * @param binaryKeys
+	 *            true if sqrl_identity.idk, sqrl_correlator.value and sqrl_used_nut_token.value are binary columns, see
+	 *            {@link SqrlBinaryKeyConverter}
+	 */
+	public SqrlJdbcPersistenceFactory(final DataSource dataSource, final int idBlockSize,
+			final boolean compactTransientAuthData, final boolean denormalizedIdentity, final boolean binaryKeys) {
+		this.dataSource = dataSource;
+		this.idAllocator = new SqrlIdBlockAllocator(dataSource, idBlockSize);
+		this.compactTransientAuthData = compactTransientAuthData;
+		this.denormalizedIdentity = denormalizedIdentity;
+		this.binaryKeys = binaryKeys;
+	}
+
+	private static DataSource lookupDataSource(final String jndiName) {
+		try {
+			return (DataSource) new InitialContext().lookup(jndiName);
+		} catch (final NamingException e) {
+			throw new SqrlConfigSettingException("Could not find DataSource in JNDI at " + jndiName, e);
+		}
+	}
+
+	@Override
+	public SqrlPersistence createSqrlPersistence() {
+		return new SqrlJdbcPersistenceProvider(dataSource, idAllocator, compactTransientAuthData,
+				denormalizedIdentity, binaryKeys);
+	}
+
+	/**
+	 * @return null, there are no EntityManagers to monitor and expired entries are removed by
+	 *         {@link SqrlPersistenceCleanupTask}
+	 */
+	@Override
+	public Class<? extends Runnable> getCleanupTaskClass() {
+		return null;
+	}
+
+}
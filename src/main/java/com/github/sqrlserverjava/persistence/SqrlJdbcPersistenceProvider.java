@@ -0,0 +1,951 @@
+package com.github.sqrlserverjava.persistence;
+
+import static com.github.sqrlserverjava.enums.SqrlAuthenticationStatus.AUTHENTICATED_BROWSER;
+import static com.github.sqrlserverjava.enums.SqrlAuthenticationStatus.AUTHENTICATED_CPS;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+import com.github.sqrlserverjava.enums.SqrlIdentityFlag;
+import com.github.sqrlserverjava.exception.SqrlDebugException;
+import com.github.sqrlserverjava.exception.SqrlPersistenceException;
+
+/**
+ * A {@link SqrlPersistence} implementation which talks to the datastore/sqrl.ddl schema with plain JDBC.
+ * <p>
+ * Each instance holds one {@link Connection} for the duration of the unit of work. Every operation is a single
+ * prepared statement which is closed as soon as it has run. Statements are not cached here since a unit of work only
+ * runs a handful, reuse across requests is left to the driver or pool: derby and the PostgreSQL driver cache per
+ * connection by default, MySQL Connector/J needs {@code cachePrepStmts=true}. Entities are tracked the same way JPA
+ * does it: callers may modify the returned objects and the changes are written on {@link #closeCommit()} by comparing
+ * against the state which was read
+ * <p>
+ * Web apps should not use this class directly, use {@link SqrlJdbcPersistenceFactory} instead
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlJdbcPersistenceProvider implements SqrlPersistence {
+	private static final Logger logger = LoggerFactory.getLogger(SqrlJdbcPersistenceProvider.class);
+
+	private static final String	IDENTITY_GENERATOR		= "identity_gen";
+	private static final String	CORRELATOR_GENERATOR	= "correlator_gen";
+	private static final String	STATUS_CHANGE_GENERATOR	= "correlator_status_gen";
+
+	// @formatter:off
+	private static final String SELECT_IDENTITY 			= "SELECT i.id, i.idk, i.native_user_xref, f.name, d.name, d.value "
+			+ "FROM sqrl_identity i LEFT JOIN sqrl_identity_flag f ON f.id = i.id LEFT JOIN sqrl_identity_data d ON d.id = i.id WHERE ";
+	private static final String SELECT_IDENTITY_BY_IDK		= SELECT_IDENTITY + "i.idk = ?";
+	private static final String SELECT_IDENTITY_BY_XREF		= SELECT_IDENTITY + "i.native_user_xref = ?";
+	private static final String SELECT_IDENTITY_BY_ID		= SELECT_IDENTITY + "i.id = ?";
+	private static final String INSERT_IDENTITY				= "INSERT INTO sqrl_identity (id, idk, native_user_xref) VALUES (?, ?, ?)";
+	private static final String UPDATE_IDENTITY				= "UPDATE sqrl_identity SET idk = ?, native_user_xref = ? WHERE id = ?";
+	private static final String DELETE_IDENTITY				= "DELETE FROM sqrl_identity WHERE id = ?";
+	private static final String INSERT_IDENTITY_FLAG		= "INSERT INTO sqrl_identity_flag (id, name) VALUES (?, ?)";
+	private static final String DELETE_IDENTITY_FLAG		= "DELETE FROM sqrl_identity_flag WHERE id = ? AND name = ?";
+	private static final String DELETE_ALL_IDENTITY_FLAGS	= "DELETE FROM sqrl_identity_flag WHERE id = ?";
+	private static final String INSERT_IDENTITY_DATA		= "INSERT INTO sqrl_identity_data (id, name, value) VALUES (?, ?, ?)";
+	private static final String UPDATE_IDENTITY_DATA		= "UPDATE sqrl_identity_data SET value = ? WHERE id = ? AND name = ?";
+	private static final String DELETE_IDENTITY_DATA		= "DELETE FROM sqrl_identity_data WHERE id = ? AND name = ?";
+	private static final String DELETE_ALL_IDENTITY_DATA	= "DELETE FROM sqrl_identity_data WHERE id = ?";
+
+	// Denormalized identity layout, flags, suk and vuk in sqrl_identity
+	private static final String SELECT_DENORMALIZED_IDENTITY	= "SELECT i.id, i.idk, i.native_user_xref, i.flags, i.suk, i.vuk "
+			+ "FROM sqrl_identity i WHERE ";
+	private static final String SELECT_DENORMALIZED_IDENTITY_BY_IDK		= SELECT_DENORMALIZED_IDENTITY + "i.idk = ?";
+	private static final String SELECT_DENORMALIZED_IDENTITY_BY_XREF	= SELECT_DENORMALIZED_IDENTITY + "i.native_user_xref = ?";
+	private static final String SELECT_DENORMALIZED_IDENTITY_BY_ID		= SELECT_DENORMALIZED_IDENTITY + "i.id = ?";
+	private static final String INSERT_DENORMALIZED_IDENTITY	= "INSERT INTO sqrl_identity (id, idk, native_user_xref, flags, suk, vuk) VALUES (?, ?, ?, ?, ?, ?)";
+	private static final String UPDATE_DENORMALIZED_IDENTITY	= "UPDATE sqrl_identity SET idk = ?, native_user_xref = ?, flags = ?, suk = ?, vuk = ? WHERE id = ?";
+
+	private static final String SELECT_CORRELATOR 			= "SELECT c.id, c.value, c.authenticationStatus, c.expiryTime, c.authenticated_identity, t.name, t.value "
+			+ "FROM sqrl_correlator c LEFT JOIN sqrl_transient_auth_data t ON t.id = c.id WHERE ";
+	private static final String SELECT_CORRELATOR_BY_VALUE	= SELECT_CORRELATOR + "c.value = ?";
+	private static final String SELECT_CORRELATOR_STATUS	= "SELECT c.value, c.authenticationStatus FROM sqrl_correlator c WHERE ";
+	private static final String INSERT_CORRELATOR			= "INSERT INTO sqrl_correlator (id, value, authenticationStatus, expiryTime, authenticated_identity) VALUES (?, ?, ?, ?, ?)";
+	private static final String UPDATE_CORRELATOR			= "UPDATE sqrl_correlator SET authenticationStatus = ?, expiryTime = ?, authenticated_identity = ? WHERE id = ?";
+	private static final String DELETE_CORRELATOR			= "DELETE FROM sqrl_correlator WHERE id = ?";
+	private static final String INSERT_TRANSIENT_DATA		= "INSERT INTO sqrl_transient_auth_data (id, name, value) VALUES (?, ?, ?)";
+	private static final String UPDATE_TRANSIENT_DATA		= "UPDATE sqrl_transient_auth_data SET value = ? WHERE id = ? AND name = ?";
+	private static final String DELETE_TRANSIENT_DATA		= "DELETE FROM sqrl_transient_auth_data WHERE id = ? AND name = ?";
+	private static final String DELETE_ALL_TRANSIENT_DATA	= "DELETE FROM sqrl_transient_auth_data WHERE id = ?";
+
+	// Compact mapping, transient auth data in sqrl_correlator.transient_auth_data
+	private static final String SELECT_COMPACT_CORRELATOR	= "SELECT c.id, c.value, c.authenticationStatus, c.expiryTime, c.authenticated_identity, c.transient_auth_data "
+			+ "FROM sqrl_correlator c WHERE ";
+	private static final String SELECT_COMPACT_CORRELATOR_BY_VALUE	= SELECT_COMPACT_CORRELATOR + "c.value = ?";
+	private static final String INSERT_COMPACT_CORRELATOR	= "INSERT INTO sqrl_correlator (id, value, authenticationStatus, expiryTime, authenticated_identity, transient_auth_data) VALUES (?, ?, ?, ?, ?, ?)";
+	private static final String UPDATE_COMPACT_CORRELATOR	= "UPDATE sqrl_correlator SET authenticationStatus = ?, expiryTime = ?, authenticated_identity = ?, transient_auth_data = ? WHERE id = ?";
+
+	private static final String SELECT_STATUS_CHANGES		= "SELECT change_sequence, correlator, authenticationStatus, expiryTime "
+			+ "FROM sqrl_correlator_status_change WHERE change_sequence > ? ORDER BY change_sequence";
+	private static final String INSERT_STATUS_CHANGE		= "INSERT INTO sqrl_correlator_status_change (change_sequence, correlator, authenticationStatus, expiryTime) VALUES (?, ?, ?, ?)";
+
+	private static final String SELECT_USED_NUT_TOKEN		= "SELECT 1 FROM sqrl_used_nut_token WHERE value = ?";
+	private static final String INSERT_USED_NUT_TOKEN		= "INSERT INTO sqrl_used_nut_token (value, expiryTime) VALUES (?, ?)";
+
+	private static final String SELECT_EXPIRED_CORRELATOR_IDS	= "SELECT id FROM sqrl_correlator WHERE expiryTime < ?";
+	private static final String SELECT_ORPHANED_TRANSIENT_DATA_IDS	= "SELECT DISTINCT t.id FROM sqrl_transient_auth_data t "
+			+ "LEFT JOIN sqrl_correlator c ON c.id = t.id WHERE c.id IS NULL";
+	private static final String SELECT_EXPIRED_NUT_TOKENS		= "SELECT value FROM sqrl_used_nut_token WHERE expiryTime < ?";
+	private static final String SELECT_EXPIRED_STATUS_CHANGES	= "SELECT change_sequence FROM sqrl_correlator_status_change WHERE expiryTime < ?";
+	private static final String DELETE_TRANSIENT_DATA_WHERE		= "DELETE FROM sqrl_transient_auth_data WHERE ";
+	private static final String DELETE_CORRELATORS_WHERE		= "DELETE FROM sqrl_correlator WHERE ";
+	private static final String DELETE_NUT_TOKENS_WHERE			= "DELETE FROM sqrl_used_nut_token WHERE ";
+	private static final String DELETE_STATUS_CHANGES_WHERE		= "DELETE FROM sqrl_correlator_status_change WHERE ";
+
+	// @formatter:on
+
+	private static final Object	NULL_BIGINT		= new Object();
+	private static final Object	NULL_VARCHAR	= new Object();
+
+	private final SqrlIdBlockAllocator			idAllocator;
+	private final boolean						compactTransientAuthData;
+	private final boolean						denormalizedIdentity;
+	private final boolean						binaryKeys;
+	private final Connection					connection;
+
+	// Entities handed out in this unit of work and the state they were read with, compared at commit time
+	private final Map<String, SqrlCorrelator>	correlatorTable			= new HashMap<>();
+	private final Map<String, SqrlCorrelator>	correlatorOriginalTable	= new HashMap<>();
+	private final Set<String>					deletedCorrelatorSet	= new HashSet<>();
+	private final Map<Long, SqrlIdentity>		identityTable			= new HashMap<>();
+	private final Map<Long, SqrlIdentity>		identityOriginalTable	= new HashMap<>();
+	private final Set<Long>						deletedIdentitySet		= new HashSet<>();
+
+	private boolean closed = false;
+
+	/**
+	 * @param compactTransientAuthData
+	 *            true to use the compact mapping, see {@link SqrlJdbcPersistenceFactory}
+	 * @param denormalizedIdentity
+	 *            true to use the denormalized identity layout, see {@link SqrlJdbcPersistenceFactory}
+	 * @param binaryKeys
+	 *            true to use the binary key columns, see {@link SqrlJdbcPersistenceFactory}
+	 */
+	SqrlJdbcPersistenceProvider(final DataSource dataSource, final SqrlIdBlockAllocator idAllocator,
+			final boolean compactTransientAuthData, final boolean denormalizedIdentity, final boolean binaryKeys) {
+		this.idAllocator = idAllocator;
+		this.compactTransientAuthData = compactTransientAuthData;
+		this.denormalizedIdentity = denormalizedIdentity;
+		this.binaryKeys = binaryKeys;
+		try {
+			connection = dataSource.getConnection();
+			connection.setAutoCommit(false);
+		} catch (final SQLException e) {
+			throw new SqrlPersistenceException("Error obtaining JDBC connection", e);
+		}
+	}
+
+	/* ************************ SqrlIdentity methods *****************************/
+
+	@Override
+	public void createAndEnableSqrlIdentity(final String sqrlIdk) {
+		checkOpen();
+		final SqrlIdentity sqrlIdentity = new SqrlIdentity(sqrlIdk);
+		sqrlIdentity.setId(idAllocator.nextId(IDENTITY_GENERATOR));
+		sqrlIdentity.getEnabledFlagList().add(SqrlIdentityFlag.SQRL_AUTH_ENABLED);
+		identityTable.put(sqrlIdentity.getId(), sqrlIdentity);
+	}
+
+	@Override
+	public boolean doesSqrlIdentityExistByIdk(final String sqrlIdk) {
+		return fetchSqrlIdentity(sqrlIdk) != null;
+	}
+
+	@Override
+	public SqrlIdentity fetchSqrlIdentityByUserXref(final String userXref) {
+		checkOpen();
+		for (final SqrlIdentity sqrlIdentity : identityTable.values()) {
+			if (Objects.equals(userXref, sqrlIdentity.getNativeUserXref())) {
+				return sqrlIdentity;
+			}
+		}
+		return trackIdentity(queryIdentity(
+				denormalizedIdentity ? SELECT_DENORMALIZED_IDENTITY_BY_XREF : SELECT_IDENTITY_BY_XREF, userXref));
+	}
+
+	@Override
+	public void updateIdkForSqrlIdentity(final String previousSqrlIdk, final String newSqrlIdk) {
+		fetchRequiredSqrlIdentity(previousSqrlIdk).setIdk(newSqrlIdk);
+	}
+
+	@Override
+	public void deleteSqrlIdentity(final String sqrlIdk) {
+		final SqrlIdentity sqrlIdentity = fetchSqrlIdentity(sqrlIdk);
+		if (sqrlIdentity == null) {
+			logger.warn("Can't find idk " + sqrlIdk + " to delete");
+		} else {
+			identityTable.remove(sqrlIdentity.getId());
+			if (identityOriginalTable.containsKey(sqrlIdentity.getId())) {
+				deletedIdentitySet.add(sqrlIdentity.getId());
+			}
+		}
+	}
+
+	@Override
+	public void updateNativeUserXref(final long sqrlIdentityId, final String nativeUserXref) {
+		final SqrlIdentity sqrlIdentity = fetchSqrlIdentityById(sqrlIdentityId);
+		if (sqrlIdentity == null) {
+			throw new SqrlPersistenceException("SqrlIdentity does not exist for id=" + sqrlIdentityId);
+		}
+		sqrlIdentity.setNativeUserXref(nativeUserXref);
+	}
+
+	@Override
+	public void userAuthenticatedViaSqrl(final String sqrlIdk, final String correlatorString) {
+		final SqrlCorrelator sqrlCorrelator = fetchSqrlCorrelatorRequired(correlatorString);
+		final SqrlIdentity sqrlIdentity = fetchRequiredSqrlIdentity(sqrlIdk);
+		sqrlCorrelator.setAuthenticatedIdentity(sqrlIdentity);
+		if (sqrlCorrelator.getAuthenticationStatus() != AUTHENTICATED_CPS) {
+			sqrlCorrelator.setAuthenticationStatus(AUTHENTICATED_BROWSER);
+		}
+	}
+
+	@Override
+	public boolean fetchSqrlFlagForIdentity(final String sqrlIdk, final SqrlIdentityFlag flagToFetch) {
+		return fetchRequiredSqrlIdentity(sqrlIdk).getEnabledFlagList().contains(flagToFetch);
+	}
+
+	@Override
+	public void setSqrlFlagForIdentity(final String sqrlIdk, final SqrlIdentityFlag flagToSet,
+			final boolean enableOrDisable) {
+		final Set<SqrlIdentityFlag> enabledFlagSet = fetchRequiredSqrlIdentity(sqrlIdk).getEnabledFlagList();
+		if (enableOrDisable && !enabledFlagSet.add(flagToSet)) {
+			logger.warn("INFO-ONLY-STACK: Attempt to enable flag " + flagToSet + " that is already present",
+					new SqrlDebugException());
+		} else if (!enableOrDisable && !enabledFlagSet.remove(flagToSet)) {
+			logger.warn("INFO-ONLY-STACK: Attempt to remove flag " + flagToSet + " that wasn't present",
+					new SqrlDebugException());
+		}
+	}
+
+	@Override
+	public Set<SqrlIdentityFlag> fetchSqrlFlagsForIdentity(final String sqrlIdk) {
+		return fetchRequiredSqrlIdentity(sqrlIdk).copyEnabledFlags();
+	}
+
+	@Override
+	public void setSqrlFlagsForIdentity(final String sqrlIdk, final Map<SqrlIdentityFlag, Boolean> flagsToSet) {
+		// Changes are detected and written on commit
+		fetchRequiredSqrlIdentity(sqrlIdk).applyFlags(flagsToSet);
+	}
+
+	@Override
+	public void storeSqrlDataForSqrlIdentity(final String sqrlIdk, final Map<String, String> dataToStore) {
+		final SqrlIdentity sqrlIdentity = fetchSqrlIdentity(sqrlIdk);
+		if (sqrlIdentity == null) {
+			throw new SqrlPersistenceException("SqrlIdentity not found for " + sqrlIdk);
+		}
+		sqrlIdentity.getIdentityDataTable().putAll(dataToStore);
+	}
+
+	@Override
+	public String fetchSqrlIdentityDataItem(final String sqrlIdk, final String toFetch) {
+		final SqrlIdentity sqrlIdentity = fetchSqrlIdentity(sqrlIdk);
+		if (sqrlIdentity == null) {
+			throw new SqrlPersistenceException("Couldn't find SqrlIdentity for idk " + sqrlIdk);
+		}
+		return sqrlIdentity.getIdentityDataTable().get(toFetch);
+	}
+
+	@Override
+	public SqrlIdentity fetchSqrlIdentity(final String sqrlIdk) {
+		checkOpen();
+		// The idk may have been changed in this unit of work, so check the tracked identities first
+		for (final SqrlIdentity sqrlIdentity : identityTable.values()) {
+			if (sqrlIdk.equals(sqrlIdentity.getIdk())) {
+				return sqrlIdentity;
+			}
+		}
+		return trackIdentity(queryIdentity(
+				denormalizedIdentity ? SELECT_DENORMALIZED_IDENTITY_BY_IDK : SELECT_IDENTITY_BY_IDK, key(sqrlIdk)));
+	}
+
+	private SqrlIdentity fetchRequiredSqrlIdentity(final String sqrlIdk) {
+		final SqrlIdentity sqrlIdentity = fetchSqrlIdentity(sqrlIdk);
+		if (sqrlIdentity == null) {
+			throw new SqrlPersistenceException("SqrlIdentity does not exist for idk=" + sqrlIdk);
+		}
+		return sqrlIdentity;
+	}
+
+	private SqrlIdentity fetchSqrlIdentityById(final long id) {
+		checkOpen();
+		final SqrlIdentity sqrlIdentity = identityTable.get(id);
+		if (sqrlIdentity != null || deletedIdentitySet.contains(id)) {
+			return sqrlIdentity;
+		}
+		return trackIdentity(queryIdentity(
+				denormalizedIdentity ? SELECT_DENORMALIZED_IDENTITY_BY_ID : SELECT_IDENTITY_BY_ID, id));
+	}
+
+	/**
+	 * Adds the identity which was just read to this unit of work
+	 *
+	 * @return the tracked identity or null if it was null, or was modified or deleted in this unit of work such that
+	 *         the caller's query no longer applies
+	 */
+	private SqrlIdentity trackIdentity(final SqrlIdentity sqrlIdentity) {
+		if (sqrlIdentity == null || identityTable.containsKey(sqrlIdentity.getId())
+				|| deletedIdentitySet.contains(sqrlIdentity.getId())) {
+			return null;
+		}
+		identityTable.put(sqrlIdentity.getId(), sqrlIdentity);
+		identityOriginalTable.put(sqrlIdentity.getId(), sqrlIdentity.copy());
+		return sqrlIdentity;
+	}
+
+	private SqrlIdentity queryIdentity(final String sql, final Object param) {
+		final Map<Long, SqrlIdentity> resultTable = queryIdentities(sql, Collections.singleton(param));
+		if (resultTable.size() > 1) {
+			throw new SqrlPersistenceException("Expected one, but found multiple results for " + param);
+		}
+		return resultTable.isEmpty() ? null : resultTable.values().iterator().next();
+	}
+
+	private Map<Long, SqrlIdentity> queryIdentities(final String sql, final Collection<?> paramCollection) {
+		final Map<Long, SqrlIdentity> resultTable = new HashMap<>();
+		try (PreparedStatement statement = connection.prepareStatement(sql)) {
+			setParameters(statement, paramCollection);
+			try (ResultSet resultSet = statement.executeQuery()) {
+				while (resultSet.next()) {
+					final long id = resultSet.getLong(1);
+					SqrlIdentity sqrlIdentity = resultTable.get(id);
+					if (sqrlIdentity == null) {
+						sqrlIdentity = new SqrlIdentity(readKey(resultSet, 2));
+						sqrlIdentity.setId(id);
+						sqrlIdentity.setNativeUserXref(resultSet.getString(3));
+						resultTable.put(id, sqrlIdentity);
+					}
+					if (denormalizedIdentity) {
+						sqrlIdentity.setDenormalizedColumns(resultSet.getInt(4), resultSet.getString(5),
+								resultSet.getString(6));
+						continue;
+					}
+					final String flag = resultSet.getString(4);
+					if (flag != null) {
+						sqrlIdentity.getEnabledFlagList().add(SqrlIdentityFlag.valueOf(flag));
+					}
+					final String dataName = resultSet.getString(5);
+					if (dataName != null) {
+						sqrlIdentity.getIdentityDataTable().put(dataName, resultSet.getString(6));
+					}
+				}
+			}
+			return resultTable;
+		} catch (final SQLException e) {
+			throw new SqrlPersistenceException("Error fetching SqrlIdentity for " + paramCollection, e);
+		}
+	}
+
+	/* ************************ Sqrl Correlator methods *****************************/
+
+	@Override
+	public SqrlCorrelator createCorrelator(final String correlatorString, final Date expiryTime) {
+		checkOpen();
+		final SqrlCorrelator sqrlCorrelator = new SqrlCorrelator(correlatorString, expiryTime);
+		sqrlCorrelator.setId(idAllocator.nextId(CORRELATOR_GENERATOR));
+		correlatorTable.put(correlatorString, sqrlCorrelator);
+		return sqrlCorrelator;
+	}
+
+	@Override
+	public SqrlCorrelator fetchSqrlCorrelator(final String correlatorString) {
+		checkOpen();
+		SqrlCorrelator sqrlCorrelator = correlatorTable.get(correlatorString);
+		if (sqrlCorrelator != null || deletedCorrelatorSet.contains(correlatorString)) {
+			return sqrlCorrelator;
+		}
+		final Map<String, Long> authenticatedIdentityTable = new HashMap<>();
+		sqrlCorrelator = queryCorrelators(
+				compactTransientAuthData ? SELECT_COMPACT_CORRELATOR_BY_VALUE : SELECT_CORRELATOR_BY_VALUE,
+				Collections.singleton(key(correlatorString)), authenticatedIdentityTable).get(correlatorString);
+		if (sqrlCorrelator == null) {
+			return null;
+		}
+		final Long identityId = authenticatedIdentityTable.get(correlatorString);
+		final SqrlIdentity authenticatedIdentity = identityId == null ? null : fetchSqrlIdentityById(identityId);
+		sqrlCorrelator.setAuthenticatedIdentity(authenticatedIdentity);
+		correlatorTable.put(correlatorString, sqrlCorrelator);
+		correlatorOriginalTable.put(correlatorString, sqrlCorrelator.copy(authenticatedIdentity));
+		return sqrlCorrelator;
+	}
+
+	@Override
+	public SqrlCorrelator fetchSqrlCorrelatorRequired(final String correlatorString) {
+		final SqrlCorrelator sqrlCorrelator = fetchSqrlCorrelator(correlatorString);
+		if (sqrlCorrelator == null) {
+			throw new SqrlPersistenceException("SqrlCorrelator does not exist for correlator=" + correlatorString);
+		}
+		return sqrlCorrelator;
+	}
+
+	@Override
+	public Map<String, SqrlCorrelator> fetchSqrlCorrelatorsDetached(final Set<String> correlatorStringSet) {
+		checkOpen();
+		final Map<String, Long> authenticatedIdentityTable = new HashMap<>();
+		final Map<String, SqrlCorrelator> resultTable = new ConcurrentHashMap<>();
+		final String selectCorrelator = compactTransientAuthData ? SELECT_COMPACT_CORRELATOR : SELECT_CORRELATOR;
+		for (final List<String> chunk : SqrlInClauseChunker.chunk(correlatorStringSet)) {
+			resultTable.putAll(queryCorrelators(selectCorrelator + buildInClause("c.value", chunk.size()), keys(chunk),
+					authenticatedIdentityTable));
+		}
+		// Resolve all authenticated identities with one query per chunk rather than one per correlator
+		final Map<Long, SqrlIdentity> identityResultTable = new HashMap<>();
+		for (final List<Long> chunk : SqrlInClauseChunker.chunk(new HashSet<>(authenticatedIdentityTable.values()))) {
+			final String selectIdentity = denormalizedIdentity ? SELECT_DENORMALIZED_IDENTITY : SELECT_IDENTITY;
+			identityResultTable.putAll(queryIdentities(selectIdentity + buildInClause("i.id", chunk.size()), chunk));
+		}
+		for (final Map.Entry<String, Long> entry : authenticatedIdentityTable.entrySet()) {
+			resultTable.get(entry.getKey()).setAuthenticatedIdentity(identityResultTable.get(entry.getValue()));
+		}
+		return resultTable;
+	}
+
+	@Override
+	public Map<String, SqrlAuthenticationStatus> fetchSqrlCorrelatorStatusUpdates(
+			final Map<String, SqrlAuthenticationStatus> correlatorToCurrentStatusTable) {
+		checkOpen();
+		final Map<String, SqrlAuthenticationStatus> resultTable = new ConcurrentHashMap<>();
+		try {
+			for (final List<String> chunk : SqrlInClauseChunker.chunk(correlatorToCurrentStatusTable.keySet())) {
+				try (PreparedStatement statement = connection
+						.prepareStatement(SELECT_CORRELATOR_STATUS + buildInClause("c.value", chunk.size()))) {
+					setParameters(statement, keys(chunk));
+					try (ResultSet resultSet = statement.executeQuery()) {
+						while (resultSet.next()) {
+							final String correlatorString = readKey(resultSet, 1);
+							final SqrlAuthenticationStatus current = SqrlAuthenticationStatus
+									.valueOf(resultSet.getString(2));
+							final SqrlAuthenticationStatus browserStatus = correlatorToCurrentStatusTable
+									.get(correlatorString);
+							// If we are in the end state (isAuthComplete), always return the result
+							if (browserStatus.isAuthComplete() || browserStatus != current) {
+								resultTable.put(correlatorString, current);
+							}
+						}
+					}
+				}
+			}
+		} catch (final SQLException e) {
+			throw new SqrlPersistenceException("Error fetching SqrlCorrelator status updates", e);
+		}
+		return resultTable;
+	}
+
+	@Override
+	public List<SqrlCorrelatorStatusChange> fetchSqrlCorrelatorStatusChangesSince(final long sinceSequence,
+			final int maxResults) {
+		checkOpen();
+		final List<SqrlCorrelatorStatusChange> changeList = new ArrayList<>();
+		try (PreparedStatement statement = connection.prepareStatement(SELECT_STATUS_CHANGES)) {
+			statement.setLong(1, sinceSequence);
+			statement.setMaxRows(maxResults);
+			try (ResultSet resultSet = statement.executeQuery()) {
+				while (resultSet.next()) {
+					final SqrlCorrelatorStatusChange change = new SqrlCorrelatorStatusChange(resultSet.getString(2),
+							SqrlAuthenticationStatus.valueOf(resultSet.getString(3)),
+							new Date(resultSet.getTimestamp(4).getTime()));
+					change.setSequence(resultSet.getLong(1));
+					changeList.add(change);
+				}
+			}
+		} catch (final SQLException e) {
+			throw new SqrlPersistenceException("Error fetching SqrlCorrelator status changes", e);
+		}
+		return changeList;
+	}
+
+	@Override
+	public String fetchTransientAuthData(final String correlator, final String dataName) {
+		return fetchSqrlCorrelatorRequired(correlator).getTransientAuthDataTable().get(dataName);
+	}
+
+	@Override
+	public void deleteSqrlCorrelator(final SqrlCorrelator sqrlCorrelator) {
+		if (sqrlCorrelator == null) {
+			return;
+		}
+		final String correlatorString = sqrlCorrelator.getCorrelatorString();
+		if (fetchSqrlCorrelator(correlatorString) == null) {
+			logger.debug("INFO-ONLY-STACK: Attempt to remove correlator that doesn't exist", new SqrlDebugException());
+			return;
+		}
+		correlatorTable.remove(correlatorString);
+		if (correlatorOriginalTable.containsKey(correlatorString)) {
+			deletedCorrelatorSet.add(correlatorString);
+		}
+	}
+
+	/**
+	 * @param authenticatedIdentityTable
+	 *            populated with the authenticated identity id of each correlator that has one, so the caller can
+	 *            decide how to resolve it
+	 */
+	private Map<String, SqrlCorrelator> queryCorrelators(final String sql,
+			final Collection<?> correlatorKeyCollection, final Map<String, Long> authenticatedIdentityTable) {
+		final Map<String, SqrlCorrelator> resultTable = new ConcurrentHashMap<>();
+		try (PreparedStatement statement = connection.prepareStatement(sql)) {
+			setParameters(statement, correlatorKeyCollection);
+			try (ResultSet resultSet = statement.executeQuery()) {
+				while (resultSet.next()) {
+					final String correlatorString = readKey(resultSet, 2);
+					SqrlCorrelator sqrlCorrelator = resultTable.get(correlatorString);
+					if (sqrlCorrelator == null) {
+						sqrlCorrelator = new SqrlCorrelator(correlatorString,
+								new Date(resultSet.getTimestamp(4).getTime()));
+						sqrlCorrelator.setId(resultSet.getLong(1));
+						sqrlCorrelator
+								.setAuthenticationStatus(SqrlAuthenticationStatus.valueOf(resultSet.getString(3)));
+						final long identityId = resultSet.getLong(5);
+						if (!resultSet.wasNull()) {
+							authenticatedIdentityTable.put(correlatorString, identityId);
+						}
+						resultTable.put(correlatorString, sqrlCorrelator);
+						if (compactTransientAuthData) {
+							// Decoded if and when it is read
+							sqrlCorrelator.setEncodedTransientAuthData(resultSet.getString(6));
+							continue;
+						}
+					}
+					final String dataName = resultSet.getString(6);
+					if (dataName != null) {
+						sqrlCorrelator.getTransientAuthDataTable().put(dataName, resultSet.getString(7));
+					}
+				}
+			}
+		} catch (final SQLException e) {
+			throw new SqrlPersistenceException("Error fetching SqrlCorrelator for " + correlatorKeyCollection, e);
+		}
+		return resultTable;
+	}
+
+	/* ************************ Nut token methods *****************************/
+
+	@Override
+	public boolean hasTokenBeenUsed(final String nutTokenString) {
+		checkOpen();
+		try (PreparedStatement statement = connection.prepareStatement(SELECT_USED_NUT_TOKEN)) {
+			statement.setObject(1, key(nutTokenString));
+			try (ResultSet resultSet = statement.executeQuery()) {
+				return resultSet.next();
+			}
+		} catch (final SQLException e) {
+			throw new SqrlPersistenceException("Error checking nut token " + nutTokenString, e);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The insert is executed immediately so a replayed token is rejected here rather than at commit time
+	 *
+	 * @throws SqrlPersistenceException
+	 *             if the token has already been used
+	 */
+	@Override
+	public void markTokenAsUsed(final String nutTokenString, final Date expiryTime) {
+		checkOpen();
+		try (PreparedStatement statement = connection.prepareStatement(INSERT_USED_NUT_TOKEN)) {
+			statement.setObject(1, key(nutTokenString));
+			statement.setTimestamp(2, new Timestamp(expiryTime.getTime()));
+			statement.executeUpdate();
+		} catch (final SQLException e) {
+			// SQL state class 23 is integrity constraint violation
+			if (e.getSQLState() != null && e.getSQLState().startsWith("23")) {
+				throw new SqrlPersistenceException("Nut token has already been used: " + nutTokenString, e);
+			}
+			throw new SqrlPersistenceException("Error marking nut token as used " + nutTokenString, e);
+		}
+	}
+
+	/* ************************ Housekeeping *****************************/
+
+	@Override
+	public void cleanUpExpiredEntries() {
+		cleanUpExpiredEntries(Integer.MAX_VALUE);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The keys of expired rows are selected first, limited to maxRowsPerType, and then deleted by key so only those
+	 * rows are locked. Transient auth data of the expired correlators is removed with them, as is any whose correlator
+	 * no longer exists
+	 */
+	@Override
+	public SqrlPersistenceCleanupResult cleanUpExpiredEntries(final int maxRowsPerType) {
+		checkOpen();
+		final Timestamp now = new Timestamp(System.currentTimeMillis());
+		try {
+			final List<Object> correlatorIdList = queryKeys(SELECT_EXPIRED_CORRELATOR_IDS, maxRowsPerType, now);
+			int transientAuthDataCount = 0;
+			if (!compactTransientAuthData) {
+				transientAuthDataCount = deleteByKey(DELETE_TRANSIENT_DATA_WHERE, "id", correlatorIdList);
+			}
+			final int correlatorCount = deleteByKey(DELETE_CORRELATORS_WHERE, "id", correlatorIdList);
+			if (!compactTransientAuthData) {
+				transientAuthDataCount += deleteByKey(DELETE_TRANSIENT_DATA_WHERE, "id",
+						queryKeys(SELECT_ORPHANED_TRANSIENT_DATA_IDS, maxRowsPerType));
+			}
+			final int usedNutTokenCount = deleteByKey(DELETE_NUT_TOKENS_WHERE, "value",
+					queryKeys(SELECT_EXPIRED_NUT_TOKENS, maxRowsPerType, now));
+			final int statusChangeCount = deleteByKey(DELETE_STATUS_CHANGES_WHERE, "change_sequence",
+					queryKeys(SELECT_EXPIRED_STATUS_CHANGES, maxRowsPerType, now));
+			return new SqrlPersistenceCleanupResult(correlatorCount, transientAuthDataCount, usedNutTokenCount,
+					statusChangeCount);
+		} catch (final SQLException e) {
+			throw new SqrlPersistenceException("Error during cleanup", e);
+		}
+	}
+
+	private List<Object> queryKeys(final String sql, final int maxRows, final Object... params) throws SQLException {
+		try (PreparedStatement statement = connection.prepareStatement(sql)) {
+			statement.setMaxRows(maxRows);
+			setParameters(statement, Arrays.asList(params));
+			final List<Object> keyList = new ArrayList<>();
+			try (ResultSet resultSet = statement.executeQuery()) {
+				while (resultSet.next()) {
+					keyList.add(resultSet.getObject(1));
+				}
+			}
+			return keyList;
+		}
+	}
+
+	private int deleteByKey(final String deleteWhere, final String keyColumn, final List<Object> keyList)
+			throws SQLException {
+		int rowsDeleted = 0;
+		for (final List<Object> chunk : SqrlInClauseChunker.chunk(keyList)) {
+			try (PreparedStatement statement = connection
+					.prepareStatement(deleteWhere + buildInClause(keyColumn, chunk.size()))) {
+				setParameters(statement, chunk);
+				rowsDeleted += statement.executeUpdate();
+			}
+		}
+		return rowsDeleted;
+	}
+
+	/* ************************ TRANSACTION START / STOP *********************/
+
+	@Override
+	public void closeCommit() {
+		checkOpen();
+		try {
+			flushIdentities();
+			flushCorrelators();
+			for (final Long id : deletedIdentitySet) {
+				if (!denormalizedIdentity) {
+					executeUpdate(DELETE_ALL_IDENTITY_FLAGS, id);
+					executeUpdate(DELETE_ALL_IDENTITY_DATA, id);
+				}
+				executeUpdate(DELETE_IDENTITY, id);
+			}
+			connection.commit();
+		} catch (final SQLException e) {
+			rollbackQuietly();
+			throw new SqrlPersistenceException("Error committing SQRL data", e);
+		} catch (final RuntimeException e) {
+			// The connection must not be closed (or returned to the pool) with the transaction still active
+			rollbackQuietly();
+			throw e;
+		} finally {
+			close();
+		}
+	}
+
+	@Override
+	public void closeRollback() {
+		checkOpen();
+		try {
+			connection.rollback();
+		} catch (final SQLException e) {
+			throw new SqrlPersistenceException("Error during rollback", e);
+		} finally {
+			close();
+		}
+	}
+
+	@Override
+	public boolean isClosed() {
+		return closed;
+	}
+
+	private void checkOpen() {
+		if (closed) {
+			throw new SqrlPersistenceException("SqrlJdbcPersistenceProvider is closed");
+		}
+	}
+
+	private void rollbackQuietly() {
+		try {
+			connection.rollback();
+		} catch (final SQLException e) {
+			logger.error("Error during rollback", e);
+		}
+	}
+
+	private void close() {
+		closed = true;
+		try {
+			connection.close();
+		} catch (final SQLException e) {
+			logger.error("Error closing JDBC connection", e);
+		}
+	}
+
+	private void flushIdentities() throws SQLException {
+		if (denormalizedIdentity) {
+			flushDenormalizedIdentities();
+			return;
+		}
+		for (final SqrlIdentity sqrlIdentity : identityTable.values()) {
+			final long id = sqrlIdentity.getId();
+			final SqrlIdentity original = identityOriginalTable.get(id);
+			if (original == null) {
+				executeUpdate(INSERT_IDENTITY, id, key(sqrlIdentity.getIdk()),
+						nullable(sqrlIdentity.getNativeUserXref(), NULL_VARCHAR));
+				flushTable(id, sqrlIdentity.getIdentityDataTable(), Collections.emptyMap(), INSERT_IDENTITY_DATA,
+						UPDATE_IDENTITY_DATA, DELETE_IDENTITY_DATA);
+				flushFlags(id, sqrlIdentity.getEnabledFlagList(), Collections.emptySet());
+			} else if (!sqrlIdentity.equals(original)) {
+				if (!sqrlIdentity.getIdk().equals(original.getIdk())
+						|| !Objects.equals(sqrlIdentity.getNativeUserXref(), original.getNativeUserXref())) {
+					executeUpdate(UPDATE_IDENTITY, key(sqrlIdentity.getIdk()),
+							nullable(sqrlIdentity.getNativeUserXref(), NULL_VARCHAR), id);
+				}
+				flushTable(id, sqrlIdentity.getIdentityDataTable(), original.getIdentityDataTable(),
+						INSERT_IDENTITY_DATA, UPDATE_IDENTITY_DATA, DELETE_IDENTITY_DATA);
+				flushFlags(id, sqrlIdentity.getEnabledFlagList(), original.getEnabledFlagList());
+			}
+		}
+	}
+
+	/**
+	 * With the denormalized layout each changed identity is a single row insert or update
+	 */
+	private void flushDenormalizedIdentities() throws SQLException {
+		for (final SqrlIdentity sqrlIdentity : identityTable.values()) {
+			final long id = sqrlIdentity.getId();
+			final SqrlIdentity original = identityOriginalTable.get(id);
+			if (original != null && sqrlIdentity.equals(original)) {
+				continue;
+			}
+			sqrlIdentity.packDenormalizedColumns();
+			final Object nativeUserXref = nullable(sqrlIdentity.getNativeUserXref(), NULL_VARCHAR);
+			final Object suk = nullable(sqrlIdentity.getSuk(), NULL_VARCHAR);
+			final Object vuk = nullable(sqrlIdentity.getVuk(), NULL_VARCHAR);
+			if (original == null) {
+				executeUpdate(INSERT_DENORMALIZED_IDENTITY, id, key(sqrlIdentity.getIdk()), nativeUserXref,
+						sqrlIdentity.getFlagBits(), suk, vuk);
+			} else {
+				executeUpdate(UPDATE_DENORMALIZED_IDENTITY, key(sqrlIdentity.getIdk()), nativeUserXref,
+						sqrlIdentity.getFlagBits(), suk, vuk, id);
+			}
+		}
+	}
+
+	private void flushFlags(final long id, final Set<SqrlIdentityFlag> current, final Set<SqrlIdentityFlag> original)
+			throws SQLException {
+		for (final SqrlIdentityFlag flag : current) {
+			if (!original.contains(flag)) {
+				executeUpdate(INSERT_IDENTITY_FLAG, id, flag.toString());
+			}
+		}
+		for (final SqrlIdentityFlag flag : original) {
+			if (!current.contains(flag)) {
+				executeUpdate(DELETE_IDENTITY_FLAG, id, flag.toString());
+			}
+		}
+	}
+
+	private void flushCorrelators() throws SQLException {
+		for (final String correlatorString : deletedCorrelatorSet) {
+			final long id = correlatorOriginalTable.get(correlatorString).getId();
+			if (!compactTransientAuthData) {
+				executeUpdate(DELETE_ALL_TRANSIENT_DATA, id);
+			}
+			executeUpdate(DELETE_CORRELATOR, id);
+		}
+		if (compactTransientAuthData) {
+			flushCompactCorrelators();
+			return;
+		}
+		for (final SqrlCorrelator sqrlCorrelator : correlatorTable.values()) {
+			final long id = sqrlCorrelator.getId();
+			final Long identityId = identityIdOf(sqrlCorrelator);
+			final SqrlCorrelator original = correlatorOriginalTable.get(sqrlCorrelator.getCorrelatorString());
+			if (original == null) {
+				executeUpdate(INSERT_CORRELATOR, id, key(sqrlCorrelator.getCorrelatorString()),
+						sqrlCorrelator.getAuthenticationStatus().toString(),
+						new Timestamp(sqrlCorrelator.getExpiryTime().getTime()), nullable(identityId, NULL_BIGINT));
+				flushTable(id, sqrlCorrelator.getTransientAuthDataTable(), Collections.emptyMap(),
+						INSERT_TRANSIENT_DATA, UPDATE_TRANSIENT_DATA, DELETE_TRANSIENT_DATA);
+				if (sqrlCorrelator.getAuthenticationStatus() != SqrlAuthenticationStatus.CORRELATOR_ISSUED) {
+					insertStatusChange(sqrlCorrelator);
+				}
+				continue;
+			}
+			if (sqrlCorrelator.getAuthenticationStatus() != original.getAuthenticationStatus()) {
+				insertStatusChange(sqrlCorrelator);
+			}
+			if (sqrlCorrelator.getAuthenticationStatus() != original.getAuthenticationStatus()
+					|| !sqrlCorrelator.getExpiryTime().equals(original.getExpiryTime())
+					|| !Objects.equals(identityId, identityIdOf(original))) {
+				executeUpdate(UPDATE_CORRELATOR, sqrlCorrelator.getAuthenticationStatus().toString(),
+						new Timestamp(sqrlCorrelator.getExpiryTime().getTime()), nullable(identityId, NULL_BIGINT), id);
+			}
+			flushTable(id, sqrlCorrelator.getTransientAuthDataTable(), original.getTransientAuthDataTable(),
+					INSERT_TRANSIENT_DATA, UPDATE_TRANSIENT_DATA, DELETE_TRANSIENT_DATA);
+		}
+	}
+
+	/**
+	 * Same as the correlator part of {@link #flushCorrelators()} but with the transient auth data in the correlator
+	 * row, which is only compared and rewritten if it was read
+	 */
+	private void flushCompactCorrelators() throws SQLException {
+		for (final SqrlCorrelator sqrlCorrelator : correlatorTable.values()) {
+			final long id = sqrlCorrelator.getId();
+			final Long identityId = identityIdOf(sqrlCorrelator);
+			final SqrlCorrelator original = correlatorOriginalTable.get(sqrlCorrelator.getCorrelatorString());
+			if (original == null) {
+				executeUpdate(INSERT_COMPACT_CORRELATOR, id, key(sqrlCorrelator.getCorrelatorString()),
+						sqrlCorrelator.getAuthenticationStatus().toString(),
+						new Timestamp(sqrlCorrelator.getExpiryTime().getTime()), nullable(identityId, NULL_BIGINT),
+						nullable(sqrlCorrelator.getEncodedTransientAuthData(), NULL_VARCHAR));
+				if (sqrlCorrelator.getAuthenticationStatus() != SqrlAuthenticationStatus.CORRELATOR_ISSUED) {
+					insertStatusChange(sqrlCorrelator);
+				}
+				continue;
+			}
+			if (sqrlCorrelator.getAuthenticationStatus() != original.getAuthenticationStatus()) {
+				insertStatusChange(sqrlCorrelator);
+			}
+			if (sqrlCorrelator.getAuthenticationStatus() != original.getAuthenticationStatus()
+					|| !sqrlCorrelator.getExpiryTime().equals(original.getExpiryTime())
+					|| !Objects.equals(identityId, identityIdOf(original))
+					|| sqrlCorrelator.isTransientAuthDataDecoded() && !sqrlCorrelator.getTransientAuthDataTable()
+					.equals(original.getTransientAuthDataTable())) {
+				executeUpdate(UPDATE_COMPACT_CORRELATOR, sqrlCorrelator.getAuthenticationStatus().toString(),
+						new Timestamp(sqrlCorrelator.getExpiryTime().getTime()), nullable(identityId, NULL_BIGINT),
+						nullable(sqrlCorrelator.getEncodedTransientAuthData(), NULL_VARCHAR), id);
+			}
+		}
+	}
+
+	private void insertStatusChange(final SqrlCorrelator sqrlCorrelator) throws SQLException {
+		executeUpdate(INSERT_STATUS_CHANGE, idAllocator.nextUnpooledId(STATUS_CHANGE_GENERATOR),
+				sqrlCorrelator.getCorrelatorString(), sqrlCorrelator.getAuthenticationStatus().toString(),
+				new Timestamp(sqrlCorrelator.getExpiryTime().getTime()));
+	}
+
+	private static Long identityIdOf(final SqrlCorrelator sqrlCorrelator) {
+		final SqrlIdentity sqrlIdentity = sqrlCorrelator.peekAuthenticatedIdentity();
+		return sqrlIdentity == null ? null : sqrlIdentity.getId();
+	}
+
+	/**
+	 * Writes the differences between two versions of a name/value collection table
+	 */
+	private void flushTable(final long id, final Map<String, String> current, final Map<String, String> original,
+			final String insertSql, final String updateSql, final String deleteSql) throws SQLException {
+		for (final Map.Entry<String, String> entry : current.entrySet()) {
+			final String originalValue = original.get(entry.getKey());
+			if (originalValue == null) {
+				executeUpdate(insertSql, id, entry.getKey(), entry.getValue());
+			} else if (!originalValue.equals(entry.getValue())) {
+				executeUpdate(updateSql, entry.getValue(), id, entry.getKey());
+			}
+		}
+		for (final String name : original.keySet()) {
+			if (!current.containsKey(name)) {
+				executeUpdate(deleteSql, id, name);
+			}
+		}
+	}
+
+	/* ************************ JDBC helpers *****************************/
+
+	private int executeUpdate(final String sql, final Object... params) throws SQLException {
+		try (PreparedStatement statement = connection.prepareStatement(sql)) {
+			for (int i = 0; i < params.length; i++) {
+				if (params[i] == NULL_BIGINT) {
+					statement.setNull(i + 1, Types.BIGINT);
+				} else if (params[i] == NULL_VARCHAR) {
+					statement.setNull(i + 1, Types.VARCHAR);
+				} else {
+					statement.setObject(i + 1, params[i]);
+				}
+			}
+			return statement.executeUpdate();
+		}
+	}
+
+	private static void setParameters(final PreparedStatement statement, final Collection<?> paramCollection)
+			throws SQLException {
+		int i = 1;
+		for (final Object param : paramCollection) {
+			statement.setObject(i++, param);
+		}
+	}
+
+	/**
+	 * @return the idk, correlator or nut token as it is stored in its key column
+	 */
+	private Object key(final String keyString) {
+		return binaryKeys ? SqrlBinaryKeyCodec.encode(keyString) : keyString;
+	}
+
+	private List<Object> keys(final Collection<String> keyStringCollection) {
+		final List<Object> keyList = new ArrayList<>(keyStringCollection.size());
+		for (final String keyString : keyStringCollection) {
+			keyList.add(key(keyString));
+		}
+		return keyList;
+	}
+
+	private String readKey(final ResultSet resultSet, final int columnIndex) throws SQLException {
+		return binaryKeys ? SqrlBinaryKeyCodec.decode(resultSet.getBytes(columnIndex)) : resultSet.getString(columnIndex);
+	}
+
+	/**
+	 * Some drivers require the type of a null parameter, so callers pass one of these instead of null
+	 */
+	private static Object nullable(final Object value, final Object typedNull) {
+		return value == null ? typedNull : value;
+	}
+
+	private static String buildInClause(final String column, final int size) {
+		final StringBuilder buf = new StringBuilder(column).append(" IN (?");
+		for (int i = 1; i < size; i++) {
+			buf.append(", ?");
+		}
+		return buf.append(")").toString();
+	}
+
+}
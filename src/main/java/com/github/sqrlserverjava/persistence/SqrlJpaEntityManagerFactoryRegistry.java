@@ -0,0 +1,95 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.sqrlserverjava.util.SqrlServiceExecutor;
+
+/**
+ * Owns the lifecycle of the JPA {@link EntityManagerFactory} instances used by {@link SqrlJpaPersistenceProvider}.
+ * <p>
+ * Building an {@link EntityManagerFactory} parses the persistence unit and all entity metadata, which is far too
+ * expensive to do per request. Exactly one factory is built per persistence unit, at startup when
+ * {@link SqrlJpaPersistenceFactory} is the configured factory, and shared by every provider instance until
+ * {@link #closeAll()} is called by {@link SqrlServiceExecutor} at shutdown.
+ * <p>
+ * Each factory is checked with {@link SqrlJpaNamedQuery#validate(EntityManagerFactory)} as it is built so an invalid
+ * query fails startup
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlJpaEntityManagerFactoryRegistry {
+	private static final Logger logger = LoggerFactory.getLogger(SqrlJpaEntityManagerFactoryRegistry.class);
+
+	private static final Map<String, EntityManagerFactory> FACTORY_TABLE = new ConcurrentHashMap<>();
+
+	private SqrlJpaEntityManagerFactoryRegistry() {
+		// Static registry
+	}
+
+	/**
+	 * Fetch the shared {@link EntityManagerFactory} for the given persistence unit, building it if this is the first
+	 * request or if the previous instance was closed
+	 *
+	 * @param persistenceUnitName
+	 *            the name of the persistence unit as defined in persistence.xml
+	 * @return the open, shared factory
+	 */
+	public static EntityManagerFactory get(final String persistenceUnitName) {
+		final EntityManagerFactory entityManagerFactory = FACTORY_TABLE.get(persistenceUnitName);
+		if (entityManagerFactory != null && entityManagerFactory.isOpen()) {
+			return entityManagerFactory;
+		}
+		return build(persistenceUnitName);
+	}
+
+	private static synchronized EntityManagerFactory build(final String persistenceUnitName) {
+		// Double check now that we hold the lock, another thread may have built it already
+		EntityManagerFactory entityManagerFactory = FACTORY_TABLE.get(persistenceUnitName);
+		if (entityManagerFactory == null || !entityManagerFactory.isOpen()) {
+			final long start = System.currentTimeMillis();
+			entityManagerFactory = Persistence.createEntityManagerFactory(persistenceUnitName);
+			try {
+				SqrlJpaNamedQuery.validate(entityManagerFactory);
+			} catch (final RuntimeException e) {
+				entityManagerFactory.close();
+				throw e;
+			}
+			FACTORY_TABLE.put(persistenceUnitName, entityManagerFactory);
+			logger.info("process=init detail=\"Built EntityManagerFactory for persistence unit {} in {} ms\"",
+					persistenceUnitName, System.currentTimeMillis() - start);
+		}
+		return entityManagerFactory;
+	}
+
+	/**
+	 * Eagerly builds the factory for the default SQRL persistence unit so the cost is paid at startup instead of on
+	 * the first login
+	 */
+	public static void initialize() {
+		get(SqrlJpaPersistenceProvider.PERSISTENCE_UNIT_NAME);
+	}
+
+	/**
+	 * Closes and discards every factory in the registry. A subsequent call to {@link #get(String)} will build a new one
+	 */
+	public static synchronized void closeAll() {
+		for (final Map.Entry<String, EntityManagerFactory> entry : FACTORY_TABLE.entrySet()) {
+			try {
+				if (entry.getValue().isOpen()) {
+					entry.getValue().close();
+				}
+			} catch (final RuntimeException e) {
+				logger.error("Error closing EntityManagerFactory for persistence unit " + entry.getKey(), e);
+			}
+		}
+		FACTORY_TABLE.clear();
+	}
+}
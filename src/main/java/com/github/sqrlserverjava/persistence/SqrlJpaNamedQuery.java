@@ -0,0 +1,160 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+
+import com.github.sqrlserverjava.exception.SqrlPersistenceException;
+
+/**
+ * The fixed queries run by {@link SqrlJpaPersistenceProvider}, defined as named queries on the entities so the JPA
+ * provider parses and compiles them once when the persistence unit is deployed instead of on every call.
+ * <p>
+ * {@link #validate(EntityManagerFactory)} is called by {@link SqrlJpaEntityManagerFactoryRegistry} when a factory is
+ * built, so a broken query fails startup instead of the first login. Each query keeps a count of its executions and
+ * the total time spent in them
+ *
+ * @author Dave Badia
+ *
+ */
+public enum SqrlJpaNamedQuery {
+	// @formatter:off
+	IDENTITY_BY_IDK(Names.IDENTITY_BY_IDK),
+	IDENTITY_BY_USER_XREF(Names.IDENTITY_BY_USER_XREF),
+	CORRELATOR_BY_VALUE(Names.CORRELATOR_BY_VALUE),
+	CORRELATORS_BY_VALUES(Names.CORRELATORS_BY_VALUES),
+	CORRELATOR_STATUS_BY_VALUES(Names.CORRELATOR_STATUS_BY_VALUES),
+	STATUS_CHANGES_SINCE(Names.STATUS_CHANGES_SINCE),
+	EXPIRED_CORRELATOR_IDS(Names.EXPIRED_CORRELATOR_IDS),
+	DELETE_CORRELATORS_BY_IDS(Names.DELETE_CORRELATORS_BY_IDS),
+	ORPHANED_TRANSIENT_AUTH_DATA_IDS(Names.ORPHANED_TRANSIENT_AUTH_DATA_IDS),
+	EXPIRED_NUT_TOKENS(Names.EXPIRED_NUT_TOKENS),
+	DELETE_NUT_TOKENS_BY_VALUES(Names.DELETE_NUT_TOKENS_BY_VALUES),
+	EXPIRED_STATUS_CHANGE_SEQUENCES(Names.EXPIRED_STATUS_CHANGE_SEQUENCES),
+	DELETE_STATUS_CHANGES_BY_SEQUENCES(Names.DELETE_STATUS_CHANGES_BY_SEQUENCES),
+	;
+	// @formatter:on
+
+	/**
+	 * The query names, as constants so they can be used in the {@link javax.persistence.NamedQuery} annotations
+	 */
+	static final class Names {
+		// @formatter:off
+		static final String IDENTITY_BY_IDK						= "SqrlIdentity.byIdk";
+		static final String IDENTITY_BY_USER_XREF				= "SqrlIdentity.byUserXref";
+		static final String CORRELATOR_BY_VALUE					= "SqrlCorrelator.byValue";
+		static final String CORRELATORS_BY_VALUES				= "SqrlCorrelator.byValues";
+		static final String CORRELATOR_STATUS_BY_VALUES			= "SqrlCorrelator.statusByValues";
+		static final String EXPIRED_CORRELATOR_IDS				= "SqrlCorrelator.expiredIds";
+		static final String DELETE_CORRELATORS_BY_IDS			= "SqrlCorrelator.deleteByIds";
+		static final String ORPHANED_TRANSIENT_AUTH_DATA_IDS	= "SqrlCorrelator.orphanedTransientAuthDataIds";
+		static final String EXPIRED_NUT_TOKENS					= "SqrlUsedNutToken.expiredValues";
+		static final String DELETE_NUT_TOKENS_BY_VALUES			= "SqrlUsedNutToken.deleteByValues";
+		static final String STATUS_CHANGES_SINCE				= "SqrlCorrelatorStatusChange.since";
+		static final String EXPIRED_STATUS_CHANGE_SEQUENCES		= "SqrlCorrelatorStatusChange.expiredSequences";
+		static final String DELETE_STATUS_CHANGES_BY_SEQUENCES	= "SqrlCorrelatorStatusChange.deleteBySequences";
+		// @formatter:on
+
+		private Names() {
+			// Constants class
+		}
+	}
+
+	private final String		queryName;
+	private final AtomicLong	executionCount		= new AtomicLong();
+	private final AtomicLong	executionTimeNanos	= new AtomicLong();
+
+	private SqrlJpaNamedQuery(final String queryName) {
+		this.queryName = queryName;
+	}
+
+	public String getQueryName() {
+		return queryName;
+	}
+
+	public long getExecutionCount() {
+		return executionCount.get();
+	}
+
+	public long getTotalExecutionTimeNanos() {
+		return executionTimeNanos.get();
+	}
+
+	Query create(final EntityManager entityManager) {
+		return entityManager.createNamedQuery(queryName);
+	}
+
+	<T> TypedQuery<T> create(final EntityManager entityManager, final Class<T> resultClass) {
+		return entityManager.createNamedQuery(queryName, resultClass);
+	}
+
+	@SuppressWarnings("unchecked")
+	<T> List<T> getResultList(final Query query) {
+		final long start = System.nanoTime();
+		try {
+			return query.getResultList();
+		} finally {
+			recordExecution(System.nanoTime() - start);
+		}
+	}
+
+	int executeUpdate(final Query query) {
+		final long start = System.nanoTime();
+		try {
+			return query.executeUpdate();
+		} finally {
+			recordExecution(System.nanoTime() - start);
+		}
+	}
+
+	private void recordExecution(final long durationNanos) {
+		executionCount.incrementAndGet();
+		executionTimeNanos.addAndGet(durationNanos);
+	}
+
+	/**
+	 * Creates every named query against the given factory. The JPA provider compiles the JPQL when the persistence
+	 * unit is deployed, which creating the first {@link EntityManager} triggers, so any invalid query or missing
+	 * definition is reported here. Native queries are only checked for existence as their SQL is passed through
+	 *
+	 * @throws SqrlPersistenceException
+	 *             if any query is missing or invalid
+	 */
+	static void validate(final EntityManagerFactory entityManagerFactory) {
+		final EntityManager entityManager;
+		try {
+			entityManager = entityManagerFactory.createEntityManager();
+		} catch (final RuntimeException e) {
+			if (isCausedBySqlException(e)) {
+				// The database is unavailable, which says nothing about the queries
+				throw e;
+			}
+			throw new SqrlPersistenceException("Invalid mapping or named query in persistence unit", e);
+		}
+		try {
+			for (final SqrlJpaNamedQuery namedQuery : values()) {
+				try {
+					namedQuery.create(entityManager);
+				} catch (final RuntimeException e) {
+					throw new SqrlPersistenceException("Named query " + namedQuery.queryName + " is invalid", e);
+				}
+			}
+		} finally {
+			entityManager.close();
+		}
+	}
+
+	private static boolean isCausedBySqlException(final Throwable throwable) {
+		for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+			if (cause instanceof SQLException) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
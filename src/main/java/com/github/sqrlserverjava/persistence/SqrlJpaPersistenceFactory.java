@@ -1,15 +1,57 @@
 package com.github.sqrlserverjava.persistence;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.github.sqrlserverjava.SqrlPersistence;
 import com.github.sqrlserverjava.SqrlPersistenceFactory;
+import com.github.sqrlserverjava.exception.SqrlPersistenceException;
 import com.github.sqrlserverjava.persistence.SqrlJpaPersistenceProvider.SqrlJpaEntityManagerMonitorTask;
 
+/**
+ * Creates {@link SqrlJpaPersistenceProvider} instances. The shared JPA EntityManagerFactory is built when this factory
+ * is constructed so the first login doesn't pay for it, whether or not this factory is wrapped by a decorator factory
+ *
+ * @author Dave Badia
+ *
+ */
 public class SqrlJpaPersistenceFactory implements SqrlPersistenceFactory {
+	private static final Logger logger = LoggerFactory.getLogger(SqrlJpaPersistenceFactory.class);
+
+	private final int creationStackSampleRate;
+
+	public SqrlJpaPersistenceFactory() {
+		this(SqrlJpaPersistenceProvider.DEFAULT_CREATION_STACK_SAMPLE_RATE);
+	}
+
+	/**
+	 * @param creationStackSampleRate
+	 *            how often the creation stack of an EntityManager is captured so a leaked one can be traced to its
+	 *            caller. 1 captures every stack, 0 none or N captures 1 in N on average
+	 */
+	public SqrlJpaPersistenceFactory(final int creationStackSampleRate) {
+		SqrlEntityManagerLeakTracker.validateCreationStackSampleRate(creationStackSampleRate);
+		this.creationStackSampleRate = creationStackSampleRate;
+		try {
+			SqrlJpaEntityManagerFactoryRegistry.initialize();
+		} catch (final SqrlPersistenceException e) {
+			// An invalid mapping or named query won't fix itself, fail startup
+			throw e;
+		} catch (final RuntimeException e) {
+			// Not fatal, the factory will be built (and the error reported again) on first use
+			logger.warn("process=init detail=\"Error building JPA EntityManagerFactory, will retry on first use\"", e);
+		}
+	}
 
-	@SuppressWarnings("deprecation")
 	@Override
 	public SqrlPersistence createSqrlPersistence() {
-		return new SqrlJpaPersistenceProvider();
+		return new SqrlJpaPersistenceProvider(
+				SqrlJpaEntityManagerFactoryRegistry.get(SqrlJpaPersistenceProvider.PERSISTENCE_UNIT_NAME),
+				creationStackSampleRate);
+	}
+
+	public int getCreationStackSampleRate() {
+		return creationStackSampleRate;
 	}
 
 	@Override
@@ -2,20 +2,32 @@ package com.github.sqrlserverjava.persistence;
 
 import static com.github.sqrlserverjava.enums.SqrlAuthenticationStatus.AUTHENTICATED_BROWSER;
 import static com.github.sqrlserverjava.enums.SqrlAuthenticationStatus.AUTHENTICATED_CPS;
+import static com.github.sqrlserverjava.persistence.SqrlJpaNamedQuery.CORRELATORS_BY_VALUES;
+import static com.github.sqrlserverjava.persistence.SqrlJpaNamedQuery.CORRELATOR_BY_VALUE;
+import static com.github.sqrlserverjava.persistence.SqrlJpaNamedQuery.CORRELATOR_STATUS_BY_VALUES;
+import static com.github.sqrlserverjava.persistence.SqrlJpaNamedQuery.DELETE_CORRELATORS_BY_IDS;
+import static com.github.sqrlserverjava.persistence.SqrlJpaNamedQuery.DELETE_NUT_TOKENS_BY_VALUES;
+import static com.github.sqrlserverjava.persistence.SqrlJpaNamedQuery.DELETE_STATUS_CHANGES_BY_SEQUENCES;
+import static com.github.sqrlserverjava.persistence.SqrlJpaNamedQuery.EXPIRED_CORRELATOR_IDS;
+import static com.github.sqrlserverjava.persistence.SqrlJpaNamedQuery.EXPIRED_NUT_TOKENS;
+import static com.github.sqrlserverjava.persistence.SqrlJpaNamedQuery.EXPIRED_STATUS_CHANGE_SEQUENCES;
+import static com.github.sqrlserverjava.persistence.SqrlJpaNamedQuery.IDENTITY_BY_IDK;
+import static com.github.sqrlserverjava.persistence.SqrlJpaNamedQuery.IDENTITY_BY_USER_XREF;
+import static com.github.sqrlserverjava.persistence.SqrlJpaNamedQuery.ORPHANED_TRANSIENT_AUTH_DATA_IDS;
+import static com.github.sqrlserverjava.persistence.SqrlJpaNamedQuery.STATUS_CHANGES_SINCE;
 
 import java.util.Collections;
 import java.util.Date;
-import java.util.Iterator;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
-import javax.persistence.Persistence;
+import javax.persistence.Query;
 import javax.persistence.TemporalType;
 import javax.persistence.TypedQuery;
 
@@ -28,6 +40,7 @@ import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
 import com.github.sqrlserverjava.enums.SqrlIdentityFlag;
 import com.github.sqrlserverjava.exception.SqrlDebugException;
 import com.github.sqrlserverjava.exception.SqrlPersistenceException;
+import com.github.sqrlserverjava.persistence.SqrlEntityManagerLeakTracker.TrackedEntityManager;
 
 /**
  * The default implementation of {@link SqrlPersistence} which uses JPA in order to provide SQL and no-SQL connectivity.
@@ -44,60 +57,90 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 
 	public static final String	PERSISTENCE_UNIT_NAME	= "javasqrl-persistence";
 	private static final String	PARAM_CORRELATOR		= "correlator";
+	private static final String	PARAM_CORRELATORS		= "correlators";
 
-	private static final Map<EntityManager, Long>	LAST_USED_TIME_TABLE	= new WeakHashMap<>();
-	// Need strong references so we can check that it was closed, will be removed below
-	private static final Map<EntityManager, Exception> CREATED_BY_STACK_TABLE = new ConcurrentHashMap<>();
+	/**
+	 * The {@link SqrlCorrelator} attribute which only META-INF/sqrl-compact-transient-auth-data.xml maps
+	 */
+	private static final String COMPACT_TRANSIENT_AUTH_DATA_ATTRIBUTE = "encodedTransientAuthData";
+
+	/**
+	 * By default the creation stack of 1 in this many {@link EntityManager} instances is captured for leak reports
+	 */
+	public static final int DEFAULT_CREATION_STACK_SAMPLE_RATE = 100;
+
+	static final SqrlEntityManagerLeakTracker LEAK_TRACKER = new SqrlEntityManagerLeakTracker();
 
-	private static EntityManagerFactory					entityManagerFactory;
 	private final EntityManager							entityManager;
+	private final TrackedEntityManager					trackedEntityManager;
+	// Status of each correlator as it was read, so changes can be written to the status change log on commit
+	private final Map<SqrlCorrelator, SqrlAuthenticationStatus>	loadedStatusTable	= new IdentityHashMap<>();
+	// Identities handed out by this unit of work, packed before commit when the denormalized layout is in use
+	private final Set<SqrlIdentity>							loadedIdentitySet	= Collections
+			.newSetFromMap(new IdentityHashMap<>());
 
 	/**
 	 * @deprecated do not invoke this constructor directly, use <code>SqrlJpaPersistenceFactory</code> instead
 	 */
 	@Deprecated
 	public SqrlJpaPersistenceProvider() {
-		entityManagerFactory = Persistence
-				.createEntityManagerFactory(SqrlJpaPersistenceProvider.PERSISTENCE_UNIT_NAME);
+		this(SqrlJpaEntityManagerFactoryRegistry.get(PERSISTENCE_UNIT_NAME));
+	}
+
+	/**
+	 * @param entityManagerFactory
+	 *            the shared factory as provided by {@link SqrlJpaEntityManagerFactoryRegistry}
+	 */
+	SqrlJpaPersistenceProvider(final EntityManagerFactory entityManagerFactory) {
+		this(entityManagerFactory, DEFAULT_CREATION_STACK_SAMPLE_RATE);
+	}
+
+	/**
+	 * @param entityManagerFactory
+	 *            the shared factory as provided by {@link SqrlJpaEntityManagerFactoryRegistry}
+	 * @param creationStackSampleRate
+	 *            1 to capture the creation stack of the {@link EntityManager} for leak reports, 0 to not capture it or
+	 *            N to capture 1 in N on average
+	 */
+	SqrlJpaPersistenceProvider(final EntityManagerFactory entityManagerFactory, final int creationStackSampleRate) {
 		entityManager = entityManagerFactory.createEntityManager();
 		entityManager.getTransaction().begin();
-		LAST_USED_TIME_TABLE.put(entityManager, System.currentTimeMillis());
-		CREATED_BY_STACK_TABLE.put(entityManager, new Exception("create SqrlJpaPersistenceProvider trace"));
-	}
-	
-	private static void checkInit() {
-		if (entityManagerFactory == null) {
-			entityManagerFactory = Persistence
-					.createEntityManagerFactory(SqrlJpaPersistenceProvider.PERSISTENCE_UNIT_NAME);
-		}
+		trackedEntityManager = LEAK_TRACKER.track(entityManager, creationStackSampleRate);
 	}
 
-	private void updateLastUsed(final EntityManager entityManger) {
-		LAST_USED_TIME_TABLE.put(entityManger, System.currentTimeMillis());
+	private void updateLastUsed() {
+		trackedEntityManager.touch();
 	}
 
 	@Override
 	public boolean doesSqrlIdentityExistByIdk(final String sqrlIdk) {
-		updateLastUsed(entityManager);
+		updateLastUsed();
 		return fetchSqrlIdentity(sqrlIdk) != null;
 	}
 
 	@Override
 	public void updateIdkForSqrlIdentity(final String previousSqrlIdk, final String newSqrlIdk) {
-		updateLastUsed(entityManager);
+		updateLastUsed();
 		final SqrlIdentity sqrlIdentity = fetchRequiredSqrlIdentity(previousSqrlIdk);
 		sqrlIdentity.setIdk(newSqrlIdk);
 	}
 
-	private SqrlIdentity fetchSqrlIdentity(final String sqrlIdk) {
-		updateLastUsed(entityManager);
-		return (SqrlIdentity) returnOneOrNull(
-				entityManager.createQuery("SELECT i FROM SqrlIdentity i WHERE i.idk = :sqrlIdk")
-				.setParameter("sqrlIdk", sqrlIdk).getResultList());
+	@Override
+	public SqrlIdentity fetchSqrlIdentity(final String sqrlIdk) {
+		updateLastUsed();
+		return track((SqrlIdentity) returnOneOrNull(
+				IDENTITY_BY_IDK.getResultList(IDENTITY_BY_IDK.create(entityManager).setParameter("sqrlIdk", sqrlIdk))));
+	}
+
+	private SqrlIdentity track(final SqrlIdentity sqrlIdentity) {
+		if (sqrlIdentity != null) {
+			loadedIdentitySet.add(sqrlIdentity);
+		}
+		return sqrlIdentity;
 	}
 
 	private SqrlIdentity fetchRequiredSqrlIdentity(final String sqrlIdk) {
-		updateLastUsed(entityManager);
+		updateLastUsed();
 		final SqrlIdentity sqrlIdentity = fetchSqrlIdentity(sqrlIdk);
 		if (sqrlIdentity == null) {
 			throw new SqrlPersistenceException("SqrlIdentity does not exist for idk=" + sqrlIdk);
@@ -108,15 +151,15 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 
 	@Override
 	public SqrlIdentity fetchSqrlIdentityByUserXref(final String userXref) {
-		updateLastUsed(entityManager);
-		return (SqrlIdentity) returnOneOrNull(
-				entityManager.createQuery("SELECT i FROM SqrlIdentity i WHERE i.nativeUserXref = :userXref")
-				.setParameter("userXref", userXref).getResultList());
+		updateLastUsed();
+		return track((SqrlIdentity) returnOneOrNull(
+				IDENTITY_BY_USER_XREF.getResultList(
+						IDENTITY_BY_USER_XREF.create(entityManager).setParameter("userXref", userXref))));
 	}
 
 	@Override
 	public void deleteSqrlIdentity(final String sqrlIdk) {
-		updateLastUsed(entityManager);
+		updateLastUsed();
 		final SqrlIdentity sqrlIdentity = fetchSqrlIdentity(sqrlIdk);
 		if (sqrlIdentity == null) {
 			logger.warn("Can't find idk " + sqrlIdk + " to delete");
@@ -127,7 +170,7 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 
 	@Override
 	public void userAuthenticatedViaSqrl(final String sqrlIdk, final String correlatorString) {
-		updateLastUsed(entityManager);
+		updateLastUsed();
 		// Find the sqrlIdentity and mark SQRL authentication as occurred
 		final SqrlCorrelator sqrlCorrelator = fetchSqrlCorrelatorRequired(correlatorString);
 		final SqrlIdentity sqrlIdentity = fetchRequiredSqrlIdentity(sqrlIdk);
@@ -139,8 +182,8 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 
 	@Override
 	public void updateNativeUserXref(final long sqrlIdentityDbId, final String nativeUserXref) {
-		updateLastUsed(entityManager);
-		final SqrlIdentity sqrlIdentity = entityManager.find(SqrlIdentity.class, sqrlIdentityDbId);
+		updateLastUsed();
+		final SqrlIdentity sqrlIdentity = track(entityManager.find(SqrlIdentity.class, sqrlIdentityDbId));
 		sqrlIdentity.setNativeUserXref(nativeUserXref);
 	}
 
@@ -148,15 +191,19 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 
 	@Override
 	public SqrlCorrelator fetchSqrlCorrelator(final String sqrlCorrelatorString) {
-		updateLastUsed(entityManager);
-		return (SqrlCorrelator) returnOneOrNull(
-				entityManager.createQuery("SELECT i FROM SqrlCorrelator i WHERE i.value = :correlator")
-				.setParameter(PARAM_CORRELATOR, sqrlCorrelatorString).getResultList());
+		updateLastUsed();
+		final SqrlCorrelator sqrlCorrelator = (SqrlCorrelator) returnOneOrNull(
+				CORRELATOR_BY_VALUE.getResultList(
+						CORRELATOR_BY_VALUE.create(entityManager).setParameter(PARAM_CORRELATOR, sqrlCorrelatorString)));
+		if (sqrlCorrelator != null && !loadedStatusTable.containsKey(sqrlCorrelator)) {
+			loadedStatusTable.put(sqrlCorrelator, sqrlCorrelator.getAuthenticationStatus());
+		}
+		return sqrlCorrelator;
 	}
 
 	@Override
 	public SqrlCorrelator fetchSqrlCorrelatorRequired(final String sqrlCorrelatorString) {
-		updateLastUsed(entityManager);
+		updateLastUsed();
 		final SqrlCorrelator sqrlCorrelator = fetchSqrlCorrelator(sqrlCorrelatorString);
 		if (sqrlCorrelator == null) {
 			throw new SqrlPersistenceException("SqrlCorrelator does not exist for correlator=" + sqrlCorrelatorString);
@@ -167,27 +214,16 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 
 	@Override
 	public Map<String, SqrlCorrelator> fetchSqrlCorrelatorsDetached(final Set<String> correlatorStringSet) {
-		updateLastUsed(entityManager);
-		if (correlatorStringSet.isEmpty()) {
-			return Collections.emptyMap();
-		}
-		final StringBuilder buf = new StringBuilder("SELECT i FROM SqrlCorrelator i WHERE ");
-
-		for (int i = 0; i < correlatorStringSet.size(); i++) {
-			buf.append(" i.value = :correlator").append(i).append(" OR");
-		}
-		buf.replace(buf.length() - 3, buf.length(), ""); // Remove OR
-		final TypedQuery<SqrlCorrelator> query = entityManager.createQuery(buf.toString(), SqrlCorrelator.class);
-		int i = 0;
-		for (final String correlatorString : correlatorStringSet) {
-			query.setParameter(PARAM_CORRELATOR + (i++), correlatorString);
-		}
-
-		// Parse the result into a table
+		updateLastUsed();
 		final Map<String, SqrlCorrelator> resultTable = new ConcurrentHashMap<>();
-		for (final SqrlCorrelator correlator : query.getResultList()) {
-			entityManager.detach(correlator);
-			resultTable.put(correlator.getCorrelatorString(), correlator);
+		for (final List<String> chunk : SqrlInClauseChunker.chunk(correlatorStringSet)) {
+			final TypedQuery<SqrlCorrelator> query = CORRELATORS_BY_VALUES.create(entityManager, SqrlCorrelator.class);
+			final List<SqrlCorrelator> correlatorList = CORRELATORS_BY_VALUES
+					.getResultList(query.setParameter(PARAM_CORRELATORS, chunk));
+			for (final SqrlCorrelator correlator : correlatorList) {
+				entityManager.detach(correlator);
+				resultTable.put(correlator.getCorrelatorString(), correlator);
+			}
 		}
 		return resultTable;
 	}
@@ -195,54 +231,54 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 	@Override
 	public Map<String, SqrlAuthenticationStatus> fetchSqrlCorrelatorStatusUpdates(
 			final Map<String, SqrlAuthenticationStatus> correlatorToCurrentStatusTable) {
-		updateLastUsed(entityManager);
-		if (correlatorToCurrentStatusTable.isEmpty()) {
-			return Collections.emptyMap();
-		}
-		final StringBuilder buf = new StringBuilder("SELECT i FROM SqrlCorrelator i WHERE ");
-
-		int counter = 0;
-		for (final Map.Entry<String, SqrlAuthenticationStatus> entry : correlatorToCurrentStatusTable.entrySet()) {
-			buf.append(" (i.value = :correlator").append(counter);
-			// If we are in the end state (isAuthComplete), always return the result
-			if (entry.getValue().isAuthComplete() == false) {
-				buf.append(" AND i.authenticationStatus <> :authenticationStatus").append(counter);
-			}
-			buf.append(" ) OR");
-			counter++;
-		}
-		buf.replace(buf.length() - 2, buf.length(), ""); // Remove "OR"
-		final TypedQuery<SqrlCorrelator> query = entityManager.createQuery(buf.toString(), SqrlCorrelator.class);
-		counter = 0;
-		final StringBuilder debugBuf = new StringBuilder(buf);
-		for (final Map.Entry<String, SqrlAuthenticationStatus> entry : correlatorToCurrentStatusTable.entrySet()) {
-			query.setParameter(PARAM_CORRELATOR + counter, entry.getKey());
-			updateDebugBuf(debugBuf, ":correlator" + counter, entry.getKey());
-			if (entry.getValue().isAuthComplete() == false) {
-				query.setParameter("authenticationStatus" + counter, entry.getValue());
-				updateDebugBuf(debugBuf, ":authenticationStatus" + counter, entry.getValue().toString());
-			}
-			counter++;
-		}
-
-		logger.trace("monitor correaltor for change SQL: {}", debugBuf);
-		// Parse the result into a table
+		updateLastUsed();
 		final Map<String, SqrlAuthenticationStatus> resultTable = new ConcurrentHashMap<>();
-		for (final SqrlCorrelator correlator : query.getResultList()) {
-			resultTable.put(correlator.getCorrelatorString(), correlator.getAuthenticationStatus());
+		final List<List<String>> chunkList = SqrlInClauseChunker.chunk(correlatorToCurrentStatusTable.keySet());
+		logger.trace("monitor correlators for change, correlatorCount={} queryCount={}",
+				correlatorToCurrentStatusTable.size(), chunkList.size());
+		for (final List<String> chunk : chunkList) {
+			final TypedQuery<Object[]> query = CORRELATOR_STATUS_BY_VALUES.create(entityManager, Object[].class);
+			final List<Object[]> rowList = CORRELATOR_STATUS_BY_VALUES
+					.getResultList(query.setParameter(PARAM_CORRELATORS, chunk));
+			for (final Object[] row : rowList) {
+				final String correlatorString = (String) row[0];
+				final SqrlAuthenticationStatus current = (SqrlAuthenticationStatus) row[1];
+				final SqrlAuthenticationStatus browserStatus = correlatorToCurrentStatusTable.get(correlatorString);
+				// If we are in the end state (isAuthComplete), always return the result
+				if (browserStatus.isAuthComplete() || browserStatus != current) {
+					resultTable.put(correlatorString, current);
+				}
+			}
 		}
 		return resultTable;
 	}
 
-	private static void updateDebugBuf(final StringBuilder buf, final String name, final String value) {
-		final int start = buf.indexOf(name);
-		final int end = start + name.length();
-		buf.replace(start, end, "'" + value + "'");
+	@Override
+	public List<SqrlCorrelatorStatusChange> fetchSqrlCorrelatorStatusChangesSince(final long sinceSequence,
+			final int maxResults) {
+		updateLastUsed();
+		return STATUS_CHANGES_SINCE.getResultList(STATUS_CHANGES_SINCE
+				.create(entityManager, SqrlCorrelatorStatusChange.class).setParameter("sinceSequence", sinceSequence)
+				.setMaxResults(maxResults));
+	}
+
+	/**
+	 * Writes a status change log entry for each correlator whose status was changed in this unit of work
+	 */
+	private void recordStatusChanges() {
+		for (final Map.Entry<SqrlCorrelator, SqrlAuthenticationStatus> entry : loadedStatusTable.entrySet()) {
+			final SqrlCorrelator sqrlCorrelator = entry.getKey();
+			if (sqrlCorrelator.getAuthenticationStatus() != entry.getValue()
+					&& entityManager.contains(sqrlCorrelator)) {
+				entityManager.persist(new SqrlCorrelatorStatusChange(sqrlCorrelator.getCorrelatorString(),
+						sqrlCorrelator.getAuthenticationStatus(), sqrlCorrelator.getExpiryTime()));
+			}
+		}
 	}
 
 	@Override
 	public void storeSqrlDataForSqrlIdentity(final String sqrlIdk, final Map<String, String> dataToStore) {
-		updateLastUsed(entityManager);
+		updateLastUsed();
 		final SqrlIdentity sqrlIdentity = fetchSqrlIdentity(sqrlIdk);
 		if (sqrlIdentity == null) {
 			throw new SqrlPersistenceException("SqrlIdentity not found for " + sqrlIdk);
@@ -251,7 +287,7 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 	}
 
 	private void storeSqrlDataForSqrlIdentity(final SqrlIdentity sqrlIdentity, final Map<String, String> dataToStore) {
-		updateLastUsed(entityManager);
+		updateLastUsed();
 		// Update any SQRL specific data we have received from the SQRL client
 		if (!dataToStore.isEmpty()) {
 			sqrlIdentity.getIdentityDataTable().putAll(dataToStore);
@@ -261,7 +297,7 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 
 	@Override
 	public String fetchSqrlIdentityDataItem(final String sqrlIdk, final String toFetch) {
-		updateLastUsed(entityManager);
+		updateLastUsed();
 		final SqrlIdentity sqrlIdentity = fetchSqrlIdentity(sqrlIdk);
 		if (sqrlIdentity == null) {
 			throw new SqrlPersistenceException("Couldn't find SqrlIdentity for idk " + sqrlIdk);
@@ -272,20 +308,20 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 
 	@Override
 	public boolean hasTokenBeenUsed(final String nutTokenString) {
-		updateLastUsed(entityManager);
+		updateLastUsed();
 		return entityManager.find(SqrlUsedNutToken.class, nutTokenString) != null;
 	}
 
 	@Override
 	public void markTokenAsUsed(final String nutTokenString, final Date expiryTime) {
-		updateLastUsed(entityManager);
+		updateLastUsed();
 		final SqrlUsedNutToken sqrlUsedNutToken = new SqrlUsedNutToken(nutTokenString, expiryTime);
 		entityManager.persist(sqrlUsedNutToken);
 	}
 
 	@Override
 	public String fetchTransientAuthData(final String correlator, final String dataName) {
-		updateLastUsed(entityManager);
+		updateLastUsed();
 		final SqrlCorrelator correlatorObject = fetchSqrlCorrelatorRequired(correlator);
 		return correlatorObject.getTransientAuthDataTable().get(dataName);
 	}
@@ -315,11 +351,22 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 			throw new SqrlPersistenceException("EntityManager is not open");
 		}
 		if (commit) {
+			recordStatusChanges();
+			for (final SqrlCorrelator sqrlCorrelator : loadedStatusTable.keySet()) {
+				sqrlCorrelator.encodeTransientAuthDataForCommit();
+				if (sqrlCorrelator.peekAuthenticatedIdentity() != null) {
+					sqrlCorrelator.peekAuthenticatedIdentity().packDenormalizedColumnsForCommit();
+				}
+			}
+			for (final SqrlIdentity sqrlIdentity : loadedIdentitySet) {
+				sqrlIdentity.packDenormalizedColumnsForCommit();
+			}
 			entityManager.getTransaction().commit();
 		} else {
 			entityManager.getTransaction().rollback();
 		}
 		entityManager.close();
+		LEAK_TRACKER.untrack(entityManager);
 	}
 
 	@Override
@@ -335,7 +382,7 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 			logger.warn("INFO-ONLY-STACK: Attempt to enable flag " + flagToSet + " that is already present",
 					new SqrlDebugException());
 			return; // Don't call entityManager.persist(sqrlIdentity);
-		} else if (!enabledFlagSet.remove(flagToSet)) {
+		} else if (!enableOrDisable && !enabledFlagSet.remove(flagToSet)) {
 			logger.warn("INFO-ONLY-STACK: Attempt to remove flag " + flagToSet + " that wasn't present",
 					new SqrlDebugException());
 			return; // Don't call entityManager.persist(sqrlIdentity);
@@ -343,18 +390,32 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 		entityManager.persist(sqrlIdentity);
 	}
 
+	@Override
+	public Set<SqrlIdentityFlag> fetchSqrlFlagsForIdentity(final String sqrlIdk) {
+		return fetchRequiredSqrlIdentity(sqrlIdk).copyEnabledFlags();
+	}
+
+	@Override
+	public void setSqrlFlagsForIdentity(final String sqrlIdk, final Map<SqrlIdentityFlag, Boolean> flagsToSet) {
+		final SqrlIdentity sqrlIdentity = fetchRequiredSqrlIdentity(sqrlIdk);
+		if (sqrlIdentity.applyFlags(flagsToSet)) {
+			entityManager.persist(sqrlIdentity);
+		}
+	}
+
 	@Override
 	public void createAndEnableSqrlIdentity(final String sqrlIdk) {
-		updateLastUsed(entityManager);
+		updateLastUsed();
 		final SqrlIdentity sqrlIdentity = new SqrlIdentity(sqrlIdk);
 		sqrlIdentity.getEnabledFlagList().add(SqrlIdentityFlag.SQRL_AUTH_ENABLED);
-		entityManager.persist(sqrlIdentity);
+		entityManager.persist(track(sqrlIdentity));
 	}
 
 	@Override
 	public SqrlCorrelator createCorrelator(final String correlatorString, final Date expiryTime) {
 		final SqrlCorrelator sqrlCorrelator = new SqrlCorrelator(correlatorString, expiryTime);
 		entityManager.persist(sqrlCorrelator);
+		loadedStatusTable.put(sqrlCorrelator, sqrlCorrelator.getAuthenticationStatus());
 		return sqrlCorrelator;
 	}
 
@@ -364,7 +425,7 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 			return;
 		}
 		SqrlCorrelator toRemove = sqrlCorrelator;
-		updateLastUsed(entityManager);
+		updateLastUsed();
 		if (!entityManager.contains(sqrlCorrelator)) {
 			toRemove = fetchSqrlCorrelator(sqrlCorrelator.getCorrelatorString());
 		}
@@ -382,18 +443,84 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 
 	@Override
 	public void cleanUpExpiredEntries() {
+		cleanUpExpiredEntries(Integer.MAX_VALUE);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The keys of expired rows are selected first, limited to maxRowsPerType, and then deleted by key so only those
+	 * rows are locked. Transient auth data of the expired correlators is removed with them, as is any whose correlator
+	 * no longer exists. The transient auth data table is not an entity so it is accessed with native SQL, the delete
+	 * is built per chunk as JPA can't bind a list to a native IN clause. With the compact mapping the data is a column
+	 * of the correlator row and that table doesn't exist, so it is skipped
+	 */
+	@Override
+	public SqrlPersistenceCleanupResult cleanUpExpiredEntries(final int maxRowsPerType) {
+		updateLastUsed();
 		final Date now = new Date();
-		int rowsDeleted = entityManager.createQuery("DELETE FROM SqrlCorrelator i WHERE i.expiryTime < :now")
-				.setParameter("now", now, TemporalType.TIMESTAMP).executeUpdate();
-		if (rowsDeleted > 0) {
-			logger.info("SqrlCorrelatorc cleanup deleted {} rows", rowsDeleted);
+		final List<Long> correlatorIdList = EXPIRED_CORRELATOR_IDS.getResultList(EXPIRED_CORRELATOR_IDS
+				.create(entityManager, Long.class).setParameter("now", now, TemporalType.TIMESTAMP)
+				.setMaxResults(maxRowsPerType));
+		final boolean compactTransientAuthData = isCompactTransientAuthData();
+		int transientAuthDataCount = 0;
+		if (!compactTransientAuthData) {
+			transientAuthDataCount = deleteTransientAuthData(correlatorIdList);
+		}
+		int correlatorCount = 0;
+		for (final List<Long> chunk : SqrlInClauseChunker.chunk(correlatorIdList)) {
+			correlatorCount += DELETE_CORRELATORS_BY_IDS
+					.executeUpdate(DELETE_CORRELATORS_BY_IDS.create(entityManager).setParameter("ids", chunk));
 		}
+		if (!compactTransientAuthData) {
+			final List<Object> orphanIdList = ORPHANED_TRANSIENT_AUTH_DATA_IDS.getResultList(
+					ORPHANED_TRANSIENT_AUTH_DATA_IDS.create(entityManager).setMaxResults(maxRowsPerType));
+			transientAuthDataCount += deleteTransientAuthData(orphanIdList);
+		}
+
+		final List<String> nutTokenList = EXPIRED_NUT_TOKENS.getResultList(EXPIRED_NUT_TOKENS
+				.create(entityManager, String.class).setParameter("now", now, TemporalType.TIMESTAMP)
+				.setMaxResults(maxRowsPerType));
+		int usedNutTokenCount = 0;
+		for (final List<String> chunk : SqrlInClauseChunker.chunk(nutTokenList)) {
+			usedNutTokenCount += DELETE_NUT_TOKENS_BY_VALUES
+					.executeUpdate(DELETE_NUT_TOKENS_BY_VALUES.create(entityManager).setParameter("values", chunk));
+		}
+
+		final List<Long> sequenceList = EXPIRED_STATUS_CHANGE_SEQUENCES.getResultList(EXPIRED_STATUS_CHANGE_SEQUENCES
+				.create(entityManager, Long.class).setParameter("now", now, TemporalType.TIMESTAMP)
+				.setMaxResults(maxRowsPerType));
+		int statusChangeCount = 0;
+		for (final List<Long> chunk : SqrlInClauseChunker.chunk(sequenceList)) {
+			statusChangeCount += DELETE_STATUS_CHANGES_BY_SEQUENCES.executeUpdate(
+					DELETE_STATUS_CHANGES_BY_SEQUENCES.create(entityManager).setParameter("sequences", chunk));
+		}
+		return new SqrlPersistenceCleanupResult(correlatorCount, transientAuthDataCount, usedNutTokenCount,
+				statusChangeCount);
+	}
 
-		rowsDeleted = entityManager.createQuery("DELETE FROM SqrlUsedNutToken i WHERE i.expiryTime < :now")
-				.setParameter("now", now, TemporalType.TIMESTAMP).executeUpdate();
-		if (rowsDeleted > 0) {
-			logger.info("SqrlUsedNutToken cleanup deleted {} rows", rowsDeleted);
+	/**
+	 * @return true if the persistence unit includes META-INF/sqrl-compact-transient-auth-data.xml
+	 */
+	private boolean isCompactTransientAuthData() {
+		return entityManager.getMetamodel().entity(SqrlCorrelator.class).getAttributes().stream()
+				.anyMatch(attribute -> COMPACT_TRANSIENT_AUTH_DATA_ATTRIBUTE.equals(attribute.getName()));
+	}
+
+	private int deleteTransientAuthData(final List<?> correlatorIdList) {
+		int rowsDeleted = 0;
+		for (final List<?> chunk : SqrlInClauseChunker.chunk(correlatorIdList)) {
+			final StringBuilder buf = new StringBuilder("DELETE FROM sqrl_transient_auth_data WHERE id IN (?");
+			for (int i = 1; i < chunk.size(); i++) {
+				buf.append(", ?");
+			}
+			final Query query = entityManager.createNativeQuery(buf.append(")").toString());
+			for (int i = 0; i < chunk.size(); i++) {
+				query.setParameter(i + 1, chunk.get(i));
+			}
+			rowsDeleted += query.executeUpdate();
 		}
+		return rowsDeleted;
 	}
 
 	/**
@@ -417,39 +544,11 @@ public class SqrlJpaPersistenceProvider implements SqrlPersistence {
 			}
 		}
 
-		private void removeFromTrackingTable(final Iterator<EntityManager> iter, final EntityManager entityManager) {
-			iter.remove();
-			LAST_USED_TIME_TABLE.remove(entityManager); // May or may not exist, ok
-		}
-
 		@Override
 		public void run() {
 			try {
-				final long threshold = computeThresholdInMillis();
 				logger.trace("Running EntityManagerMonitorTimerTask");
-				final Iterator<EntityManager> iter = CREATED_BY_STACK_TABLE.keySet().iterator();
-				while (iter.hasNext()) {
-					final EntityManager entityManager = iter.next();
-					if (!entityManager.isOpen()) {
-						logger.trace("entityManager closed, removing from monitor table");
-						removeFromTrackingTable(iter, entityManager);
-					} else {
-						final Long lastUsed = LAST_USED_TIME_TABLE.get(entityManager);
-						if (lastUsed == null) {
-							logger.error(
-									"EntityManagerMonitorTask found null lastUsedTime for entityManager which was created at",
-									CREATED_BY_STACK_TABLE.get(entityManager));
-						} else {
-							if (System.currentTimeMillis() - lastUsed > threshold) {
-								logger.error("Entity Manager is still open and has not been used for "
-										+ threshold + "ms.  Closing now.  Was created from",
-										CREATED_BY_STACK_TABLE.get(entityManager));
-								entityManager.close();
-								removeFromTrackingTable(iter, entityManager);
-							}
-						}
-					}
-				}
+				LEAK_TRACKER.closeIdle(computeThresholdInMillis());
 			} catch (final RuntimeException e) {
 				// thread
 				logger.error("Error running entity manager monitor check", e);
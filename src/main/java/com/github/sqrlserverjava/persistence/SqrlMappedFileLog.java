@@ -0,0 +1,393 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+import com.github.sqrlserverjava.exception.SqrlPersistenceException;
+
+/**
+ * Append only log of correlator and used nut token changes, written to a memory mapped segment file so an append is a
+ * memory copy. Used by {@link SqrlMappedFilePersistenceFactory} to make a {@link SqrlInMemoryPersistenceStore}
+ * durable.
+ * <p>
+ * Each record holds the full state of one correlator or used nut token, so replaying the log in order rebuilds the
+ * store. Records are {@code [int length][int crc32][payload]}; replay stops at the first record which is zero, cut
+ * short or fails its checksum, which is where a crash interrupted the last append.
+ * <p>
+ * When the active segment is full, the live entries are written to a new segment and the old one is deleted. Expired
+ * entries are left out, so this compaction keeps the log proportional to the number of logins in progress. The new
+ * segment is written to a temporary file and renamed once complete, so a crash during compaction leaves the previous
+ * segment intact
+ *
+ * @author Dave Badia
+ *
+ */
+class SqrlMappedFileLog {
+	private static final Logger logger = LoggerFactory.getLogger(SqrlMappedFileLog.class);
+
+	private static final int	SEGMENT_MAGIC		= 0x5351524c;	// "SQRL"
+	private static final int	SEGMENT_VERSION		= 1;
+	private static final int	SEGMENT_HEADER_SIZE	= 8;
+	private static final int	RECORD_HEADER_SIZE	= 8;
+	private static final String	SEGMENT_PREFIX		= "sqrl-transient-";
+	private static final String	SEGMENT_SUFFIX		= ".log";
+
+	private static final byte	TYPE_CORRELATOR			= 1;
+	private static final byte	TYPE_CORRELATOR_DELETE	= 2;
+	private static final byte	TYPE_USED_NUT_TOKEN		= 3;
+
+	private final File		directory;
+	private final int		segmentSizeBytes;
+	private final boolean	forceOnAppend;
+
+	private long				activeSegmentNumber;
+	private MappedByteBuffer	activeBuffer;
+
+	SqrlMappedFileLog(final File directory, final int segmentSizeBytes, final boolean forceOnAppend) {
+		if (segmentSizeBytes < 1024) {
+			throw new IllegalArgumentException("segmentSizeBytes must be >= 1024");
+		}
+		this.directory = directory;
+		this.segmentSizeBytes = segmentSizeBytes;
+		this.forceOnAppend = forceOnAppend;
+	}
+
+	/**
+	 * Loads the unexpired entries of all segments into the store and opens the newest segment for appending. Must be
+	 * called once, before any append
+	 */
+	synchronized void recover(final SqrlInMemoryPersistenceStore store) {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new SqrlPersistenceException("Could not create directory " + directory);
+		}
+		for (final File tempFile : listFiles(".tmp")) {
+			// An interrupted compaction, the segment it was replacing is still present
+			deleteFile(tempFile);
+		}
+		final List<File> segmentList = listFiles(SEGMENT_SUFFIX);
+		final long start = System.currentTimeMillis();
+		final RecoveredState recoveredState = new RecoveredState();
+		int endPosition = SEGMENT_HEADER_SIZE;
+		for (final File segmentFile : segmentList) {
+			endPosition = replaySegment(segmentFile, recoveredState);
+		}
+		recoveredState.applyTo(store);
+		if (segmentList.isEmpty()) {
+			activeSegmentNumber = 1;
+			activeBuffer = createSegment(segmentFile(activeSegmentNumber), segmentSizeBytes);
+		} else {
+			final File newest = segmentList.get(segmentList.size() - 1);
+			activeSegmentNumber = segmentNumberOf(newest);
+			activeBuffer = mapSegment(newest, newest.length());
+			activeBuffer.position(endPosition);
+			clearTornTail();
+			for (final File older : segmentList.subList(0, segmentList.size() - 1)) {
+				deleteFile(older);
+			}
+		}
+		logger.info("process=init detail=\"Recovered {} correlators and {} used nut tokens from {} in {} ms\"",
+				store.getCorrelatorCount(), store.getUsedNutTokenCount(), directory,
+				System.currentTimeMillis() - start);
+	}
+
+	/**
+	 * Records the committed state of a correlator, or its removal if storedCorrelator is null
+	 */
+	synchronized void appendCorrelator(final String correlatorString, final SqrlCorrelator storedCorrelator,
+			final SqrlInMemoryPersistenceStore store) {
+		append(storedCorrelator == null ? encodeCorrelatorDelete(correlatorString) : encodeCorrelator(storedCorrelator),
+				store);
+	}
+
+	synchronized void appendUsedNutToken(final String nutTokenString, final Date expiryTime,
+			final SqrlInMemoryPersistenceStore store) {
+		append(encodeUsedNutToken(nutTokenString, expiryTime), store);
+	}
+
+	/**
+	 * Replaces the log with a single segment holding the live entries of the store. The caller must hold
+	 * {@link SqrlInMemoryPersistenceStore#commitLock} so the store doesn't change while it is written
+	 */
+	synchronized void compact(final SqrlInMemoryPersistenceStore store) {
+		final long now = System.currentTimeMillis();
+		final List<byte[]> recordList = new ArrayList<>();
+		int snapshotSize = SEGMENT_HEADER_SIZE;
+		for (final SqrlCorrelator sqrlCorrelator : store.correlatorTable.values()) {
+			if (sqrlCorrelator.getExpiryTime().getTime() > now) {
+				recordList.add(encodeCorrelator(sqrlCorrelator));
+			}
+		}
+		for (final Map<String, Date> segment : store.liveUsedNutTokenSegments()) {
+			for (final Map.Entry<String, Date> entry : segment.entrySet()) {
+				recordList.add(encodeUsedNutToken(entry.getKey(), entry.getValue()));
+			}
+		}
+		for (final byte[] record : recordList) {
+			snapshotSize += RECORD_HEADER_SIZE + record.length;
+		}
+		// Leave at least as much room for new appends as the snapshot takes
+		final int newSegmentSize = Math.max(segmentSizeBytes, snapshotSize * 2);
+		final long newSegmentNumber = activeSegmentNumber + 1;
+		final File tempFile = new File(directory, SEGMENT_PREFIX + newSegmentNumber + ".tmp");
+		final MappedByteBuffer newBuffer = createSegment(tempFile, newSegmentSize);
+		for (final byte[] record : recordList) {
+			writeRecord(newBuffer, record);
+		}
+		newBuffer.force();
+		final File oldFile = segmentFile(activeSegmentNumber);
+		try {
+			Files.move(tempFile.toPath(), segmentFile(newSegmentNumber).toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} catch (final IOException e) {
+			throw new SqrlPersistenceException("Error renaming compacted segment " + tempFile, e);
+		}
+		activeBuffer = newBuffer;
+		activeSegmentNumber = newSegmentNumber;
+		deleteFile(oldFile);
+		logger.debug("Compacted {} to {} records, {} bytes", directory, recordList.size(), snapshotSize);
+	}
+
+	/**
+	 * @return the fraction of the active segment in use, from 0 to 1
+	 */
+	synchronized double getActiveSegmentUsage() {
+		return (double) activeBuffer.position() / activeBuffer.capacity();
+	}
+
+	private void append(final byte[] record, final SqrlInMemoryPersistenceStore store) {
+		if (activeBuffer.remaining() < RECORD_HEADER_SIZE + record.length) {
+			compact(store);
+			if (activeBuffer.remaining() < RECORD_HEADER_SIZE + record.length) {
+				throw new SqrlPersistenceException("Record of " + record.length + " bytes doesn't fit in a segment");
+			}
+		}
+		writeRecord(activeBuffer, record);
+		if (forceOnAppend) {
+			activeBuffer.force();
+		}
+	}
+
+	private static void writeRecord(final ByteBuffer buffer, final byte[] record) {
+		final CRC32 crc = new CRC32();
+		crc.update(record);
+		// Write the length last so a torn append is never mistaken for a complete record
+		final int start = buffer.position();
+		buffer.position(start + 4);
+		buffer.putInt((int) crc.getValue());
+		buffer.put(record);
+		buffer.putInt(start, record.length);
+	}
+
+	/**
+	 * @return the position after the last complete record
+	 */
+	private static int replaySegment(final File segmentFile, final RecoveredState recoveredState) {
+		final MappedByteBuffer buffer = mapSegment(segmentFile, segmentFile.length());
+		if (buffer.capacity() < SEGMENT_HEADER_SIZE || buffer.getInt(0) != SEGMENT_MAGIC
+				|| buffer.getInt(4) != SEGMENT_VERSION) {
+			throw new SqrlPersistenceException("Not a SQRL log segment: " + segmentFile);
+		}
+		buffer.position(SEGMENT_HEADER_SIZE);
+		int recordCount = 0;
+		while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+			final int start = buffer.position();
+			final int length = buffer.getInt();
+			final int expectedCrc = buffer.getInt();
+			if (length <= 0 || length > buffer.remaining()) {
+				buffer.position(start);
+				break;
+			}
+			final byte[] record = new byte[length];
+			buffer.get(record);
+			final CRC32 crc = new CRC32();
+			crc.update(record);
+			if ((int) crc.getValue() != expectedCrc) {
+				logger.warn("Discarding torn record at {} of {}", start, segmentFile);
+				buffer.position(start);
+				break;
+			}
+			recoveredState.apply(record);
+			recordCount++;
+		}
+		logger.debug("Replayed {} records from {}", recordCount, segmentFile);
+		return buffer.position();
+	}
+
+	/**
+	 * Zeroes anything after the recovered position so the remains of a torn record are not read on the next recovery
+	 */
+	private void clearTornTail() {
+		final int position = activeBuffer.position();
+		if (activeBuffer.remaining() >= 4 && activeBuffer.getInt(position) != 0) {
+			for (int i = position; i < activeBuffer.capacity(); i++) {
+				activeBuffer.put(i, (byte) 0);
+			}
+			activeBuffer.force();
+		}
+	}
+
+	/* ************************ Encoding *****************************/
+
+	private static byte[] encodeCorrelator(final SqrlCorrelator sqrlCorrelator) {
+		return encode(out -> {
+			out.writeByte(TYPE_CORRELATOR);
+			out.writeUTF(sqrlCorrelator.getCorrelatorString());
+			out.writeLong(sqrlCorrelator.getExpiryTime().getTime());
+			out.writeUTF(sqrlCorrelator.getAuthenticationStatus().name());
+			final Map<String, String> transientAuthDataTable = sqrlCorrelator.getTransientAuthDataTable();
+			out.writeInt(transientAuthDataTable.size());
+			for (final Map.Entry<String, String> entry : transientAuthDataTable.entrySet()) {
+				out.writeUTF(entry.getKey());
+				out.writeUTF(entry.getValue());
+			}
+		});
+	}
+
+	private static byte[] encodeCorrelatorDelete(final String correlatorString) {
+		return encode(out -> {
+			out.writeByte(TYPE_CORRELATOR_DELETE);
+			out.writeUTF(correlatorString);
+		});
+	}
+
+	private static byte[] encodeUsedNutToken(final String nutTokenString, final Date expiryTime) {
+		return encode(out -> {
+			out.writeByte(TYPE_USED_NUT_TOKEN);
+			out.writeUTF(nutTokenString);
+			out.writeLong(expiryTime.getTime());
+		});
+	}
+
+	private interface RecordWriter {
+		void write(DataOutputStream out) throws IOException;
+	}
+
+	private static byte[] encode(final RecordWriter recordWriter) {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			recordWriter.write(out);
+		} catch (final IOException e) {
+			throw new SqrlPersistenceException("Error encoding log record", e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * The latest state of each key seen during replay
+	 */
+	private static class RecoveredState {
+		private final Map<String, SqrlCorrelator>	correlatorTable		= new HashMap<>();
+		private final Map<String, Date>				usedNutTokenTable	= new HashMap<>();
+
+		private void apply(final byte[] record) {
+			try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(record))) {
+				final byte type = in.readByte();
+				if (type == TYPE_CORRELATOR) {
+					final String correlatorString = in.readUTF();
+					final SqrlCorrelator sqrlCorrelator = new SqrlCorrelator(correlatorString, new Date(in.readLong()));
+					sqrlCorrelator.setAuthenticationStatus(SqrlAuthenticationStatus.valueOf(in.readUTF()));
+					final int transientCount = in.readInt();
+					for (int i = 0; i < transientCount; i++) {
+						sqrlCorrelator.getTransientAuthDataTable().put(in.readUTF(), in.readUTF());
+					}
+					correlatorTable.put(correlatorString, sqrlCorrelator);
+				} else if (type == TYPE_CORRELATOR_DELETE) {
+					correlatorTable.remove(in.readUTF());
+				} else if (type == TYPE_USED_NUT_TOKEN) {
+					usedNutTokenTable.put(in.readUTF(), new Date(in.readLong()));
+				} else {
+					throw new SqrlPersistenceException("Unknown log record type " + type);
+				}
+			} catch (final IOException e) {
+				throw new SqrlPersistenceException("Error decoding log record", e);
+			}
+		}
+
+		private void applyTo(final SqrlInMemoryPersistenceStore store) {
+			final long now = System.currentTimeMillis();
+			synchronized (store.commitLock) {
+				for (final SqrlCorrelator sqrlCorrelator : correlatorTable.values()) {
+					if (sqrlCorrelator.getExpiryTime().getTime() > now) {
+						sqrlCorrelator.setId(store.nextId());
+						store.correlatorTable.put(sqrlCorrelator.getCorrelatorString(), sqrlCorrelator);
+					}
+				}
+				for (final Map.Entry<String, Date> entry : usedNutTokenTable.entrySet()) {
+					if (entry.getValue().getTime() > now) {
+						store.usedNutTokenSegment(entry.getValue()).put(entry.getKey(), entry.getValue());
+					}
+				}
+			}
+		}
+	}
+
+	/* ************************ Files *****************************/
+
+	private File segmentFile(final long segmentNumber) {
+		return new File(directory, SEGMENT_PREFIX + segmentNumber + SEGMENT_SUFFIX);
+	}
+
+	private static long segmentNumberOf(final File segmentFile) {
+		final String name = segmentFile.getName();
+		return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+	}
+
+	/**
+	 * @return the files with the given suffix, oldest segment first
+	 */
+	private List<File> listFiles(final String suffix) {
+		final File[] files = directory.listFiles(
+				(dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(suffix));
+		final List<File> fileList = new ArrayList<>();
+		if (files != null) {
+			Collections.addAll(fileList, files);
+		}
+		if (SEGMENT_SUFFIX.equals(suffix)) {
+			fileList.sort((a, b) -> Long.compare(segmentNumberOf(a), segmentNumberOf(b)));
+		}
+		return fileList;
+	}
+
+	private static MappedByteBuffer createSegment(final File segmentFile, final int sizeBytes) {
+		final MappedByteBuffer buffer = mapSegment(segmentFile, sizeBytes);
+		buffer.putInt(SEGMENT_MAGIC);
+		buffer.putInt(SEGMENT_VERSION);
+		return buffer;
+	}
+
+	private static MappedByteBuffer mapSegment(final File segmentFile, final long sizeBytes) {
+		// The mapping remains valid after the channel is closed
+		try (RandomAccessFile file = new RandomAccessFile(segmentFile, "rw");
+				FileChannel channel = file.getChannel()) {
+			return channel.map(FileChannel.MapMode.READ_WRITE, 0, sizeBytes);
+		} catch (final IOException e) {
+			throw new SqrlPersistenceException("Error mapping log segment " + segmentFile, e);
+		}
+	}
+
+	private static void deleteFile(final File file) {
+		if (file.exists() && !file.delete()) {
+			logger.warn("Could not delete {}", file);
+		}
+	}
+}
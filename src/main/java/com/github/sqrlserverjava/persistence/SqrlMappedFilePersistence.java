@@ -0,0 +1,241 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+import com.github.sqrlserverjava.enums.SqrlIdentityFlag;
+
+/**
+ * A {@link SqrlPersistence} created by {@link SqrlMappedFilePersistenceFactory}. Correlator and used nut token calls
+ * are made against a {@link SqrlInMemoryPersistenceProvider}; on commit the committed state of each correlator and
+ * token this unit of work touched is appended to the log. Only used as the single shard of the
+ * {@link SqrlShardedPersistenceFactory} built by {@link SqrlMappedFilePersistenceFactory}, which sends identity calls
+ * to the identity store, so they are never made here
+ *
+ * @author Dave Badia
+ *
+ */
+class SqrlMappedFilePersistence implements SqrlPersistence {
+	/**
+	 * After a cleanup, the log is compacted if more than this fraction of it is in use
+	 */
+	private static final double COMPACT_AFTER_CLEANUP_USAGE = 0.5;
+
+	private final SqrlInMemoryPersistenceProvider	inMemoryPersistence;
+	private final SqrlInMemoryPersistenceStore		store;
+	private final SqrlMappedFileLog					log;
+
+	private final Set<String>	touchedCorrelatorSet	= new HashSet<>();
+	// List<Object[]{String=token, Date=expiry}>
+	private final List<Object[]>	usedNutTokenList	= new ArrayList<>();
+	private boolean					cleanedUp			= false;
+
+	SqrlMappedFilePersistence(final SqrlInMemoryPersistenceProvider inMemoryPersistence,
+			final SqrlInMemoryPersistenceStore store, final SqrlMappedFileLog log) {
+		this.inMemoryPersistence = inMemoryPersistence;
+		this.store = store;
+		this.log = log;
+	}
+
+	/* ************************ Correlator methods *****************************/
+
+	@Override
+	public SqrlCorrelator createCorrelator(final String correlatorString, final Date expiryTime) {
+		final SqrlCorrelator sqrlCorrelator = inMemoryPersistence.createCorrelator(correlatorString, expiryTime);
+		touchedCorrelatorSet.add(correlatorString);
+		return sqrlCorrelator;
+	}
+
+	/**
+	 * The returned correlator may be modified, so it is logged on commit if it changed
+	 */
+	@Override
+	public SqrlCorrelator fetchSqrlCorrelator(final String correlator) {
+		final SqrlCorrelator sqrlCorrelator = inMemoryPersistence.fetchSqrlCorrelator(correlator);
+		if (sqrlCorrelator != null) {
+			touchedCorrelatorSet.add(correlator);
+		}
+		return sqrlCorrelator;
+	}
+
+	@Override
+	public SqrlCorrelator fetchSqrlCorrelatorRequired(final String correlator) {
+		final SqrlCorrelator sqrlCorrelator = inMemoryPersistence.fetchSqrlCorrelatorRequired(correlator);
+		touchedCorrelatorSet.add(correlator);
+		return sqrlCorrelator;
+	}
+
+	@Override
+	public void deleteSqrlCorrelator(final SqrlCorrelator sqrlCorrelator) {
+		inMemoryPersistence.deleteSqrlCorrelator(sqrlCorrelator);
+		if (sqrlCorrelator != null) {
+			touchedCorrelatorSet.add(sqrlCorrelator.getCorrelatorString());
+		}
+	}
+
+	@Override
+	public String fetchTransientAuthData(final String correlator, final String transientNameServerParrot) {
+		return inMemoryPersistence.fetchTransientAuthData(correlator, transientNameServerParrot);
+	}
+
+	@Override
+	public Map<String, SqrlCorrelator> fetchSqrlCorrelatorsDetached(final Set<String> correlatorStringSet) {
+		return inMemoryPersistence.fetchSqrlCorrelatorsDetached(correlatorStringSet);
+	}
+
+	@Override
+	public Map<String, SqrlAuthenticationStatus> fetchSqrlCorrelatorStatusUpdates(
+			final Map<String, SqrlAuthenticationStatus> correlatorToCurrentStatusTable) {
+		return inMemoryPersistence.fetchSqrlCorrelatorStatusUpdates(correlatorToCurrentStatusTable);
+	}
+
+	/**
+	 * The change log is kept in memory only, it starts over after a restart as does every monitor reading it
+	 */
+	@Override
+	public List<SqrlCorrelatorStatusChange> fetchSqrlCorrelatorStatusChangesSince(final long sinceSequence,
+			final int maxResults) {
+		return inMemoryPersistence.fetchSqrlCorrelatorStatusChangesSince(sinceSequence, maxResults);
+	}
+
+	/* ************************ Nut token methods *****************************/
+
+	@Override
+	public boolean hasTokenBeenUsed(final String nutTokenString) {
+		return inMemoryPersistence.hasTokenBeenUsed(nutTokenString);
+	}
+
+	@Override
+	public void markTokenAsUsed(final String nutTokenString, final Date expiryTime) {
+		inMemoryPersistence.markTokenAsUsed(nutTokenString, expiryTime);
+		usedNutTokenList.add(new Object[] { nutTokenString, expiryTime });
+	}
+
+	/* ************************ Unit of work *****************************/
+
+	@Override
+	public void cleanUpExpiredEntries() {
+		cleanedUp = true;
+		inMemoryPersistence.cleanUpExpiredEntries();
+	}
+
+	@Override
+	public SqrlPersistenceCleanupResult cleanUpExpiredEntries(final int maxRowsPerType) {
+		cleanedUp = true;
+		return inMemoryPersistence.cleanUpExpiredEntries(maxRowsPerType);
+	}
+
+	/**
+	 * Commits to the store then appends the committed state to the log, both under the store's commit lock so the log
+	 * is written in commit order
+	 */
+	@Override
+	public void closeCommit() {
+		synchronized (store.commitLock) {
+			inMemoryPersistence.closeCommit();
+			for (final String correlatorString : touchedCorrelatorSet) {
+				log.appendCorrelator(correlatorString, store.correlatorTable.get(correlatorString), store);
+			}
+			for (final Object[] usedNutToken : usedNutTokenList) {
+				log.appendUsedNutToken((String) usedNutToken[0], (Date) usedNutToken[1], store);
+			}
+			if (cleanedUp && log.getActiveSegmentUsage() > COMPACT_AFTER_CLEANUP_USAGE) {
+				log.compact(store);
+			}
+		}
+	}
+
+	@Override
+	public void closeRollback() {
+		inMemoryPersistence.closeRollback();
+	}
+
+	@Override
+	public boolean isClosed() {
+		return inMemoryPersistence.isClosed();
+	}
+
+	/* ************************ Identity methods, routed to the identity store *****************************/
+
+	private static UnsupportedOperationException identitiesNotSupported() {
+		return new UnsupportedOperationException(
+				"Identities are not stored in the log, they go to the SqrlMappedFilePersistenceFactory identity store");
+	}
+
+	@Override
+	public void createAndEnableSqrlIdentity(final String sqrlIdk) {
+		throw identitiesNotSupported();
+	}
+
+	@Override
+	public boolean doesSqrlIdentityExistByIdk(final String sqrlIdk) {
+		throw identitiesNotSupported();
+	}
+
+	@Override
+	public SqrlIdentity fetchSqrlIdentityByUserXref(final String appUserXref) {
+		throw identitiesNotSupported();
+	}
+
+	@Override
+	public SqrlIdentity fetchSqrlIdentity(final String sqrlIdk) {
+		throw identitiesNotSupported();
+	}
+
+	@Override
+	public void updateIdkForSqrlIdentity(final String previousSqrlIdk, final String newSqrlIdk) {
+		throw identitiesNotSupported();
+	}
+
+	@Override
+	public void deleteSqrlIdentity(final String sqrlIdk) {
+		throw identitiesNotSupported();
+	}
+
+	@Override
+	public void updateNativeUserXref(final long sqrlIdentityId, final String nativeUserXref) {
+		throw identitiesNotSupported();
+	}
+
+	@Override
+	public void userAuthenticatedViaSqrl(final String sqrlIdk, final String correlator) {
+		throw identitiesNotSupported();
+	}
+
+	@Override
+	public boolean fetchSqrlFlagForIdentity(final String sqrlIdk, final SqrlIdentityFlag flagToFetch) {
+		throw identitiesNotSupported();
+	}
+
+	@Override
+	public void setSqrlFlagForIdentity(final String sqrlIdk, final SqrlIdentityFlag flagToSet,
+			final boolean valueToSet) {
+		throw identitiesNotSupported();
+	}
+
+	@Override
+	public Set<SqrlIdentityFlag> fetchSqrlFlagsForIdentity(final String sqrlIdk) {
+		throw identitiesNotSupported();
+	}
+
+	@Override
+	public void setSqrlFlagsForIdentity(final String sqrlIdk, final Map<SqrlIdentityFlag, Boolean> flagsToSet) {
+		throw identitiesNotSupported();
+	}
+
+	@Override
+	public void storeSqrlDataForSqrlIdentity(final String sqrlIdk, final Map<String, String> dataToStore) {
+		throw identitiesNotSupported();
+	}
+
+	@Override
+	public String fetchSqrlIdentityDataItem(final String sqrlIdk, final String toFetch) {
+		throw identitiesNotSupported();
+	}
+}
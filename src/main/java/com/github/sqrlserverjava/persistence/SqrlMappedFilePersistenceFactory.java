@@ -0,0 +1,103 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.io.File;
+import java.util.Collections;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.SqrlPersistenceFactory;
+
+/**
+ * A {@link SqrlPersistenceFactory} for single node deployments which keeps correlators, their transient auth data and
+ * used nut tokens in a {@link SqrlInMemoryPersistenceStore}, made durable by an append only memory mapped log in the
+ * given directory. Committing appends to the log instead of making JDBC calls, and on startup the log is replayed to
+ * restore the logins in progress.
+ * <p>
+ * Identities are not stored in the log, so a factory for the identity tables is required. Identity calls are sent to
+ * it by a {@link SqrlShardedPersistenceFactory} which has the log as its only shard:
+ *
+ * <pre>
+ * config.setSqrlPersistenceFactory(
+ * 		new SqrlMappedFilePersistenceFactory(new SqrlJpaPersistenceFactory(), new File("/var/sqrl")));
+ * </pre>
+ *
+ * By default appends are not forced to disk, which survives a JVM crash since the mapped pages belong to the operating
+ * system, but not a power loss. Only one JVM may use a directory at a time
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlMappedFilePersistenceFactory implements SqrlPersistenceFactory {
+	public static final int DEFAULT_SEGMENT_SIZE_BYTES = 64 * 1024 * 1024;
+
+	private final SqrlInMemoryPersistenceStore	store	= new SqrlInMemoryPersistenceStore();
+	private final SqrlMappedFileLog				log;
+	private final SqrlShardedPersistenceFactory	shardedFactory;
+
+	/**
+	 * @param identityFactory
+	 *            creates the persistence for the identity tables
+	 */
+	public SqrlMappedFilePersistenceFactory(final SqrlPersistenceFactory identityFactory, final File directory) {
+		this(identityFactory, directory, DEFAULT_SEGMENT_SIZE_BYTES, false);
+	}
+
+	/**
+	 * @param identityFactory
+	 *            creates the persistence for the identity tables
+	 * @param segmentSizeBytes
+	 *            the size of the log file, once full the live entries are compacted into a new one
+	 * @param forceOnCommit
+	 *            true to force each commit to disk before it returns, which survives a power loss at the cost of a disk
+	 *            flush per commit
+	 */
+	public SqrlMappedFilePersistenceFactory(final SqrlPersistenceFactory identityFactory, final File directory,
+			final int segmentSizeBytes, final boolean forceOnCommit) {
+		if (identityFactory == null) {
+			throw new IllegalArgumentException("identityFactory is required, identities are not stored in the log");
+		}
+		this.log = new SqrlMappedFileLog(directory, segmentSizeBytes, forceOnCommit);
+		log.recover(store);
+		this.shardedFactory = new SqrlShardedPersistenceFactory(identityFactory,
+				Collections.singletonList(new SqrlPersistenceFactory() {
+					@Override
+					public SqrlPersistence createSqrlPersistence() {
+						return new SqrlMappedFilePersistence(new SqrlInMemoryPersistenceProvider(store), store, log);
+					}
+
+					@Override
+					public Class<? extends Runnable> getCleanupTaskClass() {
+						return null;
+					}
+				}));
+	}
+
+	@Override
+	public SqrlPersistence createSqrlPersistence() {
+		return shardedFactory.createSqrlPersistence();
+	}
+
+	/**
+	 * @return the identity factory's cleanup task. Expired log entries are removed by
+	 *         {@link SqrlPersistenceCleanupTask} and dropped from the log when it is compacted
+	 */
+	@Override
+	public Class<? extends Runnable> getCleanupTaskClass() {
+		return shardedFactory.getCleanupTaskClass();
+	}
+
+	/**
+	 * Rewrites the log with only the live entries
+	 */
+	public void compact() {
+		synchronized (store.commitLock) {
+			log.compact(store);
+		}
+	}
+
+	/**
+	 * @return the store holding the recovered and committed entries, for monitoring heap usage
+	 */
+	public SqrlInMemoryPersistenceStore getStore() {
+		return store;
+	}
+}
@@ -0,0 +1,69 @@
+package com.github.sqrlserverjava.persistence;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+
+/**
+ * The number of rows removed by one or more calls to {@link SqrlPersistence#cleanUpExpiredEntries(int)}
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlPersistenceCleanupResult {
+	private final int	correlatorCount;
+	private final int	transientAuthDataCount;
+	private final int	usedNutTokenCount;
+	private final int	statusChangeCount;
+
+	/**
+	 * @param transientAuthDataCount
+	 *            the transient auth data rows removed, both those of expired correlators and orphans
+	 */
+	public SqrlPersistenceCleanupResult(final int correlatorCount, final int transientAuthDataCount,
+			final int usedNutTokenCount, final int statusChangeCount) {
+		this.correlatorCount = correlatorCount;
+		this.transientAuthDataCount = transientAuthDataCount;
+		this.usedNutTokenCount = usedNutTokenCount;
+		this.statusChangeCount = statusChangeCount;
+	}
+
+	public int getCorrelatorCount() {
+		return correlatorCount;
+	}
+
+	public int getTransientAuthDataCount() {
+		return transientAuthDataCount;
+	}
+
+	public int getUsedNutTokenCount() {
+		return usedNutTokenCount;
+	}
+
+	public int getStatusChangeCount() {
+		return statusChangeCount;
+	}
+
+	public int getTotalCount() {
+		return correlatorCount + transientAuthDataCount + usedNutTokenCount + statusChangeCount;
+	}
+
+	/**
+	 * @return true if any kind of entry hit the maxRowsPerType limit, so more expired entries may remain
+	 */
+	public boolean isLimitReached(final int maxRowsPerType) {
+		return correlatorCount >= maxRowsPerType || transientAuthDataCount >= maxRowsPerType
+				|| usedNutTokenCount >= maxRowsPerType || statusChangeCount >= maxRowsPerType;
+	}
+
+	public SqrlPersistenceCleanupResult add(final SqrlPersistenceCleanupResult other) {
+		return new SqrlPersistenceCleanupResult(correlatorCount + other.correlatorCount,
+				transientAuthDataCount + other.transientAuthDataCount, usedNutTokenCount + other.usedNutTokenCount,
+				statusChangeCount + other.statusChangeCount);
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuilder("correlators=").append(correlatorCount).append(" transientAuthData=")
+				.append(transientAuthDataCount).append(" usedNutTokens=").append(usedNutTokenCount)
+				.append(" statusChanges=").append(statusChangeCount).toString();
+	}
+}
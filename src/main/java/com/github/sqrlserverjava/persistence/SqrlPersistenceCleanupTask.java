@@ -3,26 +3,82 @@ package com.github.sqrlserverjava.persistence;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.github.sqrlserverjava.SqrlPersistence;
 import com.github.sqrlserverjava.SqrlPersistenceFactory;
 
+/**
+ * Removes expired entries via {@link SqrlPersistence#cleanUpExpiredEntries(int)}, one bounded batch per unit of work so
+ * that no single transaction holds locks for long. Batches run until nothing is left or the time budget is used up,
+ * anything remaining is removed on the next run
+ *
+ * @author Dave Badia
+ *
+ */
 public class SqrlPersistenceCleanupTask implements Runnable {
 	private static final Logger				logger	= LoggerFactory.getLogger(SqrlPersistenceCleanupTask.class);
 	private final SqrlPersistenceFactory	persistenceFactory;
+	private final int						batchSize;
+	private final long						timeBudgetMillis;
 
-	public SqrlPersistenceCleanupTask(final SqrlPersistenceFactory persistenceFactory) {
-		super();
+	private volatile SqrlPersistenceCleanupResult	lastRunResult			= new SqrlPersistenceCleanupResult(0, 0, 0,
+			0);
+	private volatile long							lastRunDurationMillis	= 0;
+
+	/**
+	 * @param batchSize
+	 *            the maximum number of rows of each kind to delete per unit of work
+	 * @param timeBudgetMillis
+	 *            the time after which no further batches are started
+	 */
+	public SqrlPersistenceCleanupTask(final SqrlPersistenceFactory persistenceFactory, final int batchSize,
+			final long timeBudgetMillis) {
+		if (batchSize <= 0) {
+			throw new IllegalArgumentException("cleanup batchSize must be > 0");
+		}
 		this.persistenceFactory = persistenceFactory;
+		this.batchSize = batchSize;
+		this.timeBudgetMillis = timeBudgetMillis;
 	}
 
 	@Override
 	public void run() {
-		try (SqrlAutoCloseablePersistence sqrlPersistence = new SqrlAutoCloseablePersistence(
-				persistenceFactory.createSqrlPersistence())) {
-			sqrlPersistence.cleanUpExpiredEntries();
-			sqrlPersistence.closeCommit();
+		final long startTime = System.currentTimeMillis();
+		SqrlPersistenceCleanupResult runResult = new SqrlPersistenceCleanupResult(0, 0, 0, 0);
+		int batchCount = 0;
+		boolean complete = false;
+		try {
+			while (!complete && (batchCount == 0 || System.currentTimeMillis() - startTime < timeBudgetMillis)) {
+				try (SqrlAutoCloseablePersistence sqrlPersistence = new SqrlAutoCloseablePersistence(
+						persistenceFactory.createSqrlPersistence())) {
+					final SqrlPersistenceCleanupResult batchResult = sqrlPersistence.cleanUpExpiredEntries(batchSize);
+					sqrlPersistence.closeCommit();
+					runResult = runResult.add(batchResult);
+					complete = !batchResult.isLimitReached(batchSize);
+				}
+				batchCount++;
+			}
 		} catch (final RuntimeException e) {
 			logger.error("Error during execution cleanup tasks", e);
 		}
+		lastRunResult = runResult;
+		lastRunDurationMillis = System.currentTimeMillis() - startTime;
+		if (runResult.getTotalCount() > 0 || !complete) {
+			logger.info("process=cleanup detail=\"Persistence cleanup deleted {} in {} batches\" durationMs={} complete={}",
+					runResult, batchCount, lastRunDurationMillis, complete);
+		}
 	}
 
+	/**
+	 * @return the rows deleted by the most recent run
+	 */
+	public SqrlPersistenceCleanupResult getLastRunResult() {
+		return lastRunResult;
+	}
+
+	/**
+	 * @return how long the most recent run took
+	 */
+	public long getLastRunDurationMillis() {
+		return lastRunDurationMillis;
+	}
 }
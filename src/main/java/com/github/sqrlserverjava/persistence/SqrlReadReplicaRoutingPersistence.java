@@ -0,0 +1,257 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+import com.github.sqrlserverjava.enums.SqrlIdentityFlag;
+
+/**
+ * A {@link SqrlPersistence} created by {@link SqrlReadReplicaRoutingPersistenceFactory} which sends the read only
+ * lookups used for login page status polling to the replica:
+ * <ul>
+ * <li>{@link #fetchSqrlCorrelator(String)}</li>
+ * <li>{@link #fetchSqrlCorrelatorsDetached(Set)}</li>
+ * <li>{@link #fetchSqrlCorrelatorStatusUpdates(Map)}</li>
+ * <li>{@link #fetchSqrlCorrelatorStatusChangesSince(long, int)}</li>
+ * <li>{@link #fetchSqrlIdentityByUserXref(String)}</li>
+ * </ul>
+ * All other calls go to the primary, including the identity and nut token lookups made while processing a SQRL client
+ * request since those must never be stale. Once a unit of work has used the primary, all of its remaining calls go to
+ * the primary too so it sees its own uncommitted changes. A lookup of a correlator or xref which was committed within
+ * the factory's read your writes window also goes to the primary.
+ * <p>
+ * The replica is never committed, so changes made to objects returned by a replica lookup are not saved
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlReadReplicaRoutingPersistence implements SqrlPersistence {
+	private final SqrlReadReplicaRoutingPersistenceFactory factory;
+
+	private SqrlPersistence		primary;
+	private SqrlPersistence		replica;
+	private boolean				closed;
+	private final Set<String>	writtenCorrelatorSet	= new HashSet<>();
+	private final Set<String>	writtenXrefSet			= new HashSet<>();
+
+	SqrlReadReplicaRoutingPersistence(final SqrlReadReplicaRoutingPersistenceFactory factory) {
+		this.factory = factory;
+	}
+
+	private SqrlPersistence primary() {
+		if (primary == null) {
+			primary = factory.getPrimary().createSqrlPersistence();
+		}
+		return primary;
+	}
+
+	private SqrlPersistence readTarget(final boolean recentlyWritten) {
+		if (primary != null || recentlyWritten) {
+			return primary();
+		}
+		if (replica == null) {
+			replica = factory.getReplica().createSqrlPersistence();
+		}
+		return replica;
+	}
+
+	/* ************************ Replica eligible lookups *****************************/
+
+	@Override
+	public SqrlCorrelator fetchSqrlCorrelator(final String correlator) {
+		return readTarget(factory.wasCorrelatorRecentlyWritten(Collections.singleton(correlator)))
+				.fetchSqrlCorrelator(correlator);
+	}
+
+	@Override
+	public Map<String, SqrlCorrelator> fetchSqrlCorrelatorsDetached(final Set<String> correlatorStringSet) {
+		return readTarget(factory.wasCorrelatorRecentlyWritten(correlatorStringSet))
+				.fetchSqrlCorrelatorsDetached(correlatorStringSet);
+	}
+
+	@Override
+	public Map<String, SqrlAuthenticationStatus> fetchSqrlCorrelatorStatusUpdates(
+			final Map<String, SqrlAuthenticationStatus> correlatorToCurrentStatusTable) {
+		return readTarget(factory.wasCorrelatorRecentlyWritten(correlatorToCurrentStatusTable.keySet()))
+				.fetchSqrlCorrelatorStatusUpdates(correlatorToCurrentStatusTable);
+	}
+
+	/**
+	 * Always eligible for the replica: the caller keeps its position in the change sequence, so a change which has not
+	 * reached the replica yet is returned by a later call
+	 */
+	@Override
+	public List<SqrlCorrelatorStatusChange> fetchSqrlCorrelatorStatusChangesSince(final long sinceSequence,
+			final int maxResults) {
+		return readTarget(false).fetchSqrlCorrelatorStatusChangesSince(sinceSequence, maxResults);
+	}
+
+	@Override
+	public SqrlIdentity fetchSqrlIdentityByUserXref(final String appUserXref) {
+		return readTarget(factory.wasXrefRecentlyWritten(appUserXref)).fetchSqrlIdentityByUserXref(appUserXref);
+	}
+
+	/* ************************ Primary methods which write correlators or xrefs *****************************/
+
+	@Override
+	public SqrlCorrelator createCorrelator(final String correlatorString, final Date expiryTime) {
+		writtenCorrelatorSet.add(correlatorString);
+		return primary().createCorrelator(correlatorString, expiryTime);
+	}
+
+	/**
+	 * The returned correlator is typically modified, so this is treated as a write
+	 */
+	@Override
+	public SqrlCorrelator fetchSqrlCorrelatorRequired(final String correlator) {
+		writtenCorrelatorSet.add(correlator);
+		return primary().fetchSqrlCorrelatorRequired(correlator);
+	}
+
+	@Override
+	public void userAuthenticatedViaSqrl(final String sqrlIdk, final String correlator) {
+		writtenCorrelatorSet.add(correlator);
+		primary().userAuthenticatedViaSqrl(sqrlIdk, correlator);
+	}
+
+	@Override
+	public void deleteSqrlCorrelator(final SqrlCorrelator sqrlCorrelator) {
+		if (sqrlCorrelator != null) {
+			writtenCorrelatorSet.add(sqrlCorrelator.getCorrelatorString());
+		}
+		primary().deleteSqrlCorrelator(sqrlCorrelator);
+	}
+
+	@Override
+	public void updateNativeUserXref(final long sqrlIdentityId, final String nativeUserXref) {
+		writtenXrefSet.add(nativeUserXref);
+		primary().updateNativeUserXref(sqrlIdentityId, nativeUserXref);
+	}
+
+	/* ************************ Other primary methods *****************************/
+
+	@Override
+	public void createAndEnableSqrlIdentity(final String sqrlIdk) {
+		primary().createAndEnableSqrlIdentity(sqrlIdk);
+	}
+
+	@Override
+	public SqrlIdentity fetchSqrlIdentity(final String sqrlIdk) {
+		return primary().fetchSqrlIdentity(sqrlIdk);
+	}
+
+	@Override
+	public boolean doesSqrlIdentityExistByIdk(final String sqrlIdk) {
+		return primary().doesSqrlIdentityExistByIdk(sqrlIdk);
+	}
+
+	@Override
+	public void updateIdkForSqrlIdentity(final String previousSqrlIdk, final String newSqrlIdk) {
+		primary().updateIdkForSqrlIdentity(previousSqrlIdk, newSqrlIdk);
+	}
+
+	@Override
+	public void deleteSqrlIdentity(final String sqrlIdk) {
+		primary().deleteSqrlIdentity(sqrlIdk);
+	}
+
+	@Override
+	public boolean fetchSqrlFlagForIdentity(final String sqrlIdk, final SqrlIdentityFlag flagToFetch) {
+		return primary().fetchSqrlFlagForIdentity(sqrlIdk, flagToFetch);
+	}
+
+	@Override
+	public void setSqrlFlagForIdentity(final String sqrlIdk, final SqrlIdentityFlag flagToSet,
+			final boolean valueToSet) {
+		primary().setSqrlFlagForIdentity(sqrlIdk, flagToSet, valueToSet);
+	}
+
+	@Override
+	public Set<SqrlIdentityFlag> fetchSqrlFlagsForIdentity(final String sqrlIdk) {
+		return primary().fetchSqrlFlagsForIdentity(sqrlIdk);
+	}
+
+	@Override
+	public void setSqrlFlagsForIdentity(final String sqrlIdk, final Map<SqrlIdentityFlag, Boolean> flagsToSet) {
+		primary().setSqrlFlagsForIdentity(sqrlIdk, flagsToSet);
+	}
+
+	@Override
+	public void storeSqrlDataForSqrlIdentity(final String sqrlIdk, final Map<String, String> dataToStore) {
+		primary().storeSqrlDataForSqrlIdentity(sqrlIdk, dataToStore);
+	}
+
+	@Override
+	public String fetchSqrlIdentityDataItem(final String sqrlIdk, final String toFetch) {
+		return primary().fetchSqrlIdentityDataItem(sqrlIdk, toFetch);
+	}
+
+	@Override
+	public boolean hasTokenBeenUsed(final String nutTokenString) {
+		return primary().hasTokenBeenUsed(nutTokenString);
+	}
+
+	@Override
+	public void markTokenAsUsed(final String nutTokenString, final Date expiryTime) {
+		primary().markTokenAsUsed(nutTokenString, expiryTime);
+	}
+
+	@Override
+	public String fetchTransientAuthData(final String correlator, final String transientNameServerParrot) {
+		return primary().fetchTransientAuthData(correlator, transientNameServerParrot);
+	}
+
+	@Override
+	public void cleanUpExpiredEntries() {
+		primary().cleanUpExpiredEntries();
+	}
+
+	@Override
+	public SqrlPersistenceCleanupResult cleanUpExpiredEntries(final int maxRowsPerType) {
+		return primary().cleanUpExpiredEntries(maxRowsPerType);
+	}
+
+	/* ************************ Unit of work *****************************/
+
+	@Override
+	public void closeCommit() {
+		closed = true;
+		try {
+			if (primary != null) {
+				primary.closeCommit();
+				factory.recordWrites(writtenCorrelatorSet, writtenXrefSet);
+			}
+		} finally {
+			closeReplica();
+		}
+	}
+
+	@Override
+	public void closeRollback() {
+		closed = true;
+		try {
+			if (primary != null) {
+				primary.closeRollback();
+			}
+		} finally {
+			closeReplica();
+		}
+	}
+
+	private void closeReplica() {
+		if (replica != null) {
+			replica.closeRollback();
+		}
+	}
+
+	@Override
+	public boolean isClosed() {
+		return closed;
+	}
+}
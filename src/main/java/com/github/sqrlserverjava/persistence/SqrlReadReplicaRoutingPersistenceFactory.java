@@ -0,0 +1,112 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.sql.DataSource;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.SqrlPersistenceFactory;
+
+/**
+ * A {@link SqrlPersistenceFactory} which sends the read only status polling lookups made by login pages to a read
+ * replica and everything else to the primary. See {@link SqrlReadReplicaRoutingPersistence} for which calls are routed
+ * to the replica. Set on {@code SqrlConfig.setSqrlPersistenceFactory} to opt in, for example:
+ *
+ * <pre>
+ * config.setSqrlPersistenceFactory(new SqrlReadReplicaRoutingPersistenceFactory(
+ * 		new SqrlJdbcPersistenceFactory(primaryDataSource), new SqrlJdbcPersistenceFactory(replicaDataSource),
+ * 		TimeUnit.SECONDS.toMillis(5)));
+ * </pre>
+ *
+ * The replica factory is only used for reads, so it would typically be a {@link SqrlJdbcPersistenceFactory} built
+ * with the replica {@link DataSource}.
+ * <p>
+ * Read your writes: correlators and native user xrefs written through this factory are remembered for
+ * readYourWritesMillis after commit, lookups of them go to the primary during that time. This should be set above the
+ * normal replication lag. It is tracked per JVM, in a cluster a change made on another node is seen once it reaches
+ * the replica
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlReadReplicaRoutingPersistenceFactory implements SqrlPersistenceFactory {
+	private final SqrlPersistenceFactory	primary;
+	private final SqrlPersistenceFactory	replica;
+	private final long						readYourWritesMillis;
+
+	// Map<String=correlator or xref, Long=commit time>
+	private final Map<String, Long>	recentCorrelatorWriteTable	= new ConcurrentHashMap<>();
+	private final Map<String, Long>	recentXrefWriteTable		= new ConcurrentHashMap<>();
+	private volatile long			lastPruneTime				= System.currentTimeMillis();
+
+	/**
+	 * @param readYourWritesMillis
+	 *            how long after a commit lookups of the correlators and xrefs it wrote go to the primary, 0 to
+	 *            always use the replica for them
+	 */
+	public SqrlReadReplicaRoutingPersistenceFactory(final SqrlPersistenceFactory primary,
+			final SqrlPersistenceFactory replica, final long readYourWritesMillis) {
+		if (readYourWritesMillis < 0) {
+			throw new IllegalArgumentException("readYourWritesMillis must be >= 0");
+		}
+		this.primary = primary;
+		this.replica = replica;
+		this.readYourWritesMillis = readYourWritesMillis;
+	}
+
+	@Override
+	public SqrlPersistence createSqrlPersistence() {
+		return new SqrlReadReplicaRoutingPersistence(this);
+	}
+
+	@Override
+	public Class<? extends Runnable> getCleanupTaskClass() {
+		return primary.getCleanupTaskClass();
+	}
+
+	public SqrlPersistenceFactory getPrimary() {
+		return primary;
+	}
+
+	public SqrlPersistenceFactory getReplica() {
+		return replica;
+	}
+
+	/**
+	 * Invoked once a unit of work which went to the primary has committed
+	 */
+	void recordWrites(final Collection<String> correlatorStrings, final Collection<String> userXrefs) {
+		final long now = System.currentTimeMillis();
+		for (final String correlatorString : correlatorStrings) {
+			recentCorrelatorWriteTable.put(correlatorString, now);
+		}
+		for (final String userXref : userXrefs) {
+			recentXrefWriteTable.put(userXref, now);
+		}
+		if (now - lastPruneTime > readYourWritesMillis) {
+			lastPruneTime = now;
+			final long cutoff = now - readYourWritesMillis;
+			recentCorrelatorWriteTable.values().removeIf(commitTime -> commitTime < cutoff);
+			recentXrefWriteTable.values().removeIf(commitTime -> commitTime < cutoff);
+		}
+	}
+
+	boolean wasCorrelatorRecentlyWritten(final Collection<String> correlatorStrings) {
+		for (final String correlatorString : correlatorStrings) {
+			if (isRecent(recentCorrelatorWriteTable.get(correlatorString))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	boolean wasXrefRecentlyWritten(final String userXref) {
+		return isRecent(recentXrefWriteTable.get(userXref));
+	}
+
+	private boolean isRecent(final Long commitTime) {
+		return commitTime != null && System.currentTimeMillis() - commitTime < readYourWritesMillis;
+	}
+}
@@ -0,0 +1,418 @@
+package com.github.sqrlserverjava.persistence;
+
+import static com.github.sqrlserverjava.enums.SqrlAuthenticationStatus.AUTHENTICATED_BROWSER;
+import static com.github.sqrlserverjava.enums.SqrlAuthenticationStatus.AUTHENTICATED_CPS;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+import com.github.sqrlserverjava.enums.SqrlIdentityFlag;
+import com.github.sqrlserverjava.exception.SqrlPersistenceException;
+
+/**
+ * A {@link SqrlPersistence} created by {@link SqrlShardedPersistenceFactory}. Correlator and nut token calls go to the
+ * shard their key hashes to, identity calls go to the identity store, and calls covering many correlators are split by
+ * shard and run in parallel. The backing {@link SqrlPersistence} of each store is only created when first used.
+ * <p>
+ * Limitations compared to a single store:
+ * <ul>
+ * <li>Each store commits separately, the identity store first. A failure part way through rolls back the stores not
+ * yet committed, but can't undo those which were</li>
+ * <li>A correlator and its authenticated identity may be in different databases, so the link is kept as the idk in the
+ * correlator's transient auth data and resolved from the identity store by {@link #fetchSqrlCorrelator(String)} and
+ * {@link #fetchSqrlCorrelatorsDetached(Set)}. The correlator returned by {@link #fetchSqrlCorrelator(String)} is a
+ * copy when that happens</li>
+ * <li>{@link #fetchSqrlCorrelatorStatusChangesSince(long, int)} is only supported with a single shard since each shard
+ * has its own change sequence, otherwise status is polled with {@link #fetchSqrlCorrelatorStatusUpdates(Map)}</li>
+ * </ul>
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlShardedPersistence implements SqrlPersistence {
+	private static final Logger logger = LoggerFactory.getLogger(SqrlShardedPersistence.class);
+
+	/**
+	 * Transient auth data name under which the idk of the authenticated identity is stored
+	 */
+	static final String TRANSIENT_NAME_AUTHENTICATED_IDK = "sqrl_sharded_authenticated_idk";
+
+	private final SqrlShardedPersistenceFactory	factory;
+	private final SqrlPersistence[]				shardPersistenceArray;
+	private SqrlPersistence						identityPersistence;
+	private boolean								closed;
+
+	SqrlShardedPersistence(final SqrlShardedPersistenceFactory factory) {
+		this.factory = factory;
+		this.shardPersistenceArray = new SqrlPersistence[factory.getShardFactoryList().size()];
+	}
+
+	private SqrlPersistence identityStore() {
+		checkOpen();
+		if (identityPersistence == null) {
+			identityPersistence = factory.getIdentityFactory().createSqrlPersistence();
+		}
+		return identityPersistence;
+	}
+
+	private SqrlPersistence shard(final int shardIndex) {
+		checkOpen();
+		if (shardPersistenceArray[shardIndex] == null) {
+			shardPersistenceArray[shardIndex] = factory.getShardFactoryList().get(shardIndex).createSqrlPersistence();
+		}
+		return shardPersistenceArray[shardIndex];
+	}
+
+	private SqrlPersistence shardFor(final String key) {
+		return shard(factory.shardFor(key));
+	}
+
+	private void checkOpen() {
+		if (closed) {
+			throw new SqrlPersistenceException("SqrlShardedPersistence has already been closed");
+		}
+	}
+
+	/**
+	 * Runs the operation against each shard with its share of the argument, in parallel if more than one shard is
+	 * involved
+	 */
+	private <A, R> List<R> scatterGather(final Map<Integer, A> argumentByShardTable,
+			final BiFunction<SqrlPersistence, A, R> operation) {
+		final List<R> resultList = new ArrayList<>(argumentByShardTable.size());
+		if (argumentByShardTable.size() == 1) {
+			final Map.Entry<Integer, A> entry = argumentByShardTable.entrySet().iterator().next();
+			resultList.add(operation.apply(shard(entry.getKey()), entry.getValue()));
+			return resultList;
+		}
+		final List<Future<R>> futureList = new ArrayList<>(argumentByShardTable.size());
+		for (final Map.Entry<Integer, A> entry : argumentByShardTable.entrySet()) {
+			// Create the shard's persistence on this thread, each is then used by a single task at a time
+			final SqrlPersistence shardPersistence = shard(entry.getKey());
+			futureList.add(factory.getScatterGatherExecutor()
+					.submit(() -> operation.apply(shardPersistence, entry.getValue())));
+		}
+		for (final Future<R> future : futureList) {
+			try {
+				resultList.add(future.get());
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SqrlPersistenceException("Interrupted waiting for shard", e);
+			} catch (final ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				}
+				throw new SqrlPersistenceException("Error querying shard", e.getCause());
+			}
+		}
+		return resultList;
+	}
+
+	private Map<Integer, Set<String>> groupByShard(final Set<String> correlatorStringSet) {
+		final Map<Integer, Set<String>> correlatorsByShardTable = new HashMap<>();
+		for (final String correlatorString : correlatorStringSet) {
+			correlatorsByShardTable.computeIfAbsent(factory.shardFor(correlatorString), k -> new HashSet<>())
+			.add(correlatorString);
+		}
+		return correlatorsByShardTable;
+	}
+
+	private SqrlIdentity fetchRequiredSqrlIdentity(final String sqrlIdk) {
+		final SqrlIdentity sqrlIdentity = identityStore().fetchSqrlIdentity(sqrlIdk);
+		if (sqrlIdentity == null) {
+			throw new SqrlPersistenceException("SqrlIdentity does not exist for idk=" + sqrlIdk);
+		}
+		return sqrlIdentity;
+	}
+
+	/**
+	 * @return the identity the correlator was authenticated by, or null if it hasn't been
+	 */
+	private SqrlIdentity fetchAuthenticatedIdentity(final SqrlCorrelator sqrlCorrelator) {
+		final String sqrlIdk = sqrlCorrelator.getTransientAuthDataTable().get(TRANSIENT_NAME_AUTHENTICATED_IDK);
+		if (sqrlIdk == null) {
+			return null;
+		}
+		return identityStore().fetchSqrlIdentity(sqrlIdk);
+	}
+
+	/* ************************ Correlator methods *****************************/
+
+	@Override
+	public SqrlCorrelator createCorrelator(final String correlatorString, final Date expiryTime) {
+		return shardFor(correlatorString).createCorrelator(correlatorString, expiryTime);
+	}
+
+	@Override
+	public SqrlCorrelator fetchSqrlCorrelator(final String correlator) {
+		final SqrlCorrelator sqrlCorrelator = shardFor(correlator).fetchSqrlCorrelator(correlator);
+		if (sqrlCorrelator == null) {
+			return null;
+		}
+		final SqrlIdentity authenticatedIdentity = fetchAuthenticatedIdentity(sqrlCorrelator);
+		if (authenticatedIdentity == null) {
+			return sqrlCorrelator;
+		}
+		// The identity isn't in the shard, so it can't be set on a correlator the shard will save
+		return sqrlCorrelator.copy(authenticatedIdentity);
+	}
+
+	/**
+	 * The returned correlator is saved by the shard, so its authenticated identity is not resolved
+	 */
+	@Override
+	public SqrlCorrelator fetchSqrlCorrelatorRequired(final String correlator) {
+		return shardFor(correlator).fetchSqrlCorrelatorRequired(correlator);
+	}
+
+	@Override
+	public String fetchTransientAuthData(final String correlator, final String transientNameServerParrot) {
+		return shardFor(correlator).fetchTransientAuthData(correlator, transientNameServerParrot);
+	}
+
+	@Override
+	public void userAuthenticatedViaSqrl(final String sqrlIdk, final String correlatorString) {
+		// Fail before changing the correlator if the identity doesn't exist
+		fetchRequiredSqrlIdentity(sqrlIdk);
+		final SqrlCorrelator sqrlCorrelator = fetchSqrlCorrelatorRequired(correlatorString);
+		sqrlCorrelator.getTransientAuthDataTable().put(TRANSIENT_NAME_AUTHENTICATED_IDK, sqrlIdk);
+		if (sqrlCorrelator.getAuthenticationStatus() != AUTHENTICATED_CPS) {
+			sqrlCorrelator.setAuthenticationStatus(AUTHENTICATED_BROWSER);
+		}
+	}
+
+	@Override
+	public void deleteSqrlCorrelator(final SqrlCorrelator sqrlCorrelator) {
+		if (sqrlCorrelator == null) {
+			return;
+		}
+		shardFor(sqrlCorrelator.getCorrelatorString()).deleteSqrlCorrelator(sqrlCorrelator);
+	}
+
+	@Override
+	public Map<String, SqrlCorrelator> fetchSqrlCorrelatorsDetached(final Set<String> correlatorStringSet) {
+		final Map<String, SqrlCorrelator> resultTable = new HashMap<>();
+		if (correlatorStringSet.isEmpty()) {
+			return resultTable;
+		}
+		for (final Map<String, SqrlCorrelator> shardResultTable : scatterGather(groupByShard(correlatorStringSet),
+				SqrlPersistence::fetchSqrlCorrelatorsDetached)) {
+			resultTable.putAll(shardResultTable);
+		}
+		for (final SqrlCorrelator sqrlCorrelator : resultTable.values()) {
+			final SqrlIdentity authenticatedIdentity = fetchAuthenticatedIdentity(sqrlCorrelator);
+			if (authenticatedIdentity != null) {
+				sqrlCorrelator.setAuthenticatedIdentity(authenticatedIdentity);
+			}
+		}
+		return resultTable;
+	}
+
+	@Override
+	public Map<String, SqrlAuthenticationStatus> fetchSqrlCorrelatorStatusUpdates(
+			final Map<String, SqrlAuthenticationStatus> correlatorToCurrentStatusTable) {
+		final Map<String, SqrlAuthenticationStatus> resultTable = new HashMap<>();
+		if (correlatorToCurrentStatusTable.isEmpty()) {
+			return resultTable;
+		}
+		final Map<Integer, Map<String, SqrlAuthenticationStatus>> statusByShardTable = new HashMap<>();
+		for (final Map.Entry<String, SqrlAuthenticationStatus> entry : correlatorToCurrentStatusTable.entrySet()) {
+			statusByShardTable.computeIfAbsent(factory.shardFor(entry.getKey()), k -> new HashMap<>())
+			.put(entry.getKey(), entry.getValue());
+		}
+		for (final Map<String, SqrlAuthenticationStatus> shardResultTable : scatterGather(statusByShardTable,
+				SqrlPersistence::fetchSqrlCorrelatorStatusUpdates)) {
+			resultTable.putAll(shardResultTable);
+		}
+		return resultTable;
+	}
+
+	/**
+	 * @throws UnsupportedOperationException
+	 *             if there is more than one shard, each shard has its own change sequence so there is no single
+	 *             position to resume from
+	 */
+	@Override
+	public List<SqrlCorrelatorStatusChange> fetchSqrlCorrelatorStatusChangesSince(final long sinceSequence,
+			final int maxResults) {
+		if (shardPersistenceArray.length == 1) {
+			return shard(0).fetchSqrlCorrelatorStatusChangesSince(sinceSequence, maxResults);
+		}
+		throw new UnsupportedOperationException(
+				"The status change log is per shard, use fetchSqrlCorrelatorStatusUpdates with sharded persistence");
+	}
+
+	/* ************************ Nut token methods *****************************/
+
+	@Override
+	public boolean hasTokenBeenUsed(final String nutTokenString) {
+		return shardFor(nutTokenString).hasTokenBeenUsed(nutTokenString);
+	}
+
+	@Override
+	public void markTokenAsUsed(final String nutTokenString, final Date expiryTime) {
+		shardFor(nutTokenString).markTokenAsUsed(nutTokenString, expiryTime);
+	}
+
+	/* ************************ Identity methods *****************************/
+
+	@Override
+	public void createAndEnableSqrlIdentity(final String sqrlIdk) {
+		identityStore().createAndEnableSqrlIdentity(sqrlIdk);
+	}
+
+	@Override
+	public boolean doesSqrlIdentityExistByIdk(final String sqrlIdk) {
+		return identityStore().doesSqrlIdentityExistByIdk(sqrlIdk);
+	}
+
+	@Override
+	public SqrlIdentity fetchSqrlIdentityByUserXref(final String appUserXref) {
+		return identityStore().fetchSqrlIdentityByUserXref(appUserXref);
+	}
+
+	@Override
+	public SqrlIdentity fetchSqrlIdentity(final String sqrlIdk) {
+		return identityStore().fetchSqrlIdentity(sqrlIdk);
+	}
+
+	@Override
+	public void updateIdkForSqrlIdentity(final String previousSqrlIdk, final String newSqrlIdk) {
+		identityStore().updateIdkForSqrlIdentity(previousSqrlIdk, newSqrlIdk);
+	}
+
+	@Override
+	public void deleteSqrlIdentity(final String sqrlIdk) {
+		identityStore().deleteSqrlIdentity(sqrlIdk);
+	}
+
+	@Override
+	public void updateNativeUserXref(final long sqrlIdentityId, final String nativeUserXref) {
+		identityStore().updateNativeUserXref(sqrlIdentityId, nativeUserXref);
+	}
+
+	@Override
+	public boolean fetchSqrlFlagForIdentity(final String sqrlIdk, final SqrlIdentityFlag flagToFetch) {
+		return identityStore().fetchSqrlFlagForIdentity(sqrlIdk, flagToFetch);
+	}
+
+	@Override
+	public void setSqrlFlagForIdentity(final String sqrlIdk, final SqrlIdentityFlag flagToSet,
+			final boolean valueToSet) {
+		identityStore().setSqrlFlagForIdentity(sqrlIdk, flagToSet, valueToSet);
+	}
+
+	@Override
+	public Set<SqrlIdentityFlag> fetchSqrlFlagsForIdentity(final String sqrlIdk) {
+		return identityStore().fetchSqrlFlagsForIdentity(sqrlIdk);
+	}
+
+	@Override
+	public void setSqrlFlagsForIdentity(final String sqrlIdk, final Map<SqrlIdentityFlag, Boolean> flagsToSet) {
+		identityStore().setSqrlFlagsForIdentity(sqrlIdk, flagsToSet);
+	}
+
+	@Override
+	public void storeSqrlDataForSqrlIdentity(final String sqrlIdk, final Map<String, String> dataToStore) {
+		identityStore().storeSqrlDataForSqrlIdentity(sqrlIdk, dataToStore);
+	}
+
+	@Override
+	public String fetchSqrlIdentityDataItem(final String sqrlIdk, final String toFetch) {
+		return identityStore().fetchSqrlIdentityDataItem(sqrlIdk, toFetch);
+	}
+
+	/* ************************ Unit of work *****************************/
+
+	@Override
+	public void cleanUpExpiredEntries() {
+		cleanUpExpiredEntries(Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Cleans up every shard in parallel, the identity store has no expiring entries
+	 */
+	@Override
+	public SqrlPersistenceCleanupResult cleanUpExpiredEntries(final int maxRowsPerType) {
+		final Map<Integer, Integer> maxRowsByShardTable = new HashMap<>();
+		for (int i = 0; i < shardPersistenceArray.length; i++) {
+			maxRowsByShardTable.put(i, maxRowsPerType);
+		}
+		SqrlPersistenceCleanupResult result = new SqrlPersistenceCleanupResult(0, 0, 0, 0);
+		for (final SqrlPersistenceCleanupResult shardResult : scatterGather(maxRowsByShardTable,
+				SqrlPersistence::cleanUpExpiredEntries)) {
+			result = result.add(shardResult);
+		}
+		return result;
+	}
+
+	private List<SqrlPersistence> openPersistenceList() {
+		final List<SqrlPersistence> openList = new ArrayList<>(shardPersistenceArray.length + 1);
+		if (identityPersistence != null) {
+			openList.add(identityPersistence);
+		}
+		for (final SqrlPersistence shardPersistence : shardPersistenceArray) {
+			if (shardPersistence != null) {
+				openList.add(shardPersistence);
+			}
+		}
+		return openList;
+	}
+
+	/**
+	 * Commits the identity store then each shard. If one fails, the remaining stores are rolled back
+	 */
+	@Override
+	public void closeCommit() {
+		closed = true;
+		RuntimeException failure = null;
+		for (final SqrlPersistence sqrlPersistence : openPersistenceList()) {
+			if (failure == null) {
+				try {
+					sqrlPersistence.closeCommit();
+				} catch (final RuntimeException e) {
+					failure = e;
+				}
+			} else {
+				rollbackQuietly(sqrlPersistence);
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	@Override
+	public void closeRollback() {
+		closed = true;
+		for (final SqrlPersistence sqrlPersistence : openPersistenceList()) {
+			rollbackQuietly(sqrlPersistence);
+		}
+	}
+
+	private static void rollbackQuietly(final SqrlPersistence sqrlPersistence) {
+		try {
+			sqrlPersistence.closeRollback();
+		} catch (final RuntimeException e) {
+			logger.error("Error during rollback", e);
+		}
+	}
+
+	@Override
+	public boolean isClosed() {
+		return closed;
+	}
+}
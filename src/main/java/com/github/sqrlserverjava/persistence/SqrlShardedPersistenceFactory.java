@@ -0,0 +1,123 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.SqrlPersistenceFactory;
+
+/**
+ * A {@link SqrlPersistenceFactory} which spreads correlators and used nut tokens across several backing factories by
+ * consistent hash of the correlator or token string, while identities are kept in a single identity store. Each shard
+ * and the identity store use the full SQRL schema, only the relevant tables are populated. Set on
+ * {@code SqrlConfig.setSqrlPersistenceFactory} to opt in, for example:
+ *
+ * <pre>
+ * config.setSqrlPersistenceFactory(new SqrlShardedPersistenceFactory(new SqrlJdbcPersistenceFactory(identityDataSource),
+ * 		Arrays.asList(new SqrlJdbcPersistenceFactory(shard0DataSource), new SqrlJdbcPersistenceFactory(shard1DataSource))));
+ * </pre>
+ *
+ * The order of the shard list determines where keys are stored, so it must be the same on every node. Adding a shard
+ * to the end of the list moves about 1/N of the keys, which for short lived correlators and nut tokens means logins
+ * in progress during the change may have to be restarted.
+ * <p>
+ * With more than one shard there is no single correlator status change log, so browser status falls back to polling
+ * each correlator, this is logged once when the factory is created. See {@link SqrlShardedPersistence} for the other
+ * limitations of a sharded unit of work
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlShardedPersistenceFactory implements SqrlPersistenceFactory {
+	private static final Logger logger = LoggerFactory.getLogger(SqrlShardedPersistenceFactory.class);
+
+	private final SqrlPersistenceFactory		identityFactory;
+	private final List<SqrlPersistenceFactory>	shardFactoryList;
+	private final SqrlConsistentHashRing		ring;
+	private final ExecutorService				scatterGatherExecutor;
+
+	/**
+	 * Multi shard lookups are run in parallel on a daemon thread pool with one thread per shard
+	 */
+	public SqrlShardedPersistenceFactory(final SqrlPersistenceFactory identityFactory,
+			final List<SqrlPersistenceFactory> shardFactoryList) {
+		this(identityFactory, shardFactoryList,
+				Executors.newFixedThreadPool(shardFactoryList.size(), new SqrlShardThreadFactory()));
+	}
+
+	/**
+	 * @param scatterGatherExecutor
+	 *            runs the per shard part of multi shard lookups in parallel
+	 */
+	public SqrlShardedPersistenceFactory(final SqrlPersistenceFactory identityFactory,
+			final List<SqrlPersistenceFactory> shardFactoryList, final ExecutorService scatterGatherExecutor) {
+		if (shardFactoryList.isEmpty()) {
+			throw new IllegalArgumentException("At least one shard factory is required");
+		}
+		this.identityFactory = identityFactory;
+		this.shardFactoryList = Collections.unmodifiableList(new ArrayList<>(shardFactoryList));
+		this.ring = new SqrlConsistentHashRing(shardFactoryList.size(),
+				SqrlConsistentHashRing.DEFAULT_POINTS_PER_SHARD);
+		this.scatterGatherExecutor = scatterGatherExecutor;
+		if (shardFactoryList.size() > 1) {
+			// Logged once here rather than on the first poll so the fallback is visible at startup
+			logger.info("process=init detail=\"{} persistence shards, the status change log is per shard so "
+					+ "browser status is polled with fetchSqrlCorrelatorStatusUpdates\"", shardFactoryList.size());
+		}
+	}
+
+	@Override
+	public SqrlPersistence createSqrlPersistence() {
+		return new SqrlShardedPersistence(this);
+	}
+
+	/**
+	 * @return the identity store's cleanup task, the shards are cleaned via
+	 *         {@link SqrlPersistence#cleanUpExpiredEntries(int)}
+	 */
+	@Override
+	public Class<? extends Runnable> getCleanupTaskClass() {
+		return identityFactory.getCleanupTaskClass();
+	}
+
+	public SqrlPersistenceFactory getIdentityFactory() {
+		return identityFactory;
+	}
+
+	public List<SqrlPersistenceFactory> getShardFactoryList() {
+		return shardFactoryList;
+	}
+
+	/**
+	 * @return the index in {@link #getShardFactoryList()} of the shard which stores the given correlator or nut token
+	 */
+	public int shardFor(final String key) {
+		return ring.shardFor(key);
+	}
+
+	ExecutorService getScatterGatherExecutor() {
+		return scatterGatherExecutor;
+	}
+
+	/**
+	 * The only reason for this is to give our threads meaningful names
+	 */
+	private static class SqrlShardThreadFactory implements ThreadFactory {
+		private static final AtomicInteger THREAD_COUNTER = new AtomicInteger(1);
+
+		@Override
+		public Thread newThread(final Runnable r) {
+			final Thread thread = new Thread(r, "Sqrl Shard #" + THREAD_COUNTER.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
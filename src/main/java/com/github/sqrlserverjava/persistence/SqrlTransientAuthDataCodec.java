@@ -0,0 +1,77 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.github.sqrlserverjava.exception.SqrlPersistenceException;
+
+/**
+ * Encodes the transient auth data of a correlator into the single sqrl_correlator.transient_auth_data column used by
+ * the compact mapping. Each name and value is written as its length in decimal, a colon and the string itself, so
+ * any character may appear in either without escaping:
+ *
+ * <pre>
+ * 6:parrot3:abc4:cpsn5:value
+ * </pre>
+ *
+ * @author Dave Badia
+ *
+ */
+class SqrlTransientAuthDataCodec {
+	private static final char SEPARATOR = ':';
+
+	private SqrlTransientAuthDataCodec() {
+		// Util class
+	}
+
+	/**
+	 * @return the encoded table, or null if it is empty
+	 */
+	static String encode(final Map<String, String> transientAuthDataTable) {
+		if (transientAuthDataTable.isEmpty()) {
+			return null;
+		}
+		final StringBuilder buf = new StringBuilder(64 * transientAuthDataTable.size());
+		for (final Map.Entry<String, String> entry : transientAuthDataTable.entrySet()) {
+			append(buf, entry.getKey());
+			append(buf, entry.getValue());
+		}
+		return buf.toString();
+	}
+
+	private static void append(final StringBuilder buf, final String string) {
+		buf.append(string.length()).append(SEPARATOR).append(string);
+	}
+
+	static Map<String, String> decode(final String encoded) {
+		final Map<String, String> transientAuthDataTable = new HashMap<>();
+		if (encoded == null) {
+			return transientAuthDataTable;
+		}
+		final int[] position = { 0 };
+		while (position[0] < encoded.length()) {
+			final String name = next(encoded, position);
+			transientAuthDataTable.put(name, next(encoded, position));
+		}
+		return transientAuthDataTable;
+	}
+
+	private static String next(final String encoded, final int[] position) {
+		final int separatorIndex = encoded.indexOf(SEPARATOR, position[0]);
+		if (separatorIndex <= position[0]) {
+			throw new SqrlPersistenceException("Invalid transient auth data at " + position[0] + ": " + encoded);
+		}
+		final int start = separatorIndex + 1;
+		final int end;
+		try {
+			end = start + Integer.parseInt(encoded.substring(position[0], separatorIndex));
+		} catch (final NumberFormatException e) {
+			throw new SqrlPersistenceException("Invalid transient auth data at " + position[0] + ": " + encoded, e);
+		}
+		if (end > encoded.length() || end < start) {
+			throw new SqrlPersistenceException("Invalid transient auth data at " + position[0] + ": " + encoded);
+		}
+		position[0] = end;
+		return encoded.substring(start, end);
+	}
+}
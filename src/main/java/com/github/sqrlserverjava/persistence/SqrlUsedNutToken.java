@@ -6,10 +6,20 @@ import java.util.Date;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.Id;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
 import javax.persistence.Table;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
 
+// @formatter:off
+@NamedQueries({
+	@NamedQuery(name = SqrlJpaNamedQuery.Names.EXPIRED_NUT_TOKENS,
+			query = "SELECT t.value FROM SqrlUsedNutToken t WHERE t.expiryTime < :now"),
+	@NamedQuery(name = SqrlJpaNamedQuery.Names.DELETE_NUT_TOKENS_BY_VALUES,
+			query = "DELETE FROM SqrlUsedNutToken t WHERE t.value IN :values"),
+})
+// @formatter:on
 @Entity
 @Table(name = "sqrl_used_nut_token")
 public class SqrlUsedNutToken implements Serializable {
@@ -0,0 +1,464 @@
+package com.github.sqrlserverjava.util;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.sqrlserverjava.SqrlSignatureVerifier;
+import com.github.sqrlserverjava.exception.SqrlException;
+
+import net.i2p.crypto.eddsa.EdDSAPublicKey;
+import net.i2p.crypto.eddsa.math.Curve;
+import net.i2p.crypto.eddsa.math.GroupElement;
+import net.i2p.crypto.eddsa.math.ScalarOps;
+
+/**
+ * Verifies ED25519 signatures from concurrent requests as a batch. The first signature to arrive opens a batch and its
+ * thread waits up to the configured window for others to join, or until the batch is full, then checks them all with
+ * one random linear combination of the verification equations:
+ *
+ * <pre>
+ * [8] ( (sum z_i * S_i) B - sum z_i R_i - sum (z_i * h_i) A_i ) == 0
+ * </pre>
+ *
+ * where each z_i is a fresh random 128 bit scalar. The multi scalar multiplication shares its 253 doublings across
+ * every signature in the batch, which is where the saving comes from. The per signature work (hashing, decoding R and
+ * building the tables of odd multiples) is done by each request thread before it joins, so it still runs in parallel.
+ * <p>
+ * If the batch fails, each request thread checks its own signature with {@link SqrlEd25519Verifier} so the invalid one
+ * is identified and every other result is the same as without batching.
+ * <p>
+ * The batch equation is cofactored, as is usual for batch verification, while {@link SqrlEd25519Verifier} is not. The
+ * two only disagree on a signature whose R or A has a small order component, which can only be made by the holder of
+ * the private key and so does not allow forging another user's signature. Signatures with a non canonical R or S are
+ * never batched
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlEd25519BatchVerifier implements SqrlSignatureVerifier {
+	private static final Logger logger = LoggerFactory.getLogger(SqrlEd25519BatchVerifier.class);
+
+	private static final int	SIGNATURE_LENGTH		= 64;
+	private static final int	POINT_LENGTH			= 32;
+	// 128 bits is enough for the odds of a bad batch passing to be negligible and halves the R multiplications
+	private static final int	RANDOM_SCALAR_LENGTH	= 16;
+	// The table of odd multiples 1P, 3P ... 15P used with the width 5 signed digits from slide
+	private static final int	ODD_MULTIPLE_COUNT		= 8;
+
+	// @formatter:off
+	/**
+	 * The group order L, little endian
+	 */
+	private static final byte[] GROUP_ORDER = {
+			(byte) 0xed, (byte) 0xd3, (byte) 0xf5, (byte) 0x5c, (byte) 0x1a, (byte) 0x63, (byte) 0x12, (byte) 0x58,
+			(byte) 0xd6, (byte) 0x9c, (byte) 0xf7, (byte) 0xa2, (byte) 0xde, (byte) 0xf9, (byte) 0xde, (byte) 0x14,
+			0, 0, 0, 0, 0, 0, 0, 0,
+			0, 0, 0, 0, 0, 0, 0, (byte) 0x10 };
+	// @formatter:on
+
+	private static final Curve			CURVE				= SqrlEd25519Verifier.ED25519_SPEC.getCurve();
+	private static final ScalarOps		SCALAR_OPS			= SqrlEd25519Verifier.ED25519_SPEC.getScalarOps();
+	private static final GroupElement[]	BASE_POINT_TABLE	= buildOddMultiples(
+			SqrlEd25519Verifier.ED25519_SPEC.getB());
+
+	private final SqrlEd25519Verifier	verifier;
+	private final SecureRandom			secureRandom;
+	private final long					windowNanos;
+	private final int					maxBatchSize;
+
+	private final ThreadLocal<MessageDigest>	digest					= ThreadLocal
+			.withInitial(SqrlEd25519BatchVerifier::newSha512Digest);
+	private final Object						lock					= new Object();
+	private Batch								openBatch				= null;
+	private final AtomicLong					batchCount				= new AtomicLong();
+	private final AtomicLong					batchFailureCount		= new AtomicLong();
+	private final AtomicLong					batchedSignatureCount	= new AtomicLong();
+
+	/**
+	 * @param verifier
+	 *            used to decode public keys and to check signatures individually when a batch fails
+	 * @param secureRandom
+	 *            the source of the random scalars
+	 * @param maxAddedLatencyMillis
+	 *            the longest a signature waits for others to join its batch
+	 * @param maxBatchSize
+	 *            a full batch is checked without waiting out the window
+	 */
+	public SqrlEd25519BatchVerifier(final SqrlEd25519Verifier verifier, final SecureRandom secureRandom,
+			final long maxAddedLatencyMillis, final int maxBatchSize) {
+		if (maxAddedLatencyMillis <= 0) {
+			throw new IllegalArgumentException("maxAddedLatencyMillis must be > 0");
+		}
+		if (maxBatchSize < 2) {
+			throw new IllegalArgumentException("maxBatchSize must be >= 2");
+		}
+		this.verifier = verifier;
+		this.secureRandom = secureRandom;
+		this.windowNanos = TimeUnit.MILLISECONDS.toNanos(maxAddedLatencyMillis);
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	/**
+	 * Same contract as {@link SqrlEd25519Verifier#verify(byte[], byte[], byte[])}, but may wait up to the configured
+	 * window for other signatures to batch with
+	 */
+	@Override
+	public boolean verify(final byte[] signature, final byte[] message, final byte[] publicKeyBytes)
+			throws SqrlException {
+		if (signature.length != SIGNATURE_LENGTH || !isCanonicalScalar(signature, POINT_LENGTH)) {
+			return verifier.verify(signature, message, publicKeyBytes);
+		}
+		final PendingSignature pending = prepare(signature, message, publicKeyBytes);
+		if (pending == null) {
+			// SqrlEd25519Verifier compares R to a canonical encoding, so it could never match either
+			return false;
+		}
+
+		final Batch batch = join(pending);
+		if (batch != null) {
+			checkBatch(batch.signatureList);
+		}
+		try {
+			pending.done.await();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SqrlException(e, "Interrupted waiting for batched signature verification");
+		}
+		if (pending.batchValid) {
+			return true;
+		}
+		// The batch failed, check this one alone to find out if it was the cause
+		return verifier.verify(signature, message, publicKeyBytes);
+	}
+
+	/**
+	 * Does the per signature work for the batch equation in the calling thread
+	 *
+	 * @return the prepared signature, or null if R is not a valid canonical point encoding
+	 * @throws SqrlException
+	 *             if the public key is invalid
+	 */
+	PendingSignature prepare(final byte[] signature, final byte[] message, final byte[] publicKeyBytes)
+			throws SqrlException {
+		final EdDSAPublicKey publicKey = verifier.fetchPublicKey(publicKeyBytes);
+		final GroupElement r = decodeCanonicalPoint(signature);
+		if (r == null) {
+			return null;
+		}
+		return new PendingSignature(signature, buildOddMultiples(r.negate()),
+				buildOddMultiples(publicKey.getNegativeA()), computeChallenge(signature, publicKeyBytes, message));
+	}
+
+	/**
+	 * Adds the signature to the open batch, opening one if there is none
+	 *
+	 * @return the batch if the calling thread must check it, null if another thread will
+	 */
+	private Batch join(final PendingSignature pending) {
+		final Batch batch;
+		synchronized (lock) {
+			if (openBatch == null) {
+				openBatch = new Batch(System.nanoTime() + windowNanos);
+			}
+			batch = openBatch;
+			batch.signatureList.add(pending);
+			if (batch.signatureList.size() >= maxBatchSize) {
+				// Full, this thread checks it now instead of the one waiting out the window
+				openBatch = null;
+				lock.notifyAll();
+				return batch;
+			}
+			if (batch.signatureList.size() > 1) {
+				return null;
+			}
+			// This thread opened the batch, wait for it to fill or the window to pass
+			long remainingNanos = batch.deadlineNanos - System.nanoTime();
+			while (openBatch == batch && remainingNanos > 0) {
+				try {
+					TimeUnit.NANOSECONDS.timedWait(lock, remainingNanos);
+				} catch (final InterruptedException e) {
+					// Close the batch now rather than leave the others waiting
+					Thread.currentThread().interrupt();
+					break;
+				}
+				remainingNanos = batch.deadlineNanos - System.nanoTime();
+			}
+			if (openBatch != batch) {
+				// Filled and taken by another thread
+				return null;
+			}
+			openBatch = null;
+			return batch;
+		}
+	}
+
+	/**
+	 * Checks the batch equation and releases every thread waiting on the batch
+	 */
+	private void checkBatch(final List<PendingSignature> signatureList) {
+		boolean batchValid = false;
+		try {
+			if (signatureList.size() > 1) {
+				batchCount.incrementAndGet();
+				batchedSignatureCount.addAndGet(signatureList.size());
+				batchValid = isBatchEquationSatisfied(signatureList, secureRandom);
+				if (!batchValid) {
+					batchFailureCount.incrementAndGet();
+					logger.info("process=ed25519Batch detail=\"Batch of {} failed, checking individually\"",
+							signatureList.size());
+				}
+			}
+			// else a batch of one is checked the normal way
+		} catch (final RuntimeException e) {
+			batchFailureCount.incrementAndGet();
+			logger.warn("process=ed25519Batch detail=\"Error checking batch, checking individually\"", e);
+		} finally {
+			for (final PendingSignature pending : signatureList) {
+				pending.batchValid = batchValid;
+				pending.done.countDown();
+			}
+		}
+	}
+
+	/**
+	 * @return true if every signature in the list is valid, with an error probability of 2^-128 for each check
+	 */
+	static boolean isBatchEquationSatisfied(final List<PendingSignature> signatureList,
+			final SecureRandom secureRandom) {
+		final int termCount = signatureList.size() * 2 + 1;
+		final GroupElement[][] tableArray = new GroupElement[termCount][];
+		final byte[][] scalarArray = new byte[termCount][];
+		byte[] baseScalar = new byte[POINT_LENGTH];
+		int termIndex = 1;
+		for (final PendingSignature pending : signatureList) {
+			final byte[] z = new byte[POINT_LENGTH];
+			final byte[] randomBytes = new byte[RANDOM_SCALAR_LENGTH];
+			secureRandom.nextBytes(randomBytes);
+			System.arraycopy(randomBytes, 0, z, 0, RANDOM_SCALAR_LENGTH);
+			final byte[] s = new byte[POINT_LENGTH];
+			System.arraycopy(pending.signature, POINT_LENGTH, s, 0, POINT_LENGTH);
+			baseScalar = SCALAR_OPS.multiplyAndAdd(z, s, baseScalar);
+			tableArray[termIndex] = pending.negativeRTable;
+			scalarArray[termIndex++] = z;
+			tableArray[termIndex] = pending.negativeATable;
+			scalarArray[termIndex++] = SCALAR_OPS.multiplyAndAdd(z, pending.challenge, new byte[POINT_LENGTH]);
+		}
+		tableArray[0] = BASE_POINT_TABLE;
+		scalarArray[0] = baseScalar;
+
+		GroupElement result = multiScalarMultiply(tableArray, scalarArray);
+		// Clear the cofactor
+		for (int i = 0; i < 3; i++) {
+			result = result.dbl().toP2();
+		}
+		return !result.getX().isNonZero() && !result.getY().subtract(result.getZ()).isNonZero();
+	}
+
+	/**
+	 * Computes sum scalar_j * P_j with one shared chain of doublings (Straus's method) using width 5 signed digits
+	 *
+	 * @return the result in P2 representation
+	 */
+	private static GroupElement multiScalarMultiply(final GroupElement[][] tableArray, final byte[][] scalarArray) {
+		final byte[][] digitArray = new byte[scalarArray.length][];
+		int top = -1;
+		for (int j = 0; j < scalarArray.length; j++) {
+			digitArray[j] = slide(scalarArray[j]);
+			for (int i = digitArray[j].length - 1; i > top; i--) {
+				if (digitArray[j][i] != 0) {
+					top = i;
+					break;
+				}
+			}
+		}
+		GroupElement r = CURVE.getZero(GroupElement.Representation.P2);
+		for (int i = top; i >= 0; i--) {
+			GroupElement t = r.dbl();
+			for (int j = 0; j < digitArray.length; j++) {
+				final byte digit = digitArray[j][i];
+				if (digit > 0) {
+					t = t.toP3().add(tableArray[j][digit / 2]);
+				} else if (digit < 0) {
+					t = t.toP3().sub(tableArray[j][-digit / 2]);
+				}
+			}
+			r = t.toP2();
+		}
+		return r;
+	}
+
+	/**
+	 * Recodes a scalar below 2^255 into signed digits, each 0 or odd in [-15, 15], with at least 4 zeros between
+	 * non zero digits
+	 */
+	static byte[] slide(final byte[] scalar) {
+		final byte[] r = new byte[256];
+		for (int i = 0; i < 256; i++) {
+			r[i] = (byte) (1 & scalar[i >> 3] >> (i & 7));
+		}
+		for (int i = 0; i < 256; i++) {
+			if (r[i] == 0) {
+				continue;
+			}
+			for (int b = 1; b <= 6 && i + b < 256; b++) {
+				if (r[i + b] == 0) {
+					continue;
+				}
+				if (r[i] + (r[i + b] << b) <= 15) {
+					r[i] += r[i + b] << b;
+					r[i + b] = 0;
+				} else if (r[i] - (r[i + b] << b) >= -15) {
+					r[i] -= r[i + b] << b;
+					for (int k = i + b; k < 256; k++) {
+						if (r[k] == 0) {
+							r[k] = 1;
+							break;
+						}
+						r[k] = 0;
+					}
+				} else {
+					break;
+				}
+			}
+		}
+		return r;
+	}
+
+	/**
+	 * @return 1P, 3P, 5P ... 15P in cached representation
+	 */
+	private static GroupElement[] buildOddMultiples(final GroupElement p3) {
+		final GroupElement[] table = new GroupElement[ODD_MULTIPLE_COUNT];
+		final GroupElement twoP = p3.dbl().toP3().toCached();
+		GroupElement current = p3;
+		table[0] = current.toCached();
+		for (int i = 1; i < ODD_MULTIPLE_COUNT; i++) {
+			current = current.add(twoP).toP3();
+			table[i] = current.toCached();
+		}
+		return table;
+	}
+
+	/**
+	 * @return h = SHA-512(R || A || M) mod L
+	 */
+	private byte[] computeChallenge(final byte[] signature, final byte[] publicKeyBytes, final byte[] message) {
+		final MessageDigest threadDigest = digest.get();
+		threadDigest.update(signature, 0, POINT_LENGTH);
+		threadDigest.update(publicKeyBytes);
+		threadDigest.update(message);
+		return SCALAR_OPS.reduce(threadDigest.digest());
+	}
+
+	/**
+	 * @return true if the 32 byte little endian value at offset is below the group order L
+	 */
+	static boolean isCanonicalScalar(final byte[] data, final int offset) {
+		for (int i = POINT_LENGTH - 1; i >= 0; i--) {
+			final int value = data[offset + i] & 0xff;
+			final int order = GROUP_ORDER[i] & 0xff;
+			if (value != order) {
+				return value < order;
+			}
+		}
+		// Equal to L
+		return false;
+	}
+
+	/**
+	 * Decodes R from the start of the signature
+	 *
+	 * @return the point, or null if the encoding is invalid or not the canonical encoding of the point
+	 */
+	static GroupElement decodeCanonicalPoint(final byte[] signature) {
+		// y must be below p = 2^255 - 19
+		boolean allOnes = (signature[POINT_LENGTH - 1] & 0x7f) == 0x7f && (signature[0] & 0xff) >= 0xed;
+		for (int i = 1; allOnes && i < POINT_LENGTH - 1; i++) {
+			allOnes = signature[i] == (byte) 0xff;
+		}
+		if (allOnes) {
+			return null;
+		}
+		final byte[] encoded = new byte[POINT_LENGTH];
+		System.arraycopy(signature, 0, encoded, 0, POINT_LENGTH);
+		final GroupElement point;
+		try {
+			point = new GroupElement(CURVE, encoded);
+		} catch (final IllegalArgumentException e) {
+			return null;
+		}
+		// x = 0 has no negative, so the sign bit must be clear
+		if (!point.getX().isNonZero() && (encoded[POINT_LENGTH - 1] & 0x80) != 0) {
+			return null;
+		}
+		return point;
+	}
+
+	private static MessageDigest newSha512Digest() {
+		try {
+			return MessageDigest.getInstance(SqrlEd25519Verifier.ED25519_SPEC.getHashAlgorithm());
+		} catch (final NoSuchAlgorithmException e) {
+			// Every JRE is required to support SHA-512
+			throw new IllegalStateException("SHA-512 is not available", e);
+		}
+	}
+
+	/**
+	 * @return the number of batches of more than one signature checked
+	 */
+	public long getBatchCount() {
+		return batchCount.get();
+	}
+
+	/**
+	 * @return the number of batches which failed and were checked individually
+	 */
+	public long getBatchFailureCount() {
+		return batchFailureCount.get();
+	}
+
+	/**
+	 * @return the number of signatures checked in batches of more than one
+	 */
+	public long getBatchedSignatureCount() {
+		return batchedSignatureCount.get();
+	}
+
+	private static final class Batch {
+		private final long					deadlineNanos;
+		private final List<PendingSignature>	signatureList	= new ArrayList<>();
+
+		private Batch(final long deadlineNanos) {
+			this.deadlineNanos = deadlineNanos;
+		}
+	}
+
+	/**
+	 * A signature prepared for the batch equation by its request thread
+	 */
+	static final class PendingSignature {
+		private final byte[]			signature;
+		private final GroupElement[]	negativeRTable;
+		private final GroupElement[]	negativeATable;
+		private final byte[]			challenge;
+		private final CountDownLatch	done	= new CountDownLatch(1);
+		private volatile boolean		batchValid;
+
+		private PendingSignature(final byte[] signature, final GroupElement[] negativeRTable,
+				final GroupElement[] negativeATable, final byte[] challenge) {
+			this.signature = signature;
+			this.negativeRTable = negativeRTable;
+			this.negativeATable = negativeATable;
+			this.challenge = challenge;
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package com.github.sqrlserverjava.util;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.sqrlserverjava.SqrlSignatureVerifier;
+import com.github.sqrlserverjava.exception.SqrlException;
+
+import net.i2p.crypto.eddsa.EdDSAEngine;
+import net.i2p.crypto.eddsa.EdDSAPublicKey;
+import net.i2p.crypto.eddsa.spec.EdDSANamedCurveTable;
+import net.i2p.crypto.eddsa.spec.EdDSAParameterSpec;
+import net.i2p.crypto.eddsa.spec.EdDSAPublicKeySpec;
+
+/**
+ * The default {@link SqrlSignatureVerifier}, built on the net.i2p.crypto.eddsa library. Reuses as much as possible
+ * between calls:
+ * <ul>
+ * <li>each thread has its own {@link EdDSAEngine} and SHA-512 {@link MessageDigest}, which are reset on every use</li>
+ * <li>the curve parameters are looked up once</li>
+ * <li>decoded public keys are kept in a size bounded, least recently used cache keyed by their raw 32 bytes. Decoding
+ * decompresses the curve point and precomputes its multiples, which is a large share of the cost of a verification,
+ * so a returning user's idk skips it</li>
+ * </ul>
+ * A decoded key is immutable, so a cache hit returns the same result as decoding the bytes again
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlEd25519Verifier implements SqrlSignatureVerifier {
+	/**
+	 * A decoded key with its precomputed values takes a few KB, so this bounds the cache to a few MB
+	 */
+	public static final int DEFAULT_MAX_CACHED_KEYS = 1000;
+
+	static final EdDSAParameterSpec ED25519_SPEC = EdDSANamedCurveTable
+			.getByName(EdDSANamedCurveTable.CURVE_ED25519_SHA512);
+
+	private static final SqrlEd25519Verifier SHARED = new SqrlEd25519Verifier(DEFAULT_MAX_CACHED_KEYS);
+
+	private final ThreadLocal<EdDSAEngine>	engine		= ThreadLocal
+			.withInitial(() -> new EdDSAEngine(newSha512Digest()));
+	private final KeyCache					keyCache;
+	private final AtomicLong				hitCount	= new AtomicLong();
+	private final AtomicLong				missCount	= new AtomicLong();
+
+	/**
+	 * @param maxCachedKeys
+	 *            the maximum number of decoded public keys to keep, 0 disables the cache
+	 */
+	public SqrlEd25519Verifier(final int maxCachedKeys) {
+		keyCache = new KeyCache(maxCachedKeys);
+	}
+
+	/**
+	 * @return the instance used by {@link SqrlUtil#verifyED25519(byte[], byte[], byte[])}
+	 */
+	public static SqrlEd25519Verifier getShared() {
+		return SHARED;
+	}
+
+	/**
+	 * @param signature
+	 *            the signature to be verified
+	 * @param message
+	 *            the message which was signed
+	 * @param publicKeyBytes
+	 *            the raw 32 byte public key
+	 * @return true if the signature is valid
+	 * @throws SqrlException
+	 *             if the public key is not a valid point or an error occurs during ED25519 operations
+	 */
+	@Override
+	public boolean verify(final byte[] signature, final byte[] message, final byte[] publicKeyBytes)
+			throws SqrlException {
+		try {
+			final EdDSAEngine threadEngine = engine.get();
+			threadEngine.initVerify(fetchPublicKey(publicKeyBytes));
+			return threadEngine.verifyOneShot(message, signature);
+		} catch (final GeneralSecurityException e) {
+			throw new SqrlException(e, "Got exception during EC signature verification");
+		}
+	}
+
+	/**
+	 * @return the decoded key from the cache, decoding and caching it if needed
+	 * @throws SqrlException
+	 *             if the bytes are not a valid curve point
+	 */
+	EdDSAPublicKey fetchPublicKey(final byte[] publicKeyBytes) throws SqrlException {
+		EdDSAPublicKey publicKey;
+		synchronized (keyCache) {
+			// Wrapping doesn't copy, it is only used for the lookup
+			publicKey = keyCache.get(ByteBuffer.wrap(publicKeyBytes));
+		}
+		if (publicKey != null) {
+			hitCount.incrementAndGet();
+			return publicKey;
+		}
+		missCount.incrementAndGet();
+		// Decode outside of the lock, two threads decoding the same new key at once is harmless
+		try {
+			publicKey = new EdDSAPublicKey(new EdDSAPublicKeySpec(publicKeyBytes, ED25519_SPEC));
+		} catch (final IllegalArgumentException e) {
+			throw new SqrlException(e, "Invalid ED25519 public key");
+		}
+		synchronized (keyCache) {
+			keyCache.put(ByteBuffer.wrap(publicKeyBytes.clone()), publicKey);
+		}
+		return publicKey;
+	}
+
+	public long getCacheHitCount() {
+		return hitCount.get();
+	}
+
+	public long getCacheMissCount() {
+		return missCount.get();
+	}
+
+	public int getCachedKeyCount() {
+		synchronized (keyCache) {
+			return keyCache.size();
+		}
+	}
+
+	private static MessageDigest newSha512Digest() {
+		try {
+			return MessageDigest.getInstance(ED25519_SPEC.getHashAlgorithm());
+		} catch (final NoSuchAlgorithmException e) {
+			// Every JRE is required to support SHA-512
+			throw new IllegalStateException("SHA-512 is not available", e);
+		}
+	}
+
+	private static final class KeyCache extends LinkedHashMap<ByteBuffer, EdDSAPublicKey> {
+		private static final long	serialVersionUID	= 5360917431290578914L;
+		private final int			maxEntries;
+
+		private KeyCache(final int maxEntries) {
+			super(16, 0.75f, true);
+			if (maxEntries < 0) {
+				throw new IllegalArgumentException("maxCachedKeys must be >= 0");
+			}
+			this.maxEntries = maxEntries;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<ByteBuffer, EdDSAPublicKey> eldest) {
+			return size() > maxEntries;
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package com.github.sqrlserverjava.util;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.X509EncodedKeySpec;
+
+import com.github.sqrlserverjava.SqrlSignatureVerifier;
+import com.github.sqrlserverjava.exception.SqrlException;
+
+/**
+ * A {@link SqrlSignatureVerifier} which uses the "Ed25519" algorithm of the JRE's own security providers, available
+ * from Java 15. Only the standard java.security API is used, so this compiles and loads on older JREs but can't be
+ * constructed there, check {@link #isAvailable()} first.
+ * <p>
+ * The JRE API has no spec for a raw 32 byte key, so each key is wrapped in the fixed X.509 SubjectPublicKeyInfo header
+ * for Ed25519 from RFC 8410. Each thread keeps its own {@link KeyFactory} and {@link Signature} since neither is thread
+ * safe
+ *
+ * @author Dave Badia
+ *
+ */
+public class SqrlJdkEd25519Verifier implements SqrlSignatureVerifier {
+	static final String ALGORITHM = "Ed25519";
+
+	private static final int PUBLIC_KEY_LENGTH = 32;
+
+	// @formatter:off
+	/**
+	 * SEQUENCE { SEQUENCE { OID 1.3.101.112 }, BIT STRING (32 bytes) }
+	 */
+	private static final byte[] X509_PREFIX = {
+			0x30, 0x2a, 0x30, 0x05, 0x06, 0x03, 0x2b, 0x65, 0x70, 0x03, 0x21, 0x00 };
+	// @formatter:on
+
+	private final ThreadLocal<KeyFactory>	keyFactory	= ThreadLocal
+			.withInitial(SqrlJdkEd25519Verifier::newKeyFactory);
+	private final ThreadLocal<Signature>	signature	= ThreadLocal
+			.withInitial(SqrlJdkEd25519Verifier::newSignature);
+
+	/**
+	 * @throws IllegalStateException
+	 *             if the JRE does not support Ed25519
+	 */
+	public SqrlJdkEd25519Verifier() {
+		if (!isAvailable()) {
+			throw new IllegalStateException(ALGORITHM + " is not supported by this JRE, Java 15 or later is required");
+		}
+	}
+
+	/**
+	 * @return true if the JRE supports Ed25519
+	 */
+	public static boolean isAvailable() {
+		try {
+			KeyFactory.getInstance(ALGORITHM);
+			Signature.getInstance(ALGORITHM);
+			return true;
+		} catch (final NoSuchAlgorithmException e) {
+			return false;
+		}
+	}
+
+	@Override
+	public boolean verify(final byte[] signatureBytes, final byte[] message, final byte[] publicKeyBytes)
+			throws SqrlException {
+		if (publicKeyBytes.length != PUBLIC_KEY_LENGTH) {
+			throw new SqrlException("Invalid ED25519 public key length of ", Integer.toString(publicKeyBytes.length));
+		}
+		final byte[] encodedKey = new byte[X509_PREFIX.length + PUBLIC_KEY_LENGTH];
+		System.arraycopy(X509_PREFIX, 0, encodedKey, 0, X509_PREFIX.length);
+		System.arraycopy(publicKeyBytes, 0, encodedKey, X509_PREFIX.length, PUBLIC_KEY_LENGTH);
+		try {
+			final PublicKey publicKey = keyFactory.get().generatePublic(new X509EncodedKeySpec(encodedKey));
+			final Signature threadSignature = signature.get();
+			threadSignature.initVerify(publicKey);
+			threadSignature.update(message);
+			return threadSignature.verify(signatureBytes);
+		} catch (final GeneralSecurityException e) {
+			throw new SqrlException(e, "Got exception during EC signature verification");
+		}
+	}
+
+	private static KeyFactory newKeyFactory() {
+		try {
+			return KeyFactory.getInstance(ALGORITHM);
+		} catch (final NoSuchAlgorithmException e) {
+			// Checked by the constructor
+			throw new IllegalStateException(ALGORITHM + " is not supported by this JRE", e);
+		}
+	}
+
+	private static Signature newSignature() {
+		try {
+			return Signature.getInstance(ALGORITHM);
+		} catch (final NoSuchAlgorithmException e) {
+			// Checked by the constructor
+			throw new IllegalStateException(ALGORITHM + " is not supported by this JRE", e);
+		}
+	}
+}
@@ -18,6 +18,7 @@ import org.slf4j.LoggerFactory;
 
 import com.github.sqrlserverjava.SqrlConfigOperations;
 import com.github.sqrlserverjava.SqrlServerOperations;
+import com.github.sqrlserverjava.persistence.SqrlJpaEntityManagerFactoryRegistry;
 
 @WebListener
 public class SqrlServiceExecutor implements ServletContextListener {
@@ -28,6 +29,7 @@ public class SqrlServiceExecutor implements ServletContextListener {
 	 * SQRL clients
 	 */
 	private static final int						THREAD_COUNT		= 2;
+	private static final String						JPA_PERSISTENCE_CLASS	= "javax.persistence.Persistence";
 	private static final ScheduledExecutorService	EXECUTOR_SERVICE	= Executors.newScheduledThreadPool(THREAD_COUNT,
 			new SqrlThreadFactory());
 
@@ -62,6 +64,9 @@ public class SqrlServiceExecutor implements ServletContextListener {
 			backgroundTask.cancel(false);
 		}
 		EXECUTOR_SERVICE.shutdown();
+		if (SqrlUtil.isClassOnClasspath(JPA_PERSISTENCE_CLASS)) {
+			SqrlJpaEntityManagerFactoryRegistry.closeAll();
+		}
 	}
 
 	/**
@@ -2,10 +2,6 @@ package com.github.sqrlserverjava.util;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.security.GeneralSecurityException;
-import java.security.MessageDigest;
-import java.security.PublicKey;
-import java.security.Signature;
 import java.util.Arrays;
 import java.util.Base64;
 import java.util.Collections;
@@ -27,12 +23,6 @@ import com.github.sqrlserverjava.backchannel.LoggingUtil;
 import com.github.sqrlserverjava.exception.SqrlException;
 import com.github.sqrlserverjava.exception.SqrlInvalidRequestException;
 
-import net.i2p.crypto.eddsa.EdDSAEngine;
-import net.i2p.crypto.eddsa.EdDSAPublicKey;
-import net.i2p.crypto.eddsa.spec.EdDSANamedCurveTable;
-import net.i2p.crypto.eddsa.spec.EdDSAParameterSpec;
-import net.i2p.crypto.eddsa.spec.EdDSAPublicKeySpec;
-
 /**
  * Various utility methods used by the rest of the SQRL code, including base64URL
  *
@@ -158,7 +148,8 @@ public class SqrlUtil {
 	}
 
 	/**
-	 * Internal use only. Verifies the ED25519 signature
+	 * Internal use only. Verifies the ED25519 signature using the shared {@link SqrlEd25519Verifier}, which reuses
+	 * engines and decoded public keys between calls
 	 *
 	 * @param signatureFromMessage
 	 *            the signature data
@@ -172,19 +163,7 @@ public class SqrlUtil {
 	 */
 	public static boolean verifyED25519(final byte[] signatureFromMessage, final byte[] messageBytes,
 			final byte[] publicKeyBytes) throws SqrlException {
-		try {
-			final Signature signature = new EdDSAEngine(MessageDigest.getInstance("SHA-512"));
-			final EdDSAParameterSpec edDsaSpec = EdDSANamedCurveTable
-					.getByName(EdDSANamedCurveTable.CURVE_ED25519_SHA512);
-
-			final PublicKey publicKey = new EdDSAPublicKey(new EdDSAPublicKeySpec(publicKeyBytes, edDsaSpec));
-			signature.initVerify(publicKey);
-
-			signature.update(messageBytes);
-			return signature.verify(signatureFromMessage);
-		} catch (final GeneralSecurityException e) {
-			throw new SqrlException(e, "Got exception during EC signature verification");
-		}
+		return SqrlEd25519Verifier.getShared().verify(signatureFromMessage, messageBytes, publicKeyBytes);
 	}
 
 	/**
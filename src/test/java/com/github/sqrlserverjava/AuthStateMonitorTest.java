@@ -0,0 +1,125 @@
+package com.github.sqrlserverjava;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+import com.github.sqrlserverjava.persistence.SqrlInMemoryPersistenceFactory;
+import com.github.sqrlserverjava.persistence.SqrlInMemoryPersistenceStore;
+import com.github.sqrlserverjava.persistence.SqrlShardedPersistenceFactory;
+
+public class AuthStateMonitorTest {
+	private final List<String>		pushedList	= new ArrayList<>();
+	private SqrlPersistenceFactory	factory;
+	private AuthStateMonitor		monitor;
+
+	@Before
+	public void setUp() {
+		factory = new SqrlInMemoryPersistenceFactory(new SqrlInMemoryPersistenceStore());
+		monitor = buildMonitor();
+	}
+
+	private AuthStateMonitor buildMonitor() {
+		final SqrlConfig config = TestCaseUtil.buildTestSqrlConfig();
+		config.setSqrlPersistenceFactory(factory);
+		config.setCleanupTaskExecInMinutes(-1);
+		final SqrlClientAuthStateUpdater updater = new SqrlClientAuthStateUpdater() {
+			@Override
+			public void initSqrl(final SqrlServerOperations sqrlServerOperations, final SqrlConfig sqrlConfig,
+					final AuthStateMonitor sqrlAuthStateMonitor) {
+				// Not used
+			}
+
+			@Override
+			public void pushStatusUpdateToBrowser(final String browserId, final SqrlAuthenticationStatus oldAuthStatus,
+					final SqrlAuthenticationStatus newAuthStatus) {
+				pushedList.add(browserId + "=" + newAuthStatus);
+			}
+		};
+		return new AuthStateMonitor(config, new SqrlServerOperations(config), updater);
+	}
+
+	@Test
+	public void testChangeBeforeMonitoringIsPushed() {
+		createCorrelator("abc");
+		updateStatus("abc", SqrlAuthenticationStatus.COMMUNICATING);
+		monitor.monitorCorrelatorForChange("abc", SqrlAuthenticationStatus.CORRELATOR_ISSUED);
+		monitor.run();
+		assertEquals("[abc=COMMUNICATING]", pushedList.toString());
+	}
+
+	@Test
+	public void testChangesReadFromChangeLog() {
+		createCorrelator("abc");
+		createCorrelator("def");
+		monitor.monitorCorrelatorForChange("abc", SqrlAuthenticationStatus.CORRELATOR_ISSUED);
+		monitor.monitorCorrelatorForChange("def", SqrlAuthenticationStatus.CORRELATOR_ISSUED);
+		monitor.run();
+		assertTrue(pushedList.isEmpty());
+
+		updateStatus("abc", SqrlAuthenticationStatus.COMMUNICATING);
+		updateStatus("abc", SqrlAuthenticationStatus.AUTHENTICATED_BROWSER);
+		updateStatus("ghi", SqrlAuthenticationStatus.COMMUNICATING);
+		monitor.run();
+		assertEquals("[abc=AUTHENTICATED_BROWSER]", pushedList.toString());
+
+		// Nothing changed, nothing is pushed again
+		pushedList.clear();
+		monitor.run();
+		assertTrue(pushedList.isEmpty());
+
+		updateStatus("def", SqrlAuthenticationStatus.COMMUNICATING);
+		monitor.run();
+		assertEquals("[def=COMMUNICATING]", pushedList.toString());
+	}
+
+	@Test
+	public void testPollsEachCorrelatorWithoutChangeLog() {
+		factory = new SqrlShardedPersistenceFactory(
+				new SqrlInMemoryPersistenceFactory(new SqrlInMemoryPersistenceStore()),
+				Arrays.asList(new SqrlInMemoryPersistenceFactory(new SqrlInMemoryPersistenceStore()),
+						new SqrlInMemoryPersistenceFactory(new SqrlInMemoryPersistenceStore())));
+		monitor = buildMonitor();
+		createCorrelator("abc");
+		createCorrelator("def");
+		monitor.monitorCorrelatorForChange("abc", SqrlAuthenticationStatus.CORRELATOR_ISSUED);
+		monitor.monitorCorrelatorForChange("def", SqrlAuthenticationStatus.CORRELATOR_ISSUED);
+		monitor.run();
+		assertTrue(pushedList.isEmpty());
+
+		updateStatus("abc", SqrlAuthenticationStatus.COMMUNICATING);
+		monitor.run();
+		assertEquals("[abc=COMMUNICATING]", pushedList.toString());
+
+		// Nothing changed, nothing is pushed again
+		pushedList.clear();
+		monitor.run();
+		assertTrue(pushedList.isEmpty());
+
+		updateStatus("def", SqrlAuthenticationStatus.AUTHENTICATED_BROWSER);
+		monitor.run();
+		assertEquals("[def=AUTHENTICATED_BROWSER]", pushedList.toString());
+	}
+
+	private void createCorrelator(final String correlator) {
+		final SqrlPersistence sqrlPersistence = factory.createSqrlPersistence();
+		sqrlPersistence.createCorrelator(correlator, TestCaseUtil.AWHILE_FROM_NOW);
+		sqrlPersistence.closeCommit();
+	}
+
+	private void updateStatus(final String correlator, final SqrlAuthenticationStatus status) {
+		final SqrlPersistence sqrlPersistence = factory.createSqrlPersistence();
+		if (sqrlPersistence.fetchSqrlCorrelator(correlator) == null) {
+			sqrlPersistence.createCorrelator(correlator, TestCaseUtil.AWHILE_FROM_NOW);
+		}
+		sqrlPersistence.fetchSqrlCorrelatorRequired(correlator).setAuthenticationStatus(status);
+		sqrlPersistence.closeCommit();
+	}
+}
@@ -23,6 +23,7 @@ import org.junit.Test;
 import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
 import com.github.sqrlserverjava.persistence.SqrlAutoCloseablePersistence;
 import com.github.sqrlserverjava.persistence.SqrlCorrelator;
+import com.github.sqrlserverjava.persistence.SqrlCorrelatorStatusChange;
 
 
 public class SqrlAuthStateEventServletTest {
@@ -85,6 +86,76 @@ public class SqrlAuthStateEventServletTest {
 		assertEquals(0, statusChangedTable.size());
 	}
 
+	@Test
+	public void testFetchSqrlCorrelatorsStatusChanged_SpansMultipleQueries() throws NoSuchFieldException {
+		final Map<String, SqrlAuthenticationStatus> correlatorToCurrentStatusTable = new ConcurrentHashMap<>();
+		try (SqrlAutoCloseablePersistence sqrlPersistence = TestCaseUtil.createEmptySqrlPersistence()) {
+			for (int i = 0; i < 300; i++) {
+				sqrlPersistence.createCorrelator("c" + i, minutesFromNow(3));
+				correlatorToCurrentStatusTable.put("c" + i, SqrlAuthenticationStatus.CORRELATOR_ISSUED);
+			}
+			sqrlPersistence.closeCommit();
+		}
+		try (SqrlAutoCloseablePersistence sqrlPersistence = TestCaseUtil.createSqrlPersistence()) {
+			sqrlPersistence.fetchSqrlCorrelator("c7").setAuthenticationStatus(SqrlAuthenticationStatus.COMMUNICATING);
+			sqrlPersistence.fetchSqrlCorrelator("c299")
+			.setAuthenticationStatus(SqrlAuthenticationStatus.AUTHENTICATED_BROWSER);
+			sqrlPersistence.closeCommit();
+		}
+		correlatorToCurrentStatusTable.put("doesNotExist", SqrlAuthenticationStatus.CORRELATOR_ISSUED);
+
+		Map<String, SqrlAuthenticationStatus> statusChangedTable = null;
+		try (SqrlAutoCloseablePersistence sqrlPersistence = TestCaseUtil.createSqrlPersistence()) {
+			statusChangedTable = sqrlPersistence.fetchSqrlCorrelatorStatusUpdates(correlatorToCurrentStatusTable);
+			sqrlPersistence.closeCommit();
+		}
+
+		assertEquals(2, statusChangedTable.size());
+		assertEquals(SqrlAuthenticationStatus.COMMUNICATING, statusChangedTable.get("c7"));
+		assertEquals(SqrlAuthenticationStatus.AUTHENTICATED_BROWSER, statusChangedTable.get("c299"));
+	}
+
+	@Test
+	public void testFetchSqrlCorrelatorStatusChangesSince() throws NoSuchFieldException {
+		long sinceSequence = 0;
+		try (SqrlAutoCloseablePersistence sqrlPersistence = TestCaseUtil.createEmptySqrlPersistence()) {
+			sqrlPersistence.createCorrelator("abc", minutesFromNow(3));
+			sqrlPersistence.createCorrelator("def", minutesFromNow(3));
+			for (final SqrlCorrelatorStatusChange change : sqrlPersistence
+					.fetchSqrlCorrelatorStatusChangesSince(0, Integer.MAX_VALUE)) {
+				sinceSequence = Math.max(sinceSequence, change.getSequence());
+			}
+			sqrlPersistence.closeCommit();
+		}
+		try (SqrlAutoCloseablePersistence sqrlPersistence = TestCaseUtil.createSqrlPersistence()) {
+			sqrlPersistence.fetchSqrlCorrelator("abc").setAuthenticationStatus(SqrlAuthenticationStatus.COMMUNICATING);
+			sqrlPersistence.closeCommit();
+		}
+		try (SqrlAutoCloseablePersistence sqrlPersistence = TestCaseUtil.createSqrlPersistence()) {
+			sqrlPersistence.fetchSqrlCorrelator("abc")
+			.setAuthenticationStatus(SqrlAuthenticationStatus.AUTHENTICATED_BROWSER);
+			sqrlPersistence.closeCommit();
+		}
+
+		List<SqrlCorrelatorStatusChange> changeList = null;
+		try (SqrlAutoCloseablePersistence sqrlPersistence = TestCaseUtil.createSqrlPersistence()) {
+			changeList = sqrlPersistence.fetchSqrlCorrelatorStatusChangesSince(sinceSequence, 10);
+			sqrlPersistence.closeCommit();
+		}
+		assertEquals(2, changeList.size());
+		assertEquals("abc", changeList.get(0).getCorrelator());
+		assertEquals(SqrlAuthenticationStatus.COMMUNICATING, changeList.get(0).getAuthenticationStatus());
+		assertEquals(SqrlAuthenticationStatus.AUTHENTICATED_BROWSER, changeList.get(1).getAuthenticationStatus());
+		assertEquals(changeList.get(0).getSequence() + 1, changeList.get(1).getSequence());
+
+		try (SqrlAutoCloseablePersistence sqrlPersistence = TestCaseUtil.createSqrlPersistence()) {
+			changeList = sqrlPersistence.fetchSqrlCorrelatorStatusChangesSince(changeList.get(0).getSequence(), 10);
+			sqrlPersistence.closeCommit();
+		}
+		assertEquals(1, changeList.size());
+		assertEquals(SqrlAuthenticationStatus.AUTHENTICATED_BROWSER, changeList.get(0).getAuthenticationStatus());
+	}
+
 	public void testIt() throws NoSuchFieldException {
 		final String abc = "abc";
 		final String def = "def";
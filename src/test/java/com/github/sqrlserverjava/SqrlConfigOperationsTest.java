@@ -7,6 +7,7 @@ import org.junit.Test;
 import com.github.sqrlserverjava.SqrlConfig;
 import com.github.sqrlserverjava.SqrlConfigOperations;
 import com.github.sqrlserverjava.util.SqrlConstants;
+import com.github.sqrlserverjava.util.SqrlEd25519Verifier;
 
 import junit.framework.TestCase;
 import junitx.framework.StringAssert;
@@ -83,4 +84,74 @@ public class SqrlConfigOperationsTest {
 			StringAssert.assertContains("SqrlConfig", e.getMessage());
 		}
 	}
+
+	@Test
+	public void testValidateSqrlConfig_SignatureVerifierClassNotFound() {
+		final SqrlConfig config = TestCaseUtil.buildTestSqrlConfig();
+		config.setSignatureVerifierClass("com.example.NoSuchVerifier");
+		try {
+			new SqrlConfigOperations(config);
+			TestCase.fail("Exception expected");
+		} catch (final Exception e) {
+			StringAssert.assertContains("signatureVerifierClass", e.getMessage());
+			StringAssert.assertContains("com.example.NoSuchVerifier", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testValidateSqrlConfig_SignatureVerifierClassWrongType() {
+		final SqrlConfig config = TestCaseUtil.buildTestSqrlConfig();
+		config.setSignatureVerifierClass(String.class.getName());
+		try {
+			new SqrlConfigOperations(config);
+			TestCase.fail("Exception expected");
+		} catch (final Exception e) {
+			StringAssert.assertContains("must implement", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testValidateSqrlConfig_BatchingRequiresDefaultSignatureVerifier() {
+		final SqrlConfig config = TestCaseUtil.buildTestSqrlConfig();
+		config.setSignatureVerifierClass(TestSignatureVerifier.class.getName());
+		config.setEd25519BatchWindowInMillis(2);
+		try {
+			new SqrlConfigOperations(config);
+			TestCase.fail("Exception expected");
+		} catch (final Exception e) {
+			StringAssert.assertContains("ed25519BatchWindowInMillis", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testValidateSqrlConfig_CryptoWorkerQueueLimitNegative() {
+		final SqrlConfig config = TestCaseUtil.buildTestSqrlConfig();
+		config.setCryptoWorkerThreadCount(2);
+		config.setCryptoWorkerQueueLimit(-1);
+		try {
+			new SqrlConfigOperations(config);
+			TestCase.fail("Exception expected");
+		} catch (final Exception e) {
+			StringAssert.assertContains("cryptoWorkerQueueLimit", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testSignatureVerifierClass() {
+		final SqrlConfig config = TestCaseUtil.buildTestSqrlConfig();
+		final SqrlSignatureVerifier defaultVerifier = new SqrlConfigOperations(config).getSignatureVerifier();
+		TestCase.assertEquals(SqrlEd25519Verifier.class, defaultVerifier.getClass());
+		// Each config has its own key cache, never the JVM wide shared one
+		TestCase.assertNotSame(SqrlEd25519Verifier.getShared(), defaultVerifier);
+		config.setSignatureVerifierClass(TestSignatureVerifier.class.getName());
+		TestCase.assertEquals(TestSignatureVerifier.class,
+				new SqrlConfigOperations(config).getSignatureVerifier().getClass());
+	}
+
+	public static class TestSignatureVerifier implements SqrlSignatureVerifier {
+		@Override
+		public boolean verify(final byte[] signature, final byte[] message, final byte[] publicKeyBytes) {
+			return false;
+		}
+	}
 }
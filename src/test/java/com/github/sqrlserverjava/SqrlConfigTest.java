@@ -24,7 +24,7 @@ public class SqrlConfigTest {
 		jaxbContext = JAXBContext.newInstance(SqrlConfig.class);
 	}
 
-	private static final String EXPECTED_TEST_MARSHALL = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?><sqrlConfig><aesKeyBase64>KCI0BLITcZiR8b8hp3VWtA==</aesKeyBase64><authSyncCheckInMillis>500</authSyncCheckInMillis><backchannelServletPath>/sqrlbc</backchannelServletPath><cleanupTaskExecInMinutes>15</cleanupTaskExecInMinutes><clientAuthStateUpdaterClass>com.MyClass</clientAuthStateUpdaterClass><cookiePath>/</cookiePath><correlatorCookieName>sqrlcorrelator</correlatorCookieName><enableCps>true</enableCps><firstNutCookieName>sqrlfirstnut</firstNutCookieName><nutValidityInSeconds>900</nutValidityInSeconds><qrCodeImageFormat>PNG</qrCodeImageFormat><sqrlDomainExtensionSpecifierUriCount>0</sqrlDomainExtensionSpecifierUriCount><sqrlLoginServletPath>/sqrllogin</sqrlLoginServletPath><sqrlNutTokenFormat>2</sqrlNutTokenFormat><sqrlPersistenceFactoryClass>com.github.sqrlserverjava.persistence.SqrlJpaPersistenceFactory</sqrlPersistenceFactoryClass></sqrlConfig>";
+	private static final String EXPECTED_TEST_MARSHALL = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?><sqrlConfig><aesKeyBase64>KCI0BLITcZiR8b8hp3VWtA==</aesKeyBase64><authSyncCheckInMillis>500</authSyncCheckInMillis><backchannelServletPath>/sqrlbc</backchannelServletPath><cleanupBatchSize>1000</cleanupBatchSize><cleanupTaskExecInMinutes>15</cleanupTaskExecInMinutes><cleanupTimeBudgetInSeconds>60</cleanupTimeBudgetInSeconds><clientAuthStateUpdaterClass>com.MyClass</clientAuthStateUpdaterClass><cookiePath>/</cookiePath><correlatorCookieName>sqrlcorrelator</correlatorCookieName><cryptoWorkerQueueLimit>64</cryptoWorkerQueueLimit><cryptoWorkerThreadCount>0</cryptoWorkerThreadCount><ed25519BatchMaxSize>64</ed25519BatchMaxSize><ed25519BatchWindowInMillis>0</ed25519BatchWindowInMillis><ed25519PublicKeyCacheSize>1000</ed25519PublicKeyCacheSize><enableCps>true</enableCps><entityManagerCreationStackSampleRate>100</entityManagerCreationStackSampleRate><firstNutCookieName>sqrlfirstnut</firstNutCookieName><nutValidityInSeconds>900</nutValidityInSeconds><qrCodeImageFormat>PNG</qrCodeImageFormat><signatureVerifierClass>com.github.sqrlserverjava.util.SqrlEd25519Verifier</signatureVerifierClass><sqrlDomainExtensionSpecifierUriCount>0</sqrlDomainExtensionSpecifierUriCount><sqrlLoginServletPath>/sqrllogin</sqrlLoginServletPath><sqrlNutTokenFormat>2</sqrlNutTokenFormat><sqrlPersistenceFactoryClass>com.github.sqrlserverjava.persistence.SqrlJpaPersistenceFactory</sqrlPersistenceFactoryClass></sqrlConfig>";
 
 	/**
 	 * Basic test to ensure we don't break {@link SqrlConfig} JAXB marshalling by trying to do something illegal (try
@@ -0,0 +1,21 @@
+package com.github.sqrlserverjava;
+
+import org.junit.After;
+import org.junit.Before;
+
+import com.github.sqrlserverjava.persistence.SqrlInMemoryPersistenceFactory;
+
+/**
+ * Runs the {@link SqrlServerOperations} test cases against {@link SqrlInMemoryPersistenceFactory}
+ */
+public class SqrlServerOperationsInMemoryTest extends SqrlServerOperationsTest {
+	@Before
+	public void setUp() {
+		TestCaseUtil.setPersistenceFactory(new SqrlInMemoryPersistenceFactory());
+	}
+
+	@After
+	public void tearDown() {
+		TestCaseUtil.setPersistenceFactory(null);
+	}
+}
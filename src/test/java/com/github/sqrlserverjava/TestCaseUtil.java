@@ -13,6 +13,9 @@ import java.util.Set;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+
+import org.apache.derby.jdbc.EmbeddedDataSource;
 
 import org.mockito.Mockito;
 import org.springframework.mock.web.MockHttpServletRequest;
@@ -25,6 +28,8 @@ import com.github.sqrlserverjava.enums.SqrlRequestOpt;
 import com.github.sqrlserverjava.enums.SqrlServerSideKey;
 import com.github.sqrlserverjava.persistence.SqrlAutoCloseablePersistence;
 import com.github.sqrlserverjava.persistence.SqrlCorrelator;
+import com.github.sqrlserverjava.persistence.SqrlInMemoryPersistenceFactory;
+import com.github.sqrlserverjava.persistence.SqrlJpaEntityManagerFactoryRegistry;
 import com.github.sqrlserverjava.persistence.SqrlJpaPersistenceProvider;
 import com.github.sqrlserverjava.util.SqrlConstants;
 import com.github.sqrlserverjava.util.SqrlServiceExecutor;
@@ -36,6 +41,10 @@ public class TestCaseUtil {
 	public static final Date AWHILE_FROM_NOW = new Date(System.currentTimeMillis() + 1000000);
 	static final String DEFAULT_CONFIG_SQRL_BACKCHANNEL_PATH = "http://127.0.0.1:8080/sqrlbc";
 	static final String AES_TEST_KEY = Base64.getEncoder().encodeToString(new byte[16]);
+	/**
+	 * null to use the default JPA persistence
+	 */
+	private static SqrlPersistenceFactory persistenceFactory = null;
 
 	static class TCSqrlConfig extends SqrlConfig {
 		private final long timestampForNextNut;
@@ -62,6 +71,7 @@ public class TestCaseUtil {
 		// set AES key to all zeros for test cases
 		config.setAesKeyBase64(AES_TEST_KEY);
 		config.setCpsCancelUri("www.google.com");
+		config.setSqrlPersistenceFactory(persistenceFactory);
 
 		return config;
 	}
@@ -78,6 +88,7 @@ public class TestCaseUtil {
 		// which would slow down most of our test cases for no good reason
 		config.setSecureRandom(new TestSecureRandom(null));
 		config.setCpsCancelUri("www.google.com");
+		config.setSqrlPersistenceFactory(persistenceFactory);
 
 		return config;
 	}
@@ -104,14 +115,14 @@ public class TestCaseUtil {
 	 */
 	@Deprecated
 	public static SqrlPersistence setupIdk(final String idk, final String correlator, final String serverParam) {
-		final SqrlPersistence persistence = new SqrlJpaPersistenceProvider();
+		final SqrlPersistence persistence = createSqrlPersistence();
 		final SqrlCorrelator sqrlCorrelator = persistence.createCorrelator(correlator, TestCaseUtil.AWHILE_FROM_NOW);
 		if (serverParam != null) {
 			sqrlCorrelator.getTransientAuthDataTable().put(SqrlConstants.TRANSIENT_NAME_SERVER_PARROT, serverParam);
 		}
 		persistence.createAndEnableSqrlIdentity(idk);
 		persistence.closeCommit();
-		return new SqrlJpaPersistenceProvider();
+		return createSqrlPersistence();
 	}
 
 	public static MockHttpServletRequest buildMockRequest(final String uriString) throws URISyntaxException {
@@ -184,9 +195,36 @@ public class TestCaseUtil {
 		return new SqrlConfigOperations(config);
 	}
 
+	/**
+	 * Allows persistence test cases to be rerun against another {@link SqrlPersistenceFactory}
+	 *
+	 * @param persistenceFactory
+	 *            the factory or null to revert to the default JPA persistence
+	 */
+	public static void setPersistenceFactory(final SqrlPersistenceFactory persistenceFactory) {
+		TestCaseUtil.persistenceFactory = persistenceFactory;
+	}
+
+	/**
+	 * @return a {@link DataSource} for the derby database which the JPA test persistence unit creates
+	 */
+	public static DataSource buildDerbyDataSource() {
+		// Ensure the schema has been created
+		SqrlJpaEntityManagerFactoryRegistry.initialize();
+		final EmbeddedDataSource dataSource = new EmbeddedDataSource();
+		dataSource.setDatabaseName("memory:sqrlexample");
+		return dataSource;
+	}
+
 	public static SqrlAutoCloseablePersistence createEmptySqrlPersistence() throws NoSuchFieldException {
+		if (persistenceFactory instanceof SqrlInMemoryPersistenceFactory) {
+			SqrlInMemoryPersistenceFactory.getDefaultStore().clear();
+			return createSqrlPersistence();
+		}
+		// The JPA and JDBC providers share the same derby database
 		final SqrlPersistence sqrlPersistence = createSqrlPersistence();
-		final EntityManagerFactory entityManagerFactory = extractEntityManagerFactory(sqrlPersistence);
+		final EntityManagerFactory entityManagerFactory = SqrlJpaEntityManagerFactoryRegistry
+				.get(SqrlJpaPersistenceProvider.PERSISTENCE_UNIT_NAME);
 		final EntityManager entityManager = entityManagerFactory.createEntityManager();
 		entityManager.getTransaction().begin();
 		// entityManager.createQuery("DELETE FROM SqrlCorrelator m").executeUpdate();
@@ -206,18 +244,24 @@ public class TestCaseUtil {
 		return new SqrlAutoCloseablePersistence(createSqrlPersistence());
 	}
 
-	static EntityManagerFactory extractEntityManagerFactory(final SqrlPersistence sqrlPersistence)
+	public static EntityManagerFactory extractEntityManagerFactory(final SqrlPersistence sqrlPersistence)
 			throws NoSuchFieldException {
 		SqrlPersistence extracted = sqrlPersistence;
 		if (extracted instanceof SqrlAutoCloseablePersistence) {
 			extracted = (SqrlPersistence) PrivateAccessor.getField(extracted, "sqrlPersistence");
 		}
-		return (EntityManagerFactory) PrivateAccessor.getField(extracted, "entityManagerFactory");
+		return ((EntityManager) PrivateAccessor.getField(extracted, "entityManager")).getEntityManagerFactory();
 	}
 
 	public static SqrlAutoCloseablePersistence createSqrlPersistence() {
-		return new SqrlAutoCloseablePersistence(new SqrlConfigOperations(TestCaseUtil.buildTestSqrlConfig())
-				.getSqrlPersistenceFactory().createSqrlPersistence());
+		return new SqrlAutoCloseablePersistence(getSqrlPersistenceFactory().createSqrlPersistence());
+	}
+
+	/**
+	 * @return the factory which {@link #createSqrlPersistence()} uses
+	 */
+	public static SqrlPersistenceFactory getSqrlPersistenceFactory() {
+		return new SqrlConfigOperations(TestCaseUtil.buildTestSqrlConfig()).getSqrlPersistenceFactory();
 	}
 
 	/**
@@ -0,0 +1,99 @@
+package com.github.sqrlserverjava.backchannel;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.github.sqrlserverjava.backchannel.SqrlClientParamCodec.NameValueLines;
+import com.github.sqrlserverjava.exception.SqrlInvalidRequestException;
+import com.github.sqrlserverjava.util.SqrlConstants;
+import com.github.sqrlserverjava.util.SqrlUtil;
+
+public class SqrlClientParamCodecTest {
+
+	@Test
+	public void testDecodeMatchesJdk() throws Exception {
+		final Random random = new Random(42);
+		for (int length = 0; length < 100; length++) {
+			final byte[] bytes = new byte[length];
+			random.nextBytes(bytes);
+			final String encoded = SqrlUtil.sqrlBase64UrlEncode(bytes);
+			assertTrue(Arrays.equals(bytes, SqrlClientParamCodec.decode("test", encoded)));
+			assertTrue(Arrays.equals(Base64.getUrlDecoder().decode(encoded), SqrlClientParamCodec.decode("test", encoded)));
+		}
+	}
+
+	@Test
+	public void testDecodeRejectsInvalid() {
+		final char[] oversize = new char[SqrlConstants.MAX_SQRL_TOKEN_SIZE + 4];
+		Arrays.fill(oversize, 'a');
+		for (final String invalid : Arrays.asList("YWJj=", "YW==", "YW+j", "YW/j", "YW j", "YWJjZ", "YWü", "YWĀj",
+				new String(oversize))) {
+			try {
+				SqrlClientParamCodec.decode("test", invalid);
+				fail("Exception expected for " + invalid);
+			} catch (final SqrlInvalidRequestException e) {
+				// Expected
+			}
+		}
+	}
+
+	@Test
+	public void testTokenizeLines() throws Exception {
+		final NameValueLines lines = tokenize("ver=1\r\ncmd=query\nidk=abc\ropt=suk~cps\r\n\r\nempty=\r\n=novalue\r\n"
+				+ "two=equals=signs\r\nnoequals\r\nlast=one");
+		assertEquals("{ver=1, cmd=query, idk=abc, opt=suk~cps, last=one}", lines.toString());
+		assertEquals(5, lines.size());
+		assertEquals("idk", lines.getName(2));
+		assertEquals("abc", lines.getValue(2));
+		assertEquals("query", lines.get("cmd"));
+		assertNull(lines.get("empty"));
+		assertNull(lines.get("two"));
+		assertEquals(0, tokenize("").size());
+	}
+
+	@Test
+	public void testTokenizeLinesLastValueWins() throws Exception {
+		final StringBuilder buf = new StringBuilder();
+		for (int i = 0; i < 30; i++) {
+			buf.append("name").append(i % 3).append('=').append(i).append("\r\n");
+		}
+		final NameValueLines lines = tokenize(buf.toString());
+		assertEquals(30, lines.size());
+		assertEquals("27", lines.get("name0"));
+		assertEquals("29", lines.get("name2"));
+	}
+
+	@Test
+	public void testFindServerValue() throws Exception {
+		final byte[] queryString = "sqrl://127.0.0.1:8081/sqrlexample/sqrlbc?nut=GiXid26ALy2THQ7GT0a8sg&sfn=bG9jYWxob3N0&cor=3Q7N5WBs50u"
+				.getBytes(SqrlConstants.UTF8_CHARSET);
+		assertEquals("GiXid26ALy2THQ7GT0a8sg", SqrlClientParamCodec.findServerValue(queryString, "nut"));
+		assertEquals("3Q7N5WBs50u", SqrlClientParamCodec.findServerValue(queryString, "cor"));
+		final byte[] reply = "ver=1\r\nnut=beQH8u8VVG0ohwXKQBa9cA\r\ntif=0\r\nqry=/sqrlbc?nut=other&cor=3Q7N5W\r\n"
+				.getBytes(SqrlConstants.UTF8_CHARSET);
+		assertEquals("beQH8u8VVG0ohwXKQBa9cA", SqrlClientParamCodec.findServerValue(reply, "nut"));
+		assertEquals("3Q7N5W", SqrlClientParamCodec.findServerValue(reply, "cor"));
+		assertEquals("", SqrlClientParamCodec.findServerValue("nut=".getBytes(SqrlConstants.UTF8_CHARSET), "nut"));
+		for (final String invalid : Arrays.asList("nu=abc", "nut", "nut=ab/c", "nut=ab\nc")) {
+			try {
+				SqrlClientParamCodec.findServerValue(invalid.getBytes(SqrlConstants.UTF8_CHARSET), "nut");
+				fail("Exception expected for " + invalid);
+			} catch (final SqrlInvalidRequestException e) {
+				// Expected
+			}
+		}
+	}
+
+	private static NameValueLines tokenize(final String decoded) throws SqrlInvalidRequestException {
+		return SqrlClientParamCodec
+				.tokenizeLines(SqrlClientParamCodec.decode("test", SqrlUtil.sqrlBase64UrlEncode(decoded)));
+	}
+}
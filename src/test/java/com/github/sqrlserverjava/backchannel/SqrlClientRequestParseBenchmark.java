@@ -0,0 +1,157 @@
+package com.github.sqrlserverjava.backchannel;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import com.github.sqrlserverjava.SqrlConfigOperations;
+import com.github.sqrlserverjava.TestCaseUtil;
+import com.github.sqrlserverjava.backchannel.SqrlClientParamCodec.NameValueLines;
+import com.github.sqrlserverjava.enums.SqrlServerSideKey;
+import com.github.sqrlserverjava.util.SqrlSanitize;
+import com.github.sqrlserverjava.util.SqrlUtil;
+
+/**
+ * Compares the parsing of the client and server params by {@link SqrlClientParamCodec} with the parsing the
+ * {@link SqrlClientRequest} constructor did before it: regex validation, a base64url decode of the server param per
+ * value extracted and two passes over the decoded client param with {@link BufferedReader} and
+ * {@link String#split(String)}. Both include the correlator lookup done first by
+ * {@link SqrlClientRequest#parseCorrelatorOnly(javax.servlet.http.HttpServletRequest)}. The full constructor, which
+ * also decrypts the nut and verifies the ids signature, is measured for scale.
+ * <p>
+ * Uses an ident request captured from the SQRL reference client. Run via {@link #main(String[])} from the IDE or with
+ * the test classpath, it is not part of the unit test suite
+ *
+ * @author Dave Badia
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SqrlClientRequestParseBenchmark {
+	// @formatter:off
+	private static final String CLIENT_PARAM = "dmVyPTENCmNtZD1pZGVudA0KaWRrPUNXNkVYRU1kY2xaYzNKRUpreV9Ld01GX0RoTWJrVjE1RTZRMTRweXFNTlkNCnN1az1MeTQ3aFN2ellNTjJkQVkxb09UQXgwb3VOazVpZU5tRFVxVUV3b0xLVlFzDQp2dWs9bDFnS1JvNnRhRmgtMTlxTjlENE9mMjRMMXNmYkxLampaNE96cVV4MTZfOA0Kb3B0PXN1aw0K";
+	private static final String SERVER_PARAM = "dmVyPTENCm51dD1iZVFIOHU4VlZHMG9od1hLUUJhOWNBDQp0aWY9MA0KcXJ5PS9zcXJsZXhhbXBsZS9zcXJsYmM_bnV0PWJlUUg4dThWVkcwb2h3WEtRQmE5Y0EmY29yPTNRN041V0JzNTB1WW5fX1ZqRzRpdjRQa3BrdjJOZTFza1FnWjQ4QTZEU0ENCg";
+	private static final String IDS_PARAM = "P94csUjLIrSJTx21axMdEnR7GFJJ78lTIvJ9oGU1KIDu46ATteZFiK1up-RHLcIcZxA2V7MW9LGNUod7j2jmCg";
+	// @formatter:on
+
+	private MockHttpServletRequest	servletRequest;
+	private SqrlConfigOperations	configOps;
+
+	@Setup
+	public void setUp() throws Exception {
+		servletRequest = TestCaseUtil.buildMockRequest("sqrl://127.0.0.1:8080/sqrlexample/sqrlbc",
+				"client=" + CLIENT_PARAM + "&server=" + SERVER_PARAM + "&ids=" + IDS_PARAM, "229.179.39.232");
+		configOps = TestCaseUtil.buildSqrlConfigOperations(TestCaseUtil.buildTestSqrlConfig());
+	}
+
+	@Benchmark
+	public void codecParse(final Blackhole blackhole) throws Exception {
+		final String clientParam = servletRequest.getParameter("client");
+		final String serverParam = servletRequest.getParameter("server");
+		blackhole.consume(SqrlClientRequest.parseCorrelatorOnly(servletRequest));
+		final byte[] decodedServer = SqrlClientParamCodec.decode("server", serverParam);
+		blackhole.consume(SqrlClientParamCodec.findServerValue(decodedServer, "nut"));
+		blackhole.consume(SqrlClientParamCodec.findServerValue(decodedServer, "cor"));
+		final NameValueLines lines = SqrlClientParamCodec
+				.tokenizeLines(SqrlClientParamCodec.decode("client", clientParam));
+		blackhole.consume(lines.get("ver"));
+		blackhole.consume(lines.get("opt"));
+		for (int i = 0; i < lines.size(); i++) {
+			final SqrlServerSideKey keyType = SqrlServerSideKey.valueOfOrNull(lines.getName(i));
+			if (keyType != null) {
+				blackhole.consume(SqrlClientParamCodec.decode(keyType.toString(), lines.getValue(i)));
+			}
+		}
+		blackhole.consume(lines.get("cmd"));
+	}
+
+	@Benchmark
+	public void legacyParse(final Blackhole blackhole) throws Exception {
+		final String clientParam = servletRequest.getParameter("client");
+		final String serverParam = servletRequest.getParameter("server");
+		SqrlSanitize.inspectIncomingData(serverParam);
+		blackhole.consume(legacyExtractFromSqrlCsvString(serverParam, "cor"));
+		SqrlSanitize.inspectIncomingData(clientParam);
+		SqrlSanitize.inspectIncomingData(serverParam);
+		blackhole.consume(legacyExtractFromSqrlCsvString(serverParam, "nut="));
+		final String decoded = SqrlUtil.base64UrlDecodeDataFromSqrlClientToString(clientParam);
+		blackhole.consume(legacyExtractFromSqrlCsvString(serverParam, "cor"));
+		final Map<String, String> table = legacyParseLinesToNameValueMap(decoded);
+		blackhole.consume(table.get("ver"));
+		blackhole.consume(table.get("opt"));
+		for (final Map.Entry<String, String> entry : legacyParseLinesToNameValueMap(decoded).entrySet()) {
+			final SqrlServerSideKey keyType = SqrlServerSideKey.valueOfOrNull(entry.getKey());
+			if (keyType != null) {
+				blackhole.consume(SqrlUtil.base64UrlDecodeDataFromSqrlClient(entry.getValue()));
+			}
+		}
+		blackhole.consume(table.get("cmd"));
+	}
+
+	@Benchmark
+	public SqrlClientRequest constructor() throws Exception {
+		SqrlClientRequest.parseCorrelatorOnly(servletRequest);
+		return new SqrlClientRequest(servletRequest, configOps);
+	}
+
+	private static String legacyExtractFromSqrlCsvString(final String serverParam, final String variableToFind)
+			throws Exception {
+		final String toSearch = SqrlUtil.base64UrlDecodeDataFromSqrlClientToString(serverParam);
+		String toFind = variableToFind;
+		if (!variableToFind.endsWith("=")) {
+			toFind += "=";
+		}
+		int index = toSearch.indexOf(toFind);
+		String value = toSearch.substring(index + toFind.length());
+		index = value.indexOf(SqrlClientReply.SEPARATOR);
+		if (index > -1) {
+			value = value.substring(0, index);
+		}
+		index = value.indexOf('&');
+		if (index > -1) {
+			value = value.substring(0, index);
+		}
+		SqrlSanitize.inspectIncomingData(value);
+		return value;
+	}
+
+	private static Map<String, String> legacyParseLinesToNameValueMap(final String decoded) throws Exception {
+		final Map<String, String> table = new TreeMap<>();
+		final BufferedReader reader = new BufferedReader(new StringReader(decoded));
+		String line = reader.readLine();
+		while (line != null) {
+			final String[] data = line.split("=");
+			if (data.length == 2) {
+				table.put(data[0], data[1]);
+			}
+			line = reader.readLine();
+		}
+		return table;
+	}
+
+	public static void main(final String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(SqrlClientRequestParseBenchmark.class.getSimpleName()).build()).run();
+	}
+}
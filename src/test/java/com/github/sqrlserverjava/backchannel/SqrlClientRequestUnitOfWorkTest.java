@@ -0,0 +1,159 @@
+package com.github.sqrlserverjava.backchannel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import com.github.sqrlserverjava.SqrlConfig;
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.SqrlPersistenceFactory;
+import com.github.sqrlserverjava.SqrlServerOperations;
+import com.github.sqrlserverjava.TestCaseUtil;
+import com.github.sqrlserverjava.persistence.SqrlInMemoryPersistenceFactory;
+import com.github.sqrlserverjava.util.SqrlConstants;
+
+/**
+ * Counts the units of work, and how long each is held open, for a single SQRL client request
+ */
+public class SqrlClientRequestUnitOfWorkTest {
+	private static final String	CORRELATOR		= "3Q7N5WBs50uYn__VjG4iv4Pkpkv2Ne1skQgZ48A6DSA";
+	private static final String	SERVER_PARAM	= "cXJsOi8vMTI3LjAuMC4xOjgwODEvc3FybGV4YW1wbGUvc3FybGJjP251dD1HaVhpZDI2QUx5MlRIUTdHVDBhOHNnJnNmbj1iRzlqWVd4b2IzTjAmY29yPTNRN041V0JzNTB1WW5fX1ZqRzRpdjRQa3BrdjJOZTFza1FnWjQ4QTZEU0E";
+	private static final String	QUERY_PARAMS	= "client=dmVyPTENCmNtZD1xdWVyeQ0KaWRrPUNXNkVYRU1kY2xaYzNKRUpreV9Ld01GX0RoTWJrVjE1RTZRMTRweXFNTlkNCm9wdD1zdWsNCg"
+			+ "&server=" + SERVER_PARAM
+			+ "&ids=aFZSlUvZFwiqCN2ycjui1ZdSQwtjVRVGqPy6IB-GUHJeDsF03LatdAdJ5XFYNB_R85a0s_v6UHXVtIV4yMX-AA";
+
+	private final List<UnitOfWork>	unitOfWorkList	= new ArrayList<>();
+	private SqrlServerOperations	sqrlServerOps;
+
+	@Before
+	public void setUp() throws Exception {
+		TestCaseUtil.setPersistenceFactory(new SqrlInMemoryPersistenceFactory());
+		TestCaseUtil.createEmptySqrlPersistence().closeCommit();
+		TestCaseUtil.clearStaticFields();
+		final SqrlConfig config = TestCaseUtil.buildTestSqrlConfig("GiXid26ALy2THQ7GT0a8sg");
+		config.setNutValidityInSeconds(Integer.MAX_VALUE);
+		config.setSqrlPersistenceFactory(new RecordingPersistenceFactory(new SqrlInMemoryPersistenceFactory()));
+		sqrlServerOps = new SqrlServerOperations(config);
+
+		final SqrlPersistence sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+		sqrlPersistence.createCorrelator(CORRELATOR, new Date(System.currentTimeMillis() + 1_000_000))
+		.getTransientAuthDataTable().put(SqrlConstants.TRANSIENT_NAME_SERVER_PARROT, SERVER_PARAM);
+		sqrlPersistence.closeCommit();
+	}
+
+	@After
+	public void tearDown() {
+		TestCaseUtil.setPersistenceFactory(null);
+	}
+
+	@Test
+	public void testSuccessfulRequestUsesOneUnitOfWork() throws Throwable {
+		final MockHttpServletRequest queryRequest = TestCaseUtil.buildMockRequest("sqrl://127.0.0.1:8080/sqrlexample/sqrlbc",
+				QUERY_PARAMS, "129.112.177.225");
+		final MockHttpServletResponse servletResponse = new MockHttpServletResponse();
+
+		final long start = System.nanoTime();
+		sqrlServerOps.clientFacingOperations().handleSqrlClientRequest(queryRequest, servletResponse);
+		final long requestNanos = System.nanoTime() - start;
+
+		assertEquals(HttpServletResponse.SC_OK, servletResponse.getStatus());
+		assertEquals(1, unitOfWorkList.size());
+		final UnitOfWork unitOfWork = unitOfWorkList.get(0);
+		assertEquals("closeCommit", unitOfWork.closedBy);
+		// Request parsing and signature validation run before the unit of work is created
+		assertTrue(unitOfWork.createdAt - start > 0);
+		assertTrue(unitOfWork.heldNanos() < requestNanos);
+	}
+
+	@Test
+	public void testFailedRequestRollsBackAndRecordsErrorState() throws Throwable {
+		// Tamper with the server parrot
+		final SqrlPersistence sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+		sqrlPersistence.fetchSqrlCorrelatorRequired(CORRELATOR).getTransientAuthDataTable()
+		.put(SqrlConstants.TRANSIENT_NAME_SERVER_PARROT, "other");
+		sqrlPersistence.closeCommit();
+		final MockHttpServletRequest queryRequest = TestCaseUtil.buildMockRequest("sqrl://127.0.0.1:8080/sqrlexample/sqrlbc",
+				QUERY_PARAMS, "129.112.177.225");
+		final MockHttpServletResponse servletResponse = new MockHttpServletResponse();
+
+		sqrlServerOps.clientFacingOperations().handleSqrlClientRequest(queryRequest, servletResponse);
+
+		assertEquals(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, servletResponse.getStatus());
+		assertEquals(2, unitOfWorkList.size());
+		assertEquals("closeRollback", unitOfWorkList.get(0).closedBy);
+		assertEquals("closeCommit", unitOfWorkList.get(1).closedBy);
+	}
+
+	@Test
+	public void testInvalidSignatureOnlyRecordsErrorState() throws Throwable {
+		final MockHttpServletRequest queryRequest = TestCaseUtil.buildMockRequest("sqrl://127.0.0.1:8080/sqrlexample/sqrlbc",
+				QUERY_PARAMS.replace("&ids=a", "&ids=b"), "129.112.177.225");
+		final MockHttpServletResponse servletResponse = new MockHttpServletResponse();
+
+		sqrlServerOps.clientFacingOperations().handleSqrlClientRequest(queryRequest, servletResponse);
+
+		assertEquals(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, servletResponse.getStatus());
+		// Only the unit of work which records the error state
+		assertEquals(1, unitOfWorkList.size());
+		assertEquals("closeCommit", unitOfWorkList.get(0).closedBy);
+	}
+
+	private static class UnitOfWork {
+		private final long	createdAt	= System.nanoTime();
+		private long		closedAt;
+		private String		closedBy;
+
+		private long heldNanos() {
+			return closedAt - createdAt;
+		}
+	}
+
+	/**
+	 * Records when each {@link SqrlPersistence} is created and closed
+	 */
+	private class RecordingPersistenceFactory implements SqrlPersistenceFactory {
+		private final SqrlPersistenceFactory delegate;
+
+		private RecordingPersistenceFactory(final SqrlPersistenceFactory delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public SqrlPersistence createSqrlPersistence() {
+			final SqrlPersistence target = delegate.createSqrlPersistence();
+			final UnitOfWork unitOfWork = new UnitOfWork();
+			unitOfWorkList.add(unitOfWork);
+			return (SqrlPersistence) Proxy.newProxyInstance(getClass().getClassLoader(),
+					new Class<?>[] { SqrlPersistence.class }, (proxy, method, args) -> {
+						try {
+							return method.invoke(target, args);
+						} catch (final InvocationTargetException e) {
+							throw e.getCause();
+						} finally {
+							if (method.getName().startsWith("close")) {
+								unitOfWork.closedAt = System.nanoTime();
+								unitOfWork.closedBy = method.getName();
+							}
+						}
+					});
+		}
+
+		@Override
+		public Class<? extends Runnable> getCleanupTaskClass() {
+			return delegate.getCleanupTaskClass();
+		}
+	}
+}
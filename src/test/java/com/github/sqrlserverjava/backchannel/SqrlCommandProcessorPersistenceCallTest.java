@@ -0,0 +1,92 @@
+package com.github.sqrlserverjava.backchannel;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.TestCaseUtil;
+import com.github.sqrlserverjava.enums.SqrlIdentityFlag;
+import com.github.sqrlserverjava.enums.SqrlRequestCommand;
+import com.github.sqrlserverjava.enums.SqrlRequestOpt;
+
+/**
+ * Verifies the number of persistence calls made to process a single command
+ */
+public class SqrlCommandProcessorPersistenceCallTest {
+	private static final String	IDK			= "m470Fb8O3XY8xAqlN2pCL0SokqPYNazwdc5sT6SLnUM";
+	private static final String	CORRELATOR	= "abc";
+	private SqrlPersistence		sqrlPersistence;
+
+	@Before
+	public void setUp() throws Throwable {
+		TestCaseUtil.setupSqrlPersistence(CORRELATOR, "123");
+		final SqrlPersistence setupPersistence = TestCaseUtil.createSqrlPersistence();
+		setupPersistence.createAndEnableSqrlIdentity(IDK);
+		setupPersistence.closeCommit();
+		sqrlPersistence = Mockito.spy(TestCaseUtil.createSqrlPersistence());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		sqrlPersistence.closeCommit();
+	}
+
+	@Test
+	public void testIdentWithOptChangesLoadsAndWritesFlagsOnce() throws Throwable {
+		final SqrlClientRequest sqrlRequest = TestCaseUtil.buildMockSqrlRequest(IDK, SqrlRequestCommand.IDENT,
+				CORRELATOR, false, SqrlRequestOpt.hardlock, SqrlRequestOpt.sqrlonly);
+
+		new SqrlClientRequestProcessor(sqrlRequest, sqrlPersistence, TestCaseUtil.buildTestSqrlConfig())
+				.processClientCommand();
+
+		verify(sqrlPersistence, times(1)).fetchSqrlFlagsForIdentity(IDK);
+		verify(sqrlPersistence, times(1)).setSqrlFlagsForIdentity(eq(IDK), anyMap());
+		verify(sqrlPersistence, never()).fetchSqrlFlagForIdentity(anyString(), any(SqrlIdentityFlag.class));
+		verify(sqrlPersistence, never()).setSqrlFlagForIdentity(anyString(), any(SqrlIdentityFlag.class),
+				anyBoolean());
+		assertTrue(sqrlPersistence.fetchSqrlFlagForIdentity(IDK, SqrlIdentityFlag.HARDLOCK));
+		assertTrue(sqrlPersistence.fetchSqrlFlagForIdentity(IDK, SqrlIdentityFlag.SQRLONLY));
+	}
+
+	@Test
+	public void testIdentWithoutOptChangesDoesNotWriteFlags() throws Throwable {
+		final SqrlClientRequest sqrlRequest = TestCaseUtil.buildMockSqrlRequest(IDK, SqrlRequestCommand.IDENT,
+				CORRELATOR, false);
+
+		new SqrlClientRequestProcessor(sqrlRequest, sqrlPersistence, TestCaseUtil.buildTestSqrlConfig())
+				.processClientCommand();
+
+		verify(sqrlPersistence, times(1)).fetchSqrlFlagsForIdentity(IDK);
+		verify(sqrlPersistence, never()).setSqrlFlagsForIdentity(anyString(), anyMap());
+		verify(sqrlPersistence, never()).setSqrlFlagForIdentity(anyString(), any(SqrlIdentityFlag.class),
+				anyBoolean());
+	}
+
+	@Test
+	public void testDisableWithOptChanges() throws Throwable {
+		final SqrlClientRequest sqrlRequest = TestCaseUtil.buildMockSqrlRequest(IDK, SqrlRequestCommand.DISABLE,
+				CORRELATOR, false, SqrlRequestOpt.sqrlonly);
+
+		new SqrlClientRequestProcessor(sqrlRequest, sqrlPersistence, TestCaseUtil.buildTestSqrlConfig())
+				.processClientCommand();
+
+		verify(sqrlPersistence, times(1)).setSqrlFlagForIdentity(IDK, SqrlIdentityFlag.SQRL_AUTH_ENABLED, false);
+		verify(sqrlPersistence, times(1)).fetchSqrlFlagsForIdentity(IDK);
+		verify(sqrlPersistence, times(1)).setSqrlFlagsForIdentity(eq(IDK), anyMap());
+		assertFalse(sqrlPersistence.fetchSqrlFlagForIdentity(IDK, SqrlIdentityFlag.SQRL_AUTH_ENABLED));
+		assertTrue(sqrlPersistence.fetchSqrlFlagForIdentity(IDK, SqrlIdentityFlag.SQRLONLY));
+	}
+}
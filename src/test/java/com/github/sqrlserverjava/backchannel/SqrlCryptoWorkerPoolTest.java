@@ -0,0 +1,229 @@
+package com.github.sqrlserverjava.backchannel;
+
+import static com.github.sqrlserverjava.backchannel.SqrlRealClientSignatureVector.FIRST_TIME_QUERY;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import com.github.sqrlserverjava.SqrlConfig;
+import com.github.sqrlserverjava.SqrlConfigOperationsFactory;
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.SqrlServerOperations;
+import com.github.sqrlserverjava.TestCaseUtil;
+import com.github.sqrlserverjava.backchannel.LoggingUtil.LogField;
+import com.github.sqrlserverjava.exception.SqrlException;
+import com.github.sqrlserverjava.exception.SqrlServerBusyException;
+import com.github.sqrlserverjava.persistence.SqrlCorrelator;
+import com.github.sqrlserverjava.util.SqrlConstants;
+
+import junitx.framework.StringAssert;
+
+public class SqrlCryptoWorkerPoolTest {
+	private static final String CORRELATOR = "3Q7N5WBs50uYn__VjG4iv4Pkpkv2Ne1skQgZ48A6DSA";
+
+	private SqrlCryptoWorkerPool pool;
+
+	@Before
+	public void setUp() throws Exception {
+		TestCaseUtil.createEmptySqrlPersistence();
+		TestCaseUtil.clearStaticFields();
+	}
+
+	@After
+	public void tearDown() {
+		if (pool != null) {
+			pool.shutdown();
+		}
+		LoggingUtil.cleanup();
+	}
+
+	@Test
+	public void testNoThreads_RunsOnCallingThread() throws Exception {
+		pool = new SqrlCryptoWorkerPool(0, 0);
+		assertSame(Thread.currentThread(), pool.execute(() -> Thread.currentThread()));
+		assertEquals(0, pool.getCompletedCount());
+	}
+
+	@Test
+	public void testRunsOnWorkerThread() throws Exception {
+		pool = new SqrlCryptoWorkerPool(2, 4);
+		final Thread worker = pool.execute(() -> Thread.currentThread());
+		StringAssert.assertStartsWith("Sqrl Crypto #", worker.getName());
+		assertTrue(worker.isDaemon());
+	}
+
+	@Test
+	public void testTaskExceptionIsRethrown() throws Exception {
+		pool = new SqrlCryptoWorkerPool(1, 1);
+		final SqrlException expected = new SqrlException("bad signature");
+		try {
+			pool.execute(() -> {
+				throw expected;
+			});
+			fail("Exception expected");
+		} catch (final SqrlException e) {
+			assertSame(expected, e);
+		}
+		final IllegalStateException expectedRuntime = new IllegalStateException("bug");
+		try {
+			pool.execute(() -> {
+				throw expectedRuntime;
+			});
+			fail("Exception expected");
+		} catch (final IllegalStateException e) {
+			assertSame(expectedRuntime, e);
+		}
+	}
+
+	@Test
+	public void testLoggingFieldsCarriedToWorkerAndBack() throws Exception {
+		pool = new SqrlCryptoWorkerPool(1, 1);
+		LoggingUtil.putData(LogField.COR, "corFromCaller");
+		final String workerLogLine = pool.execute(() -> {
+			LoggingUtil.putData(LogField.IDK, "idkFromWorker");
+			return LoggingUtil.formatForLogging("on worker");
+		});
+		StringAssert.assertContains("cor=corFromCaller", workerLogLine);
+		StringAssert.assertContains("idk=idkFromWorker", LoggingUtil.formatForLogging("back on caller"));
+		// The worker thread does not keep the fields of the previous request
+		LoggingUtil.cleanup();
+		StringAssert.assertNotContains("idkFromWorker", pool.execute(() -> LoggingUtil.formatForLogging("x")));
+	}
+
+	@Test
+	public void testQueueFull_Rejected() throws Exception {
+		pool = new SqrlCryptoWorkerPool(1, 1);
+		final CountDownLatch release = new CountDownLatch(1);
+		try {
+			occupy(pool, release);
+			awaitCondition(() -> pool.getActiveCount() == 1);
+			occupy(pool, release);
+			awaitCondition(() -> pool.getQueueDepth() == 1);
+			try {
+				pool.execute(() -> "rejected");
+				fail("Exception expected");
+			} catch (final SqrlServerBusyException e) {
+				assertEquals(SqrlTifFlag.TRANSIENT_ERROR, e.getTifToAdd());
+			}
+			assertEquals(1, pool.getRejectedCount());
+		} finally {
+			release.countDown();
+		}
+		awaitCondition(() -> pool.getCompletedCount() == 2);
+		assertEquals("accepted", pool.execute(() -> "accepted"));
+	}
+
+	@Test
+	public void testClientRequestOnWorkerPool() throws Exception {
+		final SqrlConfig config = buildConfig(2, 4);
+		final SqrlServerOperations sqrlServerOps = new SqrlServerOperations(config);
+		pool = SqrlConfigOperationsFactory.get(config).getCryptoWorkerPool();
+		storeServerParrot();
+
+		final MockHttpServletResponse servletResponse = new MockHttpServletResponse();
+		sqrlServerOps.clientFacingOperations().handleSqrlClientRequest(buildFirstTimeQueryRequest(), servletResponse);
+
+		assertEquals(HttpServletResponse.SC_OK, servletResponse.getStatus());
+		final Map<String, String> responseDataTable = SqrlServerOperationsRealClientDataTest
+				.parseSqrlResponse(servletResponse.getContentAsString());
+		assertEquals("4", responseDataTable.get("tif"));
+		assertEquals(1, pool.getCompletedCount());
+	}
+
+	@Test
+	public void testClientRequestWhenPoolFull_TransientErrorWithoutPersistence() throws Exception {
+		final SqrlConfig config = buildConfig(1, 0);
+		final SqrlServerOperations sqrlServerOps = new SqrlServerOperations(config);
+		pool = SqrlConfigOperationsFactory.get(config).getCryptoWorkerPool();
+		storeServerParrot();
+
+		final CountDownLatch release = new CountDownLatch(1);
+		final MockHttpServletResponse servletResponse = new MockHttpServletResponse();
+		try {
+			occupy(pool, release);
+			awaitCondition(() -> pool.getActiveCount() == 1);
+			sqrlServerOps.clientFacingOperations().handleSqrlClientRequest(buildFirstTimeQueryRequest(),
+					servletResponse);
+		} finally {
+			release.countDown();
+		}
+
+		assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, servletResponse.getStatus());
+		final Map<String, String> responseDataTable = SqrlServerOperationsRealClientDataTest
+				.parseSqrlResponse(servletResponse.getContentAsString());
+		// COMMAND_FAILED | TRANSIENT_ERROR
+		assertEquals("60", responseDataTable.get("tif"));
+		assertEquals(1, pool.getRejectedCount());
+		// The correlator was not touched
+		final SqrlPersistence sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+		assertEquals(FIRST_TIME_QUERY.server,
+				sqrlPersistence.fetchTransientAuthData(CORRELATOR, SqrlConstants.TRANSIENT_NAME_SERVER_PARROT));
+		sqrlPersistence.closeCommit();
+	}
+
+	private static SqrlConfig buildConfig(final int threadCount, final int queueLimit) throws Exception {
+		final SqrlConfig config = TestCaseUtil.buildTestSqrlConfig("GiXid26ALy2THQ7GT0a8sg");
+		config.setNutValidityInSeconds(Integer.MAX_VALUE);
+		config.setCryptoWorkerThreadCount(threadCount);
+		config.setCryptoWorkerQueueLimit(queueLimit);
+		return config;
+	}
+
+	private static void storeServerParrot() {
+		final SqrlPersistence sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+		final SqrlCorrelator sqrlCorrelator = sqrlPersistence.createCorrelator(CORRELATOR,
+				new Date(System.currentTimeMillis() + 1_000_000));
+		sqrlCorrelator.getTransientAuthDataTable().put(SqrlConstants.TRANSIENT_NAME_SERVER_PARROT,
+				FIRST_TIME_QUERY.server);
+		sqrlPersistence.closeCommit();
+	}
+
+	private static MockHttpServletRequest buildFirstTimeQueryRequest() throws Exception {
+		return TestCaseUtil.buildMockRequest("sqrl://127.0.0.1:8080/sqrlexample/sqrlbc", "client="
+				+ FIRST_TIME_QUERY.client + "&server=" + FIRST_TIME_QUERY.server + "&ids=" + FIRST_TIME_QUERY.ids,
+				"129.112.177.225");
+	}
+
+	/**
+	 * Submits a task which holds a worker, or a queue slot, until the latch is released
+	 */
+	private static void occupy(final SqrlCryptoWorkerPool pool, final CountDownLatch release) {
+		final Thread thread = new Thread(() -> {
+			try {
+				pool.execute(() -> release.await(10, TimeUnit.SECONDS));
+			} catch (final SqrlException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private static void awaitCondition(final Condition condition) throws InterruptedException {
+		final long giveUpAt = System.currentTimeMillis() + 10_000;
+		while (!condition.isMet()) {
+			if (System.currentTimeMillis() > giveUpAt) {
+				fail("Timed out waiting for pool state");
+			}
+			Thread.sleep(5);
+		}
+	}
+
+	private interface Condition {
+		boolean isMet();
+	}
+}
@@ -0,0 +1,66 @@
+package com.github.sqrlserverjava.backchannel;
+
+import com.github.sqrlserverjava.backchannel.SqrlClientParamCodec.NameValueLines;
+import com.github.sqrlserverjava.exception.SqrlInvalidRequestException;
+import com.github.sqrlserverjava.util.SqrlConstants;
+
+/**
+ * Signed requests captured from real SQRL client transactions, used by {@link SqrlServerOperationsRealClientDataTest}
+ * and to check that every {@link com.github.sqrlserverjava.SqrlSignatureVerifier} accepts them. The ids signature is
+ * over the client param followed by the server param, made with the idk in the client param
+ *
+ * @author Dave Badia
+ *
+ */
+enum SqrlRealClientSignatureVector {
+	// @formatter:off
+	FIRST_TIME_QUERY(
+			"dmVyPTENCmNtZD1xdWVyeQ0KaWRrPUNXNkVYRU1kY2xaYzNKRUpreV9Ld01GX0RoTWJrVjE1RTZRMTRweXFNTlkNCm9wdD1zdWsNCg",
+			"cXJsOi8vMTI3LjAuMC4xOjgwODEvc3FybGV4YW1wbGUvc3FybGJjP251dD1HaVhpZDI2QUx5MlRIUTdHVDBhOHNnJnNmbj1iRzlqWVd4b2IzTjAmY29yPTNRN041V0JzNTB1WW5fX1ZqRzRpdjRQa3BrdjJOZTFza1FnWjQ4QTZEU0E",
+			"aFZSlUvZFwiqCN2ycjui1ZdSQwtjVRVGqPy6IB-GUHJeDsF03LatdAdJ5XFYNB_R85a0s_v6UHXVtIV4yMX-AA"),
+	FIRST_TIME_IDENT(
+			"dmVyPTENCmNtZD1pZGVudA0KaWRrPUNXNkVYRU1kY2xaYzNKRUpreV9Ld01GX0RoTWJrVjE1RTZRMTRweXFNTlkNCnN1az1MeTQ3aFN2ellNTjJkQVkxb09UQXgwb3VOazVpZU5tRFVxVUV3b0xLVlFzDQp2dWs9bDFnS1JvNnRhRmgtMTlxTjlENE9mMjRMMXNmYkxLampaNE96cVV4MTZfOA0Kb3B0PXN1aw0K",
+			"dmVyPTENCm51dD1iZVFIOHU4VlZHMG9od1hLUUJhOWNBDQp0aWY9MA0KcXJ5PS9zcXJsZXhhbXBsZS9zcXJsYmM_bnV0PWJlUUg4dThWVkcwb2h3WEtRQmE5Y0EmY29yPTNRN041V0JzNTB1WW5fX1ZqRzRpdjRQa3BrdjJOZTFza1FnWjQ4QTZEU0ENCg",
+			"P94csUjLIrSJTx21axMdEnR7GFJJ78lTIvJ9oGU1KIDu46ATteZFiK1up-RHLcIcZxA2V7MW9LGNUod7j2jmCg"),
+	BROWSER_AUTH_QUERY(
+			"dmVyPTENCmNtZD1xdWVyeQ0KaWRrPW00NzBGYjhPM1hZOHhBcWxOMnBDTDBTb2txUFlOYXp3ZGM1c1Q2U0xuVU0NCm9wdD1zdWsNCg",
+			"cXJsOi8vc3FybGphdmEudGVjaC9zcXJsZXhhbXBsZS9zcXJsYmM_bnV0PWVCbms4d3hyQ2RTX3VBMUwzX013Z3cmc2ZuPWMzRnliR3BoZG1FdWRHVmphQSZjb3I9alVKVlVJcEZXQ1AyUEVNZ2l2Q0lFbWUzZDMyR1ZIM1VUYWZ2QW1MMVVxZw",
+			"ROkIkpNyMrUsaD_Y6JIioE1shQ18ddM7b_PWQ5xmtkjdiZ1NtOTri-zOpSj1qptmNjCuKfG-Cpll3tgF1dqvBg"),
+	BROWSER_AUTH_IDENT(
+			"dmVyPTENCmNtZD1pZGVudA0KaWRrPW00NzBGYjhPM1hZOHhBcWxOMnBDTDBTb2txUFlOYXp3ZGM1c1Q2U0xuVU0NCm9wdD1zdWsNCnN1az1jeTlYX2U1SGhoS3c1OGktNzdlNlFOX3A2NTFObjNHWWczQk1aUGU3ajBNDQp2dWs9NjlXM2hJYjhQZWtRVU03UmhrWkNHaHVEaHNBUVJpREpDRUQ3Q2VSMXgwOA0K",
+			"dmVyPTENCm51dD1UZjBoVWZXenpocG1zeEdyNS1kaDdRDQp0aWY9MA0KcXJ5PS9zcXJsZXhhbXBsZS9zcXJsYmM_bnV0PVRmMGhVZld6emhwbXN4R3I1LWRoN1EmY29yPWpVSlZVSXBGV0NQMlBFTWdpdkNJRW1lM2QzMkdWSDNVVGFmdkFtTDFVcWcNCg",
+			"SFEHcCzTb_cnaMaInR3nFt-L_fguMGEEXHVRATq3naTlCJ6TCTfarjjYRH8HR-tua-k4HLiSVtvdLRKqM6KFDg"),
+	CPS_AUTH_QUERY(
+			"dmVyPTENCmNtZD1xdWVyeQ0KaWRrPTlPWDB1blFEd2NCTTZ6WXZtN1gyZ1dGNWh2UkVUdVJxVGdkdzBGV21jTk0NCnBpZGs9Q1NodHhOMGdRaEQ0Sm9sVUlaekh1cHVXYXhJTXJtRFl0VUJNNW9xb3E2WQ0Kb3B0PWNwc35zdWsNCg",
+			"c3FybDovLzEyNy4wLjAuMTo4MDgyL3NxcmxleGFtcGxlL3NxcmxiYz9udXQ9ZGJSQTZ2ZUVuQjdPMkN1V1hoNmRKUSZzZm49Ykc5allXeG9iM04wTG1OdmJRJmNvcj1BRWdtck9XRGhRazFhbU45ajhzalJ3Q1hmbm03RmpCNVdoNmpyclRCZDZr",
+			"xKpxHhhpviglCEnKgzVR8V75KIFhZjG93ulLO89TP1mkZNRLAoeQTh446YRkZv8zcgBOsqgm5wmLmMesDQ8dDQ"),
+	CPS_AUTH_IDENT(
+			"dmVyPTENCmNtZD1pZGVudA0KaWRrPTlPWDB1blFEd2NCTTZ6WXZtN1gyZ1dGNWh2UkVUdVJxVGdkdzBGV21jTk0NCnBpZGs9Q1NodHhOMGdRaEQ0Sm9sVUlaekh1cHVXYXhJTXJtRFl0VUJNNW9xb3E2WQ0Kb3B0PWNwc35zdWsNCg",
+			"dmVyPTENCm51dD1fWTJNMkJBQkI2MkkxV1JRaGE1MGhBDQp0aWY9NQ0KcXJ5PS9zcXJsZXhhbXBsZS9zcXJsYmM_bnV0PV9ZMk0yQkFCQjYySTFXUlFoYTUwaEEmY29yPUFFZ21yT1dEaFFrMWFtTjlqOHNqUndDWGZubTdGakI1V2g2anJyVEJkNmsNCnN1az1CT1hKZ2xMSEVOQUFaTU1KMWtWcjRmZ25vXzBueWR6cDhpSDJVZjh6NUdJDQo",
+			"n4jzxR3kHScltt__wiZkkHnCaZwOxiY2HnA6E-zHyWNgZZRxj07Os-9PLNPO5j_mGPMnro2B3xFPAtH22aP2Dg"),
+	;
+	// @formatter:on
+
+	final String	client;
+	final String	server;
+	final String	ids;
+
+	private SqrlRealClientSignatureVector(final String client, final String server, final String ids) {
+		this.client = client;
+		this.server = server;
+		this.ids = ids;
+	}
+
+	byte[] getMessage() {
+		return (client + server).getBytes(SqrlConstants.UTF8_CHARSET);
+	}
+
+	byte[] getIdsSignature() throws SqrlInvalidRequestException {
+		return SqrlClientParamCodec.decode("ids", ids);
+	}
+
+	byte[] getIdk() throws SqrlInvalidRequestException {
+		final NameValueLines lines = SqrlClientParamCodec.tokenizeLines(SqrlClientParamCodec.decode("client", client));
+		return SqrlClientParamCodec.decode("idk", lines.get("idk"));
+	}
+}
@@ -0,0 +1,24 @@
+package com.github.sqrlserverjava.backchannel;
+
+import org.junit.After;
+import org.junit.Before;
+
+import com.github.sqrlserverjava.TestCaseUtil;
+import com.github.sqrlserverjava.persistence.SqrlJdbcPersistenceFactory;
+
+/**
+ * Runs the real client data test cases against {@link SqrlJdbcPersistenceFactory}
+ */
+public class SqrlServerOperationsRealClientDataJdbcTest extends SqrlServerOperationsRealClientDataTest {
+	@Override
+	@Before
+	public void setUp() throws NoSuchFieldException {
+		TestCaseUtil.setPersistenceFactory(new SqrlJdbcPersistenceFactory(TestCaseUtil.buildDerbyDataSource()));
+		super.setUp();
+	}
+
+	@After
+	public void tearDown() {
+		TestCaseUtil.setPersistenceFactory(null);
+	}
+}
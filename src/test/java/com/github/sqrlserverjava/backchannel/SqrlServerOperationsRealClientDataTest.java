@@ -1,5 +1,11 @@
 package com.github.sqrlserverjava.backchannel;
 
+import static com.github.sqrlserverjava.backchannel.SqrlRealClientSignatureVector.BROWSER_AUTH_IDENT;
+import static com.github.sqrlserverjava.backchannel.SqrlRealClientSignatureVector.BROWSER_AUTH_QUERY;
+import static com.github.sqrlserverjava.backchannel.SqrlRealClientSignatureVector.CPS_AUTH_IDENT;
+import static com.github.sqrlserverjava.backchannel.SqrlRealClientSignatureVector.CPS_AUTH_QUERY;
+import static com.github.sqrlserverjava.backchannel.SqrlRealClientSignatureVector.FIRST_TIME_IDENT;
+import static com.github.sqrlserverjava.backchannel.SqrlRealClientSignatureVector.FIRST_TIME_QUERY;
 import static junit.framework.TestCase.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
@@ -55,7 +61,7 @@ public class SqrlServerOperationsRealClientDataTest {
 		final String expectedPath = "/sqrlexample/sqrlbc";
 
 		final String correlatorFromServerParam = "3Q7N5WBs50uYn__VjG4iv4Pkpkv2Ne1skQgZ48A6DSA";
-		String serverParam = "cXJsOi8vMTI3LjAuMC4xOjgwODEvc3FybGV4YW1wbGUvc3FybGJjP251dD1HaVhpZDI2QUx5MlRIUTdHVDBhOHNnJnNmbj1iRzlqWVd4b2IzTjAmY29yPTNRN041V0JzNTB1WW5fX1ZqRzRpdjRQa3BrdjJOZTFza1FnWjQ4QTZEU0E";
+		String serverParam = FIRST_TIME_QUERY.server;
 		// (correlatorFromServerParam, serverParam);
 
 		// Data from a real transaction with a long expiry
@@ -71,9 +77,9 @@ public class SqrlServerOperationsRealClientDataTest {
 		sqrlCorrelator.getTransientAuthDataTable().put(SqrlConstants.TRANSIENT_NAME_SERVER_PARROT, serverParam);
 		sqrlPersistence.closeCommit();
 
-		final String rawQueryParams = "client=dmVyPTENCmNtZD1xdWVyeQ0KaWRrPUNXNkVYRU1kY2xaYzNKRUpreV9Ld01GX0RoTWJrVjE1RTZRMTRweXFNTlkNCm9wdD1zdWsNCg"
+		final String rawQueryParams = "client=" + FIRST_TIME_QUERY.client
 				+ "&server=" + serverParam
-				+ "&ids=aFZSlUvZFwiqCN2ycjui1ZdSQwtjVRVGqPy6IB-GUHJeDsF03LatdAdJ5XFYNB_R85a0s_v6UHXVtIV4yMX-AA";
+				+ "&ids=" + FIRST_TIME_QUERY.ids;
 		// Emulate the login page generation
 		final MockHttpServletRequest queryRequest = TestCaseUtil.buildMockRequest(sqrlRequestUrl, rawQueryParams,
 				"129.112.177.225");
@@ -93,12 +99,12 @@ public class SqrlServerOperationsRealClientDataTest {
 
 		// Now simulate ident call
 		// 'server=' value :
-		serverParam = "dmVyPTENCm51dD1iZVFIOHU4VlZHMG9od1hLUUJhOWNBDQp0aWY9MA0KcXJ5PS9zcXJsZXhhbXBsZS9zcXJsYmM_bnV0PWJlUUg4dThWVkcwb2h3WEtRQmE5Y0EmY29yPTNRN041V0JzNTB1WW5fX1ZqRzRpdjRQa3BrdjJOZTFza1FnWjQ4QTZEU0ENCg";
+		serverParam = FIRST_TIME_IDENT.server;
 
 		// POST Data String:
-		final String rawIdentParams = "client=dmVyPTENCmNtZD1pZGVudA0KaWRrPUNXNkVYRU1kY2xaYzNKRUpreV9Ld01GX0RoTWJrVjE1RTZRMTRweXFNTlkNCnN1az1MeTQ3aFN2ellNTjJkQVkxb09UQXgwb3VOazVpZU5tRFVxVUV3b0xLVlFzDQp2dWs9bDFnS1JvNnRhRmgtMTlxTjlENE9mMjRMMXNmYkxLampaNE96cVV4MTZfOA0Kb3B0PXN1aw0K"
+		final String rawIdentParams = "client=" + FIRST_TIME_IDENT.client
 				+ "&server=" + serverParam
-				+ "&ids=P94csUjLIrSJTx21axMdEnR7GFJJ78lTIvJ9oGU1KIDu46ATteZFiK1up-RHLcIcZxA2V7MW9LGNUod7j2jmCg";
+				+ "&ids=" + FIRST_TIME_IDENT.ids;
 
 		final MockHttpServletRequest identRequest = TestCaseUtil.buildMockRequest(sqrlRequestUrl, rawIdentParams,
 				"229.179.39.232");
@@ -145,7 +151,7 @@ public class SqrlServerOperationsRealClientDataTest {
 		final String expectedPath = "/sqrlexample/sqrlbc";
 
 		final String correlatorFromServerParam = "jUJVUIpFWCP2PEMgivCIEme3d32GVH3UTafvAmL1Uqg";
-		String serverParam = "cXJsOi8vc3FybGphdmEudGVjaC9zcXJsZXhhbXBsZS9zcXJsYmM_bnV0PWVCbms4d3hyQ2RTX3VBMUwzX013Z3cmc2ZuPWMzRnliR3BoZG1FdWRHVmphQSZjb3I9alVKVlVJcEZXQ1AyUEVNZ2l2Q0lFbWUzZDMyR1ZIM1VUYWZ2QW1MMVVxZw";
+		String serverParam = BROWSER_AUTH_QUERY.server;
 		TestCaseUtil.setupSqrlPersistence(correlatorFromServerParam, serverParam);
 
 		// Data from a real transaction with a long expiry
@@ -157,9 +163,9 @@ public class SqrlServerOperationsRealClientDataTest {
 		// Store the server parrot
 		TestCaseUtil.setupSqrlPersistence(correlatorFromServerParam, serverParam);
 
-		final String rawQueryParams = "client=dmVyPTENCmNtZD1xdWVyeQ0KaWRrPW00NzBGYjhPM1hZOHhBcWxOMnBDTDBTb2txUFlOYXp3ZGM1c1Q2U0xuVU0NCm9wdD1zdWsNCg"
+		final String rawQueryParams = "client=" + BROWSER_AUTH_QUERY.client
 				+ "&server=" + serverParam
-				+ "&ids=ROkIkpNyMrUsaD_Y6JIioE1shQ18ddM7b_PWQ5xmtkjdiZ1NtOTri-zOpSj1qptmNjCuKfG-Cpll3tgF1dqvBg";
+				+ "&ids=" + BROWSER_AUTH_QUERY.ids;
 		// Emulate the login page generation
 		final MockHttpServletRequest queryRequest = TestCaseUtil.buildMockRequest(sqrlRequestUrl, rawQueryParams,
 				"141.119.117.205");
@@ -178,11 +184,11 @@ public class SqrlServerOperationsRealClientDataTest {
 		assertEquals("4", responseDataTable.get("tif"));
 
 		// Now sent ident
-		serverParam = "dmVyPTENCm51dD1UZjBoVWZXenpocG1zeEdyNS1kaDdRDQp0aWY9MA0KcXJ5PS9zcXJsZXhhbXBsZS9zcXJsYmM_bnV0PVRmMGhVZld6emhwbXN4R3I1LWRoN1EmY29yPWpVSlZVSXBGV0NQMlBFTWdpdkNJRW1lM2QzMkdWSDNVVGFmdkFtTDFVcWcNCg";
+		serverParam = BROWSER_AUTH_IDENT.server;
 
-		final String rawIdentParams = "client=dmVyPTENCmNtZD1pZGVudA0KaWRrPW00NzBGYjhPM1hZOHhBcWxOMnBDTDBTb2txUFlOYXp3ZGM1c1Q2U0xuVU0NCm9wdD1zdWsNCnN1az1jeTlYX2U1SGhoS3c1OGktNzdlNlFOX3A2NTFObjNHWWczQk1aUGU3ajBNDQp2dWs9NjlXM2hJYjhQZWtRVU03UmhrWkNHaHVEaHNBUVJpREpDRUQ3Q2VSMXgwOA0K"
+		final String rawIdentParams = "client=" + BROWSER_AUTH_IDENT.client
 				+ "&server=" + serverParam
-				+ "&ids=SFEHcCzTb_cnaMaInR3nFt-L_fguMGEEXHVRATq3naTlCJ6TCTfarjjYRH8HR-tua-k4HLiSVtvdLRKqM6KFDg";
+				+ "&ids=" + BROWSER_AUTH_IDENT.ids;
 
 		final MockHttpServletRequest identRequest = TestCaseUtil.buildMockRequest(sqrlRequestUrl, rawIdentParams);
 		servletResponse = new MockHttpServletResponse();
@@ -212,7 +218,7 @@ public class SqrlServerOperationsRealClientDataTest {
 		final String correlatorFromServerParam = "jUJVUIpFWCP2PEMgivCIEme3d32GVH3UTafvAmL1Uqg";
 		final String suk = "xyz";
 
-		String serverParam = "cXJsOi8vc3FybGphdmEudGVjaC9zcXJsZXhhbXBsZS9zcXJsYmM_bnV0PWVCbms4d3hyQ2RTX3VBMUwzX013Z3cmc2ZuPWMzRnliR3BoZG1FdWRHVmphQSZjb3I9alVKVlVJcEZXQ1AyUEVNZ2l2Q0lFbWUzZDMyR1ZIM1VUYWZ2QW1MMVVxZw";
+		String serverParam = BROWSER_AUTH_QUERY.server;
 
 		SqrlPersistence sqrlPersistence = TestCaseUtil.setupIdk(idk, correlatorFromServerParam, serverParam);
 		sqrlPersistence.storeSqrlDataForSqrlIdentity(idk,
@@ -226,9 +232,9 @@ public class SqrlServerOperationsRealClientDataTest {
 		final SqrlServerOperations sqrlServerOps = new SqrlServerOperations(config);
 		final SqrlClientFacingOperations clientFacingOperations = sqrlServerOps.clientFacingOperations();
 
-		final String rawQueryParams = "client=dmVyPTENCmNtZD1xdWVyeQ0KaWRrPW00NzBGYjhPM1hZOHhBcWxOMnBDTDBTb2txUFlOYXp3ZGM1c1Q2U0xuVU0NCm9wdD1zdWsNCg"
+		final String rawQueryParams = "client=" + BROWSER_AUTH_QUERY.client
 				+ "&server=" + serverParam
-				+ "&ids=ROkIkpNyMrUsaD_Y6JIioE1shQ18ddM7b_PWQ5xmtkjdiZ1NtOTri-zOpSj1qptmNjCuKfG-Cpll3tgF1dqvBg";
+				+ "&ids=" + BROWSER_AUTH_QUERY.ids;
 		// Emulate the login page generation
 		final MockHttpServletRequest queryRequest = TestCaseUtil.buildMockRequest(sqrlRequestUrl, rawQueryParams,
 				"141.119.117.205");
@@ -247,11 +253,11 @@ public class SqrlServerOperationsRealClientDataTest {
 		assertEquals("5", responseDataTable.get("tif"));
 
 		// Now the ident call
-		serverParam = "dmVyPTENCm51dD1UZjBoVWZXenpocG1zeEdyNS1kaDdRDQp0aWY9MA0KcXJ5PS9zcXJsZXhhbXBsZS9zcXJsYmM_bnV0PVRmMGhVZld6emhwbXN4R3I1LWRoN1EmY29yPWpVSlZVSXBGV0NQMlBFTWdpdkNJRW1lM2QzMkdWSDNVVGFmdkFtTDFVcWcNCg";
+		serverParam = BROWSER_AUTH_IDENT.server;
 
-		final String rawIdentParams = "client=dmVyPTENCmNtZD1pZGVudA0KaWRrPW00NzBGYjhPM1hZOHhBcWxOMnBDTDBTb2txUFlOYXp3ZGM1c1Q2U0xuVU0NCm9wdD1zdWsNCnN1az1jeTlYX2U1SGhoS3c1OGktNzdlNlFOX3A2NTFObjNHWWczQk1aUGU3ajBNDQp2dWs9NjlXM2hJYjhQZWtRVU03UmhrWkNHaHVEaHNBUVJpREpDRUQ3Q2VSMXgwOA0K"
+		final String rawIdentParams = "client=" + BROWSER_AUTH_IDENT.client
 				+ "&server=" + serverParam
-				+ "&ids=SFEHcCzTb_cnaMaInR3nFt-L_fguMGEEXHVRATq3naTlCJ6TCTfarjjYRH8HR-tua-k4HLiSVtvdLRKqM6KFDg";
+				+ "&ids=" + BROWSER_AUTH_IDENT.ids;
 		// Store the server parrot so request validation will pass
 		sqrlPersistence = TestCaseUtil.createSqrlPersistence();
 		sqrlPersistence.fetchSqrlCorrelatorRequired(correlatorFromServerParam).getTransientAuthDataTable()
@@ -285,7 +291,7 @@ public class SqrlServerOperationsRealClientDataTest {
 		final String correlatorFromServerParam = "AEgmrOWDhQk1amN9j8sjRwCXfnm7FjB5Wh6jrrTBd6k";
 		final String suk = "xyz";
 
-		String serverParam = "c3FybDovLzEyNy4wLjAuMTo4MDgyL3NxcmxleGFtcGxlL3NxcmxiYz9udXQ9ZGJSQTZ2ZUVuQjdPMkN1V1hoNmRKUSZzZm49Ykc5allXeG9iM04wTG1OdmJRJmNvcj1BRWdtck9XRGhRazFhbU45ajhzalJ3Q1hmbm03RmpCNVdoNmpyclRCZDZr";
+		String serverParam = CPS_AUTH_QUERY.server;
 
 		SqrlPersistence sqrlPersistence = TestCaseUtil.setupIdk(idk, correlatorFromServerParam, serverParam);
 		sqrlPersistence.storeSqrlDataForSqrlIdentity(idk,
@@ -303,9 +309,9 @@ public class SqrlServerOperationsRealClientDataTest {
 		final SqrlServerOperations sqrlServerOps = new SqrlServerOperations(config);
 		final SqrlClientFacingOperations clientFacingOperations = sqrlServerOps.clientFacingOperations();
 
-		final String rawQueryParams = "client=dmVyPTENCmNtZD1xdWVyeQ0KaWRrPTlPWDB1blFEd2NCTTZ6WXZtN1gyZ1dGNWh2UkVUdVJxVGdkdzBGV21jTk0NCnBpZGs9Q1NodHhOMGdRaEQ0Sm9sVUlaekh1cHVXYXhJTXJtRFl0VUJNNW9xb3E2WQ0Kb3B0PWNwc35zdWsNCg"
+		final String rawQueryParams = "client=" + CPS_AUTH_QUERY.client
 				+ "&server=" + serverParam
-				+ "&ids=xKpxHhhpviglCEnKgzVR8V75KIFhZjG93ulLO89TP1mkZNRLAoeQTh446YRkZv8zcgBOsqgm5wmLmMesDQ8dDQ";
+				+ "&ids=" + CPS_AUTH_QUERY.ids;
 		// Emulate the login page generation
 		final MockHttpServletRequest queryRequest = TestCaseUtil.buildMockRequest(sqrlRequestUrl, rawQueryParams,
 				"166.62.161.147");
@@ -324,11 +330,11 @@ public class SqrlServerOperationsRealClientDataTest {
 		assertEquals("5", responseDataTable.get("tif"));
 
 		// Now the ident call
-		serverParam = "dmVyPTENCm51dD1fWTJNMkJBQkI2MkkxV1JRaGE1MGhBDQp0aWY9NQ0KcXJ5PS9zcXJsZXhhbXBsZS9zcXJsYmM_bnV0PV9ZMk0yQkFCQjYySTFXUlFoYTUwaEEmY29yPUFFZ21yT1dEaFFrMWFtTjlqOHNqUndDWGZubTdGakI1V2g2anJyVEJkNmsNCnN1az1CT1hKZ2xMSEVOQUFaTU1KMWtWcjRmZ25vXzBueWR6cDhpSDJVZjh6NUdJDQo";
+		serverParam = CPS_AUTH_IDENT.server;
 
-		final String rawIdentParams = "client=dmVyPTENCmNtZD1pZGVudA0KaWRrPTlPWDB1blFEd2NCTTZ6WXZtN1gyZ1dGNWh2UkVUdVJxVGdkdzBGV21jTk0NCnBpZGs9Q1NodHhOMGdRaEQ0Sm9sVUlaekh1cHVXYXhJTXJtRFl0VUJNNW9xb3E2WQ0Kb3B0PWNwc35zdWsNCg"
+		final String rawIdentParams = "client=" + CPS_AUTH_IDENT.client
 				+ "&server=" + serverParam
-				+ "&ids=n4jzxR3kHScltt__wiZkkHnCaZwOxiY2HnA6E-zHyWNgZZRxj07Os-9PLNPO5j_mGPMnro2B3xFPAtH22aP2Dg";
+				+ "&ids=" + CPS_AUTH_IDENT.ids;
 		// Store the server parrot so request validation will pass
 		sqrlPersistence = TestCaseUtil.createSqrlPersistence();
 		final Map<String, String> transientAuthDataTable = sqrlPersistence.fetchSqrlCorrelatorRequired(correlatorFromServerParam).getTransientAuthDataTable();
@@ -0,0 +1,83 @@
+package com.github.sqrlserverjava.backchannel;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.github.sqrlserverjava.SqrlSignatureVerifier;
+import com.github.sqrlserverjava.util.SqrlEd25519Verifier;
+import com.github.sqrlserverjava.util.SqrlJdkEd25519Verifier;
+
+/**
+ * Compares the {@link SqrlSignatureVerifier} backends on the ids signatures of {@link SqrlRealClientSignatureVector}.
+ * The jdk backend needs a JRE with Ed25519 support (Java 15 or later), it is skipped otherwise.
+ * <p>
+ * Run via {@link #main(String[])} from the IDE or with the test classpath, it is not part of the unit test suite
+ *
+ * @author Dave Badia
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SqrlSignatureVerifierBenchmark {
+	@Param({ "i2p", "jdk" })
+	private String backend;
+
+	private SqrlSignatureVerifier			verifier;
+	private SqrlRealClientSignatureVector[]	vectors;
+	private byte[][]						signatures;
+	private byte[][]						messages;
+	private byte[][]						publicKeys;
+	private int								next;
+
+	@Setup
+	public void setUp() throws Exception {
+		if ("jdk".equals(backend)) {
+			if (!SqrlJdkEd25519Verifier.isAvailable()) {
+				throw new IllegalStateException("JRE does not support Ed25519");
+			}
+			verifier = new SqrlJdkEd25519Verifier();
+		} else {
+			verifier = new SqrlEd25519Verifier(SqrlEd25519Verifier.DEFAULT_MAX_CACHED_KEYS);
+		}
+		vectors = SqrlRealClientSignatureVector.values();
+		signatures = new byte[vectors.length][];
+		messages = new byte[vectors.length][];
+		publicKeys = new byte[vectors.length][];
+		for (int i = 0; i < vectors.length; i++) {
+			signatures[i] = vectors[i].getIdsSignature();
+			messages[i] = vectors[i].getMessage();
+			publicKeys[i] = vectors[i].getIdk();
+		}
+	}
+
+	@Benchmark
+	public boolean verify() throws Exception {
+		final int i = next++ % vectors.length;
+		if (!verifier.verify(signatures[i], messages[i], publicKeys[i])) {
+			throw new IllegalStateException("Signature did not verify for " + vectors[i]);
+		}
+		return true;
+	}
+
+	public static void main(final String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(SqrlSignatureVerifierBenchmark.class.getSimpleName()).build()).run();
+	}
+}
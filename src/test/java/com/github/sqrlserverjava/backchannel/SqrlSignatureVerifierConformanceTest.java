@@ -0,0 +1,120 @@
+package com.github.sqrlserverjava.backchannel;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.github.sqrlserverjava.ED25519Test;
+import com.github.sqrlserverjava.SqrlSignatureVerifier;
+import com.github.sqrlserverjava.exception.SqrlException;
+import com.github.sqrlserverjava.util.SqrlEd25519BatchVerifier;
+import com.github.sqrlserverjava.util.SqrlEd25519Verifier;
+import com.github.sqrlserverjava.util.SqrlJdkEd25519Verifier;
+
+/**
+ * Checks that every {@link SqrlSignatureVerifier} implementation gives the same result for the signatures of
+ * {@link SqrlRealClientSignatureVector} and for tampered copies of them. {@link SqrlJdkEd25519Verifier} is only
+ * included when the JRE running the tests supports Ed25519
+ */
+public class SqrlSignatureVerifierConformanceTest {
+
+	@Test
+	public void testRealClientSignatures_allAccept() throws Exception {
+		for (final SqrlSignatureVerifier verifier : buildVerifierList()) {
+			for (final SqrlRealClientSignatureVector vector : SqrlRealClientSignatureVector.values()) {
+				assertTrue(describe(verifier, vector),
+						verifier.verify(vector.getIdsSignature(), vector.getMessage(), vector.getIdk()));
+			}
+		}
+	}
+
+	@Test
+	public void testTamperedMessage_allReject() throws Exception {
+		for (final SqrlSignatureVerifier verifier : buildVerifierList()) {
+			for (final SqrlRealClientSignatureVector vector : SqrlRealClientSignatureVector.values()) {
+				final byte[] message = vector.getMessage();
+				message[message.length / 2] ^= 1;
+				assertFalse(describe(verifier, vector),
+						accepts(verifier, vector.getIdsSignature(), message, vector.getIdk()));
+			}
+		}
+	}
+
+	@Test
+	public void testTamperedSignature_allReject() throws Exception {
+		for (final SqrlSignatureVerifier verifier : buildVerifierList()) {
+			for (final SqrlRealClientSignatureVector vector : SqrlRealClientSignatureVector.values()) {
+				for (final int index : new int[] { 0, 31, 32, 63 }) {
+					final byte[] signature = vector.getIdsSignature();
+					signature[index] ^= 1;
+					assertFalse(describe(verifier, vector) + " byte " + index,
+							accepts(verifier, signature, vector.getMessage(), vector.getIdk()));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testWrongKey_allReject() throws Exception {
+		final byte[] otherKey = SqrlRealClientSignatureVector.CPS_AUTH_IDENT.getIdk();
+		for (final SqrlSignatureVerifier verifier : buildVerifierList()) {
+			final SqrlRealClientSignatureVector vector = SqrlRealClientSignatureVector.FIRST_TIME_QUERY;
+			assertFalse(describe(verifier, vector),
+					accepts(verifier, vector.getIdsSignature(), vector.getMessage(), otherKey));
+		}
+	}
+
+	@Test
+	public void testKnownAnswer_allAccept() throws Exception {
+		final byte[] message = "This is a secret message".getBytes(StandardCharsets.UTF_8);
+		final byte[] signature = ED25519Test.hexStringToByteArray(
+				"94825896c7075c31bcb81f06dba2bdcd9dcf16e79288d4b9f87c248215c8468d475f429f3de3b4a2cf67fe17077ae19686020364d6d4fa7a0174bab4a123ba0f");
+		final byte[] publicKey = ED25519Test
+				.hexStringToByteArray("3b6a27bcceb6a42d62a3a8d02a6f0d73653215771de243a63ac048a18b59da29");
+		for (final SqrlSignatureVerifier verifier : buildVerifierList()) {
+			assertTrue(verifier.getClass().getSimpleName(), verifier.verify(signature, message, publicKey));
+		}
+	}
+
+	@Test
+	public void testJdkVerifier() throws Exception {
+		Assume.assumeTrue("JRE does not support Ed25519", SqrlJdkEd25519Verifier.isAvailable());
+		final List<SqrlSignatureVerifier> verifierList = buildVerifierList();
+		assertEquals(SqrlJdkEd25519Verifier.class, verifierList.get(verifierList.size() - 1).getClass());
+	}
+
+	private static List<SqrlSignatureVerifier> buildVerifierList() {
+		final List<SqrlSignatureVerifier> verifierList = new ArrayList<>();
+		verifierList.add(new SqrlEd25519Verifier(SqrlEd25519Verifier.DEFAULT_MAX_CACHED_KEYS));
+		verifierList.add(new SqrlEd25519BatchVerifier(new SqrlEd25519Verifier(SqrlEd25519Verifier.DEFAULT_MAX_CACHED_KEYS),
+				new SecureRandom(), 1, 64));
+		if (SqrlJdkEd25519Verifier.isAvailable()) {
+			verifierList.add(new SqrlJdkEd25519Verifier());
+		}
+		return verifierList;
+	}
+
+	/**
+	 * An implementation may reject invalid input by returning false or by throwing {@link SqrlException}
+	 */
+	private static boolean accepts(final SqrlSignatureVerifier verifier, final byte[] signature, final byte[] message,
+			final byte[] publicKey) {
+		try {
+			return verifier.verify(signature, message, publicKey);
+		} catch (final SqrlException e) {
+			return false;
+		}
+	}
+
+	private static String describe(final SqrlSignatureVerifier verifier, final SqrlRealClientSignatureVector vector) {
+		return verifier.getClass().getSimpleName() + " " + vector;
+	}
+}
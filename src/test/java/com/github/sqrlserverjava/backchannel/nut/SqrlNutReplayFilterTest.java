@@ -0,0 +1,47 @@
+package com.github.sqrlserverjava.backchannel.nut;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class SqrlNutReplayFilterTest {
+	private static final long VALIDITY_MILLIS = TimeUnit.SECONDS.toMillis(60);
+
+	@Test
+	public void testAddedTokenFound() {
+		final SqrlNutReplayFilter filter = new SqrlNutReplayFilter(60);
+		final long expiresAt = System.currentTimeMillis() + VALIDITY_MILLIS;
+		filter.add("nut1", expiresAt);
+		assertTrue(filter.contains("nut1"));
+		assertFalse(filter.contains("nut2"));
+	}
+
+	@Test
+	public void testExpiredTokenNotAdded() {
+		final SqrlNutReplayFilter filter = new SqrlNutReplayFilter(60);
+		filter.add("nut1", System.currentTimeMillis() - VALIDITY_MILLIS);
+		assertFalse(filter.contains("nut1"));
+		assertEquals(0, filter.bucketCount());
+	}
+
+	@Test
+	public void testExpiredBucketsDropped() throws InterruptedException {
+		final SqrlNutReplayFilter filter = new SqrlNutReplayFilter(1);
+		final long now = System.currentTimeMillis();
+		filter.add("nut1", now + 10);
+		filter.add("nut2", now + TimeUnit.HOURS.toMillis(1));
+		assertEquals(2, filter.bucketCount());
+		// Once nut1 has expired its bucket is removed on the next add
+		Thread.sleep(10 + TimeUnit.SECONDS.toMillis(1));
+		assertFalse(filter.contains("nut1"));
+		filter.add("nut3", System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1));
+		// nut2 and nut3 are in separate buckets
+		assertEquals(2, filter.bucketCount());
+		assertTrue(filter.contains("nut2"));
+		assertTrue(filter.contains("nut3"));
+	}
+}
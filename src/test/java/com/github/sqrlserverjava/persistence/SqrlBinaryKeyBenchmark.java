@@ -0,0 +1,162 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.security.SecureRandom;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.sqrlserverjava.util.SqrlUtil;
+
+/**
+ * Compares string key columns with the binary key columns of {@link SqrlBinaryKeyCodec} for idks, correlators and nut
+ * tokens, on an embedded derby database holding {@link #rowCount} keys with a unique index. The size of the index is
+ * logged when the trial starts, the benchmark measures a lookup by key including the conversion to binary
+ * <p>
+ * Run via {@link #main(String[])} from the IDE or with the test classpath, it is not part of the unit test suite
+ *
+ * @author Dave Badia
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SqrlBinaryKeyBenchmark {
+	private static final Logger logger = LoggerFactory.getLogger(SqrlBinaryKeyBenchmark.class);
+
+	@Param({ "idk", "correlator", "nut" })
+	private String keyType;
+
+	@Param({ "string", "binary" })
+	private String column;
+
+	@Param({ "200000" })
+	private int rowCount;
+
+	private String[]			keyArray;
+	private boolean				binary;
+	private EmbeddedDataSource	dataSource;
+	private Connection			connection;
+	private PreparedStatement	select;
+
+	@Setup(Level.Trial)
+	public void setUp() throws SQLException {
+		binary = "binary".equals(column);
+		dataSource = new EmbeddedDataSource();
+		dataSource.setDatabaseName("memory:sqrlkeybenchmark");
+		dataSource.setCreateDatabase("create");
+		connection = dataSource.getConnection();
+		try (Statement statement = connection.createStatement()) {
+			statement.execute("CREATE TABLE benchmark_key (id BIGINT NOT NULL, value "
+					+ (binary ? "VARCHAR(64) FOR BIT DATA" : "VARCHAR(255)") + " NOT NULL, PRIMARY KEY (id))");
+			statement.execute("CREATE UNIQUE INDEX benchmark_key_value ON benchmark_key (value)");
+		}
+		keyArray = new String[rowCount];
+		final SecureRandom random = new SecureRandom();
+		connection.setAutoCommit(false);
+		try (PreparedStatement insert = connection
+				.prepareStatement("INSERT INTO benchmark_key (id, value) VALUES (?, ?)")) {
+			for (int i = 0; i < rowCount; i++) {
+				keyArray[i] = buildKey(random);
+				insert.setLong(1, i);
+				insert.setObject(2, toColumn(keyArray[i]));
+				insert.addBatch();
+				if (i % 1000 == 999) {
+					insert.executeBatch();
+				}
+			}
+			insert.executeBatch();
+		}
+		connection.commit();
+		logger.info("process=benchmark detail=\"{} {} unique index: {} KiB for {} keys\"", keyType, column,
+				fetchIndexSizeBytes() / 1024, rowCount);
+		select = connection.prepareStatement("SELECT id FROM benchmark_key WHERE value = ?");
+	}
+
+	private String buildKey(final SecureRandom random) {
+		switch (keyType) {
+			case "idk":
+				final byte[] publicKey = new byte[32];
+				random.nextBytes(publicKey);
+				return SqrlUtil.sqrlBase64UrlEncode(publicKey);
+			case "correlator":
+				return UUID.randomUUID().toString();
+			case "nut":
+				final byte[] nut = new byte[16];
+				random.nextBytes(nut);
+				return SqrlUtil.sqrlBase64UrlEncode(nut);
+			default:
+				throw new IllegalArgumentException("Unknown keyType " + keyType);
+		}
+	}
+
+	private Object toColumn(final String key) {
+		return binary ? SqrlBinaryKeyCodec.encode(key) : key;
+	}
+
+	private long fetchIndexSizeBytes() throws SQLException {
+		try (Statement statement = connection.createStatement();
+				ResultSet resultSet = statement.executeQuery("SELECT NUMALLOCATEDPAGES * PAGESIZE "
+						+ "FROM TABLE (SYSCS_DIAG.SPACE_TABLE('APP', 'BENCHMARK_KEY')) s "
+						+ "WHERE CONGLOMERATENAME = 'BENCHMARK_KEY_VALUE'")) {
+			resultSet.next();
+			return resultSet.getLong(1);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws SQLException {
+		select.close();
+		// The lookups run in the transaction left open by setAutoCommit(false), derby won't close the connection with it
+		connection.rollback();
+		connection.close();
+		final EmbeddedDataSource dropDataSource = new EmbeddedDataSource();
+		dropDataSource.setDatabaseName("memory:sqrlkeybenchmark");
+		dropDataSource.setConnectionAttributes("drop=true");
+		try {
+			dropDataSource.getConnection();
+		} catch (final SQLException e) {
+			// Derby reports a successful drop as an exception
+		}
+	}
+
+	@Benchmark
+	public long lookupByKey() throws SQLException {
+		select.setObject(1, toColumn(keyArray[ThreadLocalRandom.current().nextInt(rowCount)]));
+		try (ResultSet resultSet = select.executeQuery()) {
+			resultSet.next();
+			return resultSet.getLong(1);
+		}
+	}
+
+	public static void main(final String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(SqrlBinaryKeyBenchmark.class.getSimpleName()).build()).run();
+	}
+}
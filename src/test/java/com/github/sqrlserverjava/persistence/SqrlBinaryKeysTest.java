@@ -0,0 +1,226 @@
+package com.github.sqrlserverjava.persistence;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNotNull;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.TestCaseUtil;
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+import com.github.sqrlserverjava.exception.SqrlPersistenceException;
+
+public class SqrlBinaryKeysTest {
+	private static final String BINARY_PERSISTENCE_UNIT_NAME = "javasqrl-persistence-binary";
+
+	// A real idk is the base64url of a 32 byte public key, a nut token the base64url of a 16 byte block
+	private static final String	IDK			= "m470Fb8O3XY8xAqlN2pCL0SokqPYNazwdc5sT6SLnUM";
+	private static final String	NUT_TOKEN	= "xr2BdMuMrD0dKgUZ4PqxPQ";
+
+	private EmbeddedDataSource			dataSource;
+	private Supplier<SqrlPersistence>	jpaFactory;
+	private Supplier<SqrlPersistence>	jdbcFactory;
+
+	@Before
+	public void setUp() throws Exception {
+		dataSource = new EmbeddedDataSource();
+		dataSource.setDatabaseName("memory:sqrlbinary");
+		dataSource.setCreateDatabase("create");
+		// JPA schema generation would create BLOB columns, so create the key columns first
+		createTableIfMissing("CREATE TABLE sqrl_identity (id BIGINT NOT NULL, idk VARCHAR(64) FOR BIT DATA NOT NULL, "
+				+ "native_user_xref VARCHAR(255), PRIMARY KEY (id), UNIQUE (idk))");
+		createTableIfMissing("CREATE TABLE sqrl_correlator (id BIGINT NOT NULL, authenticationStatus VARCHAR(1000) "
+				+ "NOT NULL, expiryTime TIMESTAMP NOT NULL, value VARCHAR(64) FOR BIT DATA NOT NULL, "
+				+ "authenticated_identity BIGINT, PRIMARY KEY (id), UNIQUE (value))");
+		createTableIfMissing("CREATE TABLE sqrl_used_nut_token (value VARCHAR(64) FOR BIT DATA NOT NULL, "
+				+ "expiryTime TIMESTAMP NOT NULL, PRIMARY KEY (value))");
+		final EntityManagerFactory entityManagerFactory = SqrlJpaEntityManagerFactoryRegistry
+				.get(BINARY_PERSISTENCE_UNIT_NAME);
+		// Creates the rest of the schema
+		entityManagerFactory.createEntityManager().close();
+		jpaFactory = () -> new SqrlJpaPersistenceProvider(entityManagerFactory);
+		jdbcFactory = new SqrlJdbcPersistenceFactory(dataSource, 1, false, false, true)::createSqrlPersistence;
+		try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+			statement.executeUpdate("DELETE FROM sqrl_transient_auth_data");
+			statement.executeUpdate("DELETE FROM sqrl_correlator");
+			statement.executeUpdate("DELETE FROM sqrl_identity_flag");
+			statement.executeUpdate("DELETE FROM sqrl_identity");
+			statement.executeUpdate("DELETE FROM sqrl_used_nut_token");
+		}
+	}
+
+	private void createTableIfMissing(final String createSql) throws SQLException {
+		try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+			statement.executeUpdate(createSql);
+		} catch (final SQLException e) {
+			// X0Y32 is table already exists
+			if (!"X0Y32".equals(e.getSQLState())) {
+				throw e;
+			}
+		}
+	}
+
+	@After
+	public void tearDown() {
+		SqrlJpaEntityManagerFactoryRegistry.closeAll();
+	}
+
+	@Test
+	public void testCodecRoundTrip() {
+		final String correlator = UUID.randomUUID().toString();
+		assertEquals(17, SqrlBinaryKeyCodec.encode(correlator).length);
+		assertEquals(SqrlBinaryKeyCodec.TYPE_UUID, SqrlBinaryKeyCodec.encode(correlator)[0]);
+		assertEquals(33, SqrlBinaryKeyCodec.encode(IDK).length);
+		assertEquals(17, SqrlBinaryKeyCodec.encode(NUT_TOKEN).length);
+		// Not the canonical UUID form, but still valid base64url
+		final String upperCaseUuid = correlator.toUpperCase();
+		// Not the exact encoding of its bytes, so stored as UTF-8
+		final String nonZeroTrailingBits = "abd";
+		for (final String key : Arrays.asList(correlator, IDK, NUT_TOKEN, upperCaseUuid, nonZeroTrailingBits, "abc",
+				"a", "", "token1", "ü:/=+")) {
+			assertEquals(key, SqrlBinaryKeyCodec.decode(SqrlBinaryKeyCodec.encode(key)));
+		}
+		assertEquals(SqrlBinaryKeyCodec.TYPE_BASE64URL, SqrlBinaryKeyCodec.encode(upperCaseUuid)[0]);
+		assertEquals(SqrlBinaryKeyCodec.TYPE_UTF8, SqrlBinaryKeyCodec.encode(nonZeroTrailingBits)[0]);
+	}
+
+	@Test
+	public void testCodecRejectsUnknownType() {
+		try {
+			SqrlBinaryKeyCodec.decode(new byte[] { 9, 1, 2 });
+			fail("Exception expected");
+		} catch (final SqrlPersistenceException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testJpaBinaryKeys() throws Exception {
+		verifyStoredAsBinary(jpaFactory, jpaFactory);
+	}
+
+	@Test
+	public void testJdbcBinaryKeys() throws Exception {
+		verifyStoredAsBinary(jdbcFactory, jdbcFactory);
+	}
+
+	@Test
+	public void testJdbcReadsJpaBinaryKeys() throws Exception {
+		verifyStoredAsBinary(jpaFactory, jdbcFactory);
+		verifyStoredAsBinary(jdbcFactory, jpaFactory);
+	}
+
+	@Test
+	public void testJdbcNutTokens() throws Exception {
+		SqrlPersistence sqrlPersistence = jdbcFactory.get();
+		assertFalse(sqrlPersistence.hasTokenBeenUsed(NUT_TOKEN));
+		sqrlPersistence.markTokenAsUsed(NUT_TOKEN, TestCaseUtil.AWHILE_FROM_NOW);
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = jdbcFactory.get();
+		assertTrue(sqrlPersistence.hasTokenBeenUsed(NUT_TOKEN));
+		try {
+			sqrlPersistence.markTokenAsUsed(NUT_TOKEN, TestCaseUtil.AWHILE_FROM_NOW);
+			fail("Exception expected");
+		} catch (final SqrlPersistenceException e) {
+			// Expected
+		} finally {
+			sqrlPersistence.closeRollback();
+		}
+		assertKeyColumn("SELECT value FROM sqrl_used_nut_token", NUT_TOKEN);
+	}
+
+	@Test
+	public void testIdkMigration() throws Exception {
+		final EmbeddedDataSource migrationDataSource = new EmbeddedDataSource();
+		migrationDataSource.setDatabaseName("memory:sqrlbinarymigration");
+		migrationDataSource.setCreateDatabase("create");
+		try (Connection connection = migrationDataSource.getConnection();
+				Statement statement = connection.createStatement()) {
+			statement.executeUpdate("CREATE TABLE sqrl_identity (id BIGINT NOT NULL, idk VARCHAR(255) NOT NULL, "
+					+ "idk_binary VARCHAR(64) FOR BIT DATA, PRIMARY KEY (id))");
+			for (int i = 1; i <= 5; i++) {
+				statement.executeUpdate("INSERT INTO sqrl_identity (id, idk) VALUES (" + i + ", 'idk" + i + "')");
+			}
+		}
+		assertEquals(5, SqrlBinaryKeyMigration.migrateIdks(migrationDataSource, 2));
+		try (Connection connection = migrationDataSource.getConnection();
+				Statement statement = connection.createStatement();
+				ResultSet resultSet = statement.executeQuery("SELECT idk, idk_binary FROM sqrl_identity")) {
+			int count = 0;
+			while (resultSet.next()) {
+				assertEquals(resultSet.getString(1), SqrlBinaryKeyCodec.decode(resultSet.getBytes(2)));
+				count++;
+			}
+			assertEquals(5, count);
+		}
+	}
+
+	private void verifyStoredAsBinary(final Supplier<SqrlPersistence> writeFactory,
+			final Supplier<SqrlPersistence> readFactory) throws SQLException {
+		final String correlator = UUID.randomUUID().toString();
+		SqrlPersistence sqrlPersistence = writeFactory.get();
+		sqrlPersistence.createAndEnableSqrlIdentity(IDK);
+		sqrlPersistence.createCorrelator(correlator, TestCaseUtil.AWHILE_FROM_NOW);
+		sqrlPersistence.createCorrelator("abc", TestCaseUtil.AWHILE_FROM_NOW);
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = writeFactory.get();
+		sqrlPersistence.userAuthenticatedViaSqrl(IDK, correlator);
+		sqrlPersistence.closeCommit();
+
+		assertKeyColumn("SELECT idk FROM sqrl_identity", IDK);
+		assertKeyColumn("SELECT value FROM sqrl_correlator WHERE authenticated_identity IS NOT NULL", correlator);
+
+		sqrlPersistence = readFactory.get();
+		assertTrue(sqrlPersistence.doesSqrlIdentityExistByIdk(IDK));
+		final SqrlCorrelator sqrlCorrelator = sqrlPersistence.fetchSqrlCorrelatorRequired(correlator);
+		assertEquals(correlator, sqrlCorrelator.getCorrelatorString());
+		assertEquals(IDK, sqrlCorrelator.getAuthenticatedIdentity().getIdk());
+		final Map<String, SqrlCorrelator> detachedTable = sqrlPersistence
+				.fetchSqrlCorrelatorsDetached(new HashSet<>(Arrays.asList(correlator, "abc")));
+		assertEquals(2, detachedTable.size());
+		assertEquals(IDK, detachedTable.get(correlator).getAuthenticatedIdentity().getIdk());
+		assertNotNull(detachedTable.get("abc"));
+		assertEquals(SqrlAuthenticationStatus.AUTHENTICATED_BROWSER,
+				sqrlPersistence
+				.fetchSqrlCorrelatorStatusUpdates(
+						Collections.singletonMap(correlator, SqrlAuthenticationStatus.CORRELATOR_ISSUED))
+				.get(correlator));
+		sqrlPersistence.deleteSqrlCorrelator(sqrlCorrelator);
+		sqrlPersistence.deleteSqrlCorrelator(sqrlPersistence.fetchSqrlCorrelatorRequired("abc"));
+		sqrlPersistence.closeCommit();
+		sqrlPersistence = readFactory.get();
+		sqrlPersistence.deleteSqrlIdentity(IDK);
+		sqrlPersistence.closeCommit();
+	}
+
+	private void assertKeyColumn(final String selectSql, final String expected) throws SQLException {
+		try (Connection connection = dataSource.getConnection();
+				PreparedStatement statement = connection.prepareStatement(selectSql);
+				ResultSet resultSet = statement.executeQuery()) {
+			assertTrue(resultSet.next());
+			assertTrue(Arrays.equals(SqrlBinaryKeyCodec.encode(expected), resultSet.getBytes(1)));
+		}
+	}
+}
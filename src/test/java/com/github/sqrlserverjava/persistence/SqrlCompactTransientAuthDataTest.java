@@ -0,0 +1,184 @@
+package com.github.sqrlserverjava.persistence;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.TestCaseUtil;
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+import com.github.sqrlserverjava.exception.SqrlPersistenceException;
+
+public class SqrlCompactTransientAuthDataTest {
+	private static final String COMPACT_PERSISTENCE_UNIT_NAME = "javasqrl-persistence-compact";
+
+	private EmbeddedDataSource		dataSource;
+	private Supplier<SqrlPersistence>	jpaFactory;
+	private Supplier<SqrlPersistence>	jdbcFactory;
+
+	@Before
+	public void setUp() throws Exception {
+		final EntityManagerFactory entityManagerFactory = SqrlJpaEntityManagerFactoryRegistry
+				.get(COMPACT_PERSISTENCE_UNIT_NAME);
+		// Creates the schema
+		entityManagerFactory.createEntityManager().close();
+		jpaFactory = () -> new SqrlJpaPersistenceProvider(entityManagerFactory);
+		dataSource = new EmbeddedDataSource();
+		dataSource.setDatabaseName("memory:sqrlcompact");
+		jdbcFactory = new SqrlJdbcPersistenceFactory(dataSource, 1, true)::createSqrlPersistence;
+		try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+			statement.executeUpdate("DELETE FROM sqrl_correlator");
+		}
+	}
+
+	@After
+	public void tearDown() {
+		SqrlJpaEntityManagerFactoryRegistry.closeAll();
+	}
+
+	@Test
+	public void testCodecRoundTrip() {
+		final Map<String, String> table = new HashMap<>();
+		table.put("parrot", "abc");
+		table.put("12:34", "5:x:");
+		table.put("empty", "");
+		final String encoded = SqrlTransientAuthDataCodec.encode(table);
+		assertEquals(table, SqrlTransientAuthDataCodec.decode(encoded));
+		assertNull(SqrlTransientAuthDataCodec.encode(new HashMap<>()));
+		assertTrue(SqrlTransientAuthDataCodec.decode(null).isEmpty());
+	}
+
+	@Test
+	public void testCodecRejectsTruncatedData() {
+		try {
+			SqrlTransientAuthDataCodec.decode("6:parrot3:ab");
+			fail("Exception expected");
+		} catch (final SqrlPersistenceException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testJpaCompactMapping() throws Exception {
+		verifyStoredInCorrelatorRow(jpaFactory, jpaFactory);
+	}
+
+	@Test
+	public void testJdbcCompactMapping() throws Exception {
+		verifyStoredInCorrelatorRow(jdbcFactory, jdbcFactory);
+	}
+
+	@Test
+	public void testJdbcReadsJpaCompactMapping() throws Exception {
+		verifyStoredInCorrelatorRow(jpaFactory, jdbcFactory);
+		verifyStoredInCorrelatorRow(jdbcFactory, jpaFactory);
+	}
+
+	@Test
+	public void testJpaNotDecodedUnlessRead() {
+		verifyNotDecodedUnlessRead(jpaFactory);
+	}
+
+	@Test
+	public void testJdbcNotDecodedUnlessRead() {
+		verifyNotDecodedUnlessRead(jdbcFactory);
+	}
+
+	@Test
+	public void testJpaCleanUpExpiredEntries() {
+		verifyCleanUpExpiredEntries(jpaFactory);
+	}
+
+	@Test
+	public void testJdbcCleanUpExpiredEntries() {
+		verifyCleanUpExpiredEntries(jdbcFactory);
+	}
+
+	private void verifyCleanUpExpiredEntries(final Supplier<SqrlPersistence> factory) {
+		SqrlPersistence sqrlPersistence = factory.get();
+		sqrlPersistence.createCorrelator("expired", new Date(System.currentTimeMillis() - 1000))
+		.getTransientAuthDataTable().put("parrot", "123");
+		sqrlPersistence.createCorrelator("keep", TestCaseUtil.AWHILE_FROM_NOW).getTransientAuthDataTable()
+		.put("parrot", "456");
+		sqrlPersistence.closeCommit();
+
+		// Must not touch sqrl_transient_auth_data, which doesn't exist with the compact mapping
+		sqrlPersistence = factory.get();
+		final SqrlPersistenceCleanupResult result = sqrlPersistence.cleanUpExpiredEntries(Integer.MAX_VALUE);
+		sqrlPersistence.closeCommit();
+		assertEquals(1, result.getCorrelatorCount());
+		assertEquals(0, result.getTransientAuthDataCount());
+
+		sqrlPersistence = factory.get();
+		assertNull(sqrlPersistence.fetchSqrlCorrelator("expired"));
+		assertEquals("456", sqrlPersistence.fetchTransientAuthData("keep", "parrot"));
+		sqrlPersistence.closeCommit();
+	}
+
+	private void verifyNotDecodedUnlessRead(final Supplier<SqrlPersistence> factory) {
+		SqrlPersistence sqrlPersistence = factory.get();
+		sqrlPersistence.createCorrelator("abc", TestCaseUtil.AWHILE_FROM_NOW).getTransientAuthDataTable()
+		.put("parrot", "123");
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = factory.get();
+		final SqrlCorrelator sqrlCorrelator = sqrlPersistence.fetchSqrlCorrelatorRequired("abc");
+		assertFalse(sqrlCorrelator.isTransientAuthDataDecoded());
+		sqrlCorrelator.setAuthenticationStatus(SqrlAuthenticationStatus.COMMUNICATING);
+		sqrlPersistence.closeCommit();
+		assertFalse(sqrlCorrelator.isTransientAuthDataDecoded());
+
+		sqrlPersistence = factory.get();
+		assertEquals("123", sqrlPersistence.fetchTransientAuthData("abc", "parrot"));
+		assertEquals(SqrlAuthenticationStatus.COMMUNICATING,
+				sqrlPersistence.fetchSqrlCorrelatorRequired("abc").getAuthenticationStatus());
+		sqrlPersistence.closeCommit();
+	}
+
+	private void verifyStoredInCorrelatorRow(final Supplier<SqrlPersistence> writeFactory,
+			final Supplier<SqrlPersistence> readFactory) throws SQLException {
+		SqrlPersistence sqrlPersistence = writeFactory.get();
+		final SqrlCorrelator created = sqrlPersistence.createCorrelator("abc", TestCaseUtil.AWHILE_FROM_NOW);
+		created.getTransientAuthDataTable().put("parrot", "123");
+		created.getTransientAuthDataTable().put("entry", "http://127.0.0.1:8080/login");
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = writeFactory.get();
+		sqrlPersistence.fetchSqrlCorrelatorRequired("abc").getTransientAuthDataTable().put("parrot", "456");
+		sqrlPersistence.closeCommit();
+
+		// The compact mapping doesn't generate sqrl_transient_auth_data at all
+		try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement();
+				ResultSet resultSet = statement
+				.executeQuery("SELECT transient_auth_data FROM sqrl_correlator WHERE value = 'abc'")) {
+			resultSet.next();
+			assertEquals(2, SqrlTransientAuthDataCodec.decode(resultSet.getString(1)).size());
+			assertTrue(resultSet.getString(1).contains("6:parrot3:456"));
+		}
+
+		sqrlPersistence = readFactory.get();
+		final SqrlCorrelator sqrlCorrelator = sqrlPersistence.fetchSqrlCorrelatorRequired("abc");
+		assertEquals("456", sqrlCorrelator.getTransientAuthDataTable().get("parrot"));
+		assertEquals("http://127.0.0.1:8080/login", sqrlCorrelator.getTransientAuthDataTable().get("entry"));
+		sqrlPersistence.deleteSqrlCorrelator(sqrlCorrelator);
+		sqrlPersistence.closeCommit();
+	}
+}
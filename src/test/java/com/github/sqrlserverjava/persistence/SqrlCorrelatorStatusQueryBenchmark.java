@@ -0,0 +1,118 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.SqrlPersistenceFactory;
+import com.github.sqrlserverjava.TestCaseUtil;
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+import com.github.sqrlserverjava.util.SqrlConstants;
+
+/**
+ * Measures one {@code AuthStateMonitor} poll, {@link SqrlPersistence#fetchSqrlCorrelatorStatusUpdates(Map)}, with a
+ * varying number of monitored correlators on the embedded derby test database. Every 10th correlator has changed
+ * state since the browser last saw it, the rest are unchanged
+ * <p>
+ * Run via {@link #main(String[])} from the IDE or with the test classpath, it is not part of the unit test suite
+ *
+ * @author Dave Badia
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SqrlCorrelatorStatusQueryBenchmark {
+	@Param({ "10", "1000", "50000" })
+	private int monitoredCount;
+
+	@Param({ "jpa", "jdbc" })
+	private String provider;
+
+	private final Map<String, SqrlAuthenticationStatus>	monitorTable	= new HashMap<>();
+	private SqrlPersistenceFactory						persistenceFactory;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		TestCaseUtil.createEmptySqrlPersistence().closeCommit();
+		final DataSource dataSource = TestCaseUtil.buildDerbyDataSource();
+		persistenceFactory = "jdbc".equals(provider) ? new SqrlJdbcPersistenceFactory(dataSource)
+				: new SqrlJpaPersistenceFactory();
+		// Bulk insert directly, creating this many rows through the providers takes far too long
+		final Timestamp expiryTime = new Timestamp(TestCaseUtil.AWHILE_FROM_NOW.getTime());
+		try (Connection connection = dataSource.getConnection();
+				PreparedStatement insertCorrelator = connection.prepareStatement(
+						"INSERT INTO sqrl_correlator (id, value, authenticationStatus, expiryTime) VALUES (?, ?, ?, ?)");
+				PreparedStatement insertData = connection.prepareStatement(
+						"INSERT INTO sqrl_transient_auth_data (id, name, value) VALUES (?, ?, ?)")) {
+			// The JPA generated test schema lacks the unique index on value which is in datastore/sqrl.ddl
+			try (Statement statement = connection.createStatement()) {
+				statement.execute("CREATE UNIQUE INDEX sqrl_correlator_value ON sqrl_correlator (value)");
+			}
+			connection.setAutoCommit(false);
+			for (int i = 0; i < monitoredCount; i++) {
+				final SqrlAuthenticationStatus status = i % 10 == 0 ? SqrlAuthenticationStatus.COMMUNICATING
+						: SqrlAuthenticationStatus.CORRELATOR_ISSUED;
+				insertCorrelator.setLong(1, i + 1000L);
+				insertCorrelator.setString(2, "correlator" + i);
+				insertCorrelator.setString(3, status.toString());
+				insertCorrelator.setTimestamp(4, expiryTime);
+				insertCorrelator.addBatch();
+				insertData.setLong(1, i + 1000L);
+				insertData.setString(2, SqrlConstants.TRANSIENT_NAME_SERVER_PARROT);
+				insertData.setString(3, "parrot" + i);
+				insertData.addBatch();
+				monitorTable.put("correlator" + i, SqrlAuthenticationStatus.CORRELATOR_ISSUED);
+			}
+			insertCorrelator.executeBatch();
+			insertData.executeBatch();
+			connection.commit();
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		SqrlJpaEntityManagerFactoryRegistry.closeAll();
+	}
+
+	@Benchmark
+	public Map<String, SqrlAuthenticationStatus> pollStatusUpdates() {
+		final SqrlPersistence sqrlPersistence = persistenceFactory.createSqrlPersistence();
+		final Map<String, SqrlAuthenticationStatus> resultTable = sqrlPersistence
+				.fetchSqrlCorrelatorStatusUpdates(monitorTable);
+		sqrlPersistence.closeCommit();
+		return resultTable;
+	}
+
+	public static void main(final String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(SqrlCorrelatorStatusQueryBenchmark.class.getSimpleName()).build())
+		.run();
+	}
+}
@@ -0,0 +1,203 @@
+package com.github.sqrlserverjava.persistence;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.TestCaseUtil;
+import com.github.sqrlserverjava.enums.SqrlIdentityFlag;
+import com.github.sqrlserverjava.exception.SqrlPersistenceException;
+
+public class SqrlDenormalizedIdentityTest {
+	private static final String DENORMALIZED_PERSISTENCE_UNIT_NAME = "javasqrl-persistence-denormalized";
+
+	private EmbeddedDataSource			dataSource;
+	private Supplier<SqrlPersistence>	jpaFactory;
+	private Supplier<SqrlPersistence>	jdbcFactory;
+
+	@Before
+	public void setUp() throws Exception {
+		final EntityManagerFactory entityManagerFactory = SqrlJpaEntityManagerFactoryRegistry
+				.get(DENORMALIZED_PERSISTENCE_UNIT_NAME);
+		// Creates the schema
+		entityManagerFactory.createEntityManager().close();
+		jpaFactory = () -> new SqrlJpaPersistenceProvider(entityManagerFactory);
+		dataSource = new EmbeddedDataSource();
+		dataSource.setDatabaseName("memory:sqrldenormalized");
+		jdbcFactory = new SqrlJdbcPersistenceFactory(dataSource, 1, false, true)::createSqrlPersistence;
+		try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+			statement.executeUpdate("DELETE FROM sqrl_correlator");
+			statement.executeUpdate("DELETE FROM sqrl_identity");
+		}
+	}
+
+	@After
+	public void tearDown() {
+		SqrlJpaEntityManagerFactoryRegistry.closeAll();
+	}
+
+	@Test
+	public void testFlagBitsRoundTrip() {
+		assertEquals(0, SqrlIdentity.toFlagBits(EnumSet.noneOf(SqrlIdentityFlag.class)));
+		assertEquals(5, SqrlIdentity.toFlagBits(EnumSet.of(SqrlIdentityFlag.SQRL_AUTH_ENABLED, SqrlIdentityFlag.SQRLONLY)));
+		for (int flagBits = 0; flagBits < 1 << SqrlIdentityFlag.values().length; flagBits++) {
+			assertEquals(flagBits, SqrlIdentity.toFlagBits(SqrlIdentity.fromFlagBits(flagBits)));
+		}
+	}
+
+	@Test
+	public void testJpaDenormalizedLayout() throws Exception {
+		verifyStoredInIdentityRow(jpaFactory, jpaFactory);
+	}
+
+	@Test
+	public void testJdbcDenormalizedLayout() throws Exception {
+		verifyStoredInIdentityRow(jdbcFactory, jdbcFactory);
+	}
+
+	@Test
+	public void testJdbcReadsJpaDenormalizedLayout() throws Exception {
+		verifyStoredInIdentityRow(jpaFactory, jdbcFactory);
+		verifyStoredInIdentityRow(jdbcFactory, jpaFactory);
+	}
+
+	@Test
+	public void testJpaOtherIdentityDataRejected() {
+		verifyOtherIdentityDataRejected(jpaFactory);
+	}
+
+	@Test
+	public void testJdbcOtherIdentityDataRejected() {
+		verifyOtherIdentityDataRejected(jdbcFactory);
+	}
+
+	@Test
+	public void testMigration() throws Exception {
+		// The default mapping on its own database, as it would be before the migration
+		final EntityManagerFactory entityManagerFactory = Persistence.createEntityManagerFactory(
+				SqrlJpaPersistenceProvider.PERSISTENCE_UNIT_NAME,
+				Collections.singletonMap("javax.persistence.jdbc.url", "jdbc:derby:memory:sqrlmigration;create=true"));
+		try {
+			SqrlPersistence sqrlPersistence = new SqrlJpaPersistenceProvider(entityManagerFactory);
+			for (int i = 0; i < 7; i++) {
+				sqrlPersistence.createAndEnableSqrlIdentity("idk" + i);
+			}
+			sqrlPersistence.closeCommit();
+			sqrlPersistence = new SqrlJpaPersistenceProvider(entityManagerFactory);
+			sqrlPersistence.setSqrlFlagForIdentity("idk1", SqrlIdentityFlag.HARDLOCK, true);
+			sqrlPersistence.setSqrlFlagForIdentity("idk2", SqrlIdentityFlag.SQRL_AUTH_ENABLED, false);
+			final Map<String, String> dataToStore = new HashMap<>();
+			dataToStore.put("suk", "suk1");
+			dataToStore.put("vuk", "vuk1");
+			sqrlPersistence.storeSqrlDataForSqrlIdentity("idk1", dataToStore);
+			sqrlPersistence.storeSqrlDataForSqrlIdentity("idk3", Collections.singletonMap("other", "skipped"));
+			sqrlPersistence.closeCommit();
+		} finally {
+			entityManagerFactory.close();
+		}
+
+		final EmbeddedDataSource migrationDataSource = new EmbeddedDataSource();
+		migrationDataSource.setDatabaseName("memory:sqrlmigration");
+		try (Connection connection = migrationDataSource.getConnection();
+				Statement statement = connection.createStatement()) {
+			statement.executeUpdate("ALTER TABLE sqrl_identity ADD COLUMN flags INT NOT NULL DEFAULT 0");
+			statement.executeUpdate("ALTER TABLE sqrl_identity ADD COLUMN suk VARCHAR(1000)");
+			statement.executeUpdate("ALTER TABLE sqrl_identity ADD COLUMN vuk VARCHAR(1000)");
+		}
+		assertEquals(7, SqrlDenormalizedIdentityMigration.migrate(migrationDataSource, 3));
+		// Running it again is harmless
+		assertEquals(7, SqrlDenormalizedIdentityMigration.migrate(migrationDataSource, 3));
+
+		final SqrlPersistence sqrlPersistence = new SqrlJdbcPersistenceFactory(migrationDataSource, 1, false, true)
+				.createSqrlPersistence();
+		assertEquals(EnumSet.of(SqrlIdentityFlag.SQRL_AUTH_ENABLED, SqrlIdentityFlag.HARDLOCK),
+				sqrlPersistence.fetchSqrlFlagsForIdentity("idk1"));
+		assertEquals("suk1", sqrlPersistence.fetchSqrlIdentityDataItem("idk1", "suk"));
+		assertEquals("vuk1", sqrlPersistence.fetchSqrlIdentityDataItem("idk1", "vuk"));
+		assertTrue(sqrlPersistence.fetchSqrlFlagsForIdentity("idk2").isEmpty());
+		assertEquals(EnumSet.of(SqrlIdentityFlag.SQRL_AUTH_ENABLED), sqrlPersistence.fetchSqrlFlagsForIdentity("idk6"));
+		assertNull(sqrlPersistence.fetchSqrlIdentityDataItem("idk3", "other"));
+		sqrlPersistence.closeCommit();
+	}
+
+	private void verifyOtherIdentityDataRejected(final Supplier<SqrlPersistence> factory) {
+		SqrlPersistence sqrlPersistence = factory.get();
+		sqrlPersistence.createAndEnableSqrlIdentity("idk1");
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = factory.get();
+		sqrlPersistence.storeSqrlDataForSqrlIdentity("idk1", Collections.singletonMap("other", "value"));
+		try {
+			sqrlPersistence.closeCommit();
+			fail("Exception expected");
+		} catch (final SqrlPersistenceException e) {
+			// Expected
+		}
+	}
+
+	private void verifyStoredInIdentityRow(final Supplier<SqrlPersistence> writeFactory,
+			final Supplier<SqrlPersistence> readFactory) throws SQLException {
+		SqrlPersistence sqrlPersistence = writeFactory.get();
+		sqrlPersistence.createAndEnableSqrlIdentity("idk1");
+		sqrlPersistence.createCorrelator("abc", TestCaseUtil.AWHILE_FROM_NOW);
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = writeFactory.get();
+		final Map<String, String> dataToStore = new HashMap<>();
+		dataToStore.put("suk", "suk1");
+		dataToStore.put("vuk", "vuk1");
+		sqrlPersistence.storeSqrlDataForSqrlIdentity("idk1", dataToStore);
+		sqrlPersistence.setSqrlFlagForIdentity("idk1", SqrlIdentityFlag.SQRLONLY, true);
+		sqrlPersistence.userAuthenticatedViaSqrl("idk1", "abc");
+		sqrlPersistence.closeCommit();
+
+		// The denormalized layout doesn't generate sqrl_identity_flag or sqrl_identity_data at all
+		try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement();
+				ResultSet resultSet = statement
+						.executeQuery("SELECT flags, suk, vuk FROM sqrl_identity WHERE idk = 'idk1'")) {
+			assertTrue(resultSet.next());
+			assertEquals(5, resultSet.getInt(1));
+			assertEquals("suk1", resultSet.getString(2));
+			assertEquals("vuk1", resultSet.getString(3));
+			assertFalse(resultSet.next());
+		}
+
+		sqrlPersistence = readFactory.get();
+		assertEquals(EnumSet.of(SqrlIdentityFlag.SQRL_AUTH_ENABLED, SqrlIdentityFlag.SQRLONLY),
+				sqrlPersistence.fetchSqrlFlagsForIdentity("idk1"));
+		assertEquals("vuk1", sqrlPersistence.fetchSqrlIdentityDataItem("idk1", "vuk"));
+		assertEquals("suk1", sqrlPersistence.fetchSqrlCorrelatorRequired("abc").getAuthenticatedIdentity()
+				.getIdentityDataTable().get("suk"));
+		sqrlPersistence.setSqrlFlagForIdentity("idk1", SqrlIdentityFlag.SQRLONLY, false);
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = readFactory.get();
+		assertEquals(EnumSet.of(SqrlIdentityFlag.SQRL_AUTH_ENABLED), sqrlPersistence.fetchSqrlFlagsForIdentity("idk1"));
+		sqrlPersistence.deleteSqrlCorrelator(sqrlPersistence.fetchSqrlCorrelatorRequired("abc"));
+		sqrlPersistence.closeCommit();
+		sqrlPersistence = readFactory.get();
+		sqrlPersistence.deleteSqrlIdentity("idk1");
+		sqrlPersistence.closeCommit();
+	}
+}
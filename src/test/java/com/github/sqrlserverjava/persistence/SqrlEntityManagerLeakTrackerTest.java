@@ -0,0 +1,79 @@
+package com.github.sqrlserverjava.persistence;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import javax.persistence.EntityManager;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.persistence.SqrlEntityManagerLeakTracker.TrackedEntityManager;
+
+public class SqrlEntityManagerLeakTrackerTest {
+
+	@After
+	public void tearDown() {
+		SqrlJpaEntityManagerFactoryRegistry.closeAll();
+	}
+
+	@Test
+	public void testCreationStackSampling() {
+		final SqrlEntityManagerLeakTracker tracker = new SqrlEntityManagerLeakTracker();
+		assertTrue(tracker.track(mock(EntityManager.class), SqrlEntityManagerLeakTracker.SAMPLE_ALWAYS)
+				.hasCreationStack());
+		assertFalse(tracker.track(mock(EntityManager.class), SqrlEntityManagerLeakTracker.SAMPLE_NEVER)
+				.hasCreationStack());
+		int sampledCount = 0;
+		for (int i = 0; i < 10000; i++) {
+			if (tracker.track(mock(EntityManager.class), 1000).hasCreationStack()) {
+				sampledCount++;
+			}
+		}
+		assertTrue("sampledCount=" + sampledCount, sampledCount > 0 && sampledCount < 100);
+		try {
+			new SqrlJpaPersistenceFactory(-1);
+			fail("Exception expected");
+		} catch (final IllegalArgumentException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testCloseIdle() throws Exception {
+		final SqrlEntityManagerLeakTracker tracker = new SqrlEntityManagerLeakTracker();
+		final EntityManager idle = mock(EntityManager.class);
+		when(idle.isOpen()).thenReturn(true);
+		final EntityManager closed = mock(EntityManager.class);
+		when(closed.isOpen()).thenReturn(false);
+		final EntityManager inUse = mock(EntityManager.class);
+		when(inUse.isOpen()).thenReturn(true);
+		tracker.track(idle, SqrlEntityManagerLeakTracker.SAMPLE_NEVER);
+		tracker.track(closed, SqrlEntityManagerLeakTracker.SAMPLE_NEVER);
+		final TrackedEntityManager inUseTracked = tracker.track(inUse, SqrlEntityManagerLeakTracker.SAMPLE_NEVER);
+		Thread.sleep(50);
+		inUseTracked.touch();
+
+		assertEquals(1, tracker.closeIdle(25));
+		verify(idle).close();
+		verify(inUse, never()).close();
+		assertEquals(1, tracker.getTrackedCount());
+	}
+
+	@Test
+	public void testProviderUntrackedOnClose() {
+		final int trackedCount = SqrlJpaPersistenceProvider.LEAK_TRACKER.getTrackedCount();
+		final SqrlPersistence sqrlPersistence = new SqrlJpaPersistenceProvider(
+				SqrlJpaEntityManagerFactoryRegistry.get(SqrlJpaPersistenceProvider.PERSISTENCE_UNIT_NAME));
+		assertEquals(trackedCount + 1, SqrlJpaPersistenceProvider.LEAK_TRACKER.getTrackedCount());
+		sqrlPersistence.closeRollback();
+		assertEquals(trackedCount, SqrlJpaPersistenceProvider.LEAK_TRACKER.getTrackedCount());
+	}
+}
@@ -0,0 +1,78 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.SqrlPersistenceFactory;
+import com.github.sqrlserverjava.TestCaseUtil;
+
+/**
+ * Measures correlator creation throughput, as done for every login page view, with ids reserved one at a time versus in
+ * blocks. With a block size of 1 every insert contends for the sqrl_db_id_gen row, so throughput stops scaling as
+ * threads are added.
+ * <p>
+ * Run via {@link #main(String[])} from the IDE or with the test classpath, it is not part of the unit test suite
+ *
+ * @author Dave Badia
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SqrlIdAllocationBenchmark {
+	private static final int[] THREAD_COUNTS = { 1, 2, 4, 8 };
+
+	@Param({ "1", "50" })
+	private int idBlockSize;
+
+	private final AtomicLong		correlatorCounter	= new AtomicLong();
+	private SqrlPersistenceFactory	persistenceFactory;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		persistenceFactory = new SqrlJdbcPersistenceFactory(TestCaseUtil.buildDerbyDataSource(), idBlockSize);
+		TestCaseUtil.createEmptySqrlPersistence().closeCommit();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		SqrlJpaEntityManagerFactoryRegistry.closeAll();
+	}
+
+	@Benchmark
+	public long createCorrelator() {
+		final SqrlPersistence sqrlPersistence = persistenceFactory.createSqrlPersistence();
+		final long id = sqrlPersistence
+				.createCorrelator("bench" + correlatorCounter.incrementAndGet(), TestCaseUtil.AWHILE_FROM_NOW).getId();
+		sqrlPersistence.closeCommit();
+		return id;
+	}
+
+	public static void main(final String[] args) throws RunnerException {
+		for (final int threadCount : THREAD_COUNTS) {
+			new Runner(new OptionsBuilder().include(SqrlIdAllocationBenchmark.class.getSimpleName())
+					.threads(threadCount).build()).run();
+		}
+	}
+}
@@ -0,0 +1,160 @@
+package com.github.sqrlserverjava.persistence;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNotNull;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.SqrlPersistenceFactory;
+import com.github.sqrlserverjava.enums.SqrlIdentityFlag;
+
+public class SqrlIdentityCachingPersistenceTest {
+	private static final String						IDK			= "idk1";
+	private final AtomicInteger						fetchCount	= new AtomicInteger();
+	private SqrlInMemoryPersistenceStore			store;
+	private SqrlIdentityCachingPersistenceFactory	factory;
+
+	@Before
+	public void setUp() {
+		store = new SqrlInMemoryPersistenceStore();
+		final SqrlInMemoryPersistenceFactory inMemoryFactory = new SqrlInMemoryPersistenceFactory(store);
+		// Count the calls which reach the underlying persistence
+		final SqrlPersistenceFactory countingFactory = new SqrlPersistenceFactory() {
+			@Override
+			public SqrlPersistence createSqrlPersistence() {
+				final SqrlPersistence target = inMemoryFactory.createSqrlPersistence();
+				return (SqrlPersistence) Proxy.newProxyInstance(getClass().getClassLoader(),
+						new Class<?>[] { SqrlPersistence.class }, (proxy, method, args) -> {
+							if (method.getName().startsWith("fetch") || method.getName().startsWith("does")) {
+								fetchCount.incrementAndGet();
+							}
+							try {
+								return method.invoke(target, args);
+							} catch (final InvocationTargetException e) {
+								throw e.getCause();
+							}
+						});
+			}
+
+			@Override
+			public Class<? extends Runnable> getCleanupTaskClass() {
+				return null;
+			}
+		};
+		factory = new SqrlIdentityCachingPersistenceFactory(countingFactory, 100, TimeUnit.MINUTES.toMillis(5));
+		final SqrlPersistence sqrlPersistence = factory.createSqrlPersistence();
+		sqrlPersistence.createAndEnableSqrlIdentity(IDK);
+		sqrlPersistence.storeSqrlDataForSqrlIdentity(IDK, Collections.singletonMap("name", "value"));
+		sqrlPersistence.closeCommit();
+		fetchCount.set(0);
+	}
+
+	@Test
+	public void testRepeatedLookupsServedFromCache() {
+		for (int i = 0; i < 3; i++) {
+			final SqrlPersistence sqrlPersistence = factory.createSqrlPersistence();
+			assertTrue(sqrlPersistence.doesSqrlIdentityExistByIdk(IDK));
+			assertTrue(sqrlPersistence.fetchSqrlFlagForIdentity(IDK, SqrlIdentityFlag.SQRL_AUTH_ENABLED));
+			assertEquals("value", sqrlPersistence.fetchSqrlIdentityDataItem(IDK, "name"));
+			assertNull(sqrlPersistence.fetchSqrlIdentityDataItem(IDK, "missing"));
+			assertFalse(sqrlPersistence.doesSqrlIdentityExistByIdk("unknown"));
+			sqrlPersistence.closeCommit();
+		}
+		assertEquals(5, fetchCount.get());
+		assertEquals(5, factory.getIdentityCache().getMissCount());
+		assertEquals(10, factory.getIdentityCache().getHitCount());
+	}
+
+	@Test
+	public void testFlagChangeVisibleAfterCommit() {
+		SqrlPersistence sqrlPersistence = factory.createSqrlPersistence();
+		assertTrue(sqrlPersistence.fetchSqrlFlagForIdentity(IDK, SqrlIdentityFlag.SQRL_AUTH_ENABLED));
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = factory.createSqrlPersistence();
+		sqrlPersistence.setSqrlFlagForIdentity(IDK, SqrlIdentityFlag.SQRL_AUTH_ENABLED, false);
+		// Modified in this unit of work, so the cache is bypassed
+		assertFalse(sqrlPersistence.fetchSqrlFlagForIdentity(IDK, SqrlIdentityFlag.SQRL_AUTH_ENABLED));
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = factory.createSqrlPersistence();
+		assertFalse(sqrlPersistence.fetchSqrlFlagForIdentity(IDK, SqrlIdentityFlag.SQRL_AUTH_ENABLED));
+		sqrlPersistence.closeCommit();
+	}
+
+	@Test
+	public void testRolledBackChangeNotCached() {
+		SqrlPersistence sqrlPersistence = factory.createSqrlPersistence();
+		sqrlPersistence.setSqrlFlagForIdentity(IDK, SqrlIdentityFlag.SQRL_AUTH_ENABLED, false);
+		assertFalse(sqrlPersistence.fetchSqrlFlagForIdentity(IDK, SqrlIdentityFlag.SQRL_AUTH_ENABLED));
+		sqrlPersistence.closeRollback();
+
+		sqrlPersistence = factory.createSqrlPersistence();
+		assertTrue(sqrlPersistence.fetchSqrlFlagForIdentity(IDK, SqrlIdentityFlag.SQRL_AUTH_ENABLED));
+		sqrlPersistence.closeCommit();
+	}
+
+	@Test
+	public void testUserXrefUpdateInvalidatesLookups() {
+		SqrlPersistence sqrlPersistence = factory.createSqrlPersistence();
+		assertNull(sqrlPersistence.fetchSqrlIdentityByUserXref("user1"));
+		sqrlPersistence.closeCommit();
+
+		final long id = store.idkIndex.get(IDK);
+		sqrlPersistence = factory.createSqrlPersistence();
+		sqrlPersistence.updateNativeUserXref(id, "user1");
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = factory.createSqrlPersistence();
+		final SqrlIdentity sqrlIdentity = sqrlPersistence.fetchSqrlIdentityByUserXref("user1");
+		assertNotNull(sqrlIdentity);
+		assertEquals(IDK, sqrlIdentity.getIdk());
+		sqrlPersistence.closeCommit();
+
+		fetchCount.set(0);
+		sqrlPersistence = factory.createSqrlPersistence();
+		assertEquals(IDK, sqrlPersistence.fetchSqrlIdentityByUserXref("user1").getIdk());
+		sqrlPersistence.closeCommit();
+		assertEquals(0, fetchCount.get());
+
+		// Deleting the identity removes the xref lookup which returned it
+		sqrlPersistence = factory.createSqrlPersistence();
+		sqrlPersistence.deleteSqrlIdentity(IDK);
+		sqrlPersistence.closeCommit();
+		sqrlPersistence = factory.createSqrlPersistence();
+		assertNull(sqrlPersistence.fetchSqrlIdentityByUserXref("user1"));
+		sqrlPersistence.closeCommit();
+	}
+
+	@Test
+	public void testEntriesEvictedBeyondMaxSize() {
+		final SqrlIdentityCache cache = new SqrlIdentityCache(2, TimeUnit.MINUTES.toMillis(5));
+		cache.putExists("a", true, cache.currentGeneration());
+		cache.putExists("b", true, cache.currentGeneration());
+		cache.putExists("c", true, cache.currentGeneration());
+		assertEquals(2, cache.getSize());
+		assertNull(cache.getExists("a"));
+		assertEquals(Boolean.TRUE, cache.getExists("c"));
+	}
+
+	@Test
+	public void testStaleLoadNotCached() {
+		final SqrlIdentityCache cache = new SqrlIdentityCache(2, TimeUnit.MINUTES.toMillis(5));
+		final long generation = cache.currentGeneration();
+		// Invalidated while the value was being loaded
+		cache.invalidateIdk("a");
+		cache.putExists("a", true, generation);
+		assertNull(cache.getExists("a"));
+	}
+}
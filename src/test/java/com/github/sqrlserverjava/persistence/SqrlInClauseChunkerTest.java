@@ -0,0 +1,47 @@
+package com.github.sqrlserverjava.persistence;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class SqrlInClauseChunkerTest {
+
+	@Test
+	public void testEmpty() {
+		assertTrue(SqrlInClauseChunker.chunk(Collections.emptySet()).isEmpty());
+	}
+
+	@Test
+	public void testPaddedToFixedSize() {
+		final List<List<String>> chunkList = SqrlInClauseChunker.chunk(Arrays.asList("a", "b", "c", "d", "e"));
+		assertEquals(1, chunkList.size());
+		assertEquals(Arrays.asList("a", "b", "c", "d", "e", "e", "e", "e", "e", "e", "e", "e", "e", "e", "e", "e"),
+				chunkList.get(0));
+	}
+
+	@Test
+	public void testSplitAcrossChunks() {
+		final List<String> valueList = new ArrayList<>();
+		for (int i = 0; i < 2005; i++) {
+			valueList.add("v" + i);
+		}
+		final List<List<String>> chunkList = SqrlInClauseChunker.chunk(valueList);
+		assertEquals(3, chunkList.size());
+		assertEquals(1000, chunkList.get(0).size());
+		assertEquals(1000, chunkList.get(1).size());
+		assertEquals(16, chunkList.get(2).size());
+		final Set<String> allValues = new HashSet<>();
+		for (final List<String> chunk : chunkList) {
+			allValues.addAll(chunk);
+		}
+		assertEquals(new HashSet<>(valueList), allValues);
+	}
+}
@@ -0,0 +1,22 @@
+package com.github.sqrlserverjava.persistence;
+
+import org.junit.After;
+import org.junit.Before;
+
+import com.github.sqrlserverjava.TestCaseUtil;
+
+/**
+ * Runs the JPA cleanup test cases against {@link SqrlInMemoryPersistenceFactory}
+ */
+public class SqrlInMemoryPersistenceCleanupTest extends SqrlJpaPersistenceCleanupTest {
+	@Before
+	public void setUp() {
+		TestCaseUtil.setPersistenceFactory(new SqrlInMemoryPersistenceFactory());
+	}
+
+	@Override
+	@After
+	public void tearDown() {
+		TestCaseUtil.setPersistenceFactory(null);
+	}
+}
@@ -0,0 +1,274 @@
+package com.github.sqrlserverjava.persistence;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.TestCaseUtil;
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+import com.github.sqrlserverjava.enums.SqrlIdentityFlag;
+import com.github.sqrlserverjava.exception.SqrlPersistenceException;
+
+public class SqrlInMemoryPersistenceProviderTest {
+	private SqrlInMemoryPersistenceStore	store;
+	private SqrlInMemoryPersistenceFactory	factory;
+
+	@Before
+	public void setUp() {
+		store = new SqrlInMemoryPersistenceStore();
+		factory = new SqrlInMemoryPersistenceFactory(store);
+	}
+
+	@Test
+	public void testModifiedEntityVisibleOnlyAfterCommit() {
+		SqrlPersistence sqrlPersistence = factory.createSqrlPersistence();
+		sqrlPersistence.createCorrelator("abc", TestCaseUtil.AWHILE_FROM_NOW);
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = factory.createSqrlPersistence();
+		final SqrlCorrelator sqrlCorrelator = sqrlPersistence.fetchSqrlCorrelatorRequired("abc");
+		assertSame(sqrlCorrelator, sqrlPersistence.fetchSqrlCorrelatorRequired("abc"));
+		sqrlCorrelator.setAuthenticationStatus(SqrlAuthenticationStatus.COMMUNICATING);
+		sqrlCorrelator.getTransientAuthDataTable().put("name", "value");
+
+		final SqrlPersistence other = factory.createSqrlPersistence();
+		assertEquals(SqrlAuthenticationStatus.CORRELATOR_ISSUED,
+				other.fetchSqrlCorrelatorRequired("abc").getAuthenticationStatus());
+		other.closeCommit();
+
+		sqrlPersistence.closeCommit();
+		sqrlPersistence = factory.createSqrlPersistence();
+		assertEquals(SqrlAuthenticationStatus.COMMUNICATING,
+				sqrlPersistence.fetchSqrlCorrelatorRequired("abc").getAuthenticationStatus());
+		assertEquals("value", sqrlPersistence.fetchTransientAuthData("abc", "name"));
+		sqrlPersistence.closeCommit();
+	}
+
+	@Test
+	public void testUnmodifiedEntityDoesNotOverwriteConcurrentUpdate() {
+		SqrlPersistence sqrlPersistence = factory.createSqrlPersistence();
+		sqrlPersistence.createCorrelator("abc", TestCaseUtil.AWHILE_FROM_NOW);
+		sqrlPersistence.closeCommit();
+
+		final SqrlPersistence reader = factory.createSqrlPersistence();
+		reader.fetchSqrlCorrelatorRequired("abc");
+		final SqrlPersistence writer = factory.createSqrlPersistence();
+		writer.fetchSqrlCorrelatorRequired("abc").setAuthenticationStatus(SqrlAuthenticationStatus.AUTHENTICATED_CPS);
+		writer.closeCommit();
+		reader.closeCommit();
+
+		sqrlPersistence = factory.createSqrlPersistence();
+		assertEquals(SqrlAuthenticationStatus.AUTHENTICATED_CPS,
+				sqrlPersistence.fetchSqrlCorrelatorRequired("abc").getAuthenticationStatus());
+		sqrlPersistence.closeCommit();
+	}
+
+	@Test
+	public void testRollbackDiscardsAllChanges() {
+		SqrlPersistence sqrlPersistence = factory.createSqrlPersistence();
+		sqrlPersistence.createAndEnableSqrlIdentity("idk1");
+		sqrlPersistence.createCorrelator("expired", new Date(System.currentTimeMillis() - 1000));
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = factory.createSqrlPersistence();
+		sqrlPersistence.updateIdkForSqrlIdentity("idk1", "idk2");
+		sqrlPersistence.setSqrlFlagForIdentity("idk2", SqrlIdentityFlag.SQRL_AUTH_ENABLED, false);
+		sqrlPersistence.markTokenAsUsed("nut1", TestCaseUtil.AWHILE_FROM_NOW);
+		sqrlPersistence.cleanUpExpiredEntries(Integer.MAX_VALUE);
+		sqrlPersistence.createCorrelator("new", TestCaseUtil.AWHILE_FROM_NOW);
+		assertEquals(0, store.getCorrelatorCount());
+		sqrlPersistence.closeRollback();
+		assertTrue(sqrlPersistence.isClosed());
+
+		sqrlPersistence = factory.createSqrlPersistence();
+		assertTrue(sqrlPersistence.fetchSqrlFlagForIdentity("idk1", SqrlIdentityFlag.SQRL_AUTH_ENABLED));
+		assertFalse(sqrlPersistence.doesSqrlIdentityExistByIdk("idk2"));
+		assertFalse(sqrlPersistence.hasTokenBeenUsed("nut1"));
+		assertSame(sqrlPersistence.fetchSqrlCorrelatorRequired("expired"),
+				sqrlPersistence.fetchSqrlCorrelator("expired"));
+		assertNull(sqrlPersistence.fetchSqrlCorrelator("new"));
+		sqrlPersistence.closeCommit();
+	}
+
+	@Test
+	public void testIdentityIndexesFollowUpdates() {
+		SqrlPersistence sqrlPersistence = factory.createSqrlPersistence();
+		sqrlPersistence.createAndEnableSqrlIdentity("idk1");
+		sqrlPersistence.storeSqrlDataForSqrlIdentity("idk1", Collections.singletonMap("suk", "sukValue"));
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = factory.createSqrlPersistence();
+		sqrlPersistence.updateIdkForSqrlIdentity("idk1", "idk2");
+		sqrlPersistence.updateNativeUserXref(store.idkIndex.get("idk1"), "user1");
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = factory.createSqrlPersistence();
+		assertFalse(sqrlPersistence.doesSqrlIdentityExistByIdk("idk1"));
+		assertEquals("idk2", sqrlPersistence.fetchSqrlIdentityByUserXref("user1").getIdk());
+		assertEquals("sukValue", sqrlPersistence.fetchSqrlIdentityDataItem("idk2", "suk"));
+		sqrlPersistence.deleteSqrlIdentity("idk2");
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = factory.createSqrlPersistence();
+		assertFalse(sqrlPersistence.doesSqrlIdentityExistByIdk("idk2"));
+		sqrlPersistence.closeCommit();
+	}
+
+	@Test
+	public void testDetachedCorrelatorSeesCommittedIdentity() {
+		SqrlPersistence sqrlPersistence = factory.createSqrlPersistence();
+		sqrlPersistence.createAndEnableSqrlIdentity("idk1");
+		sqrlPersistence.createCorrelator("abc", TestCaseUtil.AWHILE_FROM_NOW);
+		sqrlPersistence.closeCommit();
+		sqrlPersistence = factory.createSqrlPersistence();
+		sqrlPersistence.userAuthenticatedViaSqrl("idk1", "abc");
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = factory.createSqrlPersistence();
+		sqrlPersistence.updateNativeUserXref(store.idkIndex.get("idk1"), "user1");
+		sqrlPersistence.closeCommit();
+		sqrlPersistence = factory.createSqrlPersistence();
+		assertEquals("user1", sqrlPersistence.fetchSqrlCorrelatorsDetached(Collections.singleton("abc")).get("abc")
+				.getAuthenticatedIdentity().getNativeUserXref());
+		sqrlPersistence.deleteSqrlIdentity("idk1");
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = factory.createSqrlPersistence();
+		assertNull(sqrlPersistence.fetchSqrlCorrelatorsDetached(Collections.singleton("abc")).get("abc")
+				.getAuthenticatedIdentity());
+		sqrlPersistence.closeCommit();
+	}
+
+	@Test
+	public void testDuplicateCorrelatorRejected() {
+		SqrlPersistence sqrlPersistence = factory.createSqrlPersistence();
+		sqrlPersistence.createCorrelator("abc", TestCaseUtil.AWHILE_FROM_NOW).getTransientAuthDataTable().put("a",
+				"1");
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = factory.createSqrlPersistence();
+		sqrlPersistence.createCorrelator("abc", TestCaseUtil.AWHILE_FROM_NOW);
+		try {
+			sqrlPersistence.closeCommit();
+			fail("Exception expected");
+		} catch (final SqrlPersistenceException e) {
+			// Expected
+		}
+		sqrlPersistence = factory.createSqrlPersistence();
+		assertEquals("1", sqrlPersistence.fetchTransientAuthData("abc", "a"));
+		sqrlPersistence.closeCommit();
+	}
+
+	@Test
+	public void testCleanedUpCorrelatorNotRestoredByConcurrentCommit() {
+		SqrlPersistence sqrlPersistence = factory.createSqrlPersistence();
+		sqrlPersistence.createCorrelator("expired", new Date(System.currentTimeMillis() - 1000));
+		sqrlPersistence.closeCommit();
+
+		final SqrlPersistence writer = factory.createSqrlPersistence();
+		writer.fetchSqrlCorrelatorRequired("expired").setAuthenticationStatus(SqrlAuthenticationStatus.COMMUNICATING);
+		sqrlPersistence = factory.createSqrlPersistence();
+		sqrlPersistence.cleanUpExpiredEntries(Integer.MAX_VALUE);
+		sqrlPersistence.closeCommit();
+		writer.closeCommit();
+
+		assertEquals(0, store.getCorrelatorCount());
+	}
+
+	@Test
+	public void testStatusChangeLoggedOnlyOnCommit() {
+		SqrlPersistence sqrlPersistence = factory.createSqrlPersistence();
+		sqrlPersistence.createCorrelator("abc", TestCaseUtil.AWHILE_FROM_NOW);
+		sqrlPersistence.closeCommit();
+		assertTrue(fetchStatusChanges(0).isEmpty());
+
+		sqrlPersistence = factory.createSqrlPersistence();
+		sqrlPersistence.fetchSqrlCorrelatorRequired("abc").setAuthenticationStatus(SqrlAuthenticationStatus.ERROR_BAD_REQUEST);
+		sqrlPersistence.closeRollback();
+		assertTrue(fetchStatusChanges(0).isEmpty());
+
+		sqrlPersistence = factory.createSqrlPersistence();
+		sqrlPersistence.fetchSqrlCorrelatorRequired("abc").setAuthenticationStatus(SqrlAuthenticationStatus.COMMUNICATING);
+		sqrlPersistence.closeCommit();
+		final List<SqrlCorrelatorStatusChange> changeList = fetchStatusChanges(0);
+		assertEquals(1, changeList.size());
+		assertEquals("abc", changeList.get(0).getCorrelator());
+		assertEquals(SqrlAuthenticationStatus.COMMUNICATING, changeList.get(0).getAuthenticationStatus());
+		assertTrue(fetchStatusChanges(changeList.get(0).getSequence()).isEmpty());
+	}
+
+	private List<SqrlCorrelatorStatusChange> fetchStatusChanges(final long sinceSequence) {
+		final SqrlPersistence sqrlPersistence = factory.createSqrlPersistence();
+		final List<SqrlCorrelatorStatusChange> changeList = sqrlPersistence
+				.fetchSqrlCorrelatorStatusChangesSince(sinceSequence, 10);
+		sqrlPersistence.closeCommit();
+		return changeList;
+	}
+
+	@Test
+	public void testTokenReplayRejected() {
+		final SqrlPersistence first = factory.createSqrlPersistence();
+		first.markTokenAsUsed("nut1", TestCaseUtil.AWHILE_FROM_NOW);
+		final SqrlPersistence second = factory.createSqrlPersistence();
+		try {
+			second.markTokenAsUsed("nut1", TestCaseUtil.AWHILE_FROM_NOW);
+			fail("Exception expected");
+		} catch (final SqrlPersistenceException e) {
+			second.closeRollback();
+		}
+		first.closeCommit();
+		final SqrlPersistence third = factory.createSqrlPersistence();
+		assertTrue(third.hasTokenBeenUsed("nut1"));
+		third.closeCommit();
+	}
+
+	@Test
+	public void testCleanupDropsExpiredNutTokenSegments() {
+		final long now = System.currentTimeMillis();
+		SqrlPersistence sqrlPersistence = factory.createSqrlPersistence();
+		sqrlPersistence.markTokenAsUsed("expired1", new Date(now - TimeUnit.MINUTES.toMillis(5)));
+		sqrlPersistence.markTokenAsUsed("expired2", new Date(now - TimeUnit.MINUTES.toMillis(3)));
+		sqrlPersistence.markTokenAsUsed("live", new Date(now + TimeUnit.MINUTES.toMillis(5)));
+		sqrlPersistence.closeCommit();
+		assertEquals(3, store.usedNutTokenSegmentTable.size());
+
+		sqrlPersistence = factory.createSqrlPersistence();
+		assertFalse(sqrlPersistence.hasTokenBeenUsed("expired1"));
+		sqrlPersistence.cleanUpExpiredEntries(Integer.MAX_VALUE);
+		sqrlPersistence.closeRollback();
+		assertEquals(3, store.usedNutTokenSegmentTable.size());
+
+		sqrlPersistence = factory.createSqrlPersistence();
+		sqrlPersistence.cleanUpExpiredEntries(Integer.MAX_VALUE);
+		sqrlPersistence.closeCommit();
+		assertEquals(1, store.usedNutTokenSegmentTable.size());
+		assertEquals(1, store.getUsedNutTokenCount());
+		sqrlPersistence = factory.createSqrlPersistence();
+		assertTrue(sqrlPersistence.hasTokenBeenUsed("live"));
+		sqrlPersistence.closeCommit();
+	}
+
+	@Test
+	public void testClosedProviderRejectsCalls() {
+		final SqrlPersistence sqrlPersistence = factory.createSqrlPersistence();
+		sqrlPersistence.closeCommit();
+		try {
+			sqrlPersistence.fetchSqrlCorrelator("abc");
+			fail("Exception expected");
+		} catch (final SqrlPersistenceException e) {
+			// Expected
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.SqrlPersistenceFactory;
+import com.github.sqrlserverjava.TestCaseUtil;
+import com.github.sqrlserverjava.util.SqrlConstants;
+
+/**
+ * Compares {@link SqrlJdbcPersistenceFactory} with {@link SqrlJpaPersistenceFactory} on the embedded derby test
+ * database. Each invocation performs the persistence calls of one backchannel request: a fresh nut token, the server
+ * parrot lookup, the identity check and the reply update, spread over the three units of work that
+ * {@code SqrlClientFacingOperations.handleSqrlClientRequest} uses.
+ * <p>
+ * The derby {@code EmbeddedDataSource} does not pool connections, so the JDBC numbers are conservative. Statement reuse
+ * comes from derby's own cache of compiled statements, which is sized explicitly in {@link #setUp()} since
+ * {@link SqrlJdbcPersistenceProvider} prepares each statement per use and relies on the driver or pool to cache them
+ * <p>
+ * Run via {@link #main(String[])} from the IDE or with the test classpath, it is not part of the unit test suite
+ *
+ * @author Dave Badia
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SqrlJdbcPersistenceBenchmark {
+	private static final String	CORRELATOR					= "benchmarkCorrelator";
+	private static final String	IDK							= "benchmarkIdk";
+	private static final String	DERBY_STATEMENT_CACHE_SIZE	= "derby.language.statementCacheSize";
+
+	@Param({ "jpa", "jdbc" })
+	private String provider;
+
+	private final AtomicLong		nutCounter	= new AtomicLong();
+	private SqrlPersistenceFactory	persistenceFactory;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		// Read when derby boots, so this must be set before the first connection. 100 is also derby's default
+		System.setProperty(DERBY_STATEMENT_CACHE_SIZE, "100");
+		persistenceFactory = "jdbc".equals(provider)
+				? new SqrlJdbcPersistenceFactory(TestCaseUtil.buildDerbyDataSource())
+				: new SqrlJpaPersistenceFactory();
+		final SqrlPersistence sqrlPersistence = TestCaseUtil.createEmptySqrlPersistence();
+		sqrlPersistence.createCorrelator(CORRELATOR, TestCaseUtil.AWHILE_FROM_NOW).getTransientAuthDataTable()
+		.put(SqrlConstants.TRANSIENT_NAME_SERVER_PARROT, "parrot");
+		sqrlPersistence.createAndEnableSqrlIdentity(IDK);
+		sqrlPersistence.closeCommit();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		SqrlJpaEntityManagerFactoryRegistry.closeAll();
+	}
+
+	@Benchmark
+	public boolean backchannelRequest() {
+		// Process the request
+		SqrlPersistence sqrlPersistence = persistenceFactory.createSqrlPersistence();
+		sqrlPersistence.fetchTransientAuthData(CORRELATOR, SqrlConstants.TRANSIENT_NAME_SERVER_PARROT);
+		sqrlPersistence.markTokenAsUsed(provider + nutCounter.incrementAndGet(), TestCaseUtil.AWHILE_FROM_NOW);
+		final boolean exists = sqrlPersistence.doesSqrlIdentityExistByIdk(IDK);
+		sqrlPersistence.closeCommit();
+		// Build the reply
+		sqrlPersistence = persistenceFactory.createSqrlPersistence();
+		sqrlPersistence.fetchSqrlCorrelatorRequired(CORRELATOR);
+		sqrlPersistence.closeCommit();
+		// Update the server parrot
+		sqrlPersistence = persistenceFactory.createSqrlPersistence();
+		sqrlPersistence.fetchSqrlCorrelatorRequired(CORRELATOR).getTransientAuthDataTable()
+		.put(SqrlConstants.TRANSIENT_NAME_SERVER_PARROT, "parrot" + nutCounter.get());
+		sqrlPersistence.closeCommit();
+		return exists;
+	}
+
+	public static void main(final String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(SqrlJdbcPersistenceBenchmark.class.getSimpleName()).build()).run();
+	}
+}
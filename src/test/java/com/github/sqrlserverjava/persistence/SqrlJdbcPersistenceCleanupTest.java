@@ -0,0 +1,23 @@
+package com.github.sqrlserverjava.persistence;
+
+import org.junit.After;
+import org.junit.Before;
+
+import com.github.sqrlserverjava.TestCaseUtil;
+
+/**
+ * Runs the JPA cleanup test cases against {@link SqrlJdbcPersistenceFactory}
+ */
+public class SqrlJdbcPersistenceCleanupTest extends SqrlJpaPersistenceCleanupTest {
+	@Before
+	public void setUp() {
+		TestCaseUtil.setPersistenceFactory(new SqrlJdbcPersistenceFactory(TestCaseUtil.buildDerbyDataSource()));
+	}
+
+	@Override
+	@After
+	public void tearDown() {
+		TestCaseUtil.setPersistenceFactory(null);
+		super.tearDown();
+	}
+}
@@ -0,0 +1,224 @@
+package com.github.sqrlserverjava.persistence;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.TestCaseUtil;
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+import com.github.sqrlserverjava.enums.SqrlIdentityFlag;
+import com.github.sqrlserverjava.exception.SqrlPersistenceException;
+
+public class SqrlJdbcPersistenceProviderTest {
+	private static final String TRANSIENT_DATA_FK = "SQRLTRNSNTUTHDATAD";
+
+	private SqrlJdbcPersistenceFactory factory;
+
+	@Before
+	public void setUp() throws Throwable {
+		factory = new SqrlJdbcPersistenceFactory(TestCaseUtil.buildDerbyDataSource());
+		TestCaseUtil.createEmptySqrlPersistence().closeCommit();
+	}
+
+	@After
+	public void tearDown() {
+		SqrlJpaEntityManagerFactoryRegistry.closeAll();
+	}
+
+	@Test
+	public void testChangesToReturnedEntitiesAreWritten() {
+		SqrlPersistence sqrlPersistence = factory.createSqrlPersistence();
+		sqrlPersistence.createAndEnableSqrlIdentity("idk1");
+		final Map<String, String> dataTable = new HashMap<>();
+		dataTable.put("suk", "sukValue");
+		dataTable.put("vuk", "vukValue");
+		sqrlPersistence.storeSqrlDataForSqrlIdentity("idk1", dataTable);
+		sqrlPersistence.createCorrelator("abc", TestCaseUtil.AWHILE_FROM_NOW).getTransientAuthDataTable().put("a",
+				"1");
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = factory.createSqrlPersistence();
+		final SqrlCorrelator sqrlCorrelator = sqrlPersistence.fetchSqrlCorrelatorRequired("abc");
+		assertSame(sqrlCorrelator, sqrlPersistence.fetchSqrlCorrelatorRequired("abc"));
+		sqrlCorrelator.getTransientAuthDataTable().remove("a");
+		sqrlCorrelator.getTransientAuthDataTable().put("b", "2");
+		sqrlPersistence.userAuthenticatedViaSqrl("idk1", "abc");
+		sqrlPersistence.setSqrlFlagForIdentity("idk1", SqrlIdentityFlag.SQRL_AUTH_ENABLED, false);
+		sqrlPersistence.storeSqrlDataForSqrlIdentity("idk1", Collections.singletonMap("suk", "newSuk"));
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = factory.createSqrlPersistence();
+		final SqrlCorrelator reloaded = sqrlPersistence.fetchSqrlCorrelatorRequired("abc");
+		assertEquals(SqrlAuthenticationStatus.AUTHENTICATED_BROWSER, reloaded.getAuthenticationStatus());
+		assertEquals("idk1", reloaded.getAuthenticatedIdentity().getIdk());
+		assertNull(reloaded.getTransientAuthDataTable().get("a"));
+		assertEquals("2", reloaded.getTransientAuthDataTable().get("b"));
+		assertFalse(sqrlPersistence.fetchSqrlFlagForIdentity("idk1", SqrlIdentityFlag.SQRL_AUTH_ENABLED));
+		assertEquals("newSuk", sqrlPersistence.fetchSqrlIdentityDataItem("idk1", "suk"));
+		assertEquals("vukValue", sqrlPersistence.fetchSqrlIdentityDataItem("idk1", "vuk"));
+		assertEquals("idk1", sqrlPersistence.fetchSqrlCorrelatorsDetached(Collections.singleton("abc"))
+				.get("abc").getAuthenticatedIdentity().getIdk());
+		sqrlPersistence.closeCommit();
+	}
+
+	@Test
+	public void testDetachedCorrelatorsResolveIdentities() {
+		SqrlPersistence sqrlPersistence = factory.createSqrlPersistence();
+		sqrlPersistence.createAndEnableSqrlIdentity("idk1");
+		sqrlPersistence.createAndEnableSqrlIdentity("idk2");
+		sqrlPersistence.createCorrelator("abc", TestCaseUtil.AWHILE_FROM_NOW);
+		sqrlPersistence.createCorrelator("def", TestCaseUtil.AWHILE_FROM_NOW);
+		sqrlPersistence.createCorrelator("ghi", TestCaseUtil.AWHILE_FROM_NOW);
+		sqrlPersistence.closeCommit();
+		sqrlPersistence = factory.createSqrlPersistence();
+		sqrlPersistence.userAuthenticatedViaSqrl("idk1", "abc");
+		sqrlPersistence.userAuthenticatedViaSqrl("idk2", "def");
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = factory.createSqrlPersistence();
+		final Map<String, SqrlCorrelator> resultTable = sqrlPersistence
+				.fetchSqrlCorrelatorsDetached(new HashSet<>(Arrays.asList("abc", "def", "ghi")));
+		sqrlPersistence.closeCommit();
+		assertEquals("idk1", resultTable.get("abc").getAuthenticatedIdentity().getIdk());
+		assertEquals("idk2", resultTable.get("def").getAuthenticatedIdentity().getIdk());
+		assertEquals(SqrlAuthenticationStatus.CORRELATOR_ISSUED, resultTable.get("ghi").getAuthenticationStatus());
+	}
+
+	@Test
+	public void testRollback() {
+		SqrlPersistence sqrlPersistence = factory.createSqrlPersistence();
+		sqrlPersistence.createCorrelator("abc", TestCaseUtil.AWHILE_FROM_NOW);
+		sqrlPersistence.markTokenAsUsed("nut1", TestCaseUtil.AWHILE_FROM_NOW);
+		sqrlPersistence.closeRollback();
+		assertTrue(sqrlPersistence.isClosed());
+
+		sqrlPersistence = factory.createSqrlPersistence();
+		assertNull(sqrlPersistence.fetchSqrlCorrelator("abc"));
+		assertFalse(sqrlPersistence.hasTokenBeenUsed("nut1"));
+		sqrlPersistence.closeCommit();
+	}
+
+	@Test
+	public void testStatusChangesLogged() {
+		SqrlPersistence sqrlPersistence = factory.createSqrlPersistence();
+		long sinceSequence = 0;
+		for (final SqrlCorrelatorStatusChange change : sqrlPersistence.fetchSqrlCorrelatorStatusChangesSince(0,
+				Integer.MAX_VALUE)) {
+			sinceSequence = Math.max(sinceSequence, change.getSequence());
+		}
+		sqrlPersistence.createCorrelator("abc", TestCaseUtil.AWHILE_FROM_NOW);
+		sqrlPersistence.createCorrelator("def", TestCaseUtil.AWHILE_FROM_NOW)
+		.setAuthenticationStatus(SqrlAuthenticationStatus.COMMUNICATING);
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = factory.createSqrlPersistence();
+		sqrlPersistence.fetchSqrlCorrelatorRequired("abc").setAuthenticationStatus(SqrlAuthenticationStatus.COMMUNICATING);
+		sqrlPersistence.fetchSqrlCorrelatorRequired("def").getTransientAuthDataTable().put("a", "1");
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = factory.createSqrlPersistence();
+		final List<SqrlCorrelatorStatusChange> changeList = sqrlPersistence
+				.fetchSqrlCorrelatorStatusChangesSince(sinceSequence, 10);
+		sqrlPersistence.closeCommit();
+		assertEquals(2, changeList.size());
+		assertEquals("def", changeList.get(0).getCorrelator());
+		assertEquals("abc", changeList.get(1).getCorrelator());
+		assertEquals(SqrlAuthenticationStatus.COMMUNICATING, changeList.get(1).getAuthenticationStatus());
+		assertEquals(changeList.get(0).getSequence() + 1, changeList.get(1).getSequence());
+	}
+
+	@Test
+	public void testCleanupRemovesOrphanedTransientAuthData() throws Exception {
+		final DataSource dataSource = TestCaseUtil.buildDerbyDataSource();
+		// Orphans can only exist where the foreign key isn't enforced, such as MyISAM tables
+		try (Connection connection = dataSource.getConnection();
+				Statement statement = connection.createStatement()) {
+			statement.executeUpdate("ALTER TABLE sqrl_transient_auth_data DROP CONSTRAINT " + TRANSIENT_DATA_FK);
+			statement.executeUpdate("INSERT INTO sqrl_transient_auth_data (id, name, value) VALUES (-1, 'a', '1')");
+		}
+		try {
+			SqrlPersistence sqrlPersistence = factory.createSqrlPersistence();
+			sqrlPersistence.createCorrelator("abc", TestCaseUtil.AWHILE_FROM_NOW).getTransientAuthDataTable()
+			.put("a", "1");
+			sqrlPersistence.closeCommit();
+
+			sqrlPersistence = factory.createSqrlPersistence();
+			final SqrlPersistenceCleanupResult result = sqrlPersistence.cleanUpExpiredEntries(10);
+			sqrlPersistence.closeCommit();
+			assertEquals(1, result.getTransientAuthDataCount());
+			sqrlPersistence = factory.createSqrlPersistence();
+			assertEquals("1", sqrlPersistence.fetchTransientAuthData("abc", "a"));
+			sqrlPersistence.closeCommit();
+		} finally {
+			try (Connection connection = dataSource.getConnection();
+					Statement statement = connection.createStatement()) {
+				statement.executeUpdate("DELETE FROM sqrl_transient_auth_data WHERE id = -1");
+				statement.executeUpdate("ALTER TABLE sqrl_transient_auth_data ADD CONSTRAINT " + TRANSIENT_DATA_FK
+						+ " FOREIGN KEY (id) REFERENCES sqrl_correlator (id)");
+			}
+		}
+	}
+
+	@Test
+	public void testTokenReplayRejected() {
+		SqrlPersistence sqrlPersistence = factory.createSqrlPersistence();
+		sqrlPersistence.markTokenAsUsed("nut1", TestCaseUtil.AWHILE_FROM_NOW);
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = factory.createSqrlPersistence();
+		try {
+			sqrlPersistence.markTokenAsUsed("nut1", TestCaseUtil.AWHILE_FROM_NOW);
+			fail("Exception expected");
+		} catch (final SqrlPersistenceException e) {
+			sqrlPersistence.closeRollback();
+		}
+	}
+
+	@Test
+	public void testIdBlocksDoNotOverlap() throws Exception {
+		final DataSource dataSource = TestCaseUtil.buildDerbyDataSource();
+		// Nodes with different block sizes, and JPA, share the generator row
+		final SqrlIdBlockAllocator pooled = new SqrlIdBlockAllocator(dataSource, 50);
+		final SqrlIdBlockAllocator unpooled = new SqrlIdBlockAllocator(dataSource, 1);
+		final Set<Long> idSet = new HashSet<>();
+		for (int i = 0; i < 120; i++) {
+			assertTrue(idSet.add(pooled.nextId("test_gen")));
+			assertTrue(idSet.add(unpooled.nextId("test_gen")));
+		}
+		final long first = pooled.nextId("test_gen");
+		assertEquals(first + 1, pooled.nextId("test_gen"));
+		assertTrue(idSet.add(first));
+
+		final Set<Long> correlatorIdSet = new HashSet<>();
+		final SqrlPersistence jpaPersistence = new SqrlJpaPersistenceFactory().createSqrlPersistence();
+		final SqrlPersistence jdbcPersistence = factory.createSqrlPersistence();
+		for (int i = 0; i < 60; i++) {
+			assertTrue(correlatorIdSet
+					.add(jpaPersistence.createCorrelator("jpa" + i, TestCaseUtil.AWHILE_FROM_NOW).getId()));
+			assertTrue(correlatorIdSet
+					.add(jdbcPersistence.createCorrelator("jdbc" + i, TestCaseUtil.AWHILE_FROM_NOW).getId()));
+		}
+		jpaPersistence.closeCommit();
+		jdbcPersistence.closeCommit();
+	}
+}
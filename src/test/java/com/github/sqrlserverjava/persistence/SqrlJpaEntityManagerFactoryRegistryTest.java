@@ -0,0 +1,47 @@
+package com.github.sqrlserverjava.persistence;
+
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNotSame;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.TestCaseUtil;
+
+public class SqrlJpaEntityManagerFactoryRegistryTest {
+	@After
+	public void tearDown() {
+		SqrlJpaEntityManagerFactoryRegistry.closeAll();
+	}
+
+	@Test
+	public void testFactorySharedAcrossProviders() throws Throwable {
+		final SqrlPersistence first = TestCaseUtil.createSqrlPersistence();
+		final SqrlPersistence second = TestCaseUtil.createSqrlPersistence();
+		try {
+			assertSame(TestCaseUtil.extractEntityManagerFactory(first),
+					TestCaseUtil.extractEntityManagerFactory(second));
+		} finally {
+			first.closeCommit();
+			second.closeCommit();
+		}
+	}
+
+	@Test
+	public void testClosedFactoryIsRebuilt() {
+		final EntityManagerFactory original = SqrlJpaEntityManagerFactoryRegistry
+				.get(SqrlJpaPersistenceProvider.PERSISTENCE_UNIT_NAME);
+		SqrlJpaEntityManagerFactoryRegistry.closeAll();
+		assertFalse(original.isOpen());
+
+		final EntityManagerFactory rebuilt = SqrlJpaEntityManagerFactoryRegistry
+				.get(SqrlJpaPersistenceProvider.PERSISTENCE_UNIT_NAME);
+		assertNotSame(original, rebuilt);
+		assertTrue(rebuilt.isOpen());
+	}
+}
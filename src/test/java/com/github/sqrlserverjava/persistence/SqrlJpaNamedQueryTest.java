@@ -0,0 +1,54 @@
+package com.github.sqrlserverjava.persistence;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.exception.SqrlPersistenceException;
+
+public class SqrlJpaNamedQueryTest {
+
+	@After
+	public void tearDown() {
+		SqrlJpaEntityManagerFactoryRegistry.closeAll();
+	}
+
+	@Test
+	public void testAllQueriesValid() {
+		final EntityManagerFactory entityManagerFactory = SqrlJpaEntityManagerFactoryRegistry
+				.get(SqrlJpaPersistenceProvider.PERSISTENCE_UNIT_NAME);
+		SqrlJpaNamedQuery.validate(entityManagerFactory);
+	}
+
+	@Test
+	public void testExecutionCounted() {
+		final long countBefore = SqrlJpaNamedQuery.IDENTITY_BY_IDK.getExecutionCount();
+		final long timeBefore = SqrlJpaNamedQuery.IDENTITY_BY_IDK.getTotalExecutionTimeNanos();
+		final SqrlPersistence sqrlPersistence = new SqrlJpaPersistenceProvider(
+				SqrlJpaEntityManagerFactoryRegistry.get(SqrlJpaPersistenceProvider.PERSISTENCE_UNIT_NAME));
+		try {
+			sqrlPersistence.fetchSqrlIdentity("nosuchidk");
+			sqrlPersistence.fetchSqrlIdentity("nosuchidk");
+		} finally {
+			sqrlPersistence.closeRollback();
+		}
+		assertEquals(countBefore + 2, SqrlJpaNamedQuery.IDENTITY_BY_IDK.getExecutionCount());
+		assertTrue(SqrlJpaNamedQuery.IDENTITY_BY_IDK.getTotalExecutionTimeNanos() > timeBefore);
+	}
+
+	@Test
+	public void testBrokenQueryFailsStartup() {
+		try {
+			SqrlJpaEntityManagerFactoryRegistry.get("javasqrl-persistence-broken-query");
+			fail("Exception expected");
+		} catch (final SqrlPersistenceException e) {
+			// Expected
+		}
+	}
+}
@@ -1,14 +1,14 @@
 package com.github.sqrlserverjava.persistence;
 
+import static junit.framework.TestCase.assertEquals;
 import static junit.framework.TestCase.assertFalse;
 import static junit.framework.TestCase.assertNotNull;
+import static junit.framework.TestCase.assertNull;
 import static junit.framework.TestCase.fail;
 import static org.junit.Assert.assertTrue;
 
 import java.util.Date;
-
-import javax.persistence.EntityManagerFactory;
-import javax.persistence.Persistence;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.After;
 import org.junit.Test;
@@ -18,22 +18,17 @@ import com.github.sqrlserverjava.TestCaseUtil;
 import com.github.sqrlserverjava.exception.SqrlPersistenceException;
 
 import junitx.framework.ObjectAssert;
-import junitx.util.PrivateAccessor;
 
 public class SqrlJpaPersistenceCleanupTest {
 	@After
-	public void tearDown() throws NoSuchFieldException {
+	public void tearDown() {
 		/*
 		 * This was found to be necessary becuase of this error: SQLTransactionRollbackException: A lock could not be
 		 * obtained within the time requested Error Code: 30000 Call: SELECT id, authenticationStatus, expiryTime,
 		 * value, authenticated_identity FROM sqrl_correlator Query: ReadAllQuery(referenceClass=SqrlCorrelator sql=
 		 * "SELECT id, authenticationStatus, expiryTime, value, authenticated_identity FROM sqrl_correlator")
 		 */
-		EntityManagerFactory entityManagerFactory = (EntityManagerFactory) PrivateAccessor
-				.getField(SqrlJpaPersistenceProvider.class, "entityManagerFactory");
-		entityManagerFactory.close();
-		entityManagerFactory = Persistence.createEntityManagerFactory(SqrlJpaPersistenceProvider.PERSISTENCE_UNIT_NAME);
-		PrivateAccessor.setField(SqrlJpaPersistenceProvider.class, "entityManagerFactory", entityManagerFactory);
+		SqrlJpaEntityManagerFactoryRegistry.closeAll();
 	}
 
 	@Test
@@ -50,7 +45,7 @@ public class SqrlJpaPersistenceCleanupTest {
 
 		// Execute
 		sqrlPersistence = TestCaseUtil.createSqrlPersistence();
-		sqrlPersistence.cleanUpExpiredEntries();
+		sqrlPersistence.cleanUpExpiredEntries(Integer.MAX_VALUE);
 		sqrlPersistence.closeCommit();
 
 		// Verify
@@ -79,7 +74,7 @@ public class SqrlJpaPersistenceCleanupTest {
 
 		// Execute
 		sqrlPersistence = TestCaseUtil.createSqrlPersistence();
-		sqrlPersistence.cleanUpExpiredEntries();
+		sqrlPersistence.cleanUpExpiredEntries(Integer.MAX_VALUE);
 		sqrlPersistence.closeCommit();
 
 		// Verify
@@ -89,4 +84,44 @@ public class SqrlJpaPersistenceCleanupTest {
 		sqrlPersistence.closeCommit();
 	}
 
+	@Test
+	public void testCleanupTaskDeletesInBatches() throws Throwable {
+		SqrlPersistence sqrlPersistence = TestCaseUtil.createEmptySqrlPersistence();
+		final long now = System.currentTimeMillis();
+		for (int i = 0; i < 5; i++) {
+			sqrlPersistence.createCorrelator("delete" + i, new Date(now - 1000)).getTransientAuthDataTable()
+			.put("name", "value" + i);
+		}
+		sqrlPersistence.createCorrelator("keep", new Date(now + 5000));
+		sqrlPersistence.closeCommit();
+
+		final SqrlPersistenceCleanupTask task = new SqrlPersistenceCleanupTask(TestCaseUtil.getSqrlPersistenceFactory(), 2,
+				TimeUnit.MINUTES.toMillis(1));
+		task.run();
+
+		assertEquals(5, task.getLastRunResult().getCorrelatorCount());
+		sqrlPersistence = TestCaseUtil.createSqrlPersistence();
+		assertNotNull(sqrlPersistence.fetchSqrlCorrelator("keep"));
+		for (int i = 0; i < 5; i++) {
+			assertNull(sqrlPersistence.fetchSqrlCorrelator("delete" + i));
+		}
+		sqrlPersistence.closeCommit();
+	}
+
+	@Test
+	public void testCleanupTaskStopsAtTimeBudget() throws Throwable {
+		SqrlPersistence sqrlPersistence = TestCaseUtil.createEmptySqrlPersistence();
+		final long now = System.currentTimeMillis();
+		for (int i = 0; i < 3; i++) {
+			sqrlPersistence.createCorrelator("delete" + i, new Date(now - 1000));
+		}
+		sqrlPersistence.closeCommit();
+
+		// A budget of 0 allows exactly one batch
+		final SqrlPersistenceCleanupTask task = new SqrlPersistenceCleanupTask(TestCaseUtil.getSqrlPersistenceFactory(), 1, 0);
+		task.run();
+		assertEquals(1, task.getLastRunResult().getCorrelatorCount());
+		task.run();
+		assertEquals(1, task.getLastRunResult().getCorrelatorCount());
+	}
 }
@@ -0,0 +1,98 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.TestCaseUtil;
+import com.github.sqrlserverjava.util.SqrlConstants;
+
+/**
+ * Measures backchannel requests/sec against the embedded derby test database. Each invocation opens and commits the
+ * three persistence contexts that {@code SqrlClientFacingOperations.handleSqrlClientRequest} uses.
+ * <p>
+ * <b>perProvider</b> builds an {@link EntityManagerFactory} for every provider as the deprecated constructor used to,
+ * <b>shared</b> uses {@link SqrlJpaEntityManagerFactoryRegistry}
+ * <p>
+ * Run via {@link #main(String[])} from the IDE or with the test classpath, it is not part of the unit test suite
+ *
+ * @author Dave Badia
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SqrlJpaPersistenceFactoryBenchmark {
+	private static final String CORRELATOR = "benchmarkCorrelator";
+
+	@Param({ "perProvider", "shared" })
+	private String factoryLifecycle;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		final SqrlPersistence sqrlPersistence = TestCaseUtil.createEmptySqrlPersistence();
+		sqrlPersistence.createCorrelator(CORRELATOR, TestCaseUtil.AWHILE_FROM_NOW).getTransientAuthDataTable()
+				.put(SqrlConstants.TRANSIENT_NAME_SERVER_PARROT, "parrot");
+		sqrlPersistence.closeCommit();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		SqrlJpaEntityManagerFactoryRegistry.closeAll();
+	}
+
+	@Benchmark
+	public String backchannelRequest() {
+		// Process the request
+		SqrlPersistence sqrlPersistence = createProvider();
+		final String parrot = sqrlPersistence.fetchTransientAuthData(CORRELATOR,
+				SqrlConstants.TRANSIENT_NAME_SERVER_PARROT);
+		sqrlPersistence.closeCommit();
+		// Build the reply
+		sqrlPersistence = createProvider();
+		sqrlPersistence.fetchSqrlCorrelatorRequired(CORRELATOR);
+		sqrlPersistence.closeCommit();
+		// Update the server parrot
+		sqrlPersistence = createProvider();
+		sqrlPersistence.fetchSqrlCorrelatorRequired(CORRELATOR);
+		sqrlPersistence.closeCommit();
+		return parrot;
+	}
+
+	private SqrlPersistence createProvider() {
+		if ("perProvider".equals(factoryLifecycle)) {
+			// Intentionally never closed, this is what the old constructor did
+			final EntityManagerFactory entityManagerFactory = Persistence
+					.createEntityManagerFactory(SqrlJpaPersistenceProvider.PERSISTENCE_UNIT_NAME);
+			return new SqrlJpaPersistenceProvider(entityManagerFactory);
+		}
+		return new SqrlJpaPersistenceFactory().createSqrlPersistence();
+	}
+
+	public static void main(final String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(SqrlJpaPersistenceFactoryBenchmark.class.getSimpleName()).build())
+				.run();
+	}
+}
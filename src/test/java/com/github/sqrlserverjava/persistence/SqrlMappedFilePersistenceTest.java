@@ -0,0 +1,185 @@
+package com.github.sqrlserverjava.persistence;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNotNull;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Date;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.SqrlPersistenceFactory;
+import com.github.sqrlserverjava.TestCaseUtil;
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+
+public class SqrlMappedFilePersistenceTest {
+	private static final int SMALL_SEGMENT_SIZE = 4096;
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private File							directory;
+	private SqrlInMemoryPersistenceStore	identityStore;
+	private SqrlPersistenceFactory			identityFactory;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = temporaryFolder.newFolder("sqrl");
+		identityStore = new SqrlInMemoryPersistenceStore();
+		identityFactory = new SqrlInMemoryPersistenceFactory(identityStore);
+	}
+
+	@Test
+	public void testStateRecoveredAfterRestart() throws Exception {
+		SqrlMappedFilePersistenceFactory factory = new SqrlMappedFilePersistenceFactory(identityFactory, directory);
+		SqrlPersistence sqrlPersistence = factory.createSqrlPersistence();
+		sqrlPersistence.createCorrelator("abc", TestCaseUtil.AWHILE_FROM_NOW);
+		sqrlPersistence.createCorrelator("def", TestCaseUtil.AWHILE_FROM_NOW);
+		sqrlPersistence.createCorrelator("expired", new Date(System.currentTimeMillis() + 200));
+		sqrlPersistence.markTokenAsUsed("token1", TestCaseUtil.AWHILE_FROM_NOW);
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = factory.createSqrlPersistence();
+		final SqrlCorrelator sqrlCorrelator = sqrlPersistence.fetchSqrlCorrelatorRequired("abc");
+		sqrlCorrelator.setAuthenticationStatus(SqrlAuthenticationStatus.COMMUNICATING);
+		sqrlCorrelator.getTransientAuthDataTable().put("parrot", "123");
+		sqrlPersistence.deleteSqrlCorrelator(sqrlPersistence.fetchSqrlCorrelatorRequired("def"));
+		sqrlPersistence.closeCommit();
+
+		Thread.sleep(300);
+		factory = new SqrlMappedFilePersistenceFactory(identityFactory, directory);
+		sqrlPersistence = factory.createSqrlPersistence();
+		final SqrlCorrelator recovered = sqrlPersistence.fetchSqrlCorrelator("abc");
+		assertNotNull(recovered);
+		assertEquals(SqrlAuthenticationStatus.COMMUNICATING, recovered.getAuthenticationStatus());
+		assertEquals("123", sqrlPersistence.fetchTransientAuthData("abc", "parrot"));
+		assertNull(sqrlPersistence.fetchSqrlCorrelator("def"));
+		assertNull(sqrlPersistence.fetchSqrlCorrelator("expired"));
+		assertTrue(sqrlPersistence.hasTokenBeenUsed("token1"));
+		assertFalse(sqrlPersistence.hasTokenBeenUsed("token2"));
+		sqrlPersistence.closeCommit();
+	}
+
+	@Test
+	public void testRollbackNotLogged() {
+		SqrlMappedFilePersistenceFactory factory = new SqrlMappedFilePersistenceFactory(identityFactory, directory);
+		final SqrlPersistence sqrlPersistence = factory.createSqrlPersistence();
+		sqrlPersistence.createCorrelator("abc", TestCaseUtil.AWHILE_FROM_NOW);
+		sqrlPersistence.closeRollback();
+
+		factory = new SqrlMappedFilePersistenceFactory(identityFactory, directory);
+		assertEquals(0, factory.getStore().getCorrelatorCount());
+	}
+
+	@Test
+	public void testTornTailIgnored() throws Exception {
+		SqrlMappedFilePersistenceFactory factory = new SqrlMappedFilePersistenceFactory(identityFactory, directory,
+				SMALL_SEGMENT_SIZE, false);
+		SqrlPersistence sqrlPersistence = factory.createSqrlPersistence();
+		sqrlPersistence.createCorrelator("abc", TestCaseUtil.AWHILE_FROM_NOW);
+		sqrlPersistence.closeCommit();
+		sqrlPersistence = factory.createSqrlPersistence();
+		sqrlPersistence.createCorrelator("def", TestCaseUtil.AWHILE_FROM_NOW);
+		sqrlPersistence.closeCommit();
+
+		// Simulate a crash part way through the last append by corrupting its payload
+		final File[] segments = directory.listFiles();
+		assertEquals(1, segments.length);
+		try (RandomAccessFile file = new RandomAccessFile(segments[0], "rw")) {
+			long lastNonZero = file.length() - 1;
+			for (; lastNonZero > 0; lastNonZero--) {
+				file.seek(lastNonZero);
+				if (file.readByte() != 0) {
+					break;
+				}
+			}
+			file.seek(lastNonZero);
+			file.writeByte(0x7f);
+		}
+
+		factory = new SqrlMappedFilePersistenceFactory(identityFactory, directory, SMALL_SEGMENT_SIZE, false);
+		sqrlPersistence = factory.createSqrlPersistence();
+		assertNotNull(sqrlPersistence.fetchSqrlCorrelator("abc"));
+		assertNull(sqrlPersistence.fetchSqrlCorrelator("def"));
+		sqrlPersistence.createCorrelator("ghi", TestCaseUtil.AWHILE_FROM_NOW);
+		sqrlPersistence.closeCommit();
+
+		factory = new SqrlMappedFilePersistenceFactory(identityFactory, directory, SMALL_SEGMENT_SIZE, false);
+		sqrlPersistence = factory.createSqrlPersistence();
+		assertNotNull(sqrlPersistence.fetchSqrlCorrelator("abc"));
+		assertNotNull(sqrlPersistence.fetchSqrlCorrelator("ghi"));
+		sqrlPersistence.closeCommit();
+	}
+
+	@Test
+	public void testFullSegmentCompacted() {
+		SqrlMappedFilePersistenceFactory factory = new SqrlMappedFilePersistenceFactory(identityFactory, directory,
+				SMALL_SEGMENT_SIZE, false);
+		for (int i = 0; i < 500; i++) {
+			final SqrlPersistence sqrlPersistence = factory.createSqrlPersistence();
+			final SqrlCorrelator sqrlCorrelator = sqrlPersistence.createCorrelator("correlator" + (i % 10),
+					TestCaseUtil.AWHILE_FROM_NOW);
+			sqrlCorrelator.getTransientAuthDataTable().put("count", Integer.toString(i));
+			sqrlPersistence.closeCommit();
+			if (i % 10 == 9) {
+				// Delete the batch so only the last 10 survive
+				final SqrlPersistence deletePersistence = factory.createSqrlPersistence();
+				for (int j = 0; j < 10 && i < 499; j++) {
+					deletePersistence.deleteSqrlCorrelator(deletePersistence.fetchSqrlCorrelatorRequired("correlator" + j));
+				}
+				deletePersistence.closeCommit();
+			}
+		}
+		final File[] segments = directory.listFiles();
+		assertEquals(1, segments.length);
+		assertFalse("segment should have been compacted", segments[0].getName().endsWith("-1.log"));
+		assertEquals(SMALL_SEGMENT_SIZE, segments[0].length());
+
+		factory = new SqrlMappedFilePersistenceFactory(identityFactory, directory, SMALL_SEGMENT_SIZE, false);
+		assertEquals(10, factory.getStore().getCorrelatorCount());
+		final SqrlPersistence sqrlPersistence = factory.createSqrlPersistence();
+		assertEquals("499", sqrlPersistence.fetchTransientAuthData("correlator9", "count"));
+		sqrlPersistence.closeCommit();
+	}
+
+	@Test
+	public void testIdentitiesInIdentityStore() {
+		SqrlPersistenceFactory factory = new SqrlMappedFilePersistenceFactory(identityFactory, directory);
+		SqrlPersistence sqrlPersistence = factory.createSqrlPersistence();
+		sqrlPersistence.createAndEnableSqrlIdentity("idk1");
+		sqrlPersistence.createCorrelator("abc", TestCaseUtil.AWHILE_FROM_NOW);
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = factory.createSqrlPersistence();
+		sqrlPersistence.userAuthenticatedViaSqrl("idk1", "abc");
+		sqrlPersistence.closeCommit();
+		assertTrue(identityStore.idkIndex.containsKey("idk1"));
+
+		factory = new SqrlMappedFilePersistenceFactory(identityFactory, directory);
+		sqrlPersistence = factory.createSqrlPersistence();
+		final SqrlCorrelator sqrlCorrelator = sqrlPersistence.fetchSqrlCorrelator("abc");
+		assertEquals(SqrlAuthenticationStatus.AUTHENTICATED_BROWSER, sqrlCorrelator.getAuthenticationStatus());
+		assertEquals("idk1", sqrlCorrelator.getAuthenticatedIdentity().getIdk());
+		assertNotNull(sqrlPersistence.fetchSqrlCorrelatorStatusChangesSince(0, 10));
+		sqrlPersistence.closeCommit();
+	}
+
+	@Test
+	public void testIdentityFactoryRequired() {
+		try {
+			new SqrlMappedFilePersistenceFactory(null, directory);
+			fail("Exception expected");
+		} catch (final IllegalArgumentException e) {
+			// Expected
+		}
+	}
+}
@@ -0,0 +1,156 @@
+package com.github.sqrlserverjava.persistence;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNotNull;
+import static junit.framework.TestCase.assertNull;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.Collections;
+import java.util.Map;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.TestCaseUtil;
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+
+public class SqrlReadReplicaRoutingPersistenceTest {
+	private static final long READ_YOUR_WRITES_MILLIS = 60_000;
+
+	private SqrlJdbcPersistenceFactory	primaryFactory;
+	private SqrlJdbcPersistenceFactory	replicaFactory;
+
+	@Before
+	public void setUp() throws Throwable {
+		primaryFactory = Mockito.spy(new SqrlJdbcPersistenceFactory(TestCaseUtil.buildDerbyDataSource()));
+		replicaFactory = Mockito.spy(new SqrlJdbcPersistenceFactory(buildReplicaDataSource()));
+		TestCaseUtil.createEmptySqrlPersistence().closeCommit();
+		// Only the replica has this correlator, so we can tell which database answered
+		final SqrlPersistence replicaPersistence = replicaFactory.createSqrlPersistence();
+		if (replicaPersistence.fetchSqrlCorrelator("replicaOnly") == null) {
+			replicaPersistence.createCorrelator("replicaOnly", TestCaseUtil.AWHILE_FROM_NOW);
+		}
+		replicaPersistence.closeCommit();
+		Mockito.clearInvocations(primaryFactory, replicaFactory);
+	}
+
+	@After
+	public void tearDown() {
+		SqrlJpaEntityManagerFactoryRegistry.closeAll();
+	}
+
+	/**
+	 * A second embedded derby database with the same schema
+	 */
+	private static EmbeddedDataSource buildReplicaDataSource() {
+		final EntityManagerFactory entityManagerFactory = Persistence.createEntityManagerFactory(
+				SqrlJpaPersistenceProvider.PERSISTENCE_UNIT_NAME, Collections
+				.singletonMap("javax.persistence.jdbc.url", "jdbc:derby:memory:sqrlreplica;create=true"));
+		try {
+			// Triggers schema creation
+			entityManagerFactory.createEntityManager().close();
+		} finally {
+			entityManagerFactory.close();
+		}
+		final EmbeddedDataSource dataSource = new EmbeddedDataSource();
+		dataSource.setDatabaseName("memory:sqrlreplica");
+		return dataSource;
+	}
+
+	@Test
+	public void testStatusPollingReadsGoToReplica() {
+		final SqrlReadReplicaRoutingPersistenceFactory factory = new SqrlReadReplicaRoutingPersistenceFactory(
+				primaryFactory, replicaFactory, READ_YOUR_WRITES_MILLIS);
+
+		final SqrlPersistence sqrlPersistence = factory.createSqrlPersistence();
+		assertNotNull(sqrlPersistence.fetchSqrlCorrelator("replicaOnly"));
+		final Map<String, SqrlAuthenticationStatus> statusTable = Collections.singletonMap("replicaOnly",
+				SqrlAuthenticationStatus.CORRELATOR_ISSUED);
+		assertEquals(0, sqrlPersistence.fetchSqrlCorrelatorStatusUpdates(statusTable).size());
+		assertEquals(1, sqrlPersistence.fetchSqrlCorrelatorsDetached(statusTable.keySet()).size());
+		assertNull(sqrlPersistence.fetchSqrlIdentityByUserXref("someone"));
+		sqrlPersistence.closeCommit();
+
+		verify(primaryFactory, never()).createSqrlPersistence();
+		verify(replicaFactory, times(1)).createSqrlPersistence();
+	}
+
+	@Test
+	public void testWritesGoToPrimary() {
+		final SqrlReadReplicaRoutingPersistenceFactory factory = new SqrlReadReplicaRoutingPersistenceFactory(
+				primaryFactory, replicaFactory, READ_YOUR_WRITES_MILLIS);
+
+		final SqrlPersistence sqrlPersistence = factory.createSqrlPersistence();
+		sqrlPersistence.createCorrelator("abc", TestCaseUtil.AWHILE_FROM_NOW);
+		// The rest of the unit of work sees its own uncommitted change
+		assertNotNull(sqrlPersistence.fetchSqrlCorrelator("abc"));
+		assertNull(sqrlPersistence.fetchSqrlCorrelator("replicaOnly"));
+		sqrlPersistence.closeCommit();
+
+		verify(primaryFactory, times(1)).createSqrlPersistence();
+		verify(replicaFactory, never()).createSqrlPersistence();
+		final SqrlPersistence primaryPersistence = primaryFactory.createSqrlPersistence();
+		assertNotNull(primaryPersistence.fetchSqrlCorrelator("abc"));
+		primaryPersistence.closeCommit();
+	}
+
+	@Test
+	public void testReadYourWrites() {
+		final SqrlReadReplicaRoutingPersistenceFactory factory = new SqrlReadReplicaRoutingPersistenceFactory(
+				primaryFactory, replicaFactory, READ_YOUR_WRITES_MILLIS);
+		SqrlPersistence sqrlPersistence = factory.createSqrlPersistence();
+		sqrlPersistence.createCorrelator("abc", TestCaseUtil.AWHILE_FROM_NOW);
+		sqrlPersistence.closeCommit();
+
+		// The replica hasn't received abc, but we just wrote it so the primary is used
+		sqrlPersistence = factory.createSqrlPersistence();
+		assertNotNull(sqrlPersistence.fetchSqrlCorrelator("abc"));
+		assertEquals(1, sqrlPersistence.fetchSqrlCorrelatorStatusUpdates(
+				Collections.singletonMap("abc", SqrlAuthenticationStatus.AUTHENTICATED_BROWSER)).size());
+		sqrlPersistence.closeCommit();
+		verify(replicaFactory, never()).createSqrlPersistence();
+
+		// Other correlators still go to the replica
+		sqrlPersistence = factory.createSqrlPersistence();
+		assertNotNull(sqrlPersistence.fetchSqrlCorrelator("replicaOnly"));
+		sqrlPersistence.closeCommit();
+		verify(replicaFactory, times(1)).createSqrlPersistence();
+	}
+
+	@Test
+	public void testReadYourWritesDisabled() {
+		final SqrlReadReplicaRoutingPersistenceFactory factory = new SqrlReadReplicaRoutingPersistenceFactory(
+				primaryFactory, replicaFactory, 0);
+		SqrlPersistence sqrlPersistence = factory.createSqrlPersistence();
+		sqrlPersistence.createCorrelator("abc", TestCaseUtil.AWHILE_FROM_NOW);
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = factory.createSqrlPersistence();
+		// Not replicated yet
+		assertNull(sqrlPersistence.fetchSqrlCorrelator("abc"));
+		sqrlPersistence.closeCommit();
+	}
+
+	@Test
+	public void testRolledBackWritesAreNotTracked() {
+		final SqrlReadReplicaRoutingPersistenceFactory factory = new SqrlReadReplicaRoutingPersistenceFactory(
+				primaryFactory, replicaFactory, READ_YOUR_WRITES_MILLIS);
+		SqrlPersistence sqrlPersistence = factory.createSqrlPersistence();
+		sqrlPersistence.createCorrelator("abc", TestCaseUtil.AWHILE_FROM_NOW);
+		sqrlPersistence.closeRollback();
+
+		sqrlPersistence = factory.createSqrlPersistence();
+		assertNull(sqrlPersistence.fetchSqrlCorrelator("abc"));
+		sqrlPersistence.closeCommit();
+		verify(replicaFactory, times(1)).createSqrlPersistence();
+	}
+}
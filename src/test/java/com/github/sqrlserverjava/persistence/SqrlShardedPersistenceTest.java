@@ -0,0 +1,200 @@
+package com.github.sqrlserverjava.persistence;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.SqrlPersistenceFactory;
+import com.github.sqrlserverjava.TestCaseUtil;
+import com.github.sqrlserverjava.enums.SqrlAuthenticationStatus;
+import com.github.sqrlserverjava.enums.SqrlIdentityFlag;
+
+public class SqrlShardedPersistenceTest {
+	private static final int	SHARD_COUNT	= 4;
+	private static final String	IDK			= "idk1";
+
+	private SqrlInMemoryPersistenceStore		identityStore;
+	private List<SqrlInMemoryPersistenceStore>	shardStoreList;
+	private SqrlShardedPersistenceFactory		factory;
+
+	@Before
+	public void setUp() {
+		identityStore = new SqrlInMemoryPersistenceStore();
+		shardStoreList = new ArrayList<>();
+		final List<SqrlPersistenceFactory> shardFactoryList = new ArrayList<>();
+		for (int i = 0; i < SHARD_COUNT; i++) {
+			final SqrlInMemoryPersistenceStore shardStore = new SqrlInMemoryPersistenceStore();
+			shardStoreList.add(shardStore);
+			shardFactoryList.add(new SqrlInMemoryPersistenceFactory(shardStore));
+		}
+		factory = new SqrlShardedPersistenceFactory(new SqrlInMemoryPersistenceFactory(identityStore),
+				shardFactoryList);
+	}
+
+	@Test
+	public void testCorrelatorsAndTokensStoredInTheirShard() {
+		final SqrlPersistence sqrlPersistence = factory.createSqrlPersistence();
+		for (int i = 0; i < 100; i++) {
+			sqrlPersistence.createCorrelator("correlator" + i, TestCaseUtil.AWHILE_FROM_NOW);
+			sqrlPersistence.markTokenAsUsed("token" + i, TestCaseUtil.AWHILE_FROM_NOW);
+		}
+		sqrlPersistence.closeCommit();
+
+		for (int i = 0; i < 100; i++) {
+			final SqrlInMemoryPersistenceStore correlatorShard = shardStoreList.get(factory.shardFor("correlator" + i));
+			assertTrue(correlatorShard.correlatorTable.containsKey("correlator" + i));
+			final SqrlPersistence shardPersistence = new SqrlInMemoryPersistenceFactory(
+					shardStoreList.get(factory.shardFor("token" + i))).createSqrlPersistence();
+			assertTrue(shardPersistence.hasTokenBeenUsed("token" + i));
+			shardPersistence.closeCommit();
+		}
+		assertTrue(identityStore.correlatorTable.isEmpty());
+		for (final SqrlInMemoryPersistenceStore shardStore : shardStoreList) {
+			assertFalse("keys should be spread across all shards", shardStore.correlatorTable.isEmpty());
+		}
+	}
+
+	@Test
+	public void testIdentitiesStoredInIdentityStore() {
+		SqrlPersistence sqrlPersistence = factory.createSqrlPersistence();
+		sqrlPersistence.createAndEnableSqrlIdentity(IDK);
+		sqrlPersistence.setSqrlFlagForIdentity(IDK, SqrlIdentityFlag.SQRLONLY, true);
+		sqrlPersistence.closeCommit();
+
+		assertTrue(identityStore.idkIndex.containsKey(IDK));
+		for (final SqrlInMemoryPersistenceStore shardStore : shardStoreList) {
+			assertTrue(shardStore.idkIndex.isEmpty());
+		}
+		sqrlPersistence = factory.createSqrlPersistence();
+		assertTrue(sqrlPersistence.doesSqrlIdentityExistByIdk(IDK));
+		assertTrue(sqrlPersistence.fetchSqrlFlagForIdentity(IDK, SqrlIdentityFlag.SQRLONLY));
+		sqrlPersistence.closeCommit();
+	}
+
+	@Test
+	public void testAuthenticatedIdentityResolvedAcrossStores() {
+		SqrlPersistence sqrlPersistence = factory.createSqrlPersistence();
+		sqrlPersistence.createAndEnableSqrlIdentity(IDK);
+		sqrlPersistence.createCorrelator("abc", TestCaseUtil.AWHILE_FROM_NOW);
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = factory.createSqrlPersistence();
+		sqrlPersistence.userAuthenticatedViaSqrl(IDK, "abc");
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = factory.createSqrlPersistence();
+		final SqrlCorrelator sqrlCorrelator = sqrlPersistence.fetchSqrlCorrelator("abc");
+		assertEquals(SqrlAuthenticationStatus.AUTHENTICATED_BROWSER, sqrlCorrelator.getAuthenticationStatus());
+		assertEquals(IDK, sqrlCorrelator.getAuthenticatedIdentity().getIdk());
+		final Set<String> correlatorSet = new HashSet<>();
+		correlatorSet.add("abc");
+		assertEquals(IDK, sqrlPersistence.fetchSqrlCorrelatorsDetached(correlatorSet).get("abc")
+				.getAuthenticatedIdentity().getIdk());
+		sqrlPersistence.closeCommit();
+	}
+
+	@Test
+	public void testStatusUpdatesScatterGather() {
+		SqrlPersistence sqrlPersistence = factory.createSqrlPersistence();
+		final Map<String, SqrlAuthenticationStatus> browserStatusTable = new HashMap<>();
+		final Set<Integer> shardSet = new HashSet<>();
+		for (int i = 0; i < 20; i++) {
+			sqrlPersistence.createCorrelator("correlator" + i, TestCaseUtil.AWHILE_FROM_NOW);
+			browserStatusTable.put("correlator" + i, SqrlAuthenticationStatus.CORRELATOR_ISSUED);
+			shardSet.add(factory.shardFor("correlator" + i));
+		}
+		sqrlPersistence.closeCommit();
+		assertTrue(shardSet.size() > 1);
+
+		sqrlPersistence = factory.createSqrlPersistence();
+		for (int i = 0; i < 20; i += 2) {
+			sqrlPersistence.fetchSqrlCorrelatorRequired("correlator" + i)
+			.setAuthenticationStatus(SqrlAuthenticationStatus.COMMUNICATING);
+		}
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = factory.createSqrlPersistence();
+		final Map<String, SqrlAuthenticationStatus> changedTable = sqrlPersistence
+				.fetchSqrlCorrelatorStatusUpdates(browserStatusTable);
+		assertEquals(20, sqrlPersistence.fetchSqrlCorrelatorsDetached(browserStatusTable.keySet()).size());
+		sqrlPersistence.closeCommit();
+		assertEquals(10, changedTable.size());
+		for (int i = 0; i < 20; i += 2) {
+			assertEquals(SqrlAuthenticationStatus.COMMUNICATING, changedTable.get("correlator" + i));
+		}
+	}
+
+	@Test
+	public void testRollbackCoversAllStores() {
+		final SqrlPersistence sqrlPersistence = factory.createSqrlPersistence();
+		sqrlPersistence.createAndEnableSqrlIdentity(IDK);
+		sqrlPersistence.createCorrelator("abc", TestCaseUtil.AWHILE_FROM_NOW);
+		sqrlPersistence.closeRollback();
+		assertTrue(sqrlPersistence.isClosed());
+
+		final SqrlPersistence verifyPersistence = factory.createSqrlPersistence();
+		assertFalse(verifyPersistence.doesSqrlIdentityExistByIdk(IDK));
+		assertNull(verifyPersistence.fetchSqrlCorrelator("abc"));
+		verifyPersistence.closeCommit();
+	}
+
+	@Test
+	public void testCleanUpCoversAllShards() {
+		SqrlPersistence sqrlPersistence = factory.createSqrlPersistence();
+		final Date expired = new Date(System.currentTimeMillis() - 1000);
+		for (int i = 0; i < 20; i++) {
+			sqrlPersistence.createCorrelator("correlator" + i, expired);
+		}
+		sqrlPersistence.closeCommit();
+
+		sqrlPersistence = factory.createSqrlPersistence();
+		assertEquals(20, sqrlPersistence.cleanUpExpiredEntries(100).getCorrelatorCount());
+		sqrlPersistence.closeCommit();
+	}
+
+	@Test
+	public void testChangeLogNotSupported() {
+		final SqrlPersistence sqrlPersistence = factory.createSqrlPersistence();
+		try {
+			sqrlPersistence.fetchSqrlCorrelatorStatusChangesSince(0, 10);
+			fail("Exception expected");
+		} catch (final UnsupportedOperationException e) {
+			// Expected
+		} finally {
+			sqrlPersistence.closeRollback();
+		}
+	}
+
+	@Test
+	public void testAddingShardMovesFewKeys() {
+		final SqrlConsistentHashRing ring = new SqrlConsistentHashRing(SHARD_COUNT,
+				SqrlConsistentHashRing.DEFAULT_POINTS_PER_SHARD);
+		final SqrlConsistentHashRing biggerRing = new SqrlConsistentHashRing(SHARD_COUNT + 1,
+				SqrlConsistentHashRing.DEFAULT_POINTS_PER_SHARD);
+		final int keyCount = 10_000;
+		int movedCount = 0;
+		for (int i = 0; i < keyCount; i++) {
+			final String key = "correlator" + i;
+			if (ring.shardFor(key) != biggerRing.shardFor(key)) {
+				assertEquals("keys only move to the new shard", SHARD_COUNT, biggerRing.shardFor(key));
+				movedCount++;
+			}
+		}
+		// Ideally 1/5 of the keys
+		assertTrue("movedCount=" + movedCount, movedCount > keyCount / 10 && movedCount < keyCount * 3 / 10);
+	}
+}
@@ -0,0 +1,125 @@
+package com.github.sqrlserverjava.persistence;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import javax.sql.DataSource;
+
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.github.sqrlserverjava.SqrlPersistence;
+import com.github.sqrlserverjava.TestCaseUtil;
+import com.github.sqrlserverjava.util.SqrlConstants;
+
+/**
+ * Compares the default sqrl_transient_auth_data table mapping of {@link SqrlCorrelator#getTransientAuthDataTable()}
+ * with the compact single column mapping, for both JPA and JDBC, on the embedded derby test databases. A correlator
+ * holds the same three entries it does during a login
+ * <p>
+ * Run via {@link #main(String[])} from the IDE or with the test classpath, it is not part of the unit test suite
+ *
+ * @author Dave Badia
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SqrlTransientAuthDataMappingBenchmark {
+	private static final String	CORRELATOR						= "benchmarkCorrelator";
+	private static final String	COMPACT_PERSISTENCE_UNIT_NAME	= "javasqrl-persistence-compact";
+
+	@Param({ "jpa", "jdbc" })
+	private String provider;
+
+	@Param({ "table", "compact" })
+	private String mapping;
+
+	private final AtomicLong			counter	= new AtomicLong();
+	private Supplier<SqrlPersistence>	persistenceSupplier;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		final boolean compact = "compact".equals(mapping);
+		final String persistenceUnitName = compact ? COMPACT_PERSISTENCE_UNIT_NAME
+				: SqrlJpaPersistenceProvider.PERSISTENCE_UNIT_NAME;
+		// Also creates the schema
+		SqrlJpaEntityManagerFactoryRegistry.get(persistenceUnitName).createEntityManager().close();
+		if ("jdbc".equals(provider)) {
+			final DataSource dataSource = compact ? buildCompactDataSource() : TestCaseUtil.buildDerbyDataSource();
+			final SqrlJdbcPersistenceFactory factory = new SqrlJdbcPersistenceFactory(dataSource,
+					SqrlJdbcPersistenceFactory.DEFAULT_ID_BLOCK_SIZE, compact);
+			persistenceSupplier = factory::createSqrlPersistence;
+		} else {
+			persistenceSupplier = () -> new SqrlJpaPersistenceProvider(
+					SqrlJpaEntityManagerFactoryRegistry.get(persistenceUnitName));
+		}
+		final SqrlPersistence sqrlPersistence = persistenceSupplier.get();
+		final SqrlCorrelator sqrlCorrelator = sqrlPersistence.createCorrelator(CORRELATOR,
+				TestCaseUtil.AWHILE_FROM_NOW);
+		sqrlCorrelator.getTransientAuthDataTable().put(SqrlConstants.TRANSIENT_NAME_SERVER_PARROT, "parrot");
+		sqrlCorrelator.getTransientAuthDataTable().put(SqrlConstants.TRANSIENT_ENTRY_URL,
+				"https://127.0.0.1:8080/sqrlexample/login");
+		sqrlCorrelator.getTransientAuthDataTable().put(SqrlConstants.TRANSIENT_CPS_NONCE, "cpsNonce");
+		sqrlPersistence.closeCommit();
+	}
+
+	private static DataSource buildCompactDataSource() {
+		final EmbeddedDataSource dataSource = new EmbeddedDataSource();
+		dataSource.setDatabaseName("memory:sqrlcompact");
+		return dataSource;
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		SqrlJpaEntityManagerFactoryRegistry.closeAll();
+	}
+
+	/**
+	 * A browser polling for status: the correlator is read but its transient auth data is not
+	 */
+	@Benchmark
+	public SqrlCorrelator fetchCorrelator() {
+		final SqrlPersistence sqrlPersistence = persistenceSupplier.get();
+		final SqrlCorrelator sqrlCorrelator = sqrlPersistence.fetchSqrlCorrelatorRequired(CORRELATOR);
+		sqrlPersistence.closeCommit();
+		return sqrlCorrelator;
+	}
+
+	/**
+	 * A backchannel request: the server parrot is read and replaced
+	 */
+	@Benchmark
+	public String updateParrot() {
+		final SqrlPersistence sqrlPersistence = persistenceSupplier.get();
+		final SqrlCorrelator sqrlCorrelator = sqrlPersistence.fetchSqrlCorrelatorRequired(CORRELATOR);
+		final String previous = sqrlCorrelator.getTransientAuthDataTable()
+				.put(SqrlConstants.TRANSIENT_NAME_SERVER_PARROT, "parrot" + counter.incrementAndGet());
+		sqrlPersistence.closeCommit();
+		return previous;
+	}
+
+	public static void main(final String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(SqrlTransientAuthDataMappingBenchmark.class.getSimpleName()).build())
+		.run();
+	}
+}
@@ -0,0 +1,179 @@
+package com.github.sqrlserverjava.util;
+
+import static com.github.sqrlserverjava.util.SqrlEd25519VerifierTest.buildPrivateKey;
+import static com.github.sqrlserverjava.util.SqrlEd25519VerifierTest.sign;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNotNull;
+import static junit.framework.TestCase.assertNull;
+import static junit.framework.TestCase.assertTrue;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.github.sqrlserverjava.util.SqrlEd25519BatchVerifier.PendingSignature;
+
+import net.i2p.crypto.eddsa.EdDSAPrivateKey;
+
+public class SqrlEd25519BatchVerifierTest {
+	private static final int SIGNATURE_COUNT = 8;
+
+	private final SecureRandom	secureRandom	= new SecureRandom();
+	private final byte[][]		publicKeys		= new byte[SIGNATURE_COUNT][];
+	private final byte[][]		messages		= new byte[SIGNATURE_COUNT][];
+	private final byte[][]		signatures		= new byte[SIGNATURE_COUNT][];
+
+	public SqrlEd25519BatchVerifierTest() throws Exception {
+		for (int i = 0; i < SIGNATURE_COUNT; i++) {
+			final EdDSAPrivateKey privateKey = buildPrivateKey((byte) (i + 1));
+			publicKeys[i] = privateKey.getAbyte();
+			messages[i] = ("message " + i).getBytes(StandardCharsets.UTF_8);
+			signatures[i] = sign(privateKey, messages[i]);
+		}
+	}
+
+	@Test
+	public void testBatchEquation_allValid() throws Exception {
+		assertTrue(SqrlEd25519BatchVerifier.isBatchEquationSatisfied(prepareAll(), secureRandom));
+	}
+
+	@Test
+	public void testBatchEquation_oneWrongMessage() throws Exception {
+		messages[3] = "message x".getBytes(StandardCharsets.UTF_8);
+		assertFalse(SqrlEd25519BatchVerifier.isBatchEquationSatisfied(prepareAll(), secureRandom));
+	}
+
+	@Test
+	public void testBatchEquation_errorsWhichCancelWithoutRandomScalars() throws Exception {
+		// S + 1 and S - 1 would cancel out in a plain sum of the equations
+		addToScalar(signatures[2], 1);
+		addToScalar(signatures[5], -1);
+		final List<PendingSignature> pendingList = prepareAll();
+		for (int i = 0; i < 10; i++) {
+			assertFalse(SqrlEd25519BatchVerifier.isBatchEquationSatisfied(pendingList, secureRandom));
+		}
+	}
+
+	@Test
+	public void testVerify_concurrentAllValid() throws Exception {
+		// A long window, the batch is checked as soon as it is full
+		final SqrlEd25519BatchVerifier batchVerifier = new SqrlEd25519BatchVerifier(new SqrlEd25519Verifier(100),
+				secureRandom, 60000, SIGNATURE_COUNT);
+		for (final Boolean result : verifyConcurrently(batchVerifier)) {
+			assertTrue(result);
+		}
+		assertEquals(1, batchVerifier.getBatchCount());
+		assertEquals(SIGNATURE_COUNT, batchVerifier.getBatchedSignatureCount());
+		assertEquals(0, batchVerifier.getBatchFailureCount());
+	}
+
+	@Test
+	public void testVerify_concurrentOneInvalid() throws Exception {
+		final SqrlEd25519BatchVerifier batchVerifier = new SqrlEd25519BatchVerifier(new SqrlEd25519Verifier(100),
+				secureRandom, 60000, SIGNATURE_COUNT);
+		signatures[6][40] ^= 1;
+		final List<Boolean> resultList = verifyConcurrently(batchVerifier);
+		for (int i = 0; i < SIGNATURE_COUNT; i++) {
+			assertEquals("signature " + i, i != 6, resultList.get(i).booleanValue());
+		}
+		assertEquals(1, batchVerifier.getBatchFailureCount());
+	}
+
+	@Test
+	public void testVerify_windowExpires() throws Exception {
+		final SqrlEd25519BatchVerifier batchVerifier = new SqrlEd25519BatchVerifier(new SqrlEd25519Verifier(100),
+				secureRandom, 1, SIGNATURE_COUNT);
+		assertTrue(batchVerifier.verify(signatures[0], messages[0], publicKeys[0]));
+		assertFalse(batchVerifier.verify(signatures[0], messages[1], publicKeys[0]));
+		// Alone in its batch, so checked the normal way
+		assertEquals(0, batchVerifier.getBatchCount());
+	}
+
+	@Test
+	public void testVerify_nonCanonicalScalarSameAsSingleVerifier() throws Exception {
+		final SqrlEd25519Verifier verifier = new SqrlEd25519Verifier(100);
+		final SqrlEd25519BatchVerifier batchVerifier = new SqrlEd25519BatchVerifier(verifier, secureRandom, 1,
+				SIGNATURE_COUNT);
+		final byte[] signature = signatures[0].clone();
+		// S + L
+		final BigInteger groupOrder = BigInteger.ONE.shiftLeft(252)
+				.add(new BigInteger("27742317777372353535851937790883648493"));
+		final byte[] orderBigEndian = groupOrder.toByteArray();
+		int carry = 0;
+		for (int i = 0; i < 32; i++) {
+			final int sum = (signature[32 + i] & 0xff) + (orderBigEndian[orderBigEndian.length - 1 - i] & 0xff)
+					+ carry;
+			signature[32 + i] = (byte) sum;
+			carry = sum >> 8;
+		}
+		assertFalse(SqrlEd25519BatchVerifier.isCanonicalScalar(signature, 32));
+		assertEquals(verifier.verify(signature, messages[0], publicKeys[0]),
+				batchVerifier.verify(signature, messages[0], publicKeys[0]));
+	}
+
+	@Test
+	public void testDecodeCanonicalPoint() throws Exception {
+		final byte[] encoded = new byte[64];
+		// y = 1, x = 0: the identity
+		encoded[0] = 1;
+		assertNotNull(SqrlEd25519BatchVerifier.decodeCanonicalPoint(encoded));
+		// x = 0 with the sign bit set
+		encoded[31] = (byte) 0x80;
+		assertNull(SqrlEd25519BatchVerifier.decodeCanonicalPoint(encoded));
+		// y = p + 1, which reduces to the identity
+		encoded[0] = (byte) 0xee;
+		for (int i = 1; i < 31; i++) {
+			encoded[i] = (byte) 0xff;
+		}
+		encoded[31] = 0x7f;
+		assertNull(SqrlEd25519BatchVerifier.decodeCanonicalPoint(encoded));
+	}
+
+	private List<PendingSignature> prepareAll() throws Exception {
+		final SqrlEd25519BatchVerifier batchVerifier = new SqrlEd25519BatchVerifier(new SqrlEd25519Verifier(100),
+				secureRandom, 1, SIGNATURE_COUNT);
+		final List<PendingSignature> pendingList = new ArrayList<>();
+		for (int i = 0; i < SIGNATURE_COUNT; i++) {
+			pendingList.add(batchVerifier.prepare(signatures[i], messages[i], publicKeys[i]));
+		}
+		return pendingList;
+	}
+
+	private List<Boolean> verifyConcurrently(final SqrlEd25519BatchVerifier batchVerifier) throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(SIGNATURE_COUNT);
+		try {
+			final List<Future<Boolean>> futureList = new ArrayList<>();
+			for (int i = 0; i < SIGNATURE_COUNT; i++) {
+				final int index = i;
+				final Callable<Boolean> task = () -> batchVerifier.verify(signatures[index], messages[index],
+						publicKeys[index]);
+				futureList.add(executor.submit(task));
+			}
+			final List<Boolean> resultList = new ArrayList<>();
+			for (final Future<Boolean> future : futureList) {
+				resultList.add(future.get());
+			}
+			return resultList;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private static void addToScalar(final byte[] signature, final int delta) {
+		int carry = delta;
+		for (int i = 32; i < 64 && carry != 0; i++) {
+			final int sum = (signature[i] & 0xff) + carry;
+			signature[i] = (byte) sum;
+			carry = sum >> 8;
+		}
+	}
+}
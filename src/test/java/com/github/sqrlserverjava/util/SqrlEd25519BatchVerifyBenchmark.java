@@ -0,0 +1,92 @@
+package com.github.sqrlserverjava.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.github.sqrlserverjava.util.SqrlEd25519BatchVerifier.PendingSignature;
+
+import net.i2p.crypto.eddsa.EdDSAPrivateKey;
+
+/**
+ * Compares the CPU cost of checking a batch of signatures with {@link SqrlEd25519BatchVerifier} against checking each
+ * one with {@link SqrlEd25519Verifier}. Both run on one thread and include all per signature work, the time is per
+ * batch so divide by batchSize for the cost per signature. Public keys are warm in both
+ * <p>
+ * Run via {@link #main(String[])} from the IDE or with the test classpath, it is not part of the unit test suite
+ *
+ * @author Dave Badia
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SqrlEd25519BatchVerifyBenchmark {
+	@Param({ "8", "32", "64" })
+	private int batchSize;
+
+	private byte[][]					publicKeys;
+	private byte[][]					messages;
+	private byte[][]					signatures;
+	private SqrlEd25519Verifier			verifier;
+	private SqrlEd25519BatchVerifier	batchVerifier;
+	private SecureRandom				secureRandom;
+
+	@Setup
+	public void setUp() throws Exception {
+		publicKeys = new byte[batchSize][];
+		messages = new byte[batchSize][];
+		signatures = new byte[batchSize][];
+		for (int i = 0; i < batchSize; i++) {
+			final EdDSAPrivateKey privateKey = SqrlEd25519VerifierTest.buildPrivateKey((byte) i);
+			publicKeys[i] = privateKey.getAbyte();
+			messages[i] = ("dmVyPTENCmNtZD1xdWVyeQ0KaWRrPUNXNkVYRU1kY2xaYzNKRUpreV9Ld01GX0RoTWJrVjE1RTZRMTRweXFNTlkNCg"
+					+ i).getBytes(StandardCharsets.US_ASCII);
+			signatures[i] = SqrlEd25519VerifierTest.sign(privateKey, messages[i]);
+		}
+		verifier = new SqrlEd25519Verifier(batchSize);
+		secureRandom = new SecureRandom();
+		batchVerifier = new SqrlEd25519BatchVerifier(verifier, secureRandom, 1, batchSize);
+	}
+
+	@Benchmark
+	public void individual(final Blackhole blackhole) throws Exception {
+		for (int i = 0; i < batchSize; i++) {
+			blackhole.consume(verifier.verify(signatures[i], messages[i], publicKeys[i]));
+		}
+	}
+
+	@Benchmark
+	public boolean batch() throws Exception {
+		final List<PendingSignature> pendingList = new ArrayList<>(batchSize);
+		for (int i = 0; i < batchSize; i++) {
+			pendingList.add(batchVerifier.prepare(signatures[i], messages[i], publicKeys[i]));
+		}
+		return SqrlEd25519BatchVerifier.isBatchEquationSatisfied(pendingList, secureRandom);
+	}
+
+	public static void main(final String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(SqrlEd25519BatchVerifyBenchmark.class.getSimpleName()).build()).run();
+	}
+}
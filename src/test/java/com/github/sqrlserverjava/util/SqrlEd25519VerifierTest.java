@@ -0,0 +1,118 @@
+package com.github.sqrlserverjava.util;
+
+import static com.github.sqrlserverjava.ED25519Test.hexStringToByteArray;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+import org.junit.Test;
+
+import com.github.sqrlserverjava.exception.SqrlException;
+
+import net.i2p.crypto.eddsa.EdDSAEngine;
+import net.i2p.crypto.eddsa.EdDSAPrivateKey;
+import net.i2p.crypto.eddsa.spec.EdDSANamedCurveTable;
+import net.i2p.crypto.eddsa.spec.EdDSAParameterSpec;
+import net.i2p.crypto.eddsa.spec.EdDSAPrivateKeySpec;
+
+public class SqrlEd25519VerifierTest {
+	private static final byte[]	MESSAGE		= "This is a secret message".getBytes(StandardCharsets.UTF_8);
+	private static final byte[]	SIGNATURE	= hexStringToByteArray(
+			"94825896c7075c31bcb81f06dba2bdcd9dcf16e79288d4b9f87c248215c8468d475f429f3de3b4a2cf67fe17077ae19686020364d6d4fa7a0174bab4a123ba0f");
+	private static final byte[]	PUBLIC_KEY	= hexStringToByteArray(
+			"3b6a27bcceb6a42d62a3a8d02a6f0d73653215771de243a63ac048a18b59da29");
+
+	@Test
+	public void testVerify_cachedKeyReused() throws Exception {
+		final SqrlEd25519Verifier verifier = new SqrlEd25519Verifier(10);
+		assertTrue(verifier.verify(SIGNATURE, MESSAGE, PUBLIC_KEY));
+		assertEquals(0, verifier.getCacheHitCount());
+		assertEquals(1, verifier.getCacheMissCount());
+
+		// A copy of the key bytes must hit the same entry
+		assertTrue(verifier.verify(SIGNATURE, MESSAGE, PUBLIC_KEY.clone()));
+		assertEquals(1, verifier.getCacheHitCount());
+		assertEquals(1, verifier.getCachedKeyCount());
+	}
+
+	@Test
+	public void testVerify_invalidSignatureAfterValid() throws Exception {
+		final SqrlEd25519Verifier verifier = new SqrlEd25519Verifier(10);
+		assertTrue(verifier.verify(SIGNATURE, MESSAGE, PUBLIC_KEY));
+		final byte[] tampered = "This is a secret messagf".getBytes(StandardCharsets.UTF_8);
+		// The engine is reused, make sure no state from the last call leaks into this one
+		assertFalse(verifier.verify(SIGNATURE, tampered, PUBLIC_KEY));
+		assertTrue(verifier.verify(SIGNATURE, MESSAGE, PUBLIC_KEY));
+	}
+
+	@Test
+	public void testVerify_callerMutatesKeyBytes() throws Exception {
+		final SqrlEd25519Verifier verifier = new SqrlEd25519Verifier(10);
+		final byte[] publicKey = PUBLIC_KEY.clone();
+		assertTrue(verifier.verify(SIGNATURE, MESSAGE, publicKey));
+		final byte[] otherPublicKey = buildPrivateKey((byte) 1).getAbyte();
+		System.arraycopy(otherPublicKey, 0, publicKey, 0, publicKey.length);
+		// The cached entry must not follow the caller's array
+		assertFalse(verifier.verify(SIGNATURE, MESSAGE, publicKey));
+		assertTrue(verifier.verify(SIGNATURE, MESSAGE, PUBLIC_KEY));
+		assertEquals(2, verifier.getCachedKeyCount());
+	}
+
+	@Test(expected = SqrlException.class)
+	public void testVerify_invalidPublicKey() throws Exception {
+		final byte[] publicKey = PUBLIC_KEY.clone();
+		// Not on the curve
+		publicKey[0] ^= 1;
+		new SqrlEd25519Verifier(10).verify(SIGNATURE, MESSAGE, publicKey);
+	}
+
+	@Test
+	public void testCacheBounded_leastRecentlyUsedEvicted() throws Exception {
+		final SqrlEd25519Verifier verifier = new SqrlEd25519Verifier(2);
+		final byte[][] publicKeys = new byte[3][];
+		final byte[][] signatures = new byte[3][];
+		for (int i = 0; i < publicKeys.length; i++) {
+			final EdDSAPrivateKey privateKey = buildPrivateKey((byte) i);
+			publicKeys[i] = privateKey.getAbyte();
+			signatures[i] = sign(privateKey, MESSAGE);
+		}
+		assertTrue(verifier.verify(signatures[0], MESSAGE, publicKeys[0]));
+		assertTrue(verifier.verify(signatures[1], MESSAGE, publicKeys[1]));
+		// Use key 0 so key 1 is the eldest
+		assertTrue(verifier.verify(signatures[0], MESSAGE, publicKeys[0]));
+		assertTrue(verifier.verify(signatures[2], MESSAGE, publicKeys[2]));
+		assertEquals(2, verifier.getCachedKeyCount());
+		assertEquals(1, verifier.getCacheHitCount());
+
+		assertTrue(verifier.verify(signatures[0], MESSAGE, publicKeys[0]));
+		assertEquals(2, verifier.getCacheHitCount());
+		assertTrue(verifier.verify(signatures[1], MESSAGE, publicKeys[1]));
+		assertEquals(2, verifier.getCacheHitCount());
+	}
+
+	@Test
+	public void testCacheDisabled() throws Exception {
+		final SqrlEd25519Verifier verifier = new SqrlEd25519Verifier(0);
+		assertTrue(verifier.verify(SIGNATURE, MESSAGE, PUBLIC_KEY));
+		assertTrue(verifier.verify(SIGNATURE, MESSAGE, PUBLIC_KEY));
+		assertEquals(0, verifier.getCachedKeyCount());
+		assertEquals(2, verifier.getCacheMissCount());
+	}
+
+	static EdDSAPrivateKey buildPrivateKey(final byte seedByte) {
+		final EdDSAParameterSpec spec = EdDSANamedCurveTable.getByName(EdDSANamedCurveTable.CURVE_ED25519_SHA512);
+		final byte[] seed = new byte[32];
+		seed[0] = seedByte;
+		return new EdDSAPrivateKey(new EdDSAPrivateKeySpec(seed, spec));
+	}
+
+	static byte[] sign(final EdDSAPrivateKey privateKey, final byte[] message) throws Exception {
+		final EdDSAEngine engine = new EdDSAEngine(MessageDigest.getInstance("SHA-512"));
+		engine.initSign(privateKey);
+		engine.update(message);
+		return engine.sign();
+	}
+}
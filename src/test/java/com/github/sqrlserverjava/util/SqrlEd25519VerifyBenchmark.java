@@ -0,0 +1,98 @@
+package com.github.sqrlserverjava.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.Signature;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import net.i2p.crypto.eddsa.EdDSAEngine;
+import net.i2p.crypto.eddsa.EdDSAPrivateKey;
+import net.i2p.crypto.eddsa.EdDSAPublicKey;
+import net.i2p.crypto.eddsa.spec.EdDSANamedCurveTable;
+import net.i2p.crypto.eddsa.spec.EdDSAPublicKeySpec;
+
+/**
+ * Compares {@link SqrlEd25519Verifier} with the verification {@link SqrlUtil#verifyED25519(byte[], byte[], byte[])}
+ * did before it, which built a new engine, digest and decoded public key on every call. With warm keys the same idk is
+ * verified over and over as when a user returns, with cold keys every call uses a key which is not in the cache
+ * <p>
+ * Run via {@link #main(String[])} from the IDE or with the test classpath, it is not part of the unit test suite
+ *
+ * @author Dave Badia
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SqrlEd25519VerifyBenchmark {
+	private static final int	CACHE_SIZE	= 64;
+	// More keys than the cache holds, cycled through in order so every lookup is a miss
+	private static final int	KEY_COUNT	= CACHE_SIZE * 4;
+	private static final byte[]	MESSAGE		= "dmVyPTENCmNtZD1xdWVyeQ0KaWRrPUNXNkVYRU1kY2xaYzNKRUpreV9Ld01GX0RoTWJrVjE1RTZRMTRweXFNTlkNCg"
+			.getBytes(StandardCharsets.US_ASCII);
+
+	@Param({ "cold", "warm" })
+	private String keys;
+
+	private final byte[][]		publicKeys	= new byte[KEY_COUNT][];
+	private final byte[][]		signatures	= new byte[KEY_COUNT][];
+	private SqrlEd25519Verifier	verifier;
+	private int					next;
+
+	@Setup
+	public void setUp() throws Exception {
+		for (int i = 0; i < KEY_COUNT; i++) {
+			final EdDSAPrivateKey privateKey = SqrlEd25519VerifierTest.buildPrivateKey((byte) i);
+			publicKeys[i] = privateKey.getAbyte();
+			signatures[i] = SqrlEd25519VerifierTest.sign(privateKey, MESSAGE);
+		}
+		verifier = new SqrlEd25519Verifier(CACHE_SIZE);
+	}
+
+	private int nextIndex() {
+		if ("warm".equals(keys)) {
+			return 0;
+		}
+		next = (next + 1) % KEY_COUNT;
+		return next;
+	}
+
+	@Benchmark
+	public boolean cached() throws Exception {
+		final int index = nextIndex();
+		return verifier.verify(signatures[index], MESSAGE, publicKeys[index]);
+	}
+
+	@Benchmark
+	public boolean legacy() throws Exception {
+		final int index = nextIndex();
+		final Signature signature = new EdDSAEngine(MessageDigest.getInstance("SHA-512"));
+		final EdDSAPublicKey publicKey = new EdDSAPublicKey(new EdDSAPublicKeySpec(publicKeys[index],
+				EdDSANamedCurveTable.getByName(EdDSANamedCurveTable.CURVE_ED25519_SHA512)));
+		signature.initVerify(publicKey);
+		signature.update(MESSAGE);
+		return signature.verify(signatures[index]);
+	}
+
+	public static void main(final String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(SqrlEd25519VerifyBenchmark.class.getSimpleName()).build()).run();
+	}
+}